@@ -2,9 +2,11 @@
 //GLSL Version
 #version 330
 
-//Light Count Constants
-const int MAX_POINT_LIGHTS = 5;
-const int MAX_SPOT_LIGHTS = 5;
+//Cluster and Material Count Constants (must match ClusteredLighting and MaterialUniformBuffer)
+const int CLUSTERS_X = 16;
+const int CLUSTERS_Y = 9;
+const int CLUSTERS_Z = 24;
+const int MAX_MATERIALS = 256;
 
 //Inputs
 in vec2 texCoordFrag;
@@ -24,8 +26,8 @@ struct Attenuation {
 //PointLight Struct
 struct PointLight {
     vec3 color;
-    vec3 position;
     float intensity; //0.0f - 1.0f;
+    vec3 position;
     Attenuation attenuation;
 };
 
@@ -36,11 +38,11 @@ struct SpotLight {
     float cutOff;
 };
 
-//DirectionalLight Struct
+//DirectionalLight Struct (members ordered to pack tightly under std140)
 struct DirectionalLight {
     vec3 color;
-    vec3 direction;
     float intensity;
+    vec3 direction;
 };
 
 //Material Struct
@@ -50,18 +52,34 @@ struct Material {
     vec4 specularColor;
     float reflectance;
     int hasTexture; //1 -> texture; 0 -> color
+    int textureLayer; //the layer of textureSampler holding the texture
+};
+
+//Lighting Uniform Block (uploaded once per frame at most, with the direction in view space)
+layout (std140) uniform Lighting {
+    vec3 ambientLight;              //a color which will affect every fragment in the same way
+    float specularPower;            //exponent used in specular light calculation
+    DirectionalLight directionalLight;
+};
+
+//Clustered Light Uniforms (point and spot lights binned into view space clusters, see ClusteredLighting)
+uniform samplerBuffer lightData;    //four texels per light: (position, intensity), (color, isSpot),
+                                    //(attenuation, range), (direction, cutOff)
+uniform usamplerBuffer clusterData; //(first index into lightIndices, light count) per cluster
+uniform usamplerBuffer lightIndices;//the lights of each cluster
+uniform vec4 clusterParams;         //clusters per pixel (x, y), depth slice scale and bias
+
+//Material Uniform Block (each material is written once and selected by index)
+layout (std140) uniform Materials {
+    Material materials[MAX_MATERIALS];
 };
 
 //Misc Uniforms
-uniform Material material;          //the material characteristics to color along
-uniform sampler2D textureSampler;   //the texture unit/bank of the graphics card to use
-uniform vec3 ambientLight;          //a color which will affect every fragment in the same way
-uniform float specularPower;        //exponent used in specular light calculation
+uniform int materialIndex;          //the index of the material to color along
+uniform sampler2DArray textureSampler; //the texture unit/bank of the graphics card to use, holding an array texture
 
-//Light Object Uniforms
-uniform PointLight pointLights[MAX_POINT_LIGHTS];
-uniform SpotLight spotLights[MAX_SPOT_LIGHTS];
-uniform DirectionalLight directionalLight;
+//the material characteristics to color along, copied from the Materials block
+Material material;
 
 /**
   * Global variables which define the base color for all light calculations will be
@@ -78,7 +96,7 @@ void setupColors(Material material, vec2 texCoord) {
 
     //if material is textured, set colors to texture pixel, otherwise set to material colors
     if (material.hasTexture == 1) {
-        ambientC = diffuseC = specularC = texture(textureSampler, texCoord);
+        ambientC = diffuseC = specularC = texture(textureSampler, vec3(texCoord, material.textureLayer));
     } else {
         ambientC = material.ambientColor;
         diffuseC = material.diffuseColor;
@@ -158,22 +176,35 @@ vec4 calcDirectionalLight(DirectionalLight light, vec3 position, vec3 normal) {
 void main() {
 
     //setup base colors
+    material = materials[materialIndex];
     setupColors(material, texCoordFrag);
 
-    //account for DirectionalLight
-    vec4 diffSpecColor = calcDirectionalLight(directionalLight, modelViewPosition, modelViewNormal);
-
-    //account for PointLights
-    for (int i = 0; i < MAX_POINT_LIGHTS; i++) {
-        if (pointLights[i].intensity > 0) { //if there is a PointLight at index i of the array
-            diffSpecColor += calcPointLight(pointLights[i], modelViewPosition, modelViewNormal);
-        }
+    //account for DirectionalLight (intensity is zero if there is none)
+    vec4 diffSpecColor = vec4(0, 0, 0, 0);
+    if (directionalLight.intensity > 0) {
+        diffSpecColor += calcDirectionalLight(directionalLight, modelViewPosition, modelViewNormal);
     }
 
-    //account for SpotLights
-    for (int i = 0; i < MAX_SPOT_LIGHTS; i++) {
-        if (spotLights[i].pointLight.intensity > 0) {
-            diffSpecColor += calcSpotLight(spotLights[i], modelViewPosition, modelViewNormal);
+    //find cluster of the fragment
+    ivec3 cluster = ivec3(gl_FragCoord.xy * clusterParams.xy,
+            log(-modelViewPosition.z) * clusterParams.z + clusterParams.w);
+    cluster = clamp(cluster, ivec3(0), ivec3(CLUSTERS_X - 1, CLUSTERS_Y - 1, CLUSTERS_Z - 1));
+    uvec2 lights = texelFetch(clusterData, (cluster.z * CLUSTERS_Y + cluster.y) * CLUSTERS_X + cluster.x).xy;
+
+    //account for the PointLights and SpotLights of the cluster
+    for (uint i = 0u; i < lights.y; i++) {
+        int light = int(texelFetch(lightIndices, int(lights.x + i)).r) * 4;
+        vec4 positionIntensity = texelFetch(lightData, light);
+        vec4 colorType = texelFetch(lightData, light + 1);
+        vec4 attenuation = texelFetch(lightData, light + 2);
+        PointLight pointLight = PointLight(colorType.rgb, positionIntensity.w, positionIntensity.xyz,
+                Attenuation(attenuation.x, attenuation.y, attenuation.z));
+        if (colorType.w > 0.5) {
+            vec4 directionCutOff = texelFetch(lightData, light + 3);
+            SpotLight spotLight = SpotLight(pointLight, directionCutOff.xyz, directionCutOff.w);
+            diffSpecColor += calcSpotLight(spotLight, modelViewPosition, modelViewNormal);
+        } else {
+            diffSpecColor += calcPointLight(pointLight, modelViewPosition, modelViewNormal);
         }
     }
 
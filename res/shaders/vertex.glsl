@@ -3,9 +3,10 @@
 #version 330
 
 //Layouts
-layout (location = 0) in vec3 position; //position, vao slot 0
+layout (location = 0) in vec3 position; //position (quantized to 0 - 1 if the mesh's format does so), vao slot 0
 layout (location = 1) in vec2 texCoord; //texture coordinate, vao slot 1
-layout (location = 2) in vec3 normal; //normal vector, vao slot 2
+layout (location = 2) in vec3 normal; //normal vector (possibly packed, unpacked by the vao), vao slot 2
+layout (location = 3) in mat4 instanceModelMatrix; //per-instance model matrix, vao slots 3 - 6 (instanced only)
 
 //Outputs
 out vec2 texCoordFrag;      //gets passed through for texture mapping
@@ -13,8 +14,12 @@ out vec3 modelViewPosition; //gets passed through for lighting
 out vec3 modelViewNormal;   //gets passed through for lighting
 
 //Uniforms
-uniform mat4 modelViewMatrix;  //world space -> model view space
+uniform mat4 modelViewMatrix;  //world space -> model view space (non-instanced only)
+uniform mat4 viewMatrix;       //world space -> view space (instanced only)
 uniform mat4 projectionMatrix; //model view space -> screen space
+uniform int instanced;         //1 -> take model matrix from instance attributes; 0 -> use modelViewMatrix
+uniform vec3 positionOffset;   //dequantizes positions: model position = positionOffset + position * positionScale
+uniform vec3 positionScale;    //(offset 0 and scale 1 for meshes whose positions aren't quantized)
 
 //Main Function
 void main() {
@@ -22,12 +27,15 @@ void main() {
     //pass through texture coordinate
     texCoordFrag = texCoord;
 
-    //convert position to modelview
-    vec4 mvPos = modelViewMatrix * vec4(position, 1.0);
+    //choose model view matrix
+    mat4 mvMatrix = instanced == 1 ? viewMatrix * instanceModelMatrix : modelViewMatrix;
+
+    //dequantize position and convert it to modelview
+    vec4 mvPos = mvMatrix * vec4(positionOffset + position * positionScale, 1.0);
     modelViewPosition = mvPos.xyz;
 
     //convert normal to modelview
-    modelViewNormal = normalize(modelViewMatrix * vec4(normal, 0.0)).xyz;
+    modelViewNormal = normalize(mvMatrix * vec4(normal, 0.0)).xyz;
 
     //set position
     gl_Position = projectionMatrix * mvPos; //project position
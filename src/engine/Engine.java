@@ -2,16 +2,37 @@ package engine;
 
 import engine.graphics.Window;
 import engine.utils.Controls;
+import engine.utils.FramePacer;
+import engine.utils.JobGraph;
+import engine.utils.JobSystem;
 import engine.utils.MouseInput;
+import engine.utils.Profiler;
 import engine.utils.Timer;
 import engine.utils.Utils;
 import game.Game;
 
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
 public class Engine implements Runnable {
 
     //Static Data
-    private static final int MAX_FPS = 60;
+    private static final int MAX_FPS = 60; //0 for uncapped (when vsync is off)
     private static final int MAX_UPS = 30;
+    private static final int MAX_CATCH_UP = 5; //the most updates run back to back to catch up after a stall
+    private static final boolean DETERMINISTIC_JOBS = false; //run jobs on the loop thread in order, for debugging
+    private static final boolean PROFILE = false; //record profiler zones, and report and export them at cleanup
+    private static final int TRACE_FRAMES = 120; //the most recent frames to export as a trace at cleanup
+
+    //Profiler Zones
+    private static final int FRAME_ZONE = Profiler.zone("frame");
+    private static final int INPUT_ZONE = Profiler.zone("input");
+    private static final int JOBS_ZONE = Profiler.zone("jobs");
+    private static final int UPDATE_ZONE = Profiler.zone("update");
+    private static final int RENDER_ZONE = Profiler.zone("render");
+    private static final int SWAP_ZONE = Profiler.zone("swap");
+    private static final int PACE_ZONE = Profiler.zone("pace");
 
     //Data
     private Logic logic;
@@ -19,6 +40,11 @@ public class Engine implements Runnable {
     private Window window;
     private Thread loopThread;
     private MouseInput mouseInput;
+    private FramePacer framePacer;
+    private JobSystem jobs;
+    private JobGraph frameJobs; //the jobs the logic schedules for each frame
+    private Thread updateThread; //only used when the logic updates concurrently
+    private volatile boolean updating; //whether the update thread should keep running
 
     //Constructor
     public Engine(Logic startingLogic) {
@@ -28,14 +54,19 @@ public class Engine implements Runnable {
         this.logic = startingLogic; //set logic reference
         this.timer = new Timer(); //create timer
         this.mouseInput = new MouseInput(); //create mouse input
+        this.jobs = new JobSystem(Engine.DETERMINISTIC_JOBS); //create job system
+        this.frameJobs = new JobGraph(this.jobs);
     }
 
     //Init Method
     public void init() throws Exception {
         this.window.init(); //initialize window
-        this.logic.init(this.window); //initialize current logic
+        this.logic.init(this.window, this.jobs); //initialize current logic
         this.timer.init(); //initialize timer
         this.mouseInput.init(this.window);
+        this.framePacer = new FramePacer(this.window.isVSync() ? FramePacer.Mode.VSYNC : (Engine.MAX_FPS > 0 ?
+                FramePacer.Mode.FIXED : FramePacer.Mode.UNCAPPED), Engine.MAX_FPS, 0); //frames never catch up
+        Profiler.setEnabled(Engine.PROFILE); //takes effect from the first frame on
     }
 
     /**
@@ -73,11 +104,17 @@ public class Engine implements Runnable {
     public void changeLogic(Logic logic, boolean init, boolean cleanup) throws Exception {
         if (cleanup) this.logic.cleanup(); //cleanup previous logic if cleanup is true
         this.logic = logic; //set logic reference
-        if (init) this.logic.init(this.window); //initialize logic if init is true
+        if (init) this.logic.init(this.window, this.jobs); //initialize logic if init is true
     }
 
     //Game Loop Method
-    private void loop() {
+    private void loop() throws Exception {
+
+        //run updates on their own thread if the logic wants to
+        if (this.logic.updatesConcurrently()) {
+            this.concurrentLoop();
+            return;
+        }
 
         //timekeeping variables
         float deltaTime, accumulation = 0f;
@@ -90,41 +127,144 @@ public class Engine implements Runnable {
             deltaTime = this.timer.getDeltaTime();
             accumulation += deltaTime;
 
-            //input
+            //input and frame jobs
+            Profiler.begin(Engine.FRAME_ZONE);
             this.input();
+            this.runJobs();
 
-            //update
-            while (accumulation >= interval) {
-                this.update(deltaTime);
+            //update, dropping time that would take too many updates to catch up on
+            for (int i = 0; accumulation >= interval; i++) {
+                if (i == Engine.MAX_CATCH_UP) {
+                    accumulation %= interval;
+                    break;
+                }
+                this.update(interval, Timer.getTime());
                 accumulation -= interval;
             }
 
             //render
-            this.render();
-            if (!this.window.isVSync()) this.sync();
+            this.render(accumulation / interval, Timer.getTime());
+            Profiler.end();
+            this.endFrame();
         }
     }
 
-    //Manual Sync Method
-    private void sync() {
-        double endTime = this.timer.getLastLoopTime() + (1f / Engine.MAX_FPS); //get end time of current loop
-        while (Timer.getTime() < endTime) { //until that time comes
-            try {
-                Thread.sleep(1); //sleep for a millisecond
-            } catch (InterruptedException e) {
-                Utils.log(e, "engine.Engine");
-                e.printStackTrace();
+    /**
+     * Runs the loop with updates on their own thread. The loop thread only takes input and renders, telling the
+     * logic the time being rendered so it can interpolate between the snapshots it acquires by the update times
+     * published with them. The loop ends when the window closes or the update thread fails
+     */
+    private void concurrentLoop() throws Exception {
+
+        //start update thread
+        this.updating = true;
+        this.updateThread = new Thread(this::updateLoop, "UPDATE_THREAD");
+        this.updateThread.start();
+
+        //input and render until the window needs to close
+        try {
+            while (!this.window.shouldClose() && this.updating) {
+                Profiler.begin(Engine.FRAME_ZONE);
+                this.input();
+                this.runJobs();
+                this.render(1f, Timer.getTime());
+                Profiler.end();
+                this.endFrame();
             }
+
+        //stop update thread
+        } finally {
+            this.updating = false;
+            this.updateThread.join();
+        }
+    }
+
+    /**
+     * Runs updates at a fixed rate until told to stop - the body of the update thread. Updates follow a fixed
+     * schedule kept by a FramePacer. If updates fall more than a few behind (e.g. after a long pause), the schedule
+     * skips ahead instead of running a burst of updates to catch up
+     */
+    private void updateLoop() {
+        final float interval = 1f / Engine.MAX_UPS;
+        FramePacer pacer = new FramePacer(FramePacer.Mode.FIXED, Engine.MAX_UPS, Engine.MAX_CATCH_UP);
+        try {
+            while (this.updating) {
+                this.update(interval, Timer.getTime());
+                pacer.endFrame();
+            }
+            Utils.log("Update " + pacer.getReport(), "engine.Engine", 1, true);
+        } catch (Exception e) {
+            Utils.log(e, "engine.Engine");
+            e.printStackTrace();
+            this.updating = false; //ends the loop
         }
     }
 
     //Input, Update, Render Methods
-    private void input() { this.mouseInput.inputUpdate(); this.logic.input(); }
-    private void update(float dT) { this.logic.update(dT, mouseInput); }
-    private void render() { this.logic.render(); this.window.postRender(); }
+    private void input() {
+        Profiler.begin(Engine.INPUT_ZONE);
+        this.logic.input();
+        Profiler.end();
+    }
+    private void update(float dT, double time) {
+        Profiler.begin(Engine.UPDATE_ZONE);
+        this.mouseInput.inputUpdate(); //per update, so mouse movement during frames without updates isn't lost
+        this.logic.update(dT, mouseInput);
+        this.logic.publish(time);
+        Profiler.end();
+    }
+    private void render(float alpha, double time) {
+        Profiler.begin(Engine.RENDER_ZONE);
+        if (this.updateThread != null) this.logic.renderAt(time); //concurrent logics interpolate by update times
+        else this.logic.render(alpha);
+        Profiler.end();
+        Profiler.begin(Engine.SWAP_ZONE);
+        this.window.postRender();
+        Profiler.end();
+    }
+
+    /**
+     * Waits for the end of the frame and then ends it for the profiler, outside of every zone
+     */
+    private void endFrame() {
+        Profiler.begin(Engine.PACE_ZONE);
+        this.framePacer.endFrame();
+        Profiler.end();
+        Profiler.endFrame();
+    }
+
+    /**
+     * Runs the jobs the logic schedules for the coming frame and measures how busy the job workers have been
+     */
+    private void runJobs() {
+        Profiler.begin(Engine.JOBS_ZONE);
+        this.frameJobs.clear();
+        this.logic.scheduleJobs(this.frameJobs);
+        this.frameJobs.run();
+        this.jobs.sampleUtilization();
+        Profiler.end();
+    }
+
+    /**
+     * Logs the profiler's report and exports its most recent frames as a Chrome trace into the log directory
+     */
+    private void reportProfile() {
+        Utils.log(Profiler.getReport(), "engine.Engine", 3, true);
+        Utils.ensureDirectory(Utils.LOG_DIRECTORY);
+        String path = Utils.LOG_DIRECTORY + "trace " + System.currentTimeMillis() + ".json";
+        try (Writer out = new FileWriter(path)) {
+            Profiler.exportTrace(out, Engine.TRACE_FRAMES);
+        } catch (IOException e) {
+            Utils.log(e, "engine.Engine");
+        }
+    }
 
     //Cleanup Method
     private void cleanup() {
+        if (this.framePacer != null) Utils.log("Frame " + this.framePacer.getReport(), "engine.Engine", 0, true);
+        if (Profiler.isEnabled()) this.reportProfile();
         this.logic.cleanup(); //cleanup the logic
+        Utils.log(this.jobs.getReport(), "engine.Engine", 2, true);
+        this.jobs.cleanup();
     }
 }
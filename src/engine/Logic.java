@@ -1,6 +1,8 @@
 package engine;
 
 import engine.graphics.Window;
+import engine.utils.JobGraph;
+import engine.utils.JobSystem;
 import engine.utils.MouseInput;
 
 public interface Logic {
@@ -10,4 +12,46 @@ public interface Logic {
     void update(float dT, MouseInput mouseInput);
     void render();
     void cleanup();
+
+    /**
+     * Initializes the logic with the engine's job system, which it may keep to spread its own work over worker
+     * threads (e.g. with parallelFor())
+     * @param window the window
+     * @param jobs the engine's job system
+     */
+    default void init(Window window, JobSystem jobs) throws Exception { this.init(window); }
+
+    /**
+     * Adds jobs to the graph the engine runs on its job system every frame, after input() and before render(). Jobs
+     * must not touch anything render() or update() use at the same time
+     * @param frame the graph of the coming frame, empty when this is called
+     */
+    default void scheduleJobs(JobGraph frame) {}
+
+    /**
+     * @return whether update() (followed by publish()) should run on its own thread at the engine's update rate while
+     *         input() and render() run on the loop thread. Such logics must only hand state from updates to renders
+     *         through what they publish, e.g. with a SnapshotBuffer of RenderSnapshots
+     */
+    default boolean updatesConcurrently() { return false; }
+
+    /**
+     * Publishes the state render() reads, e.g. as a snapshot. Called on the update thread after every update()
+     * @param time the time the update was scheduled for (see Timer.getTime()). Logics that update concurrently
+     *             should publish it with the state so that renderAt() can tell how far apart their updates are
+     */
+    default void publish(double time) {}
+
+    /**
+     * Renders the state between the last two updates
+     * @param alpha how far the time being rendered is between the last two updates, from 0 to 1
+     */
+    default void render(float alpha) { this.render(); }
+
+    /**
+     * Renders the state at a time. Called instead of render(float) for logics that update concurrently, which should
+     * interpolate between the last two states they acquire using the update times published with them
+     * @param time the time being rendered (see Timer.getTime())
+     */
+    default void renderAt(double time) { this.render(1f); }
 }
@@ -0,0 +1,191 @@
+package engine.graphics;
+
+import engine.graphics.renderable.Material;
+import engine.graphics.renderable.Mesh;
+import engine.graphics.renderable.MeshData;
+import engine.graphics.renderable.TextureData;
+import engine.graphics.renderable.TextureSlot;
+import engine.graphics.renderable.VertexFormat;
+import engine.utils.Profiler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads meshes and textures in parallel. The CPU-side work (parsing .obj files and decoding images) runs on a pool
+ * of worker threads, and the GL calls that create the resulting Meshes and upload images into the TextureAtlas are
+ * queued to run on the render thread when process() is called, within a per-frame time budget. Meshes share the
+ * buffers of one MeshArena, so drawing one after another needs no vao switches, and are stored in the quantized
+ * vertex format, packed on the worker threads. The acquire methods
+ * share loaded resources through a ResourceCache, so that each asset is only loaded once no matter how many users it
+ * has
+ */
+public class AssetManager {
+
+    //Static Data
+    private static final long UPLOAD_BUDGET_NANOS = 3_000_000L; //max time spent on GL uploads per frame
+    public static final long DEFAULT_GPU_MEMORY_BUDGET = 256L * 1024 * 1024; //bytes of cached meshes and textures
+
+    //Profiler Zones
+    private static final int PARSE_MESH_ZONE = Profiler.zone("assets parse mesh");
+    private static final int DECODE_TEXTURE_ZONE = Profiler.zone("assets decode texture");
+    private static final int UPLOAD_ZONE = Profiler.zone("assets upload");
+
+    //Data
+    private final ExecutorService workers;
+    private final UploadQueue uploads;
+    private final ResourceCache cache;
+    private final TextureAtlas atlas; //array textures that loaded images are packed into
+    private final MeshArena arena; //shared buffers that loaded meshes are placed into
+
+    //Default Constructor
+    public AssetManager() {
+        this(AssetManager.DEFAULT_GPU_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor
+     * @param gpuMemoryBudget the number of bytes cached meshes and textures may take up before unused ones are
+     *                        evicted
+     */
+    public AssetManager(long gpuMemoryBudget) {
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                (Runnable r) -> {
+                    Thread thread = new Thread(r, "ASSET_WORKER_" + workerCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.uploads = new UploadQueue();
+        this.cache = new ResourceCache(this.uploads, gpuMemoryBudget);
+        this.atlas = new TextureAtlas();
+        this.arena = new MeshArena(VertexFormat.QUANTIZED);
+    }
+
+    /**
+     * Loads a mesh. The .obj file is parsed and packed on a worker thread and the mesh is placed into the arena on
+     * the render thread
+     * @param objPath resource path of the .obj file
+     * @return a future completed with the mesh once it has been uploaded
+     */
+    public CompletableFuture<Mesh> loadMesh(String objPath) {
+        return CompletableFuture.supplyAsync(() -> {
+            Profiler.begin(AssetManager.PARSE_MESH_ZONE);
+            try {
+                return OBJLoader.parseOBJ(objPath, this.arena.getFormat());
+            } finally {
+                Profiler.end();
+            }
+        }, this.workers).thenCompose((MeshData data) -> this.uploads.submit(() -> new Mesh(data, this.arena)));
+    }
+
+    /**
+     * Loads a texture into the atlas. The image is decoded on a worker thread and uploaded into an array texture of
+     * its size on the render thread. The slot must be released through the atlas when no longer needed
+     * @param texturePath resource path of the image file
+     * @return a future completed with the texture's slot once it has been uploaded
+     */
+    public CompletableFuture<TextureSlot> loadTexture(String texturePath) {
+        return CompletableFuture.supplyAsync(() -> {
+            Profiler.begin(AssetManager.DECODE_TEXTURE_ZONE);
+            try {
+                return new TextureData(texturePath);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                Profiler.end();
+            }
+        }, this.workers).thenCompose((TextureData data) -> this.uploads.submit(() -> this.atlas.add(data)));
+    }
+
+    /**
+     * Acquires a shared reference to a texture, loading it if it isn't cached. Must be matched by a call to
+     * releaseTexture()
+     * @param texturePath resource path of the image file
+     * @return a future completed with the texture's slot
+     */
+    public CompletableFuture<TextureSlot> acquireTexture(String texturePath) {
+        return this.cache.acquire("texture:" + texturePath, () -> this.loadTexture(texturePath),
+                TextureSlot::getGPUBytes, this.atlas::release);
+    }
+
+    /**
+     * Releases a reference acquired with acquireTexture()
+     * @param texturePath resource path of the image file
+     * @param texture the future acquireTexture() returned
+     */
+    public void releaseTexture(String texturePath, CompletableFuture<TextureSlot> texture) {
+        this.cache.release("texture:" + texturePath, texture);
+    }
+
+    /**
+     * Acquires a shared reference to a mesh with a material using the given texture, loading whichever of the two
+     * isn't cached. The texture is shared with every other mesh using the same image. Must be matched by a call to
+     * releaseTexturedMesh()
+     * @param objPath resource path of the .obj file
+     * @param texturePath resource path of the image file
+     * @return a future completed with the textured mesh
+     */
+    public CompletableFuture<Mesh> acquireTexturedMesh(String objPath, String texturePath) {
+        AtomicReference<CompletableFuture<TextureSlot>> texture = new AtomicReference<>(); //for the destroyer
+        return this.cache.acquire("mesh:" + objPath + ":" + texturePath, () -> {
+            CompletableFuture<Mesh> loading = this.loadMesh(objPath);
+            texture.set(this.acquireTexture(texturePath));
+            return loading.thenCombine(texture.get(), (Mesh mesh, TextureSlot slot) -> {
+                mesh.setMaterial(new Material(slot));
+                return mesh;
+            }).whenComplete((Mesh mesh, Throwable t) -> {
+                if (t == null) return;
+
+                //nothing will be destroyed, so release the texture and clean up the mesh if either of them loaded
+                this.releaseTexture(texturePath, texture.get());
+                loading.thenAccept((Mesh loaded) -> this.uploads.submit(() -> {
+                    loaded.cleanup();
+                    return null;
+                }));
+            });
+        }, Mesh::getGPUBytes, (Mesh mesh) -> {
+            mesh.cleanup();
+            this.releaseTexture(texturePath, texture.get()); //the texture may outlive the mesh if it is shared
+        });
+    }
+
+    /**
+     * Releases a reference acquired with acquireTexturedMesh()
+     * @param objPath resource path of the .obj file
+     * @param texturePath resource path of the image file
+     * @param mesh the future acquireTexturedMesh() returned
+     */
+    public void releaseTexturedMesh(String objPath, String texturePath, CompletableFuture<Mesh> mesh) {
+        this.cache.release("mesh:" + objPath + ":" + texturePath, mesh);
+    }
+
+    /**
+     * Runs queued GL uploads within the per-frame budget. Must be called once per frame from the render thread
+     */
+    public void process() {
+        Profiler.begin(AssetManager.UPLOAD_ZONE);
+        this.uploads.process(AssetManager.UPLOAD_BUDGET_NANOS);
+        Profiler.end();
+    }
+
+    //Accessors
+    public ExecutorService getWorkers() { return this.workers; }
+    public UploadQueue getUploadQueue() { return this.uploads; }
+    public ResourceCache getCache() { return this.cache; }
+    public TextureAtlas getAtlas() { return this.atlas; }
+    public MeshArena getArena() { return this.arena; }
+
+    //Cleanup Method
+    public void cleanup() {
+        this.workers.shutdownNow();
+        this.cache.cleanup();
+        this.atlas.cleanup();
+        this.arena.cleanup();
+    }
+}
@@ -6,6 +6,7 @@ public class Camera {
 
     //Data
     private Vector3f position, rotation, velocity;
+    private boolean moved = true; //whether the camera has moved or rotated since the view matrix was last built
 
     //Default Constructor
     public Camera() {
@@ -33,6 +34,7 @@ public class Camera {
             this.position.z += (float)Math.cos(Math.toRadians(this.rotation.y - 90)) * offsetX;
         }
         this.position.y += offsetY;
+        if (offsetX != 0 || offsetY != 0 || offsetZ != 0) this.moved = true;
     }
 
     /**
@@ -44,6 +46,7 @@ public class Camera {
         if (this.rotation.x > 90) this.rotation.x = 90;
         this.rotation.y += offsetY;
         this.rotation.z += offsetZ;
+        if (offsetX != 0 || offsetY != 0 || offsetZ != 0) this.moved = true;
     }
 
     //Update Method
@@ -54,20 +57,30 @@ public class Camera {
     //Accessors
     public Vector3f getPosition() { return this.position; }
     public Vector3f getRotation() { return this.rotation; }
+    public boolean hasMoved() { return this.moved; }
 
     //Mutators
-    public void setPosition(Vector3f position) { this.position = position; }
+    public void setPosition(Vector3f position) {
+        this.position = position;
+        this.moved = true;
+    }
     public void setPosition(float x, float y, float z) {
         this.position.x = x;
         this.position.y = y;
         this.position.z = z;
+        this.moved = true;
+    }
+    public void setRotation(Vector3f rotation) {
+        this.rotation = rotation;
+        this.moved = true;
     }
-    public void setRotation(Vector3f rotation) { this.rotation = rotation; }
     public void setRotation(float x, float y, float z) {
         this.rotation.x = x;
         this.rotation.y = y;
         this.rotation.z = z;
+        this.moved = true;
     }
+    public void movementAccountedFor() { this.moved = false; }
     public void accelerateX(float dx) { this.velocity.x += dx; }
     public void accelerateY(float dy) { this.velocity.y += dy; }
     public void accelerateZ(float dz) { this.velocity.z += dz; }
@@ -0,0 +1,384 @@
+package engine.graphics;
+
+import engine.graphics.lighting.PointLight;
+import engine.graphics.lighting.SceneLighting;
+import engine.graphics.lighting.SpotLight;
+import engine.utils.JobSystem;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+/**
+ * Culls point and spot lights against a grid of view space clusters so that each fragment only has to consider the
+ * lights that can actually reach it. The view frustum is split into CLUSTERS_X by CLUSTERS_Y screen tiles and
+ * CLUSTERS_Z depth slices spaced exponentially between the near and far planes. Each light gets a range beyond which
+ * its attenuated contribution is negligible and is binned into every cluster its range sphere touches.
+ *
+ * Results are uploaded into three buffer textures:
+ *   lightData (RGBA32F), four texels per light: (view position, intensity), (color, 1 if spot light else 0),
+ *                        (attenuation constant, linear, exponent, range), (view direction, cut off)
+ *   clusterData (RG32UI), per cluster: (first index into lightIndices, light count)
+ *   lightIndices (R32UI), the lights of each cluster, stored one cluster after another
+ *
+ * With many lights the depth slices are binned in parallel (on the job system's workers if given one), each slice by
+ * one task so no synchronization is needed
+ */
+public class ClusteredLighting {
+
+    //Static Data
+    public static final int CLUSTERS_X = 16, CLUSTERS_Y = 9, CLUSTERS_Z = 24; //must match shader constants
+    public static final int CLUSTER_COUNT = CLUSTERS_X * CLUSTERS_Y * CLUSTERS_Z;
+    public static final int MAX_LIGHTS_PER_CLUSTER = 128; //lights past this many in one cluster are dropped
+    public static final int LIGHT_DATA_UNIT = 1, CLUSTER_DATA_UNIT = 2, LIGHT_INDICES_UNIT = 3; //texture units
+    private static final int TEXELS_PER_LIGHT = 4;
+    private static final int PARALLEL_THRESHOLD = 64; //lights needed before slices are binned in parallel
+    private static final float CUTOFF = 1f / 256; //contribution below which a light is considered out of range
+
+    //Data
+    private final float[] clusterBounds; //view space bounding box of each cluster (min x/y/z, max x/y/z)
+    private final Vector4f params; //shader parameters: clusters per pixel (x, y), slice scale, slice bias
+    private final int[] clusterLights; //lights binned into each cluster, MAX_LIGHTS_PER_CLUSTER slots per cluster
+    private final int[] clusterCounts; //number of lights binned into each cluster
+    private final int[] sliceOverflows; //number of dropped lights in each depth slice
+    private float[] spheres; //view space center and range of each light
+    private int[] slices; //first and last depth slice each light reaches
+    private FloatBuffer lightBuffer; //light data staging buffer
+    private final IntBuffer clusterBuffer; //cluster data staging buffer
+    private IntBuffer indexBuffer; //light index staging buffer
+    private final int lightDataBuffer, clusterDataBuffer, lightIndicesBuffer; //GL buffers
+    private final int lightDataTexture, clusterDataTexture, lightIndicesTexture; //GL buffer textures
+    private final IntConsumer binSlice; //bins one depth slice, for the common pool
+    private final JobSystem.Range binSlices; //bins a range of depth slices, for the job system
+    private JobSystem jobs; //the job system to bin in parallel on, or null to use the common pool
+    private final Vector3f transformed; //reused for view space transforms
+    private float near, far; //depth range covered by the slices
+    private int lightCount, indexCount, overflowCount; //counts from the last update
+    private SceneLighting lastLighting; //the lighting last binned
+    private int lastVersion; //the version of the lighting last binned
+    private boolean binned; //whether anything has been binned yet
+
+    //Constructor
+    public ClusteredLighting() {
+
+        //create CPU-side data
+        this.clusterBounds = new float[ClusteredLighting.CLUSTER_COUNT * 6];
+        this.params = new Vector4f();
+        this.clusterLights = new int[ClusteredLighting.CLUSTER_COUNT * ClusteredLighting.MAX_LIGHTS_PER_CLUSTER];
+        this.clusterCounts = new int[ClusteredLighting.CLUSTER_COUNT];
+        this.sliceOverflows = new int[ClusteredLighting.CLUSTERS_Z];
+        this.spheres = new float[0];
+        this.slices = new int[0];
+        this.lightBuffer = MemoryUtil.memAllocFloat(ClusteredLighting.TEXELS_PER_LIGHT * 4);
+        this.clusterBuffer = MemoryUtil.memAllocInt(ClusteredLighting.CLUSTER_COUNT * 2);
+        this.indexBuffer = MemoryUtil.memAllocInt(ClusteredLighting.CLUSTER_COUNT);
+        this.binSlice = this::binSlice;
+        this.binSlices = (int from, int to) -> {
+            for (int z = from; z < to; z++) this.binSlice(z);
+        };
+        this.transformed = new Vector3f();
+
+        //create buffer textures
+        this.lightDataBuffer = glGenBuffers();
+        this.clusterDataBuffer = glGenBuffers();
+        this.lightIndicesBuffer = glGenBuffers();
+        this.lightDataTexture = ClusteredLighting.createBufferTexture(this.lightDataBuffer, GL_RGBA32F);
+        this.clusterDataTexture = ClusteredLighting.createBufferTexture(this.clusterDataBuffer, GL_RG32UI);
+        this.lightIndicesTexture = ClusteredLighting.createBufferTexture(this.lightIndicesBuffer, GL_R32UI);
+    }
+
+    /**
+     * Creates a buffer texture that reads from a buffer
+     * @param buffer the buffer
+     * @param format the internal format of the texels
+     * @return the texture
+     */
+    private static int createBufferTexture(int buffer, int format) {
+        glBindBuffer(GL_TEXTURE_BUFFER, buffer);
+        glBufferData(GL_TEXTURE_BUFFER, 16, GL_STREAM_DRAW); //give the buffer storage so it can be attached
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+        int texture = glGenTextures();
+        GLState.bindTexture(0, GL_TEXTURE_BUFFER, texture);
+        glTexBuffer(GL_TEXTURE_BUFFER, format, buffer);
+        return texture;
+    }
+
+    /**
+     * Recalculates the view space bounds of every cluster. Must be called whenever the projection changes
+     * @param projection the perspective projection matrix
+     * @param near the distance to the near plane
+     * @param far the distance to the far plane
+     * @param width the width of the viewport in pixels
+     * @param height the height of the viewport in pixels
+     */
+    public void updateProjection(Matrix4f projection, float near, float far, int width, int height) {
+        this.near = near;
+        this.far = far;
+        float logRatio = (float)Math.log(far / near);
+        this.params.set((float)ClusteredLighting.CLUSTERS_X / width, (float)ClusteredLighting.CLUSTERS_Y / height,
+                ClusteredLighting.CLUSTERS_Z / logRatio, -ClusteredLighting.CLUSTERS_Z * (float)Math.log(near) / logRatio);
+
+        //for each cluster, find the box around the frustum piece between its tile's edges and its slice's depths
+        float xScale = 1 / projection.m00(), yScale = 1 / projection.m11();
+        for (int z = 0; z < ClusteredLighting.CLUSTERS_Z; z++) {
+            float d0 = this.sliceDepth(z), d1 = this.sliceDepth(z + 1);
+            for (int y = 0; y < ClusteredLighting.CLUSTERS_Y; y++) {
+                float y0 = (2f * y / ClusteredLighting.CLUSTERS_Y - 1) * yScale;
+                float y1 = (2f * (y + 1) / ClusteredLighting.CLUSTERS_Y - 1) * yScale;
+                for (int x = 0; x < ClusteredLighting.CLUSTERS_X; x++) {
+                    float x0 = (2f * x / ClusteredLighting.CLUSTERS_X - 1) * xScale;
+                    float x1 = (2f * (x + 1) / ClusteredLighting.CLUSTERS_X - 1) * xScale;
+                    int i = ClusteredLighting.clusterIndex(x, y, z) * 6;
+                    this.clusterBounds[i] = Math.min(Math.min(x0 * d0, x0 * d1), Math.min(x1 * d0, x1 * d1));
+                    this.clusterBounds[i + 1] = Math.min(Math.min(y0 * d0, y0 * d1), Math.min(y1 * d0, y1 * d1));
+                    this.clusterBounds[i + 2] = -d1;
+                    this.clusterBounds[i + 3] = Math.max(Math.max(x0 * d0, x0 * d1), Math.max(x1 * d0, x1 * d1));
+                    this.clusterBounds[i + 4] = Math.max(Math.max(y0 * d0, y0 * d1), Math.max(y1 * d0, y1 * d1));
+                    this.clusterBounds[i + 5] = -d0;
+                }
+            }
+        }
+        this.binned = false; //bounds changed so lights must be binned again
+    }
+
+    /**
+     * Bins and uploads the point and spot lights of a scene if they or the view have changed since the last update
+     * @param lighting the lighting of the scene. May be null for no lighting
+     * @param viewMatrix the view matrix to transform lights with
+     * @param viewChanged whether the view matrix has changed since the last call
+     * @return whether the lights were binned and uploaded
+     */
+    public boolean update(SceneLighting lighting, Matrix4f viewMatrix, boolean viewChanged) {
+
+        //return if nothing changed
+        int version = lighting != null ? lighting.getVersion() : 0;
+        if (this.binned && !viewChanged && lighting == this.lastLighting && version == this.lastVersion) return false;
+        this.lastLighting = lighting;
+        this.lastVersion = version;
+        this.binned = true;
+
+        //gather lights in view space
+        PointLight[] pointLights = lighting != null ? lighting.getPointLights() : null;
+        SpotLight[] spotLights = lighting != null ? lighting.getSpotLights() : null;
+        int capacity = (pointLights != null ? pointLights.length : 0) + (spotLights != null ? spotLights.length : 0);
+        this.ensureLightCapacity(capacity);
+        this.lightCount = 0;
+        if (pointLights != null) for (PointLight light : pointLights) this.addLight(light, null, viewMatrix);
+        if (spotLights != null) for (SpotLight light : spotLights) {
+            this.addLight(light.getPointLight(), light, viewMatrix);
+        }
+
+        //bin lights into clusters, slice by slice
+        if (this.lightCount >= ClusteredLighting.PARALLEL_THRESHOLD) {
+            if (this.jobs != null) this.jobs.parallelFor(0, ClusteredLighting.CLUSTERS_Z, 1, this.binSlices);
+            else IntStream.range(0, ClusteredLighting.CLUSTERS_Z).parallel().forEach(this.binSlice);
+        } else for (int z = 0; z < ClusteredLighting.CLUSTERS_Z; z++) this.binSlice(z);
+
+        //compact binned lights into the index list
+        this.indexCount = 0;
+        for (int count : this.clusterCounts) this.indexCount += count;
+        if (this.indexBuffer.capacity() < this.indexCount) {
+            MemoryUtil.memFree(this.indexBuffer);
+            this.indexBuffer = MemoryUtil.memAllocInt(this.indexCount * 2);
+        }
+        this.indexBuffer.clear();
+        this.clusterBuffer.clear();
+        for (int c = 0; c < ClusteredLighting.CLUSTER_COUNT; c++) {
+            this.clusterBuffer.put(this.indexBuffer.position()).put(this.clusterCounts[c]);
+            this.indexBuffer.put(this.clusterLights, c * ClusteredLighting.MAX_LIGHTS_PER_CLUSTER,
+                    this.clusterCounts[c]);
+        }
+        this.overflowCount = 0;
+        for (int overflow : this.sliceOverflows) this.overflowCount += overflow;
+
+        //upload
+        this.lightBuffer.flip();
+        this.clusterBuffer.flip();
+        this.indexBuffer.flip();
+        ClusteredLighting.upload(this.lightDataBuffer, MemoryUtil.memAddress(this.lightBuffer),
+                (long)this.lightBuffer.remaining() * Float.BYTES);
+        ClusteredLighting.upload(this.clusterDataBuffer, MemoryUtil.memAddress(this.clusterBuffer),
+                (long)this.clusterBuffer.remaining() * Integer.BYTES);
+        ClusteredLighting.upload(this.lightIndicesBuffer, MemoryUtil.memAddress(this.indexBuffer),
+                (long)this.indexBuffer.remaining() * Integer.BYTES);
+        return true;
+    }
+
+    /**
+     * Grows the per-light arrays and staging buffer to hold at least the given number of lights, and resets the
+     * staging buffer for writing
+     */
+    private void ensureLightCapacity(int lights) {
+        if (this.slices.length < lights * 2) {
+            this.spheres = new float[lights * 4];
+            this.slices = new int[lights * 2];
+        }
+        if (this.lightBuffer.capacity() < lights * ClusteredLighting.TEXELS_PER_LIGHT * 4) {
+            MemoryUtil.memFree(this.lightBuffer);
+            this.lightBuffer = MemoryUtil.memAllocFloat(lights * ClusteredLighting.TEXELS_PER_LIGHT * 4);
+        }
+        this.lightBuffer.clear();
+    }
+
+    /**
+     * Writes a light's data in view space and finds the sphere and depth slices it reaches. Lights whose range is
+     * entirely outside the depth range are skipped
+     * @param light the light, or the point light part of a spot light
+     * @param spot the spot light if this is one, otherwise null
+     * @param viewMatrix the view matrix to transform the light with
+     */
+    private void addLight(PointLight light, SpotLight spot, Matrix4f viewMatrix) {
+
+        //find range, skipping lights that can't light anything
+        Vector3f color = light.getColor();
+        PointLight.Attenuation attenuation = light.getAttenuation();
+        float brightness = light.getIntensity() * Math.max(color.x, Math.max(color.y, color.z));
+        float range = ClusteredLighting.range(brightness, attenuation);
+        if (!(range > 0)) return;
+
+        //find depth slices, skipping lights outside the depth range
+        viewMatrix.transformPosition(light.getPosition(), this.transformed);
+        float depth = -this.transformed.z;
+        if (depth + range < this.near || depth - range > this.far) return;
+        int index = this.lightCount++;
+        this.spheres[index * 4] = this.transformed.x;
+        this.spheres[index * 4 + 1] = this.transformed.y;
+        this.spheres[index * 4 + 2] = this.transformed.z;
+        this.spheres[index * 4 + 3] = range;
+        this.slices[index * 2] = this.sliceOf(depth - range);
+        this.slices[index * 2 + 1] = this.sliceOf(depth + range);
+
+        //write light data
+        this.lightBuffer.put(this.transformed.x).put(this.transformed.y).put(this.transformed.z)
+                .put(light.getIntensity());
+        this.lightBuffer.put(color.x).put(color.y).put(color.z).put(spot != null ? 1 : 0);
+        this.lightBuffer.put(attenuation.getConstant()).put(attenuation.getLinear()).put(attenuation.getExponent())
+                .put(range);
+        if (spot != null) {
+            viewMatrix.transformDirection(spot.getDirection(), this.transformed);
+            this.lightBuffer.put(this.transformed.x).put(this.transformed.y).put(this.transformed.z)
+                    .put(spot.getCutOff());
+        } else this.lightBuffer.put(0).put(0).put(0).put(0);
+    }
+
+    /**
+     * Bins every light that reaches a depth slice into the clusters of that slice it touches. Slices share no
+     * clusters, so different slices may be binned at the same time
+     * @param z the depth slice
+     */
+    private void binSlice(int z) {
+        int first = ClusteredLighting.clusterIndex(0, 0, z);
+        int last = first + ClusteredLighting.CLUSTERS_X * ClusteredLighting.CLUSTERS_Y;
+        for (int c = first; c < last; c++) this.clusterCounts[c] = 0;
+        int overflow = 0;
+        for (int light = 0; light < this.lightCount; light++) {
+            if (z < this.slices[light * 2] || z > this.slices[light * 2 + 1]) continue;
+            float x = this.spheres[light * 4], y = this.spheres[light * 4 + 1], lz = this.spheres[light * 4 + 2];
+            float range = this.spheres[light * 4 + 3];
+            for (int c = first; c < last; c++) {
+
+                //test sphere against cluster box using the distance to its closest point
+                int b = c * 6;
+                float dx = Math.max(0, Math.max(this.clusterBounds[b] - x, x - this.clusterBounds[b + 3]));
+                float dy = Math.max(0, Math.max(this.clusterBounds[b + 1] - y, y - this.clusterBounds[b + 4]));
+                float dz = Math.max(0, Math.max(this.clusterBounds[b + 2] - lz, lz - this.clusterBounds[b + 5]));
+                if (dx * dx + dy * dy + dz * dz > range * range) continue;
+
+                //add to cluster
+                if (this.clusterCounts[c] < ClusteredLighting.MAX_LIGHTS_PER_CLUSTER) {
+                    this.clusterLights[c * ClusteredLighting.MAX_LIGHTS_PER_CLUSTER + this.clusterCounts[c]++] = light;
+                } else overflow++;
+            }
+        }
+        this.sliceOverflows[z] = overflow;
+    }
+
+    /**
+     * Calculates the distance at which a light's attenuated contribution falls below CUTOFF
+     * @param brightness the light's intensity times its brightest color component
+     * @param attenuation the light's attenuation
+     * @return the distance, which is infinite if the light never falls off and zero or less if it is never bright
+     *         enough to matter
+     */
+    private static float range(float brightness, PointLight.Attenuation attenuation) {
+        float c = attenuation.getConstant() - brightness / ClusteredLighting.CUTOFF;
+        float l = attenuation.getLinear(), e = attenuation.getExponent();
+        if (c >= 0) return 0; //attenuation is already past the cutoff at the light itself
+        if (e > 0) return (float)((-l + Math.sqrt(l * l - 4 * e * c)) / (2 * e));
+        if (l > 0) return -c / l;
+        return Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Finds the depth slice containing a distance from the camera, clamped to the existing slices
+     */
+    private int sliceOf(float depth) {
+        if (depth <= this.near) return 0;
+        int slice = (int)(Math.log(depth / this.near) / Math.log(this.far / this.near) * ClusteredLighting.CLUSTERS_Z);
+        return Math.min(slice, ClusteredLighting.CLUSTERS_Z - 1);
+    }
+
+    /**
+     * Finds the distance from the camera at which a depth slice starts
+     */
+    private float sliceDepth(int slice) {
+        return this.near * (float)Math.pow(this.far / this.near, (double)slice / ClusteredLighting.CLUSTERS_Z);
+    }
+
+    /**
+     * Calculates the index of a cluster from its tile and slice
+     */
+    private static int clusterIndex(int x, int y, int z) {
+        return (z * ClusteredLighting.CLUSTERS_Y + y) * ClusteredLighting.CLUSTERS_X + x;
+    }
+
+    /**
+     * Replaces the contents of a buffer, orphaning its old storage so the driver never has to wait for it
+     */
+    private static void upload(int buffer, long address, long size) {
+        glBindBuffer(GL_TEXTURE_BUFFER, buffer);
+        nglBufferData(GL_TEXTURE_BUFFER, Math.max(size, 16), size > 0 ? address : 0, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+    }
+
+    /**
+     * Binds the buffer textures to their texture units
+     */
+    public void bind() {
+        GLState.bindTexture(ClusteredLighting.LIGHT_DATA_UNIT, GL_TEXTURE_BUFFER, this.lightDataTexture);
+        GLState.bindTexture(ClusteredLighting.CLUSTER_DATA_UNIT, GL_TEXTURE_BUFFER, this.clusterDataTexture);
+        GLState.bindTexture(ClusteredLighting.LIGHT_INDICES_UNIT, GL_TEXTURE_BUFFER, this.lightIndicesTexture);
+    }
+
+    //Accessors
+    public Vector4f getParams() { return this.params; }
+    public int getLightCount() { return this.lightCount; }
+    public int getIndexCount() { return this.indexCount; }
+    public int getOverflowCount() { return this.overflowCount; }
+
+    //Mutators
+    public void setJobSystem(JobSystem jobs) { this.jobs = jobs; } //null to use the common pool
+
+    //Cleanup Method
+    public void cleanup() {
+        GLState.deleteTexture(this.lightDataTexture);
+        GLState.deleteTexture(this.clusterDataTexture);
+        GLState.deleteTexture(this.lightIndicesTexture);
+        glDeleteBuffers(this.lightDataBuffer);
+        glDeleteBuffers(this.clusterDataBuffer);
+        glDeleteBuffers(this.lightIndicesBuffer);
+        MemoryUtil.memFree(this.lightBuffer);
+        MemoryUtil.memFree(this.clusterBuffer);
+        MemoryUtil.memFree(this.indexBuffer);
+    }
+}
@@ -0,0 +1,110 @@
+package engine.graphics;
+
+import engine.graphics.renderable.RenderableItem;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.List;
+
+/**
+ * Tests RenderableItems against the planes of the camera's view frustum so that items which cannot be seen can be
+ * skipped before anything is uploaded for them
+ */
+public class FrustumCuller {
+
+    //Data
+    private FrustumIntersection frustum;
+    private Matrix4f projectionViewMatrix;
+    private int testedCount, culledCount; //statistics for the cull pass since the last resetStats()
+
+    //Constructor
+    public FrustumCuller() {
+        this.frustum = new FrustumIntersection();
+        this.projectionViewMatrix = new Matrix4f();
+    }
+
+    /**
+     * Extracts the frustum planes from the given matrices. Should be called after the matrices have been rebuilt
+     * @param projectionMatrix the projection matrix (view space -> clip space)
+     * @param viewMatrix the view matrix (world space -> view space)
+     */
+    public void update(Matrix4f projectionMatrix, Matrix4f viewMatrix) {
+        projectionMatrix.mul(viewMatrix, this.projectionViewMatrix);
+        this.frustum.set(this.projectionViewMatrix);
+    }
+
+    /**
+     * Clears the statistics. Should be called at the start of every cull pass, whether or not the frustum changed
+     */
+    public synchronized void resetStats() { this.testedCount = this.culledCount = 0; }
+
+    /**
+     * Tests whether an item is at least partially inside the frustum. Items whose meshes have no bounds are always
+     * considered visible. The cheap sphere test is done first and the box test only if the sphere intersects
+     * @param item the item to test
+     * @return whether the item might be visible
+     */
+    public boolean isVisible(RenderableItem item) {
+        if (!item.hasBounds()) return true;
+        this.testedCount++;
+        if (this.intersects(item)) return true;
+        this.culledCount++;
+        return false;
+    }
+
+    /**
+     * Same as isVisible() for items whose meshes have bounds, but without counting the test for the statistics, so
+     * that different items may be tested on several threads at once (see count())
+     * @param item the item to test. Its mesh must have bounds
+     * @return whether the item might be visible
+     */
+    public boolean intersects(RenderableItem item) {
+        Vector3f c = item.getWorldSphereCenter();
+        if (!this.frustum.testSphere(c.x, c.y, c.z, item.getWorldSphereRadius())) return false;
+        Vector3f min = item.getWorldBoundsMin();
+        Vector3f max = item.getWorldBoundsMax();
+        return this.frustum.testAab(min.x, min.y, min.z, max.x, max.y, max.z);
+    }
+
+    /**
+     * Same as intersects(RenderableItem), for an entity's bounds as laid out in an EntityStore's bounds column
+     * @param bounds the bounds column
+     * @param offset where the entity's bounds start in the column
+     * @return whether the entity might be visible
+     */
+    public boolean intersects(float[] bounds, int offset) {
+        if (!this.frustum.testSphere(bounds[offset + 6], bounds[offset + 7], bounds[offset + 8], bounds[offset + 9]))
+            return false;
+        return this.frustum.testAab(bounds[offset], bounds[offset + 1], bounds[offset + 2], bounds[offset + 3],
+                bounds[offset + 4], bounds[offset + 5]);
+    }
+
+    /**
+     * Adds tests done with intersects() to the statistics
+     * @param tested the number of items tested
+     * @param culled the number of those that were culled
+     */
+    public synchronized void count(int tested, int culled) {
+        this.testedCount += tested;
+        this.culledCount += culled;
+    }
+
+    /**
+     * Adds every item that might be visible to the given destination list
+     * @param items the items to test
+     * @param dest the list to add visible items to. It is not cleared first
+     * @return the destination list
+     */
+    public List<RenderableItem> filter(List<RenderableItem> items, List<RenderableItem> dest) {
+        for (int i = 0; i < items.size(); i++) {
+            RenderableItem item = items.get(i);
+            if (this.isVisible(item)) dest.add(item);
+        }
+        return dest;
+    }
+
+    //Accessors
+    public synchronized int getTestedCount() { return this.testedCount; }
+    public synchronized int getCulledCount() { return this.culledCount; }
+}
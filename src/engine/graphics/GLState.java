@@ -0,0 +1,209 @@
+package engine.graphics;
+
+import engine.utils.Utils;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.GL_TEXTURE_BUFFER;
+
+/**
+ * Mirrors the parts of the GL context's state that change during rendering (the current program, the bound vertex
+ * array, the textures bound to each texture unit and the enabled capabilities) so that binds and toggles are only
+ * passed on to GL when they actually change something. Every bind of these kinds of state should go through here,
+ * or the mirror will no longer match the context; if state is changed behind its back, call invalidate().
+ *
+ * Counts of the calls that were issued and of the calls that were elided because the state already matched are
+ * kept so the saving can be measured. GL contexts are bound to one thread, so this must only be used from the render
+ * thread
+ */
+public final class GLState {
+
+    //Static Data
+    public static final int MAX_TEXTURE_UNITS = 16; //texture units that are tracked
+    private static final int[] TEXTURE_TARGETS = { GL_TEXTURE_2D, GL_TEXTURE_2D_ARRAY, GL_TEXTURE_BUFFER };
+    private static final int UNKNOWN = -1; //cached value of state that is not known
+
+    //State
+    private static int program = UNKNOWN;
+    private static int vertexArray = UNKNOWN;
+    private static int activeTextureUnit = UNKNOWN;
+    private static final int[] textures = new int[MAX_TEXTURE_UNITS * TEXTURE_TARGETS.length]; //by unit and target
+    private static int[] capabilities = new int[0]; //capabilities whose state is known
+    private static boolean[] capabilityStates = new boolean[0]; //whether each of them is enabled
+    private static int depthMask = UNKNOWN; //1 if depth writes are enabled, 0 if not
+
+    //Counters
+    private static long issuedCalls, elidedCalls;
+
+    //Static Initializer
+    static { GLState.invalidate(); }
+
+    /**
+     * Forgets all cached state, so that the next bind or toggle of every kind is issued. Must be called if GL state
+     * is changed without going through this class, or when a new context is made current
+     */
+    public static void invalidate() {
+        GLState.program = GLState.vertexArray = GLState.activeTextureUnit = GLState.UNKNOWN;
+        for (int i = 0; i < GLState.textures.length; i++) GLState.textures[i] = GLState.UNKNOWN;
+        GLState.capabilities = new int[0];
+        GLState.capabilityStates = new boolean[0];
+        GLState.depthMask = GLState.UNKNOWN;
+    }
+
+    /**
+     * Makes a program current
+     * @param program the id of the program, or 0 for none
+     */
+    public static void useProgram(int program) {
+        if (GLState.program == program) {
+            GLState.elidedCalls++;
+            return;
+        }
+        glUseProgram(program);
+        GLState.program = program;
+        GLState.issuedCalls++;
+    }
+
+    /**
+     * Binds a vertex array object
+     * @param vertexArray the id of the vertex array, or 0 for none
+     */
+    public static void bindVertexArray(int vertexArray) {
+        if (GLState.vertexArray == vertexArray) {
+            GLState.elidedCalls++;
+            return;
+        }
+        glBindVertexArray(vertexArray);
+        GLState.vertexArray = vertexArray;
+        GLState.issuedCalls++;
+    }
+
+    /**
+     * Binds a texture to a texture unit, making the unit active first if the texture isn't already bound there
+     * @param unit the texture unit, starting at 0
+     * @param target the texture target: GL_TEXTURE_2D, GL_TEXTURE_2D_ARRAY or GL_TEXTURE_BUFFER
+     * @param texture the id of the texture, or 0 for none
+     */
+    public static void bindTexture(int unit, int target, int texture) {
+        int slot = unit * GLState.TEXTURE_TARGETS.length + GLState.targetIndex(target);
+        if (GLState.textures[slot] == texture) {
+            GLState.elidedCalls++;
+            return;
+        }
+        GLState.activeTexture(unit);
+        glBindTexture(target, texture);
+        GLState.textures[slot] = texture;
+        GLState.issuedCalls++;
+    }
+
+    /**
+     * Makes a texture unit active
+     * @param unit the texture unit, starting at 0
+     */
+    public static void activeTexture(int unit) {
+        if (GLState.activeTextureUnit == unit) {
+            GLState.elidedCalls++;
+            return;
+        }
+        glActiveTexture(GL_TEXTURE0 + unit);
+        GLState.activeTextureUnit = unit;
+        GLState.issuedCalls++;
+    }
+
+    /**
+     * Enables or disables a capability such as GL_DEPTH_TEST or GL_BLEND
+     * @param capability the capability
+     * @param enabled whether it should be enabled
+     */
+    public static void setEnabled(int capability, boolean enabled) {
+
+        //find cached state
+        int index = -1;
+        for (int i = 0; i < GLState.capabilities.length && index == -1; i++) {
+            if (GLState.capabilities[i] == capability) index = i;
+        }
+        if (index != -1 && GLState.capabilityStates[index] == enabled) {
+            GLState.elidedCalls++;
+            return;
+        }
+
+        //or start caching it
+        if (index == -1) {
+            index = GLState.capabilities.length;
+            int[] capabilities = new int[index + 1];
+            boolean[] states = new boolean[index + 1];
+            System.arraycopy(GLState.capabilities, 0, capabilities, 0, index);
+            System.arraycopy(GLState.capabilityStates, 0, states, 0, index);
+            capabilities[index] = capability;
+            GLState.capabilities = capabilities;
+            GLState.capabilityStates = states;
+        }
+
+        //issue call
+        if (enabled) glEnable(capability);
+        else glDisable(capability);
+        GLState.capabilityStates[index] = enabled;
+        GLState.issuedCalls++;
+    }
+    public static void enable(int capability) { GLState.setEnabled(capability, true); }
+    public static void disable(int capability) { GLState.setEnabled(capability, false); }
+
+    /**
+     * Enables or disables writing to the depth buffer
+     * @param write whether depth should be written
+     */
+    public static void depthMask(boolean write) {
+        int mask = write ? 1 : 0;
+        if (GLState.depthMask == mask) {
+            GLState.elidedCalls++;
+            return;
+        }
+        glDepthMask(write);
+        GLState.depthMask = mask;
+        GLState.issuedCalls++;
+    }
+
+    /**
+     * Deletes a program, forgetting it if it is current
+     * @param program the id of the program
+     */
+    public static void deleteProgram(int program) {
+        if (GLState.program == program) GLState.useProgram(0);
+        glDeleteProgram(program);
+    }
+
+    /**
+     * Deletes a vertex array object, forgetting it if it is bound (GL unbinds deleted vertex arrays)
+     * @param vertexArray the id of the vertex array
+     */
+    public static void deleteVertexArray(int vertexArray) {
+        glDeleteVertexArrays(vertexArray);
+        if (GLState.vertexArray == vertexArray) GLState.vertexArray = 0;
+    }
+
+    /**
+     * Deletes a texture, forgetting it wherever it is bound (GL unbinds deleted textures)
+     * @param texture the id of the texture
+     */
+    public static void deleteTexture(int texture) {
+        glDeleteTextures(texture);
+        for (int i = 0; i < GLState.textures.length; i++) if (GLState.textures[i] == texture) GLState.textures[i] = 0;
+    }
+
+    /**
+     * Finds the index of a texture target within the tracked targets
+     */
+    private static int targetIndex(int target) {
+        for (int i = 0; i < GLState.TEXTURE_TARGETS.length; i++) if (GLState.TEXTURE_TARGETS[i] == target) return i;
+        IllegalArgumentException e = new IllegalArgumentException("Untracked texture target: " + target);
+        Utils.log(e, "engine.graphics.GLState");
+        throw e;
+    }
+
+    //Counter Methods
+    public static long getIssuedCalls() { return GLState.issuedCalls; }
+    public static long getElidedCalls() { return GLState.elidedCalls; }
+    public static void resetCounters() { GLState.issuedCalls = GLState.elidedCalls = 0; }
+}
@@ -0,0 +1,398 @@
+package engine.graphics;
+
+import engine.graphics.renderable.MeshData;
+import engine.graphics.renderable.VertexFormat;
+import org.joml.Vector3f;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL32.glMultiDrawElementsBaseVertex;
+
+/**
+ * Sub-allocates the vertices and indices of many meshes from a few large buffers behind a single vao, so that
+ * switching between meshes in the arena costs no vao or buffer binds. Each mesh is an Allocation: a range of
+ * vertices starting at a base vertex and a range of indices starting at a first index, drawn with base-vertex draw
+ * calls. Its indices stay relative to its own first vertex, so ranges can be moved without rewriting them.
+ *
+ * An arena holds vertices of one VertexFormat, interleaved in a single vertex buffer, with a per-instance model
+ * matrix in vao slots 3 - 6 like Mesh uses. Vertices packed ahead of time in the arena's format (see MeshData.pack())
+ * are copied in as they are; others are packed on allocation, quantized within the data's bounds if the format
+ * quantizes positions.
+ *
+ * Freed ranges are merged with free neighbours straight away. When the free space becomes too fragmented, or an
+ * allocation doesn't fit in any free range, live ranges are packed together into fresh buffers with
+ * glCopyBufferSubData, growing them if needed. GL objects are created on first allocation. Must only be used from
+ * the render thread
+ */
+public class MeshArena {
+
+    //Static Data
+    public static final int DEFAULT_VERTEX_CAPACITY = 1 << 16, DEFAULT_INDEX_CAPACITY = 3 << 16;
+    private static final int MIN_FRAGMENTS = 8; //free ranges needed before fragmentation is checked
+    private static final float MIN_LARGEST_FREE = 0.5f; //the largest free range must be at least this much of all free
+
+    /**
+     * The ranges of one mesh within the arena
+     */
+    public static final class Allocation {
+
+        //Data
+        private int baseVertex, vertexCount, firstIndex, indexCount;
+        private int slot; //position in the arena's list of allocations, -1 once freed
+
+        //Accessors
+        public int getBaseVertex() { return this.baseVertex; }
+        public int getVertexCount() { return this.vertexCount; }
+        public int getFirstIndex() { return this.firstIndex; }
+        public int getIndexCount() { return this.indexCount; }
+        public boolean isLive() { return this.slot != -1; }
+    }
+
+    //Data
+    private final VertexFormat format;
+    private int vao;
+    private int vertexBuffer, indexBuffer, instanceBuffer;
+    private int vertexCapacity, indexCapacity;
+    private final TreeMap<Integer, Integer> freeVertices, freeIndices; //free ranges by start
+    private final List<Allocation> allocations; //live allocations
+    private int usedVertices, usedIndices;
+    private int compactions; //number of times live ranges have been packed together
+    private IntBuffer multiDrawCounts, multiDrawBaseVertices; //multi-draw parameters, reused between draws
+    private PointerBuffer multiDrawOffsets;
+
+    /**
+     * Constructor which starts out with the default capacities. No GL calls are made until the first allocation
+     * @param format the format of the arena's vertices
+     */
+    public MeshArena(VertexFormat format) {
+        this(format, MeshArena.DEFAULT_VERTEX_CAPACITY, MeshArena.DEFAULT_INDEX_CAPACITY);
+    }
+
+    /**
+     * Constructor. No GL calls are made until the first allocation
+     * @param format the format of the arena's vertices
+     * @param vertexCapacity the number of vertices to start out with room for
+     * @param indexCapacity the number of indices to start out with room for
+     */
+    public MeshArena(VertexFormat format, int vertexCapacity, int indexCapacity) {
+        this.format = format;
+        this.vertexCapacity = vertexCapacity;
+        this.indexCapacity = indexCapacity;
+        this.freeVertices = new TreeMap<>();
+        this.freeIndices = new TreeMap<>();
+        this.allocations = new ArrayList<>();
+    }
+
+    /**
+     * Creates the vao and buffers
+     */
+    private void create() {
+
+        //create buffers and free ranges covering them
+        this.vertexBuffer = MeshArena.createBuffer((long)this.vertexCapacity * this.format.getStride());
+        this.indexBuffer = MeshArena.createBuffer(4L * this.indexCapacity);
+        this.freeVertices.put(0, this.vertexCapacity);
+        this.freeIndices.put(0, this.indexCapacity);
+
+        //create vao with the instance matrix attributes
+        this.vao = glGenVertexArrays();
+        this.instanceBuffer = glGenBuffers();
+        GLState.bindVertexArray(this.vao);
+        glBindBuffer(GL_ARRAY_BUFFER, this.instanceBuffer);
+        VertexFormat.setInstanceAttributes();
+        this.attachBuffers();
+    }
+
+    /**
+     * Creates a buffer of the given size with undefined contents
+     */
+    private static int createBuffer(long bytes) {
+        int buffer = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, buffer);
+        glBufferData(GL_COPY_WRITE_BUFFER, bytes, GL_STATIC_DRAW);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        return buffer;
+    }
+
+    /**
+     * Points the vao's vertex attributes and element array at the current buffers
+     */
+    private void attachBuffers() {
+        GLState.bindVertexArray(this.vao);
+        glBindBuffer(GL_ARRAY_BUFFER, this.vertexBuffer);
+        this.format.setAttributes();
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.indexBuffer);
+    }
+
+    /**
+     * Allocates ranges for a mesh and uploads its data into them
+     * @param data the data of the mesh
+     * @return the allocation
+     */
+    public Allocation allocate(MeshData data) {
+        if (this.vao == 0) this.create();
+        int vertexCount = data.getVertexCount(), indexCount = data.getIndices().length;
+
+        //make room if the ranges don't fit anywhere: pack live ranges together, growing the buffers if needed
+        if (MeshArena.findFit(this.freeVertices, vertexCount) < 0 ||
+                MeshArena.findFit(this.freeIndices, indexCount) < 0) {
+            int vertexCapacity = this.vertexCapacity, indexCapacity = this.indexCapacity;
+            while (vertexCapacity - this.usedVertices < vertexCount) vertexCapacity *= 2;
+            while (indexCapacity - this.usedIndices < indexCount) indexCapacity *= 2;
+            this.rebuild(vertexCapacity, indexCapacity);
+        }
+
+        //take ranges
+        Allocation allocation = new Allocation();
+        allocation.vertexCount = vertexCount;
+        allocation.indexCount = indexCount;
+        allocation.baseVertex = MeshArena.take(this.freeVertices, MeshArena.findFit(this.freeVertices, vertexCount),
+                vertexCount);
+        allocation.firstIndex = MeshArena.take(this.freeIndices, MeshArena.findFit(this.freeIndices, indexCount),
+                indexCount);
+        allocation.slot = this.allocations.size();
+        this.allocations.add(allocation);
+        this.usedVertices += vertexCount;
+        this.usedIndices += indexCount;
+
+        //pack vertices unless they were packed ahead of time
+        ByteBuffer packed = data.getPacked(this.format), vertices = packed;
+        if (packed == null) {
+            Vector3f min = data.hasBounds() ? data.getBoundsMin() : new Vector3f();
+            vertices = MemoryUtil.memAlloc(vertexCount * this.format.getStride());
+            this.format.pack(data.getPositions(), data.getTexCoords(), data.getNormals(), 0, vertexCount, min,
+                    data.hasBounds() ? data.getBoundsMax() : min, vertices);
+            vertices.flip();
+        }
+
+        //upload data (through the copy target, so whatever vao is bound is left alone)
+        try {
+            glBindBuffer(GL_COPY_WRITE_BUFFER, this.vertexBuffer);
+            glBufferSubData(GL_COPY_WRITE_BUFFER, (long)allocation.baseVertex * this.format.getStride(), vertices);
+        } finally {
+            if (packed == null) MemoryUtil.memFree(vertices);
+        }
+        glBindBuffer(GL_COPY_WRITE_BUFFER, this.indexBuffer);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, 4L * allocation.firstIndex, data.getIndices());
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        return allocation;
+    }
+
+    /**
+     * Frees the ranges of an allocation, merging them with free neighbours. If the free space has become too
+     * fragmented, live ranges are packed together. Freeing an allocation more than once has no further effect
+     * @param allocation the allocation
+     */
+    public void free(Allocation allocation) {
+        if (!allocation.isLive()) return;
+
+        //remove from live allocations by swapping in the last one
+        Allocation last = this.allocations.remove(this.allocations.size() - 1);
+        if (last != allocation) {
+            this.allocations.set(allocation.slot, last);
+            last.slot = allocation.slot;
+        }
+        allocation.slot = -1;
+
+        //give back ranges
+        MeshArena.give(this.freeVertices, allocation.baseVertex, allocation.vertexCount);
+        MeshArena.give(this.freeIndices, allocation.firstIndex, allocation.indexCount);
+        this.usedVertices -= allocation.vertexCount;
+        this.usedIndices -= allocation.indexCount;
+
+        //defragment if the free space is split into many small ranges
+        if (MeshArena.isFragmented(this.freeVertices, this.vertexCapacity - this.usedVertices) ||
+                MeshArena.isFragmented(this.freeIndices, this.indexCapacity - this.usedIndices)) {
+            this.rebuild(this.vertexCapacity, this.indexCapacity);
+        }
+    }
+
+    /**
+     * Copies every live range into new buffers of the given capacities, packed together from the start, and
+     * replaces the old buffers with them
+     */
+    private void rebuild(int vertexCapacity, int indexCapacity) {
+
+        //create new buffers
+        long stride = this.format.getStride();
+        int vertexBuffer = MeshArena.createBuffer(vertexCapacity * stride);
+        int indexBuffer = MeshArena.createBuffer(4L * indexCapacity);
+
+        //copy live ranges over, packed together
+        int nextVertex = 0, nextIndex = 0;
+        for (Allocation allocation : this.allocations) {
+            MeshArena.copy(this.vertexBuffer, vertexBuffer, allocation.baseVertex * stride, nextVertex * stride,
+                    allocation.vertexCount * stride);
+            MeshArena.copy(this.indexBuffer, indexBuffer, 4L * allocation.firstIndex, 4L * nextIndex,
+                    4L * allocation.indexCount);
+            allocation.baseVertex = nextVertex;
+            allocation.firstIndex = nextIndex;
+            nextVertex += allocation.vertexCount;
+            nextIndex += allocation.indexCount;
+        }
+
+        //replace old buffers
+        glDeleteBuffers(this.vertexBuffer);
+        this.vertexBuffer = vertexBuffer;
+        glDeleteBuffers(this.indexBuffer);
+        this.indexBuffer = indexBuffer;
+        this.vertexCapacity = vertexCapacity;
+        this.indexCapacity = indexCapacity;
+        this.attachBuffers();
+
+        //leave one free range after the packed ranges
+        this.freeVertices.clear();
+        this.freeIndices.clear();
+        if (nextVertex < vertexCapacity) this.freeVertices.put(nextVertex, vertexCapacity - nextVertex);
+        if (nextIndex < indexCapacity) this.freeIndices.put(nextIndex, indexCapacity - nextIndex);
+        this.compactions++;
+    }
+
+    /**
+     * Copies a range of bytes from one buffer to another
+     */
+    private static void copy(int from, int to, long fromOffset, long toOffset, long bytes) {
+        if (bytes == 0) return;
+        glBindBuffer(GL_COPY_READ_BUFFER, from);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, to);
+        glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, fromOffset, toOffset, bytes);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+
+    /**
+     * Finds the first free range that can hold a number of elements
+     * @return the start of the range, or -1 if none is large enough
+     */
+    private static int findFit(TreeMap<Integer, Integer> free, int count) {
+        if (count == 0) return 0;
+        for (Map.Entry<Integer, Integer> range : free.entrySet()) if (range.getValue() >= count) return range.getKey();
+        return -1;
+    }
+
+    /**
+     * Takes elements from the start of a free range
+     * @return the start of the taken elements
+     */
+    private static int take(TreeMap<Integer, Integer> free, int start, int count) {
+        if (count == 0) return 0;
+        int length = free.remove(start);
+        if (length > count) free.put(start + count, length - count);
+        return start;
+    }
+
+    /**
+     * Returns elements to the free ranges, merging them with the ranges directly before and after them
+     */
+    private static void give(TreeMap<Integer, Integer> free, int start, int count) {
+        if (count == 0) return;
+        Map.Entry<Integer, Integer> before = free.floorEntry(start);
+        if (before != null && before.getKey() + before.getValue() == start) {
+            start = before.getKey();
+            count += before.getValue();
+            free.remove(start);
+        }
+        Integer after = free.remove(start + count);
+        if (after != null) count += after;
+        free.put(start, count);
+    }
+
+    /**
+     * Checks whether free space is split into so many ranges that its largest range is a small part of it
+     */
+    private static boolean isFragmented(TreeMap<Integer, Integer> free, int totalFree) {
+        if (free.size() < MeshArena.MIN_FRAGMENTS) return false;
+        int largest = 0;
+        for (int length : free.values()) largest = Math.max(largest, length);
+        return largest < totalFree * MeshArena.MIN_LARGEST_FREE;
+    }
+
+    /**
+     * Starts collecting allocations to draw with a single glMultiDrawElementsBaseVertex call. The arena's vao must
+     * be bound when multiDraw() is called
+     */
+    public void beginMultiDraw() {
+        if (this.multiDrawCounts == null) {
+            this.multiDrawCounts = MemoryUtil.memAllocInt(64);
+            this.multiDrawBaseVertices = MemoryUtil.memAllocInt(64);
+            this.multiDrawOffsets = MemoryUtil.memAllocPointer(64);
+        }
+        this.multiDrawCounts.clear();
+        this.multiDrawBaseVertices.clear();
+        this.multiDrawOffsets.clear();
+    }
+
+    /**
+     * Adds an allocation to the multi-draw started with beginMultiDraw()
+     * @param allocation the allocation to draw
+     * @param indexCount the number of its indices to draw
+     */
+    public void addToMultiDraw(Allocation allocation, int indexCount) {
+        if (!this.multiDrawCounts.hasRemaining()) {
+            int capacity = this.multiDrawCounts.capacity() * 2;
+            this.multiDrawCounts = MemoryUtil.memRealloc(this.multiDrawCounts, capacity);
+            this.multiDrawBaseVertices = MemoryUtil.memRealloc(this.multiDrawBaseVertices, capacity);
+            this.multiDrawOffsets = MemoryUtil.memRealloc(this.multiDrawOffsets, capacity);
+        }
+        this.multiDrawCounts.put(indexCount);
+        this.multiDrawBaseVertices.put(allocation.baseVertex);
+        this.multiDrawOffsets.put(4L * allocation.firstIndex);
+    }
+
+    /**
+     * Draws every allocation added since beginMultiDraw() with one call
+     */
+    public void multiDraw() {
+        this.multiDrawCounts.flip();
+        this.multiDrawBaseVertices.flip();
+        this.multiDrawOffsets.flip();
+        glMultiDrawElementsBaseVertex(GL_TRIANGLES, this.multiDrawCounts, GL_UNSIGNED_INT, this.multiDrawOffsets,
+                this.multiDrawBaseVertices);
+    }
+
+    //Accessors
+    public VertexFormat getFormat() { return this.format; }
+    public int getVAO() { return this.vao; }
+    public int getInstanceBuffer() { return this.instanceBuffer; }
+    public int getVertexCapacity() { return this.vertexCapacity; }
+    public int getIndexCapacity() { return this.indexCapacity; }
+    public int getUsedVertices() { return this.usedVertices; }
+    public int getUsedIndices() { return this.usedIndices; }
+    public int getAllocationCount() { return this.allocations.size(); }
+    public int getFreeRangeCount() { return this.freeVertices.size() + this.freeIndices.size(); }
+    public int getCompactions() { return this.compactions; }
+
+    //Cleanup Method
+    public void cleanup() {
+        if (this.vao != 0) {
+            glDeleteBuffers(this.vertexBuffer);
+            glDeleteBuffers(this.indexBuffer);
+            glDeleteBuffers(this.instanceBuffer);
+            GLState.deleteVertexArray(this.vao);
+            this.vao = 0;
+        }
+        if (this.multiDrawCounts != null) {
+            MemoryUtil.memFree(this.multiDrawCounts);
+            MemoryUtil.memFree(this.multiDrawBaseVertices);
+            MemoryUtil.memFree(this.multiDrawOffsets);
+            this.multiDrawCounts = null;
+        }
+        for (Allocation allocation : this.allocations) allocation.slot = -1;
+        this.allocations.clear();
+        this.freeVertices.clear();
+        this.freeIndices.clear();
+        this.usedVertices = this.usedIndices = 0;
+    }
+}
@@ -0,0 +1,406 @@
+package engine.graphics;
+
+import engine.graphics.renderable.MeshData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Simplifies meshes into chains of coarser levels of detail with quadric error metric edge collapses (Garland and
+ * Heckbert). Each vertex accumulates the planes of the triangles around it as a quadric, whose value at a point is
+ * the sum of the squared distances from the point to those planes. Edges are collapsed cheapest first, the cost of
+ * moving one end of an edge onto the other being the combined quadric of both ends evaluated there.
+ *
+ * Connectivity is built from vertices welded by position, so meshes whose vertices are split per face (flat shaded
+ * meshes, texture seams) are simplified as one surface. Collapses always move a vertex onto an existing one
+ * (half-edge collapses). Each triangle corner keeps its own texture coordinate and normal, taking those of the kept
+ * vertex's corner on the same side of any seam where there is one. Open edges and seams (edges whose two triangles
+ * split their vertices differently) aren't frozen but add planes at right angles to their triangles to the quadrics
+ * of their ends, so that moving them costs more and outlines and seams stay in place as long as cheaper collapses are
+ * left. Collapses that would flip a triangle over are skipped. Makes no GL calls, so it may be used from any thread
+ */
+public final class MeshSimplifier {
+
+    //Static Data
+    public static final int DEFAULT_LEVELS = 2; //coarser levels generated for imported meshes
+    public static final float DEFAULT_RATIO = 0.5f; //part of the previous level's triangles each level aims for
+    private static final float MIN_REDUCTION = 0.9f; //levels keeping more of the previous level's triangles are dropped
+    private static final double MIN_FLIP_COSINE = 0.2; //how far a triangle's normal may turn during a collapse
+    private static final double EDGE_WEIGHT = 10; //weight of open edge and seam planes, per squared edge length
+
+    //Constructor (static only)
+    private MeshSimplifier() {}
+
+    /**
+     * Builds a chain of increasingly coarse levels of detail. Each level is simplified from the original data, so
+     * errors don't build up from level to level. The chain stops early once a level barely removes any triangles
+     * @param data the full detail data
+     * @param levels the maximum number of levels to build
+     * @param ratio the part of the previous level's triangles each level should keep, from 0 to 1
+     * @return the levels, from finest to coarsest, with their bounds calculated. Doesn't include the data itself
+     */
+    public static List<MeshData> buildChain(MeshData data, int levels, float ratio) {
+        List<MeshData> chain = new ArrayList<>();
+        int triangles = data.getIndices().length / 3;
+        for (int level = 0; level < levels; level++) {
+            MeshData simplified = MeshSimplifier.simplify(data, (int)(triangles * ratio));
+            int simplifiedTriangles = simplified.getIndices().length / 3;
+            if (simplifiedTriangles > triangles * MeshSimplifier.MIN_REDUCTION) break;
+            chain.add(simplified);
+            triangles = simplifiedTriangles;
+        }
+        return chain;
+    }
+
+    /**
+     * Simplifies mesh data by collapsing edges until at most the target number of triangles is left, or no more
+     * edges can be collapsed
+     * @param data the data to simplify
+     * @param targetTriangles the number of triangles to aim for
+     * @return the simplified data with its bounds calculated, without vertices that are no longer used
+     */
+    public static MeshData simplify(MeshData data, int targetTriangles) {
+        float[] positions = data.getPositions();
+        int vertexCount = data.getVertexCount();
+        int[] corners = data.getIndices().clone(); //the vertex each triangle corner takes its attributes from
+        int triangleCount = corners.length / 3, liveTriangles = triangleCount;
+
+        //weld vertices by position, simplifying with the first vertex at each position
+        int[] welds = MeshSimplifier.weld(positions, vertexCount); //the vertex each vertex is currently welded to
+        int[] triangles = new int[corners.length];
+        for (int i = 0; i < corners.length; i++) triangles[i] = welds[corners[i]];
+
+        //find the triangles around each welded vertex and the triangles using each edge
+        int[][] around = new int[vertexCount][4];
+        int[] aroundCount = new int[vertexCount];
+        Map<Long, int[]> edges = new HashMap<>(); //first triangle using each edge, and how many do
+        Set<Long> seams = new HashSet<>();
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int v = triangles[t * 3 + k];
+                MeshSimplifier.addTriangle(around, aroundCount, v, t);
+                long edge = MeshSimplifier.edgeKey(v, triangles[t * 3 + (k + 1) % 3]);
+                int[] uses = edges.get(edge);
+                if (uses == null) edges.put(edge, new int[] { t, 1 });
+                else {
+                    uses[1]++;
+                    if (!MeshSimplifier.sameCorners(triangles, corners, uses[0], t, edge)) seams.add(edge);
+                }
+            }
+        }
+
+        //accumulate the area-weighted plane quadric of every triangle at its vertices
+        double[] quadrics = new double[vertexCount * 10];
+        double[] plane = new double[4];
+        for (int t = 0; t < triangleCount; t++) {
+            double area = MeshSimplifier.plane(positions, triangles[t * 3], triangles[t * 3 + 1],
+                    triangles[t * 3 + 2], plane);
+            if (area == 0) continue;
+            for (int k = 0; k < 3; k++) MeshSimplifier.addPlane(quadrics, triangles[t * 3 + k], plane, area);
+        }
+
+        //make moving open edges and seams cost more
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int a = triangles[t * 3 + k], b = triangles[t * 3 + (k + 1) % 3];
+                long edge = MeshSimplifier.edgeKey(a, b);
+                if (edges.get(edge)[1] == 1 || seams.contains(edge))
+                    MeshSimplifier.addEdgePlane(quadrics, positions, triangles, t, a, b, plane);
+            }
+        }
+
+        //queue every possible collapse
+        PriorityQueue<Collapse> queue = new PriorityQueue<>();
+        int[] versions = new int[vertexCount]; //incremented whenever a vertex's quadric or triangles change
+        for (long edge : edges.keySet()) {
+            int a = (int)(edge >>> 32), b = (int)edge;
+            if (a == b) continue;
+            MeshSimplifier.queueCollapse(queue, a, b, quadrics, positions, versions);
+            MeshSimplifier.queueCollapse(queue, b, a, quadrics, positions, versions);
+        }
+
+        //collapse cheapest edges first
+        boolean[] removedVertices = new boolean[vertexCount];
+        boolean[] removedTriangles = new boolean[triangleCount];
+        int[] moved = new int[8]; //pairs of corner vertices of the removed vertex and the kept ones replacing them
+        while (liveTriangles > targetTriangles && !queue.isEmpty()) {
+            Collapse collapse = queue.poll();
+            int from = collapse.from, to = collapse.to;
+
+            //skip collapses made out of date by earlier ones, and those that would flip a triangle over
+            if (removedVertices[from] || removedVertices[to] || versions[from] != collapse.fromVersion ||
+                    versions[to] != collapse.toVersion) continue;
+            if (MeshSimplifier.flips(positions, triangles, around[from], aroundCount[from], removedTriangles, from,
+                    to)) continue;
+
+            //remove triangles along the edge, noting which corner of the kept vertex each one has on its side
+            int movedCount = 0;
+            for (int i = 0; i < aroundCount[from]; i++) {
+                int t = around[from][i];
+                if (removedTriangles[t]) continue;
+                int base = t * 3, fromCorner = -1, toCorner = -1;
+                for (int k = 0; k < 3; k++) {
+                    if (triangles[base + k] == from) fromCorner = corners[base + k];
+                    else if (triangles[base + k] == to) toCorner = corners[base + k];
+                }
+                if (toCorner == -1) continue;
+                removedTriangles[t] = true;
+                liveTriangles--;
+                if (movedCount * 2 == moved.length) moved = Arrays.copyOf(moved, moved.length * 2);
+                moved[movedCount * 2] = fromCorner;
+                moved[movedCount++ * 2 + 1] = toCorner;
+            }
+
+            //move the other triangles onto the kept vertex, taking its corners on the same side of any seams
+            for (int i = 0; i < aroundCount[from]; i++) {
+                int t = around[from][i];
+                if (removedTriangles[t]) continue;
+                for (int k = 0; k < 3; k++) {
+                    int c = t * 3 + k;
+                    if (triangles[c] != from) continue;
+                    triangles[c] = to;
+                    corners[c] = MeshSimplifier.replacement(moved, movedCount, corners[c]);
+                    welds[corners[c]] = to; //corners without a replacement keep their attributes but move
+                }
+                MeshSimplifier.addTriangle(around, aroundCount, to, t);
+            }
+            removedVertices[from] = true;
+            for (int i = 0; i < 10; i++) quadrics[to * 10 + i] += quadrics[from * 10 + i];
+            versions[to]++;
+
+            //queue new collapses of the edges around the kept vertex
+            for (int i = 0; i < aroundCount[to]; i++) {
+                int t = around[to][i];
+                if (removedTriangles[t]) continue;
+                for (int k = 0; k < 3; k++) {
+                    int other = triangles[t * 3 + k];
+                    if (other == to) continue;
+                    MeshSimplifier.queueCollapse(queue, to, other, quadrics, positions, versions);
+                    MeshSimplifier.queueCollapse(queue, other, to, quadrics, positions, versions);
+                }
+            }
+        }
+        return MeshSimplifier.compact(data, corners, welds, removedTriangles, liveTriangles);
+    }
+
+    /**
+     * Finds the first vertex at each vertex's position
+     * @return the index of the first vertex with the same position as each vertex
+     */
+    private static int[] weld(float[] positions, int vertexCount) {
+        int[] welds = new int[vertexCount];
+        Map<List<Float>, Integer> first = new HashMap<>();
+        for (int i = 0; i < vertexCount; i++) {
+            List<Float> position = Arrays.asList(positions[i * 3] + 0f, positions[i * 3 + 1] + 0f,
+                    positions[i * 3 + 2] + 0f); //adding 0 turns -0 into 0 so they weld
+            Integer existing = first.putIfAbsent(position, i);
+            welds[i] = existing != null ? existing : i;
+        }
+        return welds;
+    }
+
+    /**
+     * Checks whether two triangles sharing a welded edge use the same vertices (and so the same attributes) for it
+     */
+    private static boolean sameCorners(int[] triangles, int[] corners, int t0, int t1, long edge) {
+        int a = (int)(edge >>> 32), b = (int)edge;
+        return MeshSimplifier.corner(triangles, corners, t0, a) == MeshSimplifier.corner(triangles, corners, t1, a) &&
+                MeshSimplifier.corner(triangles, corners, t0, b) == MeshSimplifier.corner(triangles, corners, t1, b);
+    }
+
+    /**
+     * @return the vertex a triangle's corner at a welded vertex takes its attributes from
+     */
+    private static int corner(int[] triangles, int[] corners, int t, int vertex) {
+        for (int k = 0; k < 3; k++) if (triangles[t * 3 + k] == vertex) return corners[t * 3 + k];
+        return -1;
+    }
+
+    /**
+     * @return the corner vertex replacing a corner vertex of a removed vertex, or the same vertex if none does
+     */
+    private static int replacement(int[] moved, int movedCount, int corner) {
+        for (int i = 0; i < movedCount; i++) if (moved[i * 2] == corner) return moved[i * 2 + 1];
+        return corner;
+    }
+
+    /**
+     * Adds a plane through an edge of a triangle and at right angles to it to the quadrics of the edge's ends,
+     * weighted by the squared length of the edge
+     */
+    private static void addEdgePlane(double[] quadrics, float[] positions, int[] triangles, int t, int a, int b,
+                                     double[] plane) {
+        if (MeshSimplifier.plane(positions, triangles[t * 3], triangles[t * 3 + 1], triangles[t * 3 + 2], plane) == 0)
+            return;
+        double ex = positions[b * 3] - positions[a * 3], ey = positions[b * 3 + 1] - positions[a * 3 + 1];
+        double ez = positions[b * 3 + 2] - positions[a * 3 + 2];
+        double nx = ey * plane[2] - ez * plane[1], ny = ez * plane[0] - ex * plane[2];
+        double nz = ex * plane[1] - ey * plane[0];
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz); //the edge's length, as the normal is unit length
+        if (length < 1e-12) return;
+        plane[0] = nx / length;
+        plane[1] = ny / length;
+        plane[2] = nz / length;
+        plane[3] = -(plane[0] * positions[a * 3] + plane[1] * positions[a * 3 + 1] + plane[2] * positions[a * 3 + 2]);
+        double weight = MeshSimplifier.EDGE_WEIGHT * length * length;
+        MeshSimplifier.addPlane(quadrics, a, plane, weight);
+        MeshSimplifier.addPlane(quadrics, b, plane, weight);
+    }
+
+    /**
+     * Queues the collapse of one vertex onto another
+     */
+    private static void queueCollapse(PriorityQueue<Collapse> queue, int from, int to, double[] quadrics,
+                                      float[] positions, int[] versions) {
+        double x = positions[to * 3], y = positions[to * 3 + 1], z = positions[to * 3 + 2];
+        double cost = MeshSimplifier.evaluate(quadrics, from, x, y, z) + MeshSimplifier.evaluate(quadrics, to, x, y, z);
+        queue.add(new Collapse(from, to, cost, versions[from], versions[to]));
+    }
+
+    /**
+     * Checks whether moving a vertex onto another would turn any of the triangles around it (other than those that
+     * would be removed) too far, flipping or folding it over
+     */
+    private static boolean flips(float[] positions, int[] triangles, int[] around, int count, boolean[] removed,
+                                 int from, int to) {
+        double[] before = new double[4], after = new double[4];
+        for (int i = 0; i < count; i++) {
+            int t = around[i], base = t * 3;
+            if (removed[t]) continue;
+            int a = triangles[base], b = triangles[base + 1], c = triangles[base + 2];
+            if (a == to || b == to || c == to) continue; //removed by the collapse
+            if (MeshSimplifier.plane(positions, a, b, c, before) == 0) continue;
+            double area = MeshSimplifier.plane(positions, a == from ? to : a, b == from ? to : b, c == from ? to : c,
+                    after);
+            if (area == 0) return true; //would become degenerate
+            double cosine = before[0] * after[0] + before[1] * after[1] + before[2] * after[2];
+            if (cosine < MeshSimplifier.MIN_FLIP_COSINE) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the plane of a triangle
+     * @param plane set to the unit normal (a, b, c) and offset d of the plane ax + by + cz + d = 0
+     * @return the area of the triangle, or 0 if it is degenerate (in which case the plane is not set)
+     */
+    private static double plane(float[] positions, int i0, int i1, int i2, double[] plane) {
+        double x0 = positions[i0 * 3], y0 = positions[i0 * 3 + 1], z0 = positions[i0 * 3 + 2];
+        double ux = positions[i1 * 3] - x0, uy = positions[i1 * 3 + 1] - y0, uz = positions[i1 * 3 + 2] - z0;
+        double vx = positions[i2 * 3] - x0, vy = positions[i2 * 3 + 1] - y0, vz = positions[i2 * 3 + 2] - z0;
+        double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length < 1e-12) return 0;
+        plane[0] = nx / length;
+        plane[1] = ny / length;
+        plane[2] = nz / length;
+        plane[3] = -(plane[0] * x0 + plane[1] * y0 + plane[2] * z0);
+        return length * 0.5;
+    }
+
+    /**
+     * Adds a weighted plane to a vertex's quadric, stored as the upper triangle of its symmetric 4x4 matrix:
+     * aa, ab, ac, ad, bb, bc, bd, cc, cd, dd
+     */
+    private static void addPlane(double[] quadrics, int vertex, double[] p, double weight) {
+        int q = vertex * 10;
+        quadrics[q] += weight * p[0] * p[0];
+        quadrics[q + 1] += weight * p[0] * p[1];
+        quadrics[q + 2] += weight * p[0] * p[2];
+        quadrics[q + 3] += weight * p[0] * p[3];
+        quadrics[q + 4] += weight * p[1] * p[1];
+        quadrics[q + 5] += weight * p[1] * p[2];
+        quadrics[q + 6] += weight * p[1] * p[3];
+        quadrics[q + 7] += weight * p[2] * p[2];
+        quadrics[q + 8] += weight * p[2] * p[3];
+        quadrics[q + 9] += weight * p[3] * p[3];
+    }
+
+    /**
+     * Evaluates a vertex's quadric at a point: the weighted sum of squared distances to its planes
+     */
+    private static double evaluate(double[] quadrics, int vertex, double x, double y, double z) {
+        int q = vertex * 10;
+        return quadrics[q] * x * x + 2 * quadrics[q + 1] * x * y + 2 * quadrics[q + 2] * x * z +
+                2 * quadrics[q + 3] * x + quadrics[q + 4] * y * y + 2 * quadrics[q + 5] * y * z +
+                2 * quadrics[q + 6] * y + quadrics[q + 7] * z * z + 2 * quadrics[q + 8] * z + quadrics[q + 9];
+    }
+
+    /**
+     * Adds a triangle to the list of triangles around a vertex, growing the list if needed
+     */
+    private static void addTriangle(int[][] around, int[] count, int vertex, int triangle) {
+        if (count[vertex] == around[vertex].length) around[vertex] = Arrays.copyOf(around[vertex], count[vertex] * 2);
+        around[vertex][count[vertex]++] = triangle;
+    }
+
+    /**
+     * @return a key identifying the edge between two vertices regardless of their order
+     */
+    private static long edgeKey(int a, int b) {
+        return (long)Math.min(a, b) << 32 | Math.max(a, b);
+    }
+
+    /**
+     * Creates new mesh data from the triangles left after simplification, keeping only the vertices they use
+     * @param corners the vertex each triangle corner takes its attributes from
+     * @param welds the vertex each vertex is welded to, whose position it takes
+     */
+    private static MeshData compact(MeshData data, int[] corners, int[] welds, boolean[] removed, int liveTriangles) {
+
+        //number used vertices in order of first use
+        int[] remap = new int[data.getVertexCount()];
+        Arrays.fill(remap, -1);
+        int[] indices = new int[liveTriangles * 3];
+        int vertexCount = 0, n = 0;
+        for (int t = 0; t < removed.length; t++) {
+            if (removed[t]) continue;
+            for (int k = 0; k < 3; k++) {
+                int index = corners[t * 3 + k];
+                if (remap[index] == -1) remap[index] = vertexCount++;
+                indices[n++] = remap[index];
+            }
+        }
+
+        //copy used vertices
+        float[] positions = new float[vertexCount * 3], texCoords = new float[vertexCount * 2];
+        float[] normals = new float[vertexCount * 3];
+        for (int i = 0; i < remap.length; i++) {
+            if (remap[i] == -1) continue;
+            System.arraycopy(data.getPositions(), welds[i] * 3, positions, remap[i] * 3, 3);
+            System.arraycopy(data.getTexCoords(), i * 2, texCoords, remap[i] * 2, 2);
+            System.arraycopy(data.getNormals(), i * 3, normals, remap[i] * 3, 3);
+        }
+        return new MeshData(positions, texCoords, normals, indices).calculateBounds();
+    }
+
+    /**
+     * A queued collapse of one vertex onto another. It is out of date if either vertex has changed since it was
+     * queued
+     */
+    private static class Collapse implements Comparable<Collapse> {
+
+        //Data
+        private final int from, to;
+        private final double cost;
+        private final int fromVersion, toVersion;
+
+        //Constructor
+        private Collapse(int from, int to, double cost, int fromVersion, int toVersion) {
+            this.from = from;
+            this.to = to;
+            this.cost = cost;
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+        }
+
+        @Override
+        public int compareTo(Collapse other) { return Double.compare(this.cost, other.cost); }
+    }
+}
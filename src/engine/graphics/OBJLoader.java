@@ -1,6 +1,8 @@
 package engine.graphics;
 
 import engine.graphics.renderable.Mesh;
+import engine.graphics.renderable.MeshData;
+import engine.graphics.renderable.VertexFormat;
 import engine.utils.Utils;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
@@ -13,11 +15,35 @@ import java.util.List;
 public class OBJLoader {
 
     /**
-     * Loads an .obj file into a Mesh
+     * Loads an .obj file into a Mesh. Must be called from the render thread
      * @param resourcePath resource path of the .obj file to load
      * @return the Mesh created from the .obj file
      */
     public static Mesh loadOBJ(String resourcePath) {
+        return new Mesh(OBJLoader.parseOBJ(resourcePath));
+    }
+
+    /**
+     * Imports an .obj file for rendering: parses it into MeshData, simplifies it into a chain of coarser levels of
+     * detail and packs the vertices of every level into a vertex format, so that creating meshes in that format only
+     * has to copy them. Makes no GL calls, so it may be called from any thread
+     * @param resourcePath resource path of the .obj file to parse
+     * @param format the format to pack vertices into
+     * @return the MeshData parsed from the .obj file, with its bounds calculated, its levels of detail generated and
+     *         its vertices packed
+     */
+    public static MeshData parseOBJ(String resourcePath, VertexFormat format) {
+        MeshData data = OBJLoader.parseOBJ(resourcePath);
+        data.setLods(MeshSimplifier.buildChain(data, MeshSimplifier.DEFAULT_LEVELS, MeshSimplifier.DEFAULT_RATIO));
+        return data.pack(format);
+    }
+
+    /**
+     * Parses an .obj file into MeshData without making any GL calls, so that it may be called from any thread
+     * @param resourcePath resource path of the .obj file to parse
+     * @return the MeshData parsed from the .obj file, with its bounds calculated
+     */
+    public static MeshData parseOBJ(String resourcePath) {
 
         //read in entire file
         List<String> file = Utils.loadResourceIntoStringList(resourcePath); //file
@@ -72,9 +98,9 @@ public class OBJLoader {
      * @param normals the normal vectors list
      * @param texCoords the texture coordinates list
      * @param faces the faces list
-     * @return the created Mesh object after reordering and using the given lists
+     * @return the created MeshData object after reordering and using the given lists
      */
-    private static Mesh reorderLists(List<Vector3f> positions, List<Vector3f> normals, List<Vector2f> texCoords,
+    private static MeshData reorderLists(List<Vector3f> positions, List<Vector3f> normals, List<Vector2f> texCoords,
                                      List<Face> faces) {
         //create indices list
         List<Integer> indices = new ArrayList<>();
@@ -104,8 +130,8 @@ public class OBJLoader {
         int[] indicesArr = new int[indices.size()];
         indicesArr = indices.stream().mapToInt((Integer v) -> v).toArray();
 
-        //create and return mesh
-        return new Mesh(positionsArr, texCoordsArr, normalsArr, indicesArr);
+        //create mesh data, give it bounds, and return it
+        return new MeshData(positionsArr, texCoordsArr, normalsArr, indicesArr).calculateBounds();
     }
 
     /**
@@ -0,0 +1,208 @@
+package engine.graphics;
+
+import engine.graphics.renderable.Mesh;
+
+import java.util.Arrays;
+
+/**
+ * Collects a frame's draws and orders them by packed 64-bit sort keys. Opaque keys (most significant bits first):
+ *
+ *   layer (2) | transparent = 0 (1) | program (5) | texture (12) | material (12) | mesh (16) | depth (16)
+ *
+ * so opaque draws are grouped by state (texture binds being the costliest change after the program) and, within a
+ * group, drawn front to back to make the most of early depth testing. Transparent keys put the inverted depth right
+ * after the transparent bit:
+ *
+ *   layer (2) | transparent = 1 (1) | inverted depth (16) | program (5) | texture (12) | material (12) | mesh (16)
+ *
+ * so transparent draws come after all opaque ones of their layer and are drawn back to front. Ids wider than their
+ * field are truncated, which only loses some grouping, never correctness, as each key is sorted together with the
+ * index of its draw.
+ *
+ * Each draw covers a run of entities (indices into the EntityStore being rendered), stored one after another in a
+ * single array. Keys are sorted with a least significant digit radix sort that skips passes over bytes every key
+ * shares. All arrays are kept and reused between frames, so a steady scene queues and sorts without allocating
+ */
+public class RenderQueue {
+
+    //Static Data
+    public static final int LAYERS = 4;
+    private static final int PROGRAM_BITS = 5, TEXTURE_BITS = 12, MATERIAL_BITS = 12, MESH_BITS = 16;
+    private static final int DEPTH_BITS = 16, MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+    private static final int LAYER_SHIFT = 62;
+    private static final long TRANSPARENT_BIT = 1L << 61;
+    private static final int RADIX_BITS = 8, RADIX = 1 << RADIX_BITS;
+
+    //Data
+    private long[] keys, keyScratch; //sort key of each draw, and space to sort into
+    private int[] order, orderScratch; //the draw each key belongs to, and space to sort into
+    private int[] firstEntities, entityCounts; //where each draw's entities start in the entity array, and how many
+    private Mesh[] meshes; //the mesh of each draw
+    private int[] entities; //the entities of every draw, one draw's after another
+    private final int[] offsets; //radix sort bucket offsets
+    private int size; //number of queued draws
+    private int entityCount, submittedEntities; //number of entities added, and how many of those belong to draws
+
+    //Constructor
+    public RenderQueue() {
+        this.keys = new long[64];
+        this.keyScratch = new long[64];
+        this.order = new int[64];
+        this.orderScratch = new int[64];
+        this.firstEntities = new int[64];
+        this.entityCounts = new int[64];
+        this.meshes = new Mesh[64];
+        this.entities = new int[256];
+        this.offsets = new int[RenderQueue.RADIX];
+    }
+
+    /**
+     * Empties the queue. Must be called at the start of every frame
+     */
+    public void clear() {
+        Arrays.fill(this.meshes, 0, this.size, null); //don't keep meshes alive
+        this.size = 0;
+        this.entityCount = this.submittedEntities = 0;
+    }
+
+    /**
+     * Adds an entity to the next submitted draw
+     * @param entity the index of the entity in the store being rendered
+     */
+    public void addEntity(int entity) {
+        if (this.entityCount == this.entities.length) {
+            this.entities = Arrays.copyOf(this.entities, this.entityCount * 2);
+        }
+        this.entities[this.entityCount++] = entity;
+    }
+
+    /**
+     * @return the number of entities added since the last submit()
+     */
+    public int pendingEntities() { return this.entityCount - this.submittedEntities; }
+
+    /**
+     * Queues a draw of the entities added since the last submit()
+     * @param mesh the mesh to draw
+     * @param key the sort key of the draw, as made by opaqueKey() or transparentKey()
+     */
+    public void submit(Mesh mesh, long key) {
+        if (this.size == this.keys.length) this.grow();
+        this.keys[this.size] = key;
+        this.order[this.size] = this.size;
+        this.firstEntities[this.size] = this.submittedEntities;
+        this.entityCounts[this.size] = this.entityCount - this.submittedEntities;
+        this.meshes[this.size] = mesh;
+        this.size++;
+        this.submittedEntities = this.entityCount;
+    }
+
+    /**
+     * Doubles the capacity of the queue's arrays
+     */
+    private void grow() {
+        int capacity = this.keys.length * 2;
+        this.keys = Arrays.copyOf(this.keys, capacity);
+        this.keyScratch = new long[capacity];
+        this.order = Arrays.copyOf(this.order, capacity);
+        this.orderScratch = new int[capacity];
+        this.firstEntities = Arrays.copyOf(this.firstEntities, capacity);
+        this.entityCounts = Arrays.copyOf(this.entityCounts, capacity);
+        this.meshes = Arrays.copyOf(this.meshes, capacity);
+    }
+
+    /**
+     * Sorts the queued draws by their keys with a stable least significant digit radix sort, one byte per pass.
+     * Passes over bytes that are the same in every key are skipped
+     */
+    public void sort() {
+        if (this.size < 2) return;
+        for (int shift = 0; shift < 64; shift += RenderQueue.RADIX_BITS) {
+
+            //count bucket sizes, skipping the pass if every key falls into the same bucket
+            Arrays.fill(this.offsets, 0);
+            for (int i = 0; i < this.size; i++) this.offsets[RenderQueue.digit(this.keys[i], shift)]++;
+            if (this.offsets[RenderQueue.digit(this.keys[0], shift)] == this.size) continue;
+
+            //turn counts into offsets
+            int total = 0;
+            for (int b = 0; b < RenderQueue.RADIX; b++) {
+                int count = this.offsets[b];
+                this.offsets[b] = total;
+                total += count;
+            }
+
+            //scatter keys and draws into their buckets, then swap arrays
+            for (int i = 0; i < this.size; i++) {
+                int position = this.offsets[RenderQueue.digit(this.keys[i], shift)]++;
+                this.keyScratch[position] = this.keys[i];
+                this.orderScratch[position] = this.order[i];
+            }
+            long[] keys = this.keys;
+            this.keys = this.keyScratch;
+            this.keyScratch = keys;
+            int[] order = this.order;
+            this.order = this.orderScratch;
+            this.orderScratch = order;
+        }
+    }
+
+    /**
+     * Extracts one radix digit of a key
+     */
+    private static int digit(long key, int shift) { return (int)(key >>> shift) & (RenderQueue.RADIX - 1); }
+
+    /**
+     * Creates the sort key of an opaque draw
+     * @param layer the layer to draw in, from 0 to LAYERS - 1. Lower layers are drawn first
+     * @param program the id of the shader program
+     * @param material the id of the material
+     * @param texture the id of the texture, or 0 for none
+     * @param mesh the id of the mesh
+     * @param depth the quantized view depth of the draw, as made by quantizeDepth()
+     * @return the key
+     */
+    public static long opaqueKey(int layer, int program, int material, int texture, int mesh, int depth) {
+        return ((long)layer << RenderQueue.LAYER_SHIFT) | RenderQueue.stateBits(program, material, texture, mesh)
+                << RenderQueue.DEPTH_BITS | depth;
+    }
+
+    /**
+     * Creates the sort key of a transparent draw. Parameters are as for opaqueKey()
+     * @return the key
+     */
+    public static long transparentKey(int layer, int program, int material, int texture, int mesh, int depth) {
+        return ((long)layer << RenderQueue.LAYER_SHIFT) | RenderQueue.TRANSPARENT_BIT |
+                (long)(RenderQueue.MAX_DEPTH - depth) << (RenderQueue.LAYER_SHIFT - 1 - RenderQueue.DEPTH_BITS) |
+                RenderQueue.stateBits(program, material, texture, mesh);
+    }
+
+    /**
+     * Packs state ids into the low 45 bits of a long, truncating each to its field
+     */
+    private static long stateBits(int program, int material, int texture, int mesh) {
+        long bits = program & ((1 << RenderQueue.PROGRAM_BITS) - 1);
+        bits = bits << RenderQueue.TEXTURE_BITS | (texture & ((1 << RenderQueue.TEXTURE_BITS) - 1));
+        bits = bits << RenderQueue.MATERIAL_BITS | (material & ((1 << RenderQueue.MATERIAL_BITS) - 1));
+        return bits << RenderQueue.MESH_BITS | (mesh & ((1 << RenderQueue.MESH_BITS) - 1));
+    }
+
+    /**
+     * Quantizes a view depth into the depth field of a key
+     * @param depth the distance in front of the camera
+     * @param far the distance to the far plane
+     * @return the depth scaled into 0 - 65535, with depths outside of 0 - far clamped
+     */
+    public static int quantizeDepth(float depth, float far) {
+        return (int)(Math.max(0, Math.min(1, depth / far)) * RenderQueue.MAX_DEPTH);
+    }
+
+    //Accessors (by position in sorted order)
+    public int size() { return this.size; }
+    public Mesh getMesh(int i) { return this.meshes[this.order[i]]; }
+    public int getFirstEntity(int i) { return this.firstEntities[this.order[i]]; } //into getEntities()
+    public int getEntityCount(int i) { return this.entityCounts[this.order[i]]; }
+    public boolean isTransparent(int i) { return (this.keys[i] & RenderQueue.TRANSPARENT_BIT) != 0; }
+    public long getKey(int i) { return this.keys[i]; }
+    public int[] getEntities() { return this.entities; } //the entities of every draw
+}
@@ -0,0 +1,194 @@
+package engine.graphics;
+
+import engine.graphics.lighting.DirectionalLight;
+import engine.graphics.lighting.SceneLighting;
+import engine.graphics.renderable.RenderableItem;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A copy of the state an update changes and a render reads: the camera, the ambient and directional light, and the
+ * transforms of moving items. Snapshots are captured on the update thread after each update and handed to the render
+ * thread through a SnapshotBuffer, where apply() writes the state interpolated between the last two into the objects
+ * the renderer draws with. That way updates never touch anything the renderer is reading, and motion stays smooth
+ * when frames and updates don't line up.
+ *
+ * Point and spot lights are not captured; they are shared with the renderer as they are and must not be changed by
+ * updates. Captured items are only used to identify which render side item a transform belongs to
+ */
+public class RenderSnapshot {
+
+    //Data
+    private double time; //the time the update this snapshot was captured after was scheduled for
+    private final Vector3f cameraPosition, cameraRotation;
+    private final Vector3f ambientLight, lightColor, lightDirection;
+    private float lightIntensity;
+    private boolean hasDirectionalLight;
+    private final List<RenderableItem> items; //the items whose transforms are captured
+    private float[] transforms; //position (3), rotation (3) and scale (1) of each captured item
+    private final Vector3f vector; //reused while applying
+
+    //Constructor
+    public RenderSnapshot() {
+        this.cameraPosition = new Vector3f();
+        this.cameraRotation = new Vector3f();
+        this.ambientLight = new Vector3f();
+        this.lightColor = new Vector3f();
+        this.lightDirection = new Vector3f();
+        this.items = new ArrayList<>();
+        this.transforms = new float[7 * 16];
+        this.vector = new Vector3f();
+    }
+
+    /**
+     * Records the time of the update the snapshot is captured after, so that the reader can tell how far the time it
+     * renders is between two snapshots
+     * @param time the time the update was scheduled for (see Timer.getTime())
+     */
+    public void captureTime(double time) { this.time = time; }
+    public double getTime() { return this.time; }
+
+    /**
+     * Captures the position and rotation of a camera
+     * @param camera the camera
+     */
+    public void captureCamera(Camera camera) {
+        this.cameraPosition.set(camera.getPosition());
+        this.cameraRotation.set(camera.getRotation());
+    }
+
+    /**
+     * Captures the ambient and directional light of a scene's lighting
+     * @param lighting the lighting
+     */
+    public void captureLighting(SceneLighting lighting) {
+        if (lighting.getAmbientLight() != null) this.ambientLight.set(lighting.getAmbientLight());
+        else this.ambientLight.zero();
+        this.hasDirectionalLight = lighting.hasDirectionalLighting();
+        if (this.hasDirectionalLight) {
+            DirectionalLight light = lighting.getDirectionalLight();
+            this.lightColor.set(light.getColor());
+            this.lightDirection.set(light.getDirection());
+            this.lightIntensity = light.getIntensity();
+        }
+    }
+
+    /**
+     * Forgets every captured item transform. Call before capturing the transforms of an update
+     */
+    public void clearTransforms() { this.items.clear(); }
+
+    /**
+     * Captures the transform an item should be drawn with
+     * @param item the render side item the transform belongs to
+     * @param position the item's position
+     * @param rotation the item's rotation, in degrees
+     * @param scale the item's scale
+     */
+    public void captureTransform(RenderableItem item, Vector3f position, Vector3f rotation, float scale) {
+        int i = this.items.size() * 7;
+        if (i + 7 > this.transforms.length) {
+            float[] grown = new float[this.transforms.length * 2];
+            System.arraycopy(this.transforms, 0, grown, 0, i);
+            this.transforms = grown;
+        }
+        this.items.add(item);
+        this.transforms[i] = position.x;
+        this.transforms[i + 1] = position.y;
+        this.transforms[i + 2] = position.z;
+        this.transforms[i + 3] = rotation.x;
+        this.transforms[i + 4] = rotation.y;
+        this.transforms[i + 5] = rotation.z;
+        this.transforms[i + 6] = scale;
+    }
+
+    /**
+     * Writes the state between two snapshots into the objects the renderer draws with. Items are only interpolated
+     * if they were captured at the same place in both snapshots; otherwise they jump to the current transform.
+     * Lighting is only marked changed if it actually changed, so it isn't uploaded again every frame
+     * @param previous the earlier snapshot
+     * @param current the later snapshot
+     * @param alpha how far between the two snapshots to go, from 0 (previous) to 1 (current)
+     * @param camera the camera to move
+     * @param lighting the lighting to change
+     */
+    public static void apply(RenderSnapshot previous, RenderSnapshot current, float alpha, Camera camera,
+                             SceneLighting lighting) {
+
+        //camera
+        Vector3f v = current.vector;
+        previous.cameraPosition.lerp(current.cameraPosition, alpha, v);
+        if (!v.equals(camera.getPosition())) camera.setPosition(v.x, v.y, v.z);
+        RenderSnapshot.lerpAngles(previous.cameraRotation, current.cameraRotation, alpha, v);
+        if (!v.equals(camera.getRotation())) camera.setRotation(v.x, v.y, v.z);
+
+        //ambient light
+        boolean changed = false;
+        previous.ambientLight.lerp(current.ambientLight, alpha, v);
+        if (lighting.getAmbientLight() == null) lighting.setAmbientLight(new Vector3f(v));
+        else if (!v.equals(lighting.getAmbientLight())) {
+            lighting.getAmbientLight().set(v);
+            changed = true;
+        }
+
+        //directional light
+        if (current.hasDirectionalLight && lighting.hasDirectionalLighting()) {
+            DirectionalLight light = lighting.getDirectionalLight();
+            RenderSnapshot source = previous.hasDirectionalLight ? previous : current;
+            source.lightColor.lerp(current.lightColor, alpha, v);
+            if (!v.equals(light.getColor())) {
+                light.getColor().set(v);
+                changed = true;
+            }
+            source.lightDirection.lerp(current.lightDirection, alpha, v);
+            if (v.lengthSquared() > 0) v.normalize();
+            if (!v.equals(light.getDirection())) {
+                light.getDirection().set(v);
+                changed = true;
+            }
+            float intensity = source.lightIntensity + (current.lightIntensity - source.lightIntensity) * alpha;
+            if (intensity != light.getIntensity()) {
+                light.setIntensity(intensity);
+                changed = true;
+            }
+        }
+        if (changed) lighting.markChanged();
+
+        //item transforms
+        for (int i = 0; i < current.items.size(); i++) {
+            RenderableItem item = current.items.get(i);
+            boolean match = i < previous.items.size() && previous.items.get(i) == item;
+            float[] from = match ? previous.transforms : current.transforms, to = current.transforms;
+            int t = i * 7;
+            item.setPosition(RenderSnapshot.lerp(from[t], to[t], alpha), RenderSnapshot.lerp(from[t + 1], to[t + 1],
+                    alpha), RenderSnapshot.lerp(from[t + 2], to[t + 2], alpha));
+            item.setRotation(RenderSnapshot.lerpAngle(from[t + 3], to[t + 3], alpha),
+                    RenderSnapshot.lerpAngle(from[t + 4], to[t + 4], alpha),
+                    RenderSnapshot.lerpAngle(from[t + 5], to[t + 5], alpha));
+            item.setScale(RenderSnapshot.lerp(from[t + 6], to[t + 6], alpha));
+        }
+    }
+
+    /**
+     * Interpolates each component of two sets of angles the short way around
+     */
+    private static void lerpAngles(Vector3f from, Vector3f to, float alpha, Vector3f dest) {
+        dest.set(RenderSnapshot.lerpAngle(from.x, to.x, alpha), RenderSnapshot.lerpAngle(from.y, to.y, alpha),
+                RenderSnapshot.lerpAngle(from.z, to.z, alpha));
+    }
+
+    /**
+     * Interpolates between two angles, in degrees, the short way around
+     */
+    private static float lerpAngle(float from, float to, float alpha) {
+        float difference = ((to - from) % 360 + 540) % 360 - 180;
+        return alpha >= 1 ? to : from + difference * alpha;
+    }
+
+    /**
+     * Interpolates between two values
+     */
+    private static float lerp(float from, float to, float alpha) { return from + (to - from) * alpha; }
+}
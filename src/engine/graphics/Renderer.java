@@ -1,18 +1,21 @@
 package engine.graphics;
 
-import engine.graphics.lighting.DirectionalLight;
-import engine.graphics.lighting.PointLight;
-import engine.graphics.lighting.SceneLighting;
-import engine.graphics.lighting.SpotLight;
+import engine.graphics.renderable.EntityStore;
+import engine.graphics.renderable.Material;
 import engine.graphics.renderable.Mesh;
-import engine.graphics.renderable.RenderableItem;
 import engine.graphics.renderable.Scene;
+import engine.graphics.uniforms.LightingUniformBuffer;
+import engine.graphics.uniforms.MaterialUniformBuffer;
+import engine.graphics.uniforms.Uniform;
+import engine.utils.JobSystem;
+import engine.utils.Profiler;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import org.joml.Vector4f;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.function.IntConsumer;
 
 import static org.lwjgl.opengl.GL11.*;
 
@@ -22,13 +25,48 @@ public class Renderer {
     private static final float FOV = (float)Math.toRadians(60.0f);
     private static final float Z_NEAR = 0.01f;
     private static final float Z_FAR = 1000.0f;
-    private static final int MAX_POINT_LIGHTS = 5; //must match shader constant
-    private static final int MAX_SPOT_LIGHTS = 5; //must match shader constant
+    private static final float TAN_HALF_FOV = (float)Math.tan(Renderer.FOV / 2);
+    private static final float LOD_FIRST_SIZE = 0.1f; //projected size below which the first coarser level is used
+    private static final float LOD_SIZE_STEP = 0.4f; //how much smaller the projected size of each next level is
+    private static final float LOD_HYSTERESIS = 0.15f; //how far past a level's size an item must get to change level
+    private static final int PARALLEL_CULL_THRESHOLD = 1024; //entities needed before culling is done in parallel
+    private static final int CULL_GRAIN = 256; //entities culled by one job
+
+    //Profiler Zones
+    private static final int RENDER_ZONE = Profiler.zone("renderer");
+    private static final int LIGHTS_ZONE = Profiler.zone("renderer lights");
+    private static final int QUEUE_ZONE = Profiler.zone("renderer queue");
+    private static final int DRAW_ZONE = Profiler.zone("renderer draw");
 
     //Data
     private ShaderProgram shaderProgram;
     private Transformer transformer;
+    private FrustumCuller frustumCuller;
+    private ClusteredLighting clusteredLighting;
+    private EntityStore entities; //the entities of the scene being rendered
+    private boolean[] visible; //whether each entity survived culling, reused between frames
+    private int[] meshStarts; //where each mesh id's visible entities start in visibleEntities, reused between frames
+    private int[] visibleEntities; //the visible entities, grouped by mesh id, reused between frames
+    private final Vector3f lodCameraPosition = new Vector3f(); //the camera position levels of detail are chosen by
+    private JobSystem.Range cullEntities; //culls a chunk of entities, kept instead of made per frame
+    private JobSystem jobs; //the job system to cull on, or null to cull on the calling thread
+    private List<Mesh> sharedMeshes; //reused list of arena meshes drawn together with one call
+    private RenderQueue renderQueue; //the frame's draws, sorted by state and depth
     private float specularPower = 10f; //used for light rendering
+    private boolean instancedRendering = true; //whether to draw items sharing a mesh with one instanced draw call
+    private final Matrix4f modelMatrix = new Matrix4f(), modelViewMatrix = new Matrix4f(); //reused while rendering
+    private IntConsumer modelViewSetter; //sets the model view matrix of an entity drawn on its own
+
+    //Uniforms
+    private Uniform.Mat4 projectionMatrixUniform, modelViewMatrixUniform, viewMatrixUniform;
+    private Uniform.Int instancedUniform, textureSamplerUniform, materialIndexUniform;
+    private Uniform.Int lightDataUniform, clusterDataUniform, lightIndicesUniform;
+    private Uniform.Vec4 clusterParamsUniform;
+    private Uniform.Vec3 positionOffsetUniform, positionScaleUniform;
+
+    //Uniform Buffers
+    private LightingUniformBuffer lightingBuffer;
+    private MaterialUniformBuffer materialBuffer;
 
     //Init Method
     public void init() {
@@ -42,8 +80,20 @@ public class Renderer {
         //create shader uniforms
         this.createUniforms();
 
-        //create transformer
+        //create transformer and frustum culler
         this.transformer = new Transformer();
+        this.frustumCuller = new FrustumCuller();
+        this.clusteredLighting = new ClusteredLighting();
+        this.clusteredLighting.setJobSystem(this.jobs);
+        this.visible = new boolean[64];
+        this.meshStarts = new int[16];
+        this.visibleEntities = new int[64];
+        this.cullEntities = this::cullEntities;
+        this.sharedMeshes = new ArrayList<>();
+        this.renderQueue = new RenderQueue();
+        this.modelViewSetter = (int entity) -> this.modelViewMatrixUniform.set(this.transformer.getViewMatrix().mul(
+                this.modelMatrix.set(this.entities.getModelMatrices(), entity * EntityStore.MATRIX_FLOATS),
+                this.modelViewMatrix));
     }
 
     /**
@@ -52,17 +102,26 @@ public class Renderer {
     private void createUniforms() {
 
         //create matrix and texture sampler uniforms
-        this.shaderProgram.createUniform("projectionMatrix");
-        this.shaderProgram.createUniform("modelViewMatrix");
-        this.shaderProgram.createUniform("textureSampler");
-
-        //create material and lighting uniforms
-        this.shaderProgram.createUniform("ambientLight");
-        this.shaderProgram.createUniform("specularPower");
-        this.shaderProgram.createMaterialUniform("material");
-        this.shaderProgram.createPointLightUniforms("pointLights", Renderer.MAX_POINT_LIGHTS);
-        this.shaderProgram.createSpotLightUniforms("spotLights", Renderer.MAX_SPOT_LIGHTS);
-        this.shaderProgram.createDirectionalLightUniform("directionalLight");
+        this.projectionMatrixUniform = this.shaderProgram.createMatrix4fUniform("projectionMatrix");
+        this.modelViewMatrixUniform = this.shaderProgram.createMatrix4fUniform("modelViewMatrix");
+        this.viewMatrixUniform = this.shaderProgram.createMatrix4fUniform("viewMatrix");
+        this.instancedUniform = this.shaderProgram.createIntUniform("instanced");
+        this.textureSamplerUniform = this.shaderProgram.createIntUniform("textureSampler");
+        this.positionOffsetUniform = this.shaderProgram.createVector3fUniform("positionOffset");
+        this.positionScaleUniform = this.shaderProgram.createVector3fUniform("positionScale");
+
+        //create lighting and material uniform buffers and attach them to their blocks
+        this.materialIndexUniform = this.shaderProgram.createIntUniform("materialIndex");
+        this.lightingBuffer = new LightingUniformBuffer();
+        this.lightingBuffer.attach(this.shaderProgram, LightingUniformBuffer.BLOCK_NAME);
+        this.materialBuffer = new MaterialUniformBuffer();
+        this.materialBuffer.attach(this.shaderProgram, MaterialUniformBuffer.BLOCK_NAME);
+
+        //create clustered light uniforms
+        this.lightDataUniform = this.shaderProgram.createIntUniform("lightData");
+        this.clusterDataUniform = this.shaderProgram.createIntUniform("clusterData");
+        this.lightIndicesUniform = this.shaderProgram.createIntUniform("lightIndices");
+        this.clusterParamsUniform = this.shaderProgram.createVector4fUniform("clusterParams");
     }
 
     /**
@@ -73,105 +132,316 @@ public class Renderer {
      */
     public void render(Window window, Camera camera, Scene scene) {
 
-        //clear and check for window resize
+        //clear screen and bind shader program
+        Profiler.begin(Renderer.RENDER_ZONE);
+        GLState.depthMask(true); //depth is only cleared while depth writes are enabled
         clear(); //clear screen
-        if (window.hasBeenResized()) {
+        this.shaderProgram.bind();
+
+        //set texture samplers and start a new frame of material use
+        this.textureSamplerUniform.set(0);
+        this.lightDataUniform.set(ClusteredLighting.LIGHT_DATA_UNIT);
+        this.clusterDataUniform.set(ClusteredLighting.CLUSTER_DATA_UNIT);
+        this.lightIndicesUniform.set(ClusteredLighting.LIGHT_INDICES_UNIT);
+        this.materialBuffer.nextFrame();
+
+        //rebuild projection matrix only if the window has been resized (windows start out flagged as resized)
+        boolean resized = window.hasBeenResized();
+        if (resized) {
             glViewport(0, 0, window.getWidth(), window.getHeight()); //change viewport size
+            this.projectionMatrixUniform.set(this.transformer.buildProjectionMatrix(Renderer.FOV, Renderer.Z_NEAR,
+                    Renderer.Z_FAR, window));
+            this.clusteredLighting.updateProjection(this.transformer.getProjectionMatrix(), Renderer.Z_NEAR,
+                    Renderer.Z_FAR, window.getWidth(), window.getHeight());
+            this.clusterParamsUniform.set(this.clusteredLighting.getParams());
             window.resizeAccountedFor(); //account for resize
         }
 
-        //bind shader program
-        this.shaderProgram.bind();
+        //rebuild view matrix and frustum only if the camera or projection has changed
+        Matrix4f viewMatrix = this.transformer.getViewMatrix();
+        boolean viewChanged = resized || camera.hasMoved();
+        if (viewChanged) {
+            this.transformer.buildViewMatrix(camera);
+            this.frustumCuller.update(this.transformer.getProjectionMatrix(), viewMatrix);
+            camera.movementAccountedFor();
+        }
 
-        //set texture sampler
-        this.shaderProgram.setUniform("textureSampler", 0);
+        //upload lights and cluster point and spot lights only if they or the view have changed
+        Profiler.begin(Renderer.LIGHTS_ZONE);
+        this.lightingBuffer.update(scene.getLighting(), viewMatrix, this.specularPower, viewChanged);
+        this.clusteredLighting.update(scene.getLighting(), viewMatrix, viewChanged);
+        this.clusteredLighting.bind();
+        Profiler.end();
+
+        //set view matrix and choose between instanced and per-item rendering
+        this.viewMatrixUniform.set(viewMatrix);
+        this.instancedUniform.set(this.instancedRendering ? 1 : 0);
+
+        //queue and sort visible entities, then render them
+        this.entities = scene.getEntities();
+        Profiler.begin(Renderer.QUEUE_ZONE);
+        this.queueEntities(viewMatrix, camera.getPosition());
+        this.renderQueue.sort();
+        Profiler.end();
+        Profiler.begin(Renderer.DRAW_ZONE);
+        int[] entities = this.renderQueue.getEntities();
+        for (int i = 0; i < this.renderQueue.size(); i++) {
+            Mesh mesh = this.renderQueue.getMesh(i);
+            int first = this.renderQueue.getFirstEntity(i), count = this.renderQueue.getEntityCount(i);
+
+            //blend transparent draws over what is behind them without hiding it
+            boolean transparent = this.renderQueue.isTransparent(i);
+            GLState.setEnabled(GL_BLEND, transparent);
+            GLState.depthMask(!transparent);
+
+            //select material and how to dequantize positions
+            this.materialIndexUniform.set(this.materialBuffer.indexOf(mesh.getMaterial()));
+            this.positionOffsetUniform.set(mesh.getPositionOffset());
+            this.positionScaleUniform.set(mesh.getPositionScale());
+
+            //render a run of arena meshes drawn with the same transformation in one multi-draw call
+            int run = this.sharedRunLength(i);
+            if (run > 1) {
+                this.sharedMeshes.clear();
+                for (int j = i; j < i + run; j++) this.sharedMeshes.add(this.renderQueue.getMesh(j));
+                this.instancedUniform.set(0); //multi-draws can't advance the instance attributes per mesh
+                Mesh.renderShared(this.sharedMeshes, entities[first], this.modelViewSetter);
+                this.instancedUniform.set(this.instancedRendering ? 1 : 0);
+                i += run - 1;
+
+            //or render this draw's entities
+            } else if (this.instancedRendering) {
+                mesh.renderInstanced(this.entities.getModelMatrices(), entities, first, count);
+            } else mesh.renderEntities(entities, first, count, this.modelViewSetter);
+        }
+        this.entities = null; //don't keep the scene's entities alive
+        Profiler.end(); //draw
 
-        //set projection matrix
-        this.shaderProgram.setUniform("projectionMatrix", this.transformer.buildProjectionMatrix(
-                Renderer.FOV, Renderer.Z_NEAR, Renderer.Z_FAR, window));
+        //the shader program is left bound; GLState elides rebinding it next frame
+        Profiler.end(); //renderer
+    }
 
-        //build view matrix and render lights
-        renderLights(this.transformer.buildViewMatrix(camera), scene.getLighting());
+    /**
+     * Fills the render queue with the entities of the scene being rendered that survive frustum culling, each at the
+     * level of detail that suits its size on screen. Opaque meshes are queued as one draw per level of detail of all
+     * their visible entities at that level, at the depth of the nearest one. Entities with transparent meshes are
+     * queued one by one so they can be drawn back to front
+     * @param viewMatrix the view matrix to find depths with
+     * @param cameraPosition the position of the camera, to choose levels of detail with
+     */
+    private void queueEntities(Matrix4f viewMatrix, Vector3f cameraPosition) {
+
+        //cull every entity and choose its level of detail, in parallel if there are many entities
+        EntityStore store = this.entities;
+        int size = store.size();
+        if (this.visible.length < size) this.visible = new boolean[Math.max(size, this.visible.length * 2)];
+        this.lodCameraPosition.set(cameraPosition);
+        this.frustumCuller.resetStats();
+        if (this.jobs != null && size >= Renderer.PARALLEL_CULL_THRESHOLD) {
+            this.jobs.parallelFor(0, size, Renderer.CULL_GRAIN, this.cullEntities);
+        } else this.cullEntities(0, size);
+
+        //group visible entities by mesh id with a counting sort
+        int meshCount = store.getMeshCapacity();
+        if (this.meshStarts.length < meshCount + 1) this.meshStarts = new int[Math.max(meshCount + 1,
+                this.meshStarts.length * 2)];
+        if (this.visibleEntities.length < size) this.visibleEntities = new int[this.visible.length];
+        int[] meshIds = store.getMeshIds(), starts = this.meshStarts;
+        Arrays.fill(starts, 0, meshCount + 1, 0);
+        for (int e = 0; e < size; e++) if (this.visible[e]) starts[meshIds[e] + 1]++;
+        for (int m = 0; m < meshCount; m++) starts[m + 1] += starts[m];
+        for (int e = 0; e < size; e++) if (this.visible[e]) this.visibleEntities[starts[meshIds[e]]++] = e;
+        for (int m = meshCount; m > 0; m--) starts[m] = starts[m - 1]; //filling moved each start to the next one's
+        starts[0] = 0;
+
+        //queue meshes with visible entities
+        this.renderQueue.clear();
+        int program = this.shaderProgram.getID();
+        int[] lods = store.getLods();
+        for (int m = 0; m < meshCount; m++) {
+            int from = starts[m], to = starts[m + 1];
+            if (from == to) continue;
+            Mesh mesh = store.getMeshById(m);
+            Material material = mesh.getMaterial();
+            int texture = material.isTextured() ? material.getTexture().getArray().getID() : 0;
+
+            //queue opaque meshes in one draw per level of detail in use
+            if (!material.isTransparent()) {
+                for (int level = 0; level < mesh.getLodCount(); level++) {
+                    float nearest = Float.POSITIVE_INFINITY;
+                    for (int i = from; i < to; i++) {
+                        int e = this.visibleEntities[i];
+                        if (lods[e] != level) continue;
+                        this.renderQueue.addEntity(e);
+                        nearest = Math.min(nearest, Renderer.viewDepth(store, e, mesh, viewMatrix));
+                    }
+                    if (this.renderQueue.pendingEntities() == 0) continue;
+                    Mesh lod = mesh.getLod(level);
+                    this.renderQueue.submit(lod, RenderQueue.opaqueKey(mesh.getLayer(), program, material.getID(),
+                            texture, lod.getID(), RenderQueue.quantizeDepth(nearest, Renderer.Z_FAR)));
+                }
+
+            //queue transparent entities one by one
+            } else for (int i = from; i < to; i++) {
+                int e = this.visibleEntities[i];
+                Mesh lod = mesh.getLod(lods[e]);
+                this.renderQueue.addEntity(e);
+                this.renderQueue.submit(lod, RenderQueue.transparentKey(mesh.getLayer(), program, material.getID(),
+                        texture, lod.getID(), RenderQueue.quantizeDepth(Renderer.viewDepth(store, e, mesh,
+                                viewMatrix), Renderer.Z_FAR)));
+            }
+        }
+    }
 
-        //render items
-        Map<Mesh, List<RenderableItem>> meshes = scene.getMeshes();
-        for (Mesh mesh : meshes.keySet()) {
+    /**
+     * Rebuilds the model matrices and bounds of a range of the entities being queued, culls them, marking the visible
+     * ones, and chooses the visible ones' levels of detail. Every step only touches the range's own entities, so
+     * ranges may be culled at the same time
+     * @param from the first entity to cull
+     * @param to one past the last entity to cull
+     */
+    private void cullEntities(int from, int to) {
+        EntityStore store = this.entities;
+        store.update(from, to);
+        float[] bounds = store.getBounds();
+        int[] meshIds = store.getMeshIds();
+        int tested = 0, culled = 0;
+        for (int e = from; e < to; e++) {
+            Mesh mesh = store.getMeshById(meshIds[e]);
+            boolean visible = true;
+            if (mesh.hasBounds()) {
+                tested++;
+                visible = this.frustumCuller.intersects(bounds, e * EntityStore.BOUNDS_FLOATS);
+                if (!visible) culled++;
+            }
+            this.visible[e] = visible;
+            if (visible) Renderer.selectLod(store, e, mesh, this.lodCameraPosition);
+        }
+        this.frustumCuller.count(tested, culled);
+    }
 
-            //set material
-            this.shaderProgram.setUniform("material", mesh.getMaterial());
+    /**
+     * Chooses the level of detail to draw an entity at from how large its mesh appears on screen: its level of detail
+     * radius over its distance from the camera, as a part of half the screen's height. Each coarser level is used
+     * below a smaller size. An entity only moves to another level once its size is past that level's size by a
+     * margin, so entities near a boundary don't pop back and forth as the camera moves
+     * @param store the store holding the entity, whose level of detail is set to the chosen one
+     * @param entity the index of the entity
+     * @param mesh the mesh of the entity
+     * @param cameraPosition the position of the camera
+     */
+    private static void selectLod(EntityStore store, int entity, Mesh mesh, Vector3f cameraPosition) {
 
-            //render all items with this mesh
-            mesh.renderList(meshes.get(mesh), (RenderableItem item) -> {
-                this.shaderProgram.setUniform("modelViewMatrix", this.transformer.buildModelViewMatrix(item));
-            });
+        //meshes without levels of detail are always drawn at full detail
+        int levels = mesh.getLodCount();
+        if (levels == 1) {
+            store.setLod(entity, 0);
+            return;
+        }
 
+        //find projected size from the distance to the entity's bounds (or position, if it has no bounds)
+        float distance;
+        if (mesh.hasBounds()) {
+            float[] bounds = store.getBounds();
+            int b = entity * EntityStore.BOUNDS_FLOATS;
+            distance = cameraPosition.distance(bounds[b + 6], bounds[b + 7], bounds[b + 8]) - bounds[b + 9];
+        } else {
+            float[] transforms = store.getTransforms();
+            int t = entity * EntityStore.TRANSFORM_FLOATS;
+            distance = cameraPosition.distance(transforms[t], transforms[t + 1], transforms[t + 2]);
         }
+        float size = mesh.getLodRadius() * store.getScale(entity) / (Math.max(distance, Renderer.Z_NEAR) *
+                Renderer.TAN_HALF_FOV);
+
+        //step to coarser or finer levels past their sizes
+        int level = Math.min(store.getLod(entity), levels - 1);
+        while (level < levels - 1 && size < Renderer.lodSize(level + 1) * (1 - Renderer.LOD_HYSTERESIS)) level++;
+        while (level > 0 && size > Renderer.lodSize(level) * (1 + Renderer.LOD_HYSTERESIS)) level--;
+        store.setLod(entity, level);
+    }
 
-        //unbind shader program
-        this.shaderProgram.unbind();
+    /**
+     * @return the projected size below which a level of detail (1 or higher) is used
+     */
+    private static float lodSize(int level) {
+        return Renderer.LOD_FIRST_SIZE * (float)Math.pow(Renderer.LOD_SIZE_STEP, level - 1);
     }
 
     /**
-     * Renders the lights of a scene
-     * @param viewMatrix the view matrix to use for rendering
-     * @param lighting the SceneLighting object whose light members to render
+     * Counts how many sorted draws, starting at the given one, can be rendered with a single multi-draw call: opaque
+     * draws of one entity each, whose meshes share an arena, a material and position dequantization and whose
+     * entities share a model matrix
+     * @param first the position of the first draw in the render queue
+     * @return the number of draws in the run, at least 1
      */
-    private void renderLights(Matrix4f viewMatrix, SceneLighting lighting) {
-
-        //set ambient light and specular power
-        this.shaderProgram.setUniform("ambientLight", lighting.getAmbientLight());
-        this.shaderProgram.setUniform("specularPower", this.specularPower);
-
-        //render PointLights
-        PointLight[] pointLights = lighting.getPointLights();
-        int count = pointLights != null ? pointLights.length : 0;
-        for (int i = 0; i < count; i++) {
-
-            //create copy and multiply by view matrix
-            PointLight plCopy = new PointLight(pointLights[i]);
-            Vector3f pos = plCopy.getPosition();
-            Vector4f posT = new Vector4f(pos, 1);
-            posT.mul(viewMatrix);
-            pos.x = posT.x;
-            pos.y = posT.y;
-            pos.z = posT.z;
-            shaderProgram.setUniform("pointLights[" + i + "]", plCopy);
+    private int sharedRunLength(int first) {
+        Mesh mesh = this.renderQueue.getMesh(first);
+        if (mesh.getArena() == null || this.renderQueue.getEntityCount(first) != 1 ||
+                this.renderQueue.isTransparent(first)) return 1;
+        int[] entities = this.renderQueue.getEntities();
+        float[] models = this.entities.getModelMatrices();
+        int model = entities[this.renderQueue.getFirstEntity(first)] * EntityStore.MATRIX_FLOATS;
+        int last = first + 1;
+        while (last < this.renderQueue.size() && !this.renderQueue.isTransparent(last)) {
+            Mesh next = this.renderQueue.getMesh(last);
+            if (next.getArena() != mesh.getArena() || next.getMaterial() != mesh.getMaterial() ||
+                    !next.getPositionOffset().equals(mesh.getPositionOffset()) ||
+                    !next.getPositionScale().equals(mesh.getPositionScale()) ||
+                    this.renderQueue.getEntityCount(last) != 1) break;
+            int nextModel = entities[this.renderQueue.getFirstEntity(last)] * EntityStore.MATRIX_FLOATS;
+            if (!Renderer.matricesEqual(models, model, nextModel)) break;
+            last++;
         }
+        return last - first;
+    }
 
-        //render SpotLights
-        SpotLight[] spotLights = lighting.getSpotLights();
-        count = spotLights != null ? spotLights.length : 0;
-        for (int i = 0; i < count; i++) {
-
-            //create copy and multiply by view matrix
-            SpotLight slCopy = new SpotLight(spotLights[i]);
-            Vector4f dirT = new Vector4f(slCopy.getDirection(), 0);
-            dirT.mul(viewMatrix);
-            slCopy.setDirection(new Vector3f(dirT.x, dirT.y, dirT.z));
-            Vector3f pos = slCopy.getPointLight().getPosition();
-            Vector4f posT = new Vector4f(pos, 1);
-            posT.mul(viewMatrix);
-            pos.x = posT.x;
-            pos.y = posT.y;
-            pos.z = posT.z;
-            shaderProgram.setUniform("spotLights[" + i + "]", slCopy);
-        }
+    /**
+     * @return whether two model matrices of a model matrix column are the same
+     */
+    private static boolean matricesEqual(float[] models, int a, int b) {
+        if (a == b) return true;
+        for (int i = 0; i < EntityStore.MATRIX_FLOATS; i++) if (models[a + i] != models[b + i]) return false;
+        return true;
+    }
 
-        //render DirectionalLight
-        if (lighting.hasDirectionalLighting()) {
-            DirectionalLight dlCopy = new DirectionalLight(lighting.getDirectionalLight());
-            Vector4f dirT = new Vector4f(dlCopy.getDirection(), 0);
-            dirT.mul(viewMatrix);
-            dlCopy.setDirection(new Vector3f(dirT.x, dirT.y, dirT.z));
-            shaderProgram.setUniform("directionalLight", dlCopy);
-        }
+    /**
+     * Calculates how far in front of the camera an entity is, measured at the center of its bounds if it has any
+     * @param store the store holding the entity
+     * @param entity the index of the entity
+     * @param mesh the mesh of the entity
+     * @param viewMatrix the view matrix
+     * @return the distance along the view direction
+     */
+    private static float viewDepth(EntityStore store, int entity, Mesh mesh, Matrix4f viewMatrix) {
+        float[] column = mesh.hasBounds() ? store.getBounds() : store.getTransforms();
+        int p = mesh.hasBounds() ? entity * EntityStore.BOUNDS_FLOATS + 6 : entity * EntityStore.TRANSFORM_FLOATS;
+        return -(viewMatrix.m02() * column[p] + viewMatrix.m12() * column[p + 1] + viewMatrix.m22() * column[p + 2] +
+                viewMatrix.m32());
+    }
+
+    //Accessors
+    public boolean isInstancedRendering() { return this.instancedRendering; }
+    public FrustumCuller getFrustumCuller() { return this.frustumCuller; }
+    public RenderQueue getRenderQueue() { return this.renderQueue; }
+    public ClusteredLighting getClusteredLighting() { return this.clusteredLighting; }
+    public LightingUniformBuffer getLightingBuffer() { return this.lightingBuffer; }
+    public MaterialUniformBuffer getMaterialBuffer() { return this.materialBuffer; }
+
+    //Mutators
+    public void setInstancedRendering(boolean instancedRendering) { this.instancedRendering = instancedRendering; }
+    public void setJobSystem(JobSystem jobs) { //null to do everything on the calling thread
+        this.jobs = jobs;
+        if (this.clusteredLighting != null) this.clusteredLighting.setJobSystem(jobs);
     }
 
     //Cleanup Method
     public void cleanup() {
 
-        //cleanup shaders
+        //cleanup shaders and uniform buffers
         if (this.shaderProgram != null) this.shaderProgram.cleanup();
+        if (this.lightingBuffer != null) this.lightingBuffer.cleanup();
+        if (this.materialBuffer != null) this.materialBuffer.cleanup();
+        if (this.clusteredLighting != null) this.clusteredLighting.cleanup();
     }
 
     //Clear Method
@@ -0,0 +1,194 @@
+package engine.graphics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Shares GPU resources between their users. Resources are keyed by asset path, so a resource requested twice is
+ * only loaded once, and each user holds a reference that it gives back with release(), passing the future it was
+ * given so that a release can't be mistaken for one of a later load of the same key. Resources nobody references
+ * stay resident, so they can be picked up again without a reload, until the total size of everything resident
+ * exceeds the memory budget; the least recently used unreferenced resources are then destroyed. All methods may be
+ * called from any thread; resources are always destroyed on the render thread
+ */
+public class ResourceCache {
+
+    //Data
+    private final UploadQueue renderThreadQueue; //used to destroy resources on the render thread
+    private final Map<String, Entry<?>> entries; //every resident or loading resource
+    private final LinkedHashMap<String, Entry<?>> unreferenced; //resources with no users, least recently used first
+    private long budgetBytes;
+    private long residentBytes;
+    private int hits, misses, evictions;
+
+    /**
+     * Constructor
+     * @param renderThreadQueue a queue processed on the render thread, used to destroy evicted resources
+     * @param budgetBytes the number of bytes of GPU memory that resident resources may take up before unreferenced
+     *                    ones are evicted
+     */
+    public ResourceCache(UploadQueue renderThreadQueue, long budgetBytes) {
+        this.renderThreadQueue = renderThreadQueue;
+        this.entries = new HashMap<>();
+        this.unreferenced = new LinkedHashMap<>(16, 0.75f, true);
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Acquires a reference to a resource, loading it if it isn't resident. Every call must be matched by a call to
+     * release() with the same key and the returned future
+     * @param key the key of the resource, normally its asset path
+     * @param loader starts loading the resource. Only called if the resource isn't resident or loading
+     * @param sizer gives the number of bytes of GPU memory a loaded resource takes up
+     * @param destroyer destroys a resource. Called on the render thread when the resource is evicted
+     * @return a future completed with the resource
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> CompletableFuture<T> acquire(String key, Supplier<CompletableFuture<T>> loader,
+                                                         ToLongFunction<T> sizer, Consumer<T> destroyer) {
+
+        //find existing entry
+        Entry<T> entry = (Entry<T>)this.entries.get(key);
+        if (entry != null) {
+            if (entry.references == 0) this.unreferenced.remove(key);
+            this.hits++;
+
+        //or create a new one and start loading
+        } else {
+            entry = new Entry<>(key, destroyer);
+            this.entries.put(key, entry);
+            this.misses++;
+            Entry<T> loading = entry;
+            entry.future = loader.get();
+            entry.future.whenComplete((T resource, Throwable t) -> {
+                if (t != null) this.failed(loading);
+                else this.loaded(loading, resource != null ? sizer.applyAsLong(resource) : 0);
+            });
+        }
+
+        //add reference
+        entry.references++;
+        return entry.future;
+    }
+
+    /**
+     * Releases a reference to a resource acquired with acquire(). When the last reference is released the resource
+     * stays resident until it has to be evicted to stay within the budget
+     * @param key the key the resource was acquired with
+     * @param future the future acquire() returned
+     */
+    public synchronized void release(String key, CompletableFuture<?> future) {
+        Entry<?> entry = this.entries.get(key);
+        if (entry == null || entry.future != future) return; //failed or destroyed by cleanup(), maybe since reloaded
+        if (entry.references == 0)
+            throw new IllegalStateException("Released resource '" + key + "' which is not acquired");
+        if (--entry.references == 0) {
+            this.unreferenced.put(key, entry);
+            this.evict();
+        }
+    }
+
+    /**
+     * Accounts for a resource that has finished loading
+     */
+    private synchronized void loaded(Entry<?> entry, long bytes) {
+        if (this.entries.get(entry.key) != entry) return; //destroyed by cleanup() while it was loading
+        entry.bytes = bytes;
+        this.residentBytes += bytes;
+        this.evict();
+    }
+
+    /**
+     * Forgets a resource that failed to load, so the next acquire() of its key loads it again. Users already holding
+     * the failed future may still release it, which does nothing even once the key has been acquired again
+     */
+    private synchronized void failed(Entry<?> entry) {
+        if (this.entries.get(entry.key) != entry) return; //destroyed by cleanup() while it was loading
+        this.entries.remove(entry.key);
+        this.unreferenced.remove(entry.key);
+    }
+
+    /**
+     * Destroys least recently used unreferenced resources until the resident resources fit in the budget
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry<?>>> iterator = this.unreferenced.entrySet().iterator();
+        while (this.residentBytes > this.budgetBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry<?>> next = iterator.next();
+            Entry<?> entry = next.getValue();
+            if (!entry.future.isDone()) continue; //can't destroy something that is still loading
+            iterator.remove();
+            this.entries.remove(next.getKey());
+            this.residentBytes -= entry.bytes;
+            this.evictions++;
+            entry.destroy(this.renderThreadQueue);
+        }
+    }
+
+    /**
+     * Destroys every resource, referenced or not, on the calling thread. Must be called from the render thread
+     */
+    public synchronized void cleanup() {
+        List<Entry<?>> destroyed = new ArrayList<>(this.entries.values());
+        this.entries.clear();
+        this.unreferenced.clear();
+        this.residentBytes = 0;
+        for (Entry<?> entry : destroyed) entry.destroy(null);
+    }
+
+    //Accessors
+    public synchronized long getBudgetBytes() { return this.budgetBytes; }
+    public synchronized long getResidentBytes() { return this.residentBytes; }
+    public synchronized int getResidentCount() { return this.entries.size(); }
+    public synchronized int getHits() { return this.hits; }
+    public synchronized int getMisses() { return this.misses; }
+    public synchronized int getEvictions() { return this.evictions; }
+
+    //Mutators
+    public synchronized void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        this.evict();
+    }
+
+    /**
+     * A cached resource and its users
+     */
+    private static class Entry<T> {
+
+        //Data
+        private final String key;
+        private CompletableFuture<T> future;
+        private final Consumer<T> destroyer;
+        private int references;
+        private long bytes;
+
+        //Constructor
+        private Entry(String key, Consumer<T> destroyer) {
+            this.key = key;
+            this.destroyer = destroyer;
+        }
+
+        /**
+         * Destroys the resource once it has loaded (resources that failed to load have nothing to destroy)
+         * @param queue the queue to destroy the resource on, or null to destroy it on the calling thread
+         */
+        private void destroy(UploadQueue queue) {
+            this.future.thenAccept((T resource) -> {
+                if (resource == null) return;
+                if (queue == null) this.destroyer.accept(resource);
+                else queue.submit(() -> {
+                    this.destroyer.accept(resource);
+                    return null;
+                });
+            });
+        }
+    }
+}
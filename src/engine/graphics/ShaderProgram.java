@@ -1,20 +1,10 @@
 package engine.graphics;
 
-import engine.graphics.lighting.DirectionalLight;
-import engine.graphics.lighting.PointLight;
-import engine.graphics.lighting.SpotLight;
-import engine.graphics.renderable.Material;
+import engine.graphics.uniforms.Uniform;
 import engine.utils.Utils;
-import org.joml.Matrix4f;
-import org.joml.Vector3f;
-import org.joml.Vector4f;
-import org.lwjgl.system.MemoryStack;
-
-import java.nio.FloatBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL31.*;
 
 //Info Codes Used: 0
 
@@ -24,7 +14,6 @@ public class ShaderProgram {
     private int vertexShaderID;
     private int fragmentShaderID;
     private int programID;
-    private Map<String, Integer> uniforms;
 
     //Constructor
     public ShaderProgram() {
@@ -34,7 +23,6 @@ public class ShaderProgram {
             Utils.log(e, "engine.graphics.ShaderProgram");
             throw e;
         }
-        this.uniforms = new HashMap<>();
     }
 
     /**
@@ -83,110 +71,68 @@ public class ShaderProgram {
                     "engine.graphics.ShaderProgram", 0, true);
     }
 
-    //Uniform Creation Methods
-    public void createUniform(String name) {
-
-        //find uniform and put its location in the uniforms map
+    /**
+     * Finds the location of a uniform
+     * @param name the name of the uniform in the shader
+     * @return the location
+     * @throws IllegalStateException if there is no active uniform with that name
+     */
+    public int findUniform(String name) {
         int location = glGetUniformLocation(this.programID, name);
         if (location < 0) {
             IllegalStateException e = new IllegalStateException("Unable to find uniform '" + name + "'");
             Utils.log(e, "engine.graphics.ShaderProgram");
             throw e;
         }
-        this.uniforms.put(name, location);
-    }
-    public void createMaterialUniform(String name) {
-        this.createUniform(name + ".hasTexture");
-        this.createUniform(name + ".reflectance");
-        this.createUniform(name + ".ambientColor");
-        this.createUniform(name + ".diffuseColor");
-        this.createUniform(name + ".specularColor");
-    }
-    public void createPointLightUniform(String name) {
-        this.createUniform(name + ".color");
-        this.createUniform(name + ".position");
-        this.createUniform(name + ".intensity");
-        this.createUniform(name + ".attenuation.constant");
-        this.createUniform(name + ".attenuation.linear");
-        this.createUniform(name + ".attenuation.exponent");
-    }
-    public void createPointLightUniforms(String name, int size) {
-        for (int i = 0; i < size; i++) createPointLightUniform(name + "[" + i + "]");
-    }
-    public void createSpotLightUniform(String name) {
-        this.createPointLightUniform(name + ".pointLight");
-        this.createUniform(name + ".direction");
-        this.createUniform(name + ".cutOff");
-    }
-    public void createSpotLightUniforms(String name, int size) {
-        for (int i = 0; i < size; i++) createSpotLightUniform(name + "[" + i + "]");
-    }
-    public void createDirectionalLightUniform(String name) {
-        this.createUniform(name + ".color");
-        this.createUniform(name + ".direction");
-        this.createUniform(name + ".intensity");
+        return location;
     }
 
-    //Uniform Setting Methods
-    public void setUniform(String name, int value) { glUniform1i(this.uniforms.get(name), value); }
-    public void setUniform(String name, float value) { glUniform1f(this.uniforms.get(name), value); }
-    public void setUniform(String name, Vector3f value) { glUniform3f(this.uniforms.get(name), value.x, value.y,
-            value.z); }
-    public void setUniform(String name, Vector4f value) { glUniform4f(this.uniforms.get(name), value.x, value.y,
-            value.z, value.w); }
-    public void setUniform(String name, Matrix4f value) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer buf = stack.mallocFloat(16);
-            value.get(buf);
-            glUniformMatrix4fv(this.uniforms.get(name), false, buf);
-        } catch (Exception e) {
+    //Uniform Creation Methods (handles are resolved once here and then set directly)
+    public Uniform.Int createIntUniform(String name) { return new Uniform.Int(name, this.findUniform(name)); }
+    public Uniform.Float createFloatUniform(String name) { return new Uniform.Float(name, this.findUniform(name)); }
+    public Uniform.Vec3 createVector3fUniform(String name) { return new Uniform.Vec3(name, this.findUniform(name)); }
+    public Uniform.Vec4 createVector4fUniform(String name) { return new Uniform.Vec4(name, this.findUniform(name)); }
+    public Uniform.Mat4 createMatrix4fUniform(String name) { return new Uniform.Mat4(name, this.findUniform(name)); }
+
+    /**
+     * Connects a uniform block to a uniform buffer binding point
+     * @param name the name of the uniform block in the shader
+     * @param binding the binding point
+     * @param size the size the block is expected to have in bytes, following std140 rules
+     * @throws IllegalStateException if there is no active block with that name, or if its size differs
+     */
+    public void bindUniformBlock(String name, int binding, int size) {
+
+        //find block
+        int index = glGetUniformBlockIndex(this.programID, name);
+        if (index == GL_INVALID_INDEX) {
+            IllegalStateException e = new IllegalStateException("Unable to find uniform block '" + name + "'");
             Utils.log(e, "engine.graphics.ShaderProgram");
-            e.printStackTrace();
+            throw e;
         }
+
+        //check size so a layout mismatch between shader and buffer can't go unnoticed
+        int actualSize = glGetActiveUniformBlocki(this.programID, index, GL_UNIFORM_BLOCK_DATA_SIZE);
+        if (actualSize != size) {
+            IllegalStateException e = new IllegalStateException("Uniform block '" + name + "' is " + actualSize +
+                    " bytes but " + size + " bytes were expected");
+            Utils.log(e, "engine.graphics.ShaderProgram");
+            throw e;
+        }
+        glUniformBlockBinding(this.programID, index, binding);
     }
-    public void setUniform(String name, Material value) {
-        this.setUniform(name + ".hasTexture", value.isTextured() ? 1 : 0);
-        this.setUniform(name + ".reflectance", value.getReflectance());
-        this.setUniform(name + ".ambientColor", value.getAmbientColor());
-        this.setUniform(name + ".diffuseColor", value.getDiffuseColor());
-        this.setUniform(name + ".specularColor", value.getSpecularColor());
-    }
-    public void setUniform(String name, PointLight value) {
-        this.setUniform(name + ".color", value.getColor());
-        this.setUniform(name + ".position", value.getPosition());
-        this.setUniform(name + ".intensity", value.getIntensity());
-        PointLight.Attenuation att = value.getAttenuation();
-        setUniform(name + ".attenuation.constant", att.getConstant());
-        setUniform(name + ".attenuation.linear", att.getLinear());
-        setUniform(name + ".attenuation.exponent", att.getExponent());
-    }
-    public void setUniform(String name, PointLight[] value) {
-        int count = value != null ? value.length : 0;
-        for (int i = 0; i < count; i++) setUniform(name + "[" + i + "]", value[i]);
-    }
-    public void setUniform(String name, SpotLight value) {
-        this.setUniform(name + ".pointLight", value.getPointLight());
-        this.setUniform(name + ".direction", value.getDirection());
-        this.setUniform(name + ".cutOff", value.getCutOff());
-    }
-    public void setUniform(String name, SpotLight[] value) {
-        int count = value != null ? value.length : 0;
-        for (int i = 0; i < count; i++) setUniform(name + "[" + i + "]", value[i]);
-    }
-    public void setUniform(String name, DirectionalLight value) {
-        this.setUniform(name + ".color", value.getColor());
-        this.setUniform(name + ".direction", value.getDirection());
-        this.setUniform(name + ".intensity", value.getIntensity());
-    }
+
+    //Accessors
+    public int getID() { return this.programID; }
 
     //Binding/Unbinding Methods
-    public void bind() { glUseProgram(this.programID); }
-    public void unbind() { glUseProgram(0); }
+    public void bind() { GLState.useProgram(this.programID); }
+    public void unbind() { GLState.useProgram(0); }
 
     //Cleanup Method
     public void cleanup() {
         this.unbind(); //unbind shader
-        if (this.programID != 0) glDeleteProgram(this.programID); //delete program
+        if (this.programID != 0) GLState.deleteProgram(this.programID); //delete program
     }
 
     /**
@@ -0,0 +1,96 @@
+package engine.graphics;
+
+import engine.graphics.renderable.TextureArray;
+import engine.graphics.renderable.TextureData;
+import engine.graphics.renderable.TextureSlot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs images into TextureArrays grouped by size. Each image is given a TextureSlot in an array of its size with a
+ * free layer, and a new array is created when all arrays of that size are full. Arrays are destroyed once every
+ * slot in them has been released.
+ *
+ * Array textures are used rather than a single packed atlas because tile textures are clamped at their edges and
+ * mipmapped, which layers allow without any bleeding between neighbouring images. Must only be used from the render
+ * thread
+ */
+public class TextureAtlas {
+
+    //Static Data
+    public static final int DEFAULT_LAYERS_PER_ARRAY = 32;
+
+    //Data
+    private final Map<Long, List<TextureArray>> arrays; //arrays by size (width in the high bits, height in the low)
+    private final int layersPerArray;
+
+    //Default Constructor
+    public TextureAtlas() { this(TextureAtlas.DEFAULT_LAYERS_PER_ARRAY); }
+
+    /**
+     * Constructor. No GL calls are made until the first image is added
+     * @param layersPerArray the number of layers to create each array with
+     */
+    public TextureAtlas(int layersPerArray) {
+        this.arrays = new HashMap<>();
+        this.layersPerArray = layersPerArray;
+    }
+
+    /**
+     * Uploads an image into a free layer of an array of its size, creating the array if needed
+     * @param data the decoded image
+     * @return the slot the image was put in
+     */
+    public TextureSlot add(TextureData data) {
+
+        //find arrays of the image's size
+        long size = TextureAtlas.sizeKey(data.getWidth(), data.getHeight());
+        List<TextureArray> arrays = this.arrays.get(size);
+        if (arrays == null) {
+            arrays = new ArrayList<>();
+            this.arrays.put(size, arrays);
+        }
+
+        //add to the first with a free layer, or to a new one
+        for (TextureArray array : arrays) {
+            if (!array.isFull()) return new TextureSlot(array, array.add(data));
+        }
+        TextureArray array = new TextureArray(data.getWidth(), data.getHeight(), this.layersPerArray);
+        arrays.add(array);
+        return new TextureSlot(array, array.add(data));
+    }
+
+    /**
+     * Frees a slot, destroying its array if no slots in it remain
+     * @param slot the slot
+     */
+    public void release(TextureSlot slot) {
+        TextureArray array = slot.getArray();
+        array.remove(slot.getLayer());
+        if (!array.isEmpty()) return;
+        List<TextureArray> arrays = this.arrays.get(TextureAtlas.sizeKey(array.getWidth(), array.getHeight()));
+        if (arrays != null) arrays.remove(array);
+        array.cleanup();
+    }
+
+    /**
+     * Packs an image size into a map key
+     */
+    private static long sizeKey(int width, int height) { return (long)width << 32 | height; }
+
+    //Accessors
+    public int getArrayCount() {
+        int count = 0;
+        for (List<TextureArray> arrays : this.arrays.values()) count += arrays.size();
+        return count;
+    }
+
+    //Cleanup Method
+    public void cleanup() {
+        for (List<TextureArray> arrays : this.arrays.values()) for (TextureArray array : arrays) array.cleanup();
+        this.arrays.clear();
+    }
+}
@@ -9,11 +9,13 @@ public class Transformer {
     //Data
     private Matrix4f projectionMatrix;
     private Matrix4f viewMatrix;
+    private Matrix4f modelViewMatrix; //scratch matrix returned by buildModelViewMatrix(item)
 
     //Constructor
     public Transformer() {
         this.projectionMatrix = new Matrix4f();
         this.viewMatrix = new Matrix4f();
+        this.modelViewMatrix = new Matrix4f();
     }
 
     /**
@@ -46,33 +48,62 @@ public class Transformer {
         Vector3f cameraRotation = camera.getRotation();
 
         //rotate
-        this.viewMatrix.identity().rotate((float)Math.toRadians(cameraRotation.x), new Vector3f(1, 0, 0))
-                .rotate((float)Math.toRadians(cameraRotation.y), new Vector3f(0, 1, 0));
+        this.viewMatrix.identity().rotateX((float)Math.toRadians(cameraRotation.x))
+                .rotateY((float)Math.toRadians(cameraRotation.y));
 
         //then translate
-        viewMatrix.translate(-cameraPosition.x, -cameraPosition.y, -cameraPosition.z);
+        this.viewMatrix.translate(-cameraPosition.x, -cameraPosition.y, -cameraPosition.z);
 
         //return the view matrix
         return this.viewMatrix;
     }
 
     /**
-     * Builds a model view matrix based off of this Transformer's view matrix
-     * @param item the item whose aspects are to be considered
-     * @return the built model view matrix
+     * Builds a model matrix (model space -> world space) from the given aspects. This is how every model matrix is
+     * built, so items and anything derived from them (like culling bounds) always agree
+     * @param position the position of the model
+     * @param rotation the rotation of the model around each axis (in degrees)
+     * @param scale the scale of the model
+     * @param dest the matrix to build the model matrix in
+     * @return dest
      */
-    public Matrix4f buildModelViewMatrix(RenderableItem item) {
-        Vector3f rotation = item.getRotation();
-        Matrix4f modelViewMatrix = new Matrix4f();
-        modelViewMatrix.identity().translate(item.getPosition())
+    public static Matrix4f buildModelMatrix(Vector3f position, Vector3f rotation, float scale, Matrix4f dest) {
+        return dest.translation(position)
                 .rotateX((float)Math.toRadians(-rotation.x))
                 .rotateY((float)Math.toRadians(-rotation.y))
                 .rotateZ((float)Math.toRadians(-rotation.z))
-                .scale(item.getScale());
-        Matrix4f viewMatrixCopy = new Matrix4f(this.viewMatrix);
-        return viewMatrixCopy.mul(modelViewMatrix);
+                .scale(scale);
+    }
+
+    /**
+     * Finds the model matrix (model space -> world space) of an item. Items cache their model matrix, so this only
+     * does any work if the item has changed
+     * @param item the item whose aspects are to be considered
+     * @return the item's model matrix, which must not be modified
+     */
+    public Matrix4f buildModelMatrix(RenderableItem item) { return item.getModelMatrix(); }
+
+    /**
+     * Builds a model view matrix based off of this Transformer's view matrix into this Transformer's scratch matrix.
+     * The same matrix object is returned on every call, so its contents must be used before the next call
+     * @param item the item whose aspects are to be considered
+     * @return the built model view matrix
+     */
+    public Matrix4f buildModelViewMatrix(RenderableItem item) {
+        return this.buildModelViewMatrix(item, this.modelViewMatrix);
+    }
+
+    /**
+     * Builds a model view matrix based off of this Transformer's view matrix
+     * @param item the item whose aspects are to be considered
+     * @param dest the matrix to build the model view matrix in
+     * @return dest
+     */
+    public Matrix4f buildModelViewMatrix(RenderableItem item, Matrix4f dest) {
+        return this.viewMatrix.mul(item.getModelMatrix(), dest);
     }
 
     //Accessors
+    public Matrix4f getProjectionMatrix() { return this.projectionMatrix; }
     public Matrix4f getViewMatrix() { return this.viewMatrix; }
 }
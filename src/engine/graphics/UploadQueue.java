@@ -0,0 +1,60 @@
+package engine.graphics;
+
+import engine.utils.Utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * A queue of GL work submitted from any thread and run on the render thread. Each call to process() runs queued work
+ * until a time budget is used up, so that a burst of uploads is spread over several frames instead of stalling one
+ */
+public class UploadQueue {
+
+    //Data
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+
+    //Constructor
+    public UploadQueue() {
+        this.tasks = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Queues work to be run on the render thread
+     * @param task the work to run. Its result completes the returned future
+     * @return a future completed (on the render thread) with the task's result, or exceptionally if it throws
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        this.tasks.add(() -> {
+            try {
+                future.complete(task.get());
+            } catch (Exception e) {
+                Utils.log(e, "engine.graphics.UploadQueue");
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs queued work until the queue is empty or the budget is used up. At least one task is run per call so that
+     * the queue always makes progress. Must be called from the render thread
+     * @param budgetNanos the time budget, in nanoseconds
+     * @return the number of tasks run
+     */
+    public int process(long budgetNanos) {
+        long start = System.nanoTime();
+        int count = 0;
+        Runnable task;
+        while ((count == 0 || System.nanoTime() - start < budgetNanos) && (task = this.tasks.poll()) != null) {
+            task.run();
+            count++;
+        }
+        return count;
+    }
+
+    //Accessors
+    public boolean isEmpty() { return this.tasks.isEmpty(); }
+}
@@ -23,7 +23,7 @@ public class Window {
 
     //Window Data
     private boolean vSync;
-    private boolean resized = false;
+    private boolean resized = true; //starts out true so the viewport and projection are set up on the first frame
     private int width, height;
     private long id;
     private String title;
@@ -56,7 +56,7 @@ public class Window {
         glfwWindowHint(GLFW_VISIBLE, GL_FALSE); //window will stay hidden after creation
         glfwWindowHint(GLFW_RESIZABLE, GL_TRUE); //window will be resizable
         glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3);
-        glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 2);
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3); //3.3 for glsl 330 and instanced attributes
         glfwWindowHint(GLFW_OPENGL_PROFILE, GLFW_OPENGL_CORE_PROFILE);
         glfwWindowHint(GLFW_OPENGL_FORWARD_COMPAT, GL_TRUE);
 
@@ -126,14 +126,15 @@ public class Window {
 
         //set clear color and enable depth testing
         glClearColor(this.clearColor.x, this.clearColor.y, this.clearColor.z, this.clearColor.w);
-        glEnable(GL_DEPTH_TEST);
+        GLState.invalidate(); //new context, nothing is known about its state
+        GLState.enable(GL_DEPTH_TEST);
 
         //enable support for transparencies
-        glEnable(GL_BLEND);
+        GLState.enable(GL_BLEND);
         glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
 
         //enable face culling
-        glEnable(GL_CULL_FACE);
+        GLState.enable(GL_CULL_FACE);
         glCullFace(GL_BACK);
 
         //grab mouse if enabled
@@ -3,7 +3,9 @@ package engine.graphics.lighting;
 import org.joml.Vector3f;
 
 /**
- * Models all the lighting in a scene by serving as bundle of multiple lights
+ * Models all the lighting in a scene by serving as bundle of multiple lights. The renderer only re-uploads lighting
+ * when its version changes, which the mutators here take care of; code that changes lights or the ambient light in
+ * place must call markChanged() afterwards
  */
 public class SceneLighting {
 
@@ -12,6 +14,7 @@ public class SceneLighting {
     private PointLight[] pointLights;
     private SpotLight[] spotLights;
     private DirectionalLight directionalLight;
+    private int version; //incremented whenever the lighting changes
 
     //Accessors
     public boolean hasDirectionalLighting() { return this.directionalLight != null; }
@@ -19,16 +22,31 @@ public class SceneLighting {
     public PointLight[] getPointLights() { return this.pointLights; }
     public SpotLight[] getSpotLights() { return spotLights; }
     public DirectionalLight getDirectionalLight() { return this.directionalLight; }
+    public int getVersion() { return this.version; }
 
     //Mutators
-    public void setAmbientLight(Vector3f ambientLight) { this.ambientLight = ambientLight; }
-    public void setPointLights(PointLight[] pointLights) { this.pointLights = pointLights; }
-    public void setSpotLights(SpotLight[] spotLights) { this.spotLights = spotLights; }
-    public void setDirectionalLight(DirectionalLight directionalLight) { this.directionalLight = directionalLight; }
+    public void setAmbientLight(Vector3f ambientLight) {
+        this.ambientLight = ambientLight;
+        this.version++;
+    }
+    public void setPointLights(PointLight[] pointLights) {
+        this.pointLights = pointLights;
+        this.version++;
+    }
+    public void setSpotLights(SpotLight[] spotLights) {
+        this.spotLights = spotLights;
+        this.version++;
+    }
+    public void setDirectionalLight(DirectionalLight directionalLight) {
+        this.directionalLight = directionalLight;
+        this.version++;
+    }
     public void setLights(Vector3f ambientLight, PointLight[] pointLights, SpotLight[] spotLights, DirectionalLight directionalLight) {
         this.ambientLight = ambientLight;
         this.pointLights = pointLights;
         this.spotLights = spotLights;
         this.directionalLight = directionalLight;
+        this.version++;
     }
+    public void markChanged() { this.version++; }
 }
@@ -0,0 +1,362 @@
+package engine.graphics.renderable;
+
+import engine.graphics.Transformer;
+import engine.utils.Utils;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores renderable entities as columns of primitives instead of as one object each, so that code going over many
+ * entities (culling, choosing levels of detail, filling instance buffers) reads memory in order. Each entity has a
+ * mesh (stored as an id into the store's mesh table), a transform (position, rotation and scale), a cached model
+ * matrix and world space bounds, and the level of detail it was last drawn at.
+ *
+ * Column layouts, per entity, with entity i's data starting at i times the number of floats:
+ *
+ *   transforms (7 floats):  position x/y/z, rotation x/y/z (degrees), scale
+ *   models (16 floats):     the model matrix, column-major
+ *   bounds (10 floats):     world box min x/y/z, world box max x/y/z, world sphere center x/y/z, world sphere radius
+ *
+ * Entities are kept densely packed: removing one moves the last entity into its place. Indices therefore change, so
+ * entities are referred to by handles, which stay valid until the entity is removed. A handle holds a slot (which
+ * maps to the entity's current index) and the generation of that slot, which is bumped whenever an entity in the slot
+ * is removed, so handles of removed entities are recognised instead of silently pointing at a new entity.
+ *
+ * Model matrices and bounds are rebuilt lazily: changes mark them dirty, and update() rebuilds the dirty ones. Column
+ * arrays returned by the accessors may be replaced when the store grows, so they should be fetched again after
+ * entities are added. A store must only be used by one thread at a time, except that update() may run on disjoint
+ * ranges of entities at once
+ */
+public class EntityStore {
+
+    //Static Data
+    public static final int TRANSFORM_FLOATS = 7, MATRIX_FLOATS = 16, BOUNDS_FLOATS = 10;
+    private static final byte MODEL_DIRTY = 1, BOUNDS_DIRTY = 2;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new); //for update()
+
+    //Columns (by entity index)
+    private int[] meshIds;
+    private float[] transforms, models, bounds;
+    private byte[] flags; //which of the cached model matrix and bounds need to be rebuilt
+    private int[] lods; //the level of detail each entity was last drawn at
+    private int[] slots; //the handle slot of each entity
+    private int count; //the number of entities
+
+    //Handle Data (by slot)
+    private int[] indices; //the index of the entity in each slot, or -1 if the slot is free
+    private int[] generations; //the generation of each slot, bumped whenever its entity is removed
+    private int[] freeSlots; //slots free to reuse
+    private int freeCount, slotCount;
+
+    //Mesh Data (by mesh id)
+    private final List<Mesh> meshes; //the mesh of each id, or null if the id is free
+    private final Map<Mesh, Integer> meshIdsByMesh;
+    private int[] meshUses; //the number of entities using each mesh id
+    private final List<Integer> freeMeshIds;
+
+    //Default Constructor
+    public EntityStore() { this(EntityStore.INITIAL_CAPACITY); }
+
+    /**
+     * Constructor
+     * @param capacity the number of entities to make room for at first
+     */
+    public EntityStore(int capacity) {
+        capacity = Math.max(1, capacity);
+        this.meshIds = new int[capacity];
+        this.transforms = new float[capacity * EntityStore.TRANSFORM_FLOATS];
+        this.models = new float[capacity * EntityStore.MATRIX_FLOATS];
+        this.bounds = new float[capacity * EntityStore.BOUNDS_FLOATS];
+        this.flags = new byte[capacity];
+        this.lods = new int[capacity];
+        this.slots = new int[capacity];
+        this.indices = new int[capacity];
+        this.generations = new int[capacity];
+        this.freeSlots = new int[capacity];
+        this.meshes = new ArrayList<>();
+        this.meshIdsByMesh = new HashMap<>();
+        this.meshUses = new int[4];
+        this.freeMeshIds = new ArrayList<>();
+    }
+
+    /**
+     * Adds an entity at the origin with no rotation and a scale of 1
+     * @param mesh the mesh of the entity
+     * @return the handle of the entity
+     */
+    public long create(Mesh mesh) {
+
+        //find slot and index
+        if (this.count == this.meshIds.length) this.grow();
+        int slot = this.freeCount > 0 ? this.freeSlots[--this.freeCount] : this.slotCount++;
+        int index = this.count++;
+        this.indices[slot] = index;
+        this.slots[index] = slot;
+
+        //initialize columns
+        this.meshIds[index] = this.acquireMeshId(mesh);
+        int t = index * EntityStore.TRANSFORM_FLOATS;
+        Arrays.fill(this.transforms, t, t + 6, 0f);
+        this.transforms[t + 6] = 1f;
+        this.flags[index] = EntityStore.MODEL_DIRTY | EntityStore.BOUNDS_DIRTY;
+        this.lods[index] = 0;
+        return EntityStore.handle(slot, this.generations[slot]);
+    }
+
+    /**
+     * Removes an entity by moving the last entity into its place
+     * @param handle the handle of the entity
+     * @return whether the handle belonged to an entity of this store that hadn't been removed yet
+     */
+    public boolean remove(long handle) {
+
+        //find entity
+        int index = this.indexOf(handle);
+        if (index < 0) return false;
+        this.releaseMeshId(this.meshIds[index]);
+
+        //move the last entity into its place
+        int last = --this.count;
+        if (index != last) {
+            this.meshIds[index] = this.meshIds[last];
+            System.arraycopy(this.transforms, last * EntityStore.TRANSFORM_FLOATS, this.transforms,
+                    index * EntityStore.TRANSFORM_FLOATS, EntityStore.TRANSFORM_FLOATS);
+            System.arraycopy(this.models, last * EntityStore.MATRIX_FLOATS, this.models,
+                    index * EntityStore.MATRIX_FLOATS, EntityStore.MATRIX_FLOATS);
+            System.arraycopy(this.bounds, last * EntityStore.BOUNDS_FLOATS, this.bounds,
+                    index * EntityStore.BOUNDS_FLOATS, EntityStore.BOUNDS_FLOATS);
+            this.flags[index] = this.flags[last];
+            this.lods[index] = this.lods[last];
+            this.slots[index] = this.slots[last];
+            this.indices[this.slots[index]] = index;
+        }
+
+        //free slot, invalidating the handle
+        int slot = (int)handle;
+        this.indices[slot] = -1;
+        this.generations[slot]++;
+        this.freeSlots[this.freeCount++] = slot;
+        return true;
+    }
+
+    /**
+     * Moves an entity into another store, keeping its transform and level of detail
+     * @param handle the handle of the entity
+     * @param dest the store to move the entity into
+     * @return the entity's handle in the other store
+     */
+    public long moveTo(long handle, EntityStore dest) {
+        int index = this.checkedIndexOf(handle);
+        long moved = dest.create(this.meshes.get(this.meshIds[index]));
+        int destIndex = dest.indexOf(moved);
+        System.arraycopy(this.transforms, index * EntityStore.TRANSFORM_FLOATS, dest.transforms,
+                destIndex * EntityStore.TRANSFORM_FLOATS, EntityStore.TRANSFORM_FLOATS);
+        dest.lods[destIndex] = this.lods[index];
+        this.remove(handle);
+        return moved;
+    }
+
+    /**
+     * Doubles the capacity of every column and of the handle data
+     */
+    private void grow() {
+        int capacity = this.meshIds.length * 2;
+        this.meshIds = Arrays.copyOf(this.meshIds, capacity);
+        this.transforms = Arrays.copyOf(this.transforms, capacity * EntityStore.TRANSFORM_FLOATS);
+        this.models = Arrays.copyOf(this.models, capacity * EntityStore.MATRIX_FLOATS);
+        this.bounds = Arrays.copyOf(this.bounds, capacity * EntityStore.BOUNDS_FLOATS);
+        this.flags = Arrays.copyOf(this.flags, capacity);
+        this.lods = Arrays.copyOf(this.lods, capacity);
+        this.slots = Arrays.copyOf(this.slots, capacity);
+        this.indices = Arrays.copyOf(this.indices, capacity);
+        this.generations = Arrays.copyOf(this.generations, capacity);
+        this.freeSlots = Arrays.copyOf(this.freeSlots, capacity);
+    }
+
+    /**
+     * Finds the id of a mesh in the mesh table, adding the mesh if it isn't in it, and counts one more use of it
+     */
+    private int acquireMeshId(Mesh mesh) {
+        Integer id = this.meshIdsByMesh.get(mesh);
+        if (id == null) {
+            if (!this.freeMeshIds.isEmpty()) {
+                id = this.freeMeshIds.remove(this.freeMeshIds.size() - 1);
+                this.meshes.set(id, mesh);
+            } else {
+                id = this.meshes.size();
+                this.meshes.add(mesh);
+                if (id == this.meshUses.length) this.meshUses = Arrays.copyOf(this.meshUses, id * 2);
+            }
+            this.meshIdsByMesh.put(mesh, id);
+        }
+        this.meshUses[id]++;
+        return id;
+    }
+
+    /**
+     * Counts one less use of a mesh id, freeing it when it is no longer used so the store doesn't keep the mesh alive
+     */
+    private void releaseMeshId(int id) {
+        if (--this.meshUses[id] > 0) return;
+        this.meshIdsByMesh.remove(this.meshes.get(id));
+        this.meshes.set(id, null);
+        this.freeMeshIds.add(id);
+    }
+
+    /**
+     * Rebuilds the model matrices and bounds of every entity that has changed since they were last built
+     */
+    public void update() { this.update(0, this.count); }
+
+    /**
+     * Rebuilds the model matrices and bounds of the entities in a range that have changed since they were last built.
+     * Disjoint ranges may be updated at the same time
+     * @param from the first entity index
+     * @param to one past the last entity index
+     */
+    public void update(int from, int to) {
+        Scratch scratch = null;
+        for (int i = from; i < to; i++) {
+            if (this.flags[i] == 0) continue;
+            if (scratch == null) scratch = EntityStore.scratch.get(); //the calling thread's, so ranges can run at once
+            this.updateEntity(i, scratch.model, scratch.position, scratch.rotation, scratch.min, scratch.max);
+        }
+    }
+
+    /**
+     * Rebuilds the model matrix and bounds of an entity if they are dirty, using the given scratch objects
+     */
+    private void updateEntity(int i, Matrix4f model, Vector3f position, Vector3f rotation, Vector3f min,
+                              Vector3f max) {
+
+        //return if only bounds are dirty and the mesh has none to transform (they are rebuilt once it does)
+        Mesh mesh = this.meshes.get(this.meshIds[i]);
+        boolean rebuildBounds = (this.flags[i] & EntityStore.BOUNDS_DIRTY) != 0 && mesh.hasBounds();
+        if ((this.flags[i] & EntityStore.MODEL_DIRTY) == 0 && !rebuildBounds) return;
+
+        //rebuild model matrix
+        int m = i * EntityStore.MATRIX_FLOATS;
+        if ((this.flags[i] & EntityStore.MODEL_DIRTY) != 0) {
+            int t = i * EntityStore.TRANSFORM_FLOATS;
+            position.set(this.transforms[t], this.transforms[t + 1], this.transforms[t + 2]);
+            rotation.set(this.transforms[t + 3], this.transforms[t + 4], this.transforms[t + 5]);
+            Transformer.buildModelMatrix(position, rotation, this.transforms[t + 6], model).get(this.models, m);
+            this.flags[i] &= ~EntityStore.MODEL_DIRTY;
+        } else model.set(this.models, m);
+
+        //rebuild bounds (the box is grown to stay axis-aligned)
+        if (rebuildBounds) {
+            int b = i * EntityStore.BOUNDS_FLOATS;
+            model.transformAab(mesh.getBoundsMin(), mesh.getBoundsMax(), min, max);
+            model.transformPosition(mesh.getSphereCenter(), position);
+            this.bounds[b] = min.x;
+            this.bounds[b + 1] = min.y;
+            this.bounds[b + 2] = min.z;
+            this.bounds[b + 3] = max.x;
+            this.bounds[b + 4] = max.y;
+            this.bounds[b + 5] = max.z;
+            this.bounds[b + 6] = position.x;
+            this.bounds[b + 7] = position.y;
+            this.bounds[b + 8] = position.z;
+            this.bounds[b + 9] = mesh.getSphereRadius() * Math.abs(this.getScale(i));
+            this.flags[i] &= ~EntityStore.BOUNDS_DIRTY;
+        }
+    }
+
+    /**
+     * Rebuilds one entity's model matrix and bounds if they are dirty
+     */
+    void update(int index) {
+        if (this.flags[index] != 0) this.update(index, index + 1);
+    }
+
+    /**
+     * Finds the current index of an entity
+     * @param handle the handle of the entity
+     * @return the index, or -1 if the entity has been removed
+     */
+    public int indexOf(long handle) {
+        int slot = (int)handle;
+        if (slot < 0 || slot >= this.slotCount || this.generations[slot] != (int)(handle >>> 32)) return -1;
+        return this.indices[slot];
+    }
+
+    /**
+     * Same as indexOf(), but throws for removed entities
+     */
+    int checkedIndexOf(long handle) {
+        int index = this.indexOf(handle);
+        if (index < 0) {
+            IllegalStateException e = new IllegalStateException("Unable to use entity " + handle + ", which has " +
+                    "been removed from its store");
+            Utils.log(e, "engine.graphics.renderable.EntityStore");
+            throw e;
+        }
+        return index;
+    }
+
+    /**
+     * Packs a slot and its generation into a handle
+     */
+    private static long handle(int slot, int generation) { return (long)generation << 32 | (slot & 0xFFFFFFFFL); }
+
+    //Accessors (by entity index)
+    public int size() { return this.count; }
+    public boolean isAlive(long handle) { return this.indexOf(handle) >= 0; }
+    public long getHandle(int index) {
+        return EntityStore.handle(this.slots[index], this.generations[this.slots[index]]);
+    }
+    public int getMeshId(int index) { return this.meshIds[index]; }
+    public Mesh getMesh(int index) { return this.meshes.get(this.meshIds[index]); }
+    public float getScale(int index) { return this.transforms[index * EntityStore.TRANSFORM_FLOATS + 6]; }
+    public int getLod(int index) { return this.lods[index]; }
+
+    //Column Accessors (valid up to size(), model matrices and bounds only after update())
+    public int[] getMeshIds() { return this.meshIds; }
+    public float[] getTransforms() { return this.transforms; }
+    public float[] getModelMatrices() { return this.models; }
+    public float[] getBounds() { return this.bounds; }
+    public int[] getLods() { return this.lods; }
+
+    //Mesh Table Accessors
+    public int getMeshCapacity() { return this.meshes.size(); } //one past the highest mesh id in use
+    public Mesh getMeshById(int id) { return this.meshes.get(id); } //null if the id is free
+
+    //Mutators (by entity index)
+    public void setPosition(int index, float x, float y, float z) {
+        int t = index * EntityStore.TRANSFORM_FLOATS;
+        this.transforms[t] = x;
+        this.transforms[t + 1] = y;
+        this.transforms[t + 2] = z;
+        this.flags[index] = EntityStore.MODEL_DIRTY | EntityStore.BOUNDS_DIRTY;
+    }
+    public void setRotation(int index, float x, float y, float z) {
+        int t = index * EntityStore.TRANSFORM_FLOATS;
+        this.transforms[t + 3] = x;
+        this.transforms[t + 4] = y;
+        this.transforms[t + 5] = z;
+        this.flags[index] = EntityStore.MODEL_DIRTY | EntityStore.BOUNDS_DIRTY;
+    }
+    public void setScale(int index, float scale) {
+        this.transforms[index * EntityStore.TRANSFORM_FLOATS + 6] = scale;
+        this.flags[index] = EntityStore.MODEL_DIRTY | EntityStore.BOUNDS_DIRTY;
+    }
+    public void setLod(int index, int lod) { this.lods[index] = lod; }
+    public void invalidateBounds(int index) { this.flags[index] |= EntityStore.BOUNDS_DIRTY; } //mesh bounds changed
+
+    /**
+     * The objects a thread rebuilds model matrices and bounds with, kept per thread so that updates allocate nothing
+     */
+    private static class Scratch {
+        private final Matrix4f model = new Matrix4f();
+        private final Vector3f position = new Vector3f(), rotation = new Vector3f();
+        private final Vector3f min = new Vector3f(), max = new Vector3f();
+    }
+}
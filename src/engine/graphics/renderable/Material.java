@@ -2,22 +2,27 @@ package engine.graphics.renderable;
 
 import org.joml.Vector4f;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * A class to control what the surface of a mesh looks like. Can either be a solid color
- * or a texture
+ * or a texture, which is referenced through its slot in a TextureArray
  */
 public class Material {
 
     //Static Data
     private static final Vector4f DEFAULT_COLOR = new Vector4f(1.0f, 1.0f, 1.0f, 1.0f);
     private static final float DEFAULT_REFLECTANCE = 0.5f;
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(1); //materials may be created on loader threads
 
     //Data
     private Vector4f ambientColor;
     private Vector4f diffuseColor;
     private Vector4f specularColor;
-    private Texture texture;
+    private TextureSlot texture;
     private float reflectance;
+    private final int id; //unique id used to group draws with the same material
+    private boolean transparent; //whether the texture has transparent parts
 
     //Default Constructor
     public Material() {
@@ -35,27 +40,23 @@ public class Material {
     }
 
     //Texture Constructor
-    public Material(Texture texture) {
+    public Material(TextureSlot texture) {
         this(Material.DEFAULT_COLOR, Material.DEFAULT_COLOR, Material.DEFAULT_COLOR, texture, Material.DEFAULT_REFLECTANCE);
     }
 
     //Texture & Reflectance Constructor
-    public Material(Texture texture, float reflectance) {
+    public Material(TextureSlot texture, float reflectance) {
         this(Material.DEFAULT_COLOR, Material.DEFAULT_COLOR, Material.DEFAULT_COLOR, texture, reflectance);
     }
 
     //Full Constructor
-    public Material(Vector4f ambientColor, Vector4f diffuseColor, Vector4f specularColor, Texture texture, float reflectance) {
+    public Material(Vector4f ambientColor, Vector4f diffuseColor, Vector4f specularColor, TextureSlot texture, float reflectance) {
         this.ambientColor = ambientColor;
         this.diffuseColor = diffuseColor;
         this.specularColor = specularColor;
         this.texture = texture;
         this.reflectance = reflectance;
-    }
-
-    //Cleanup Method
-    public void cleanup() {
-        if (this.texture != null) this.texture.cleanup();
+        this.id = Material.NEXT_ID.getAndIncrement();
     }
 
     //Accessors
@@ -64,5 +65,15 @@ public class Material {
     public Vector4f getAmbientColor() { return this.ambientColor; }
     public Vector4f getDiffuseColor() { return this.diffuseColor; }
     public Vector4f getSpecularColor() { return this.specularColor; }
-    public Texture getTexture() { return this.texture; }
+    public TextureSlot getTexture() { return this.texture; } //slots are released through the atlas holding them
+    public int getID() { return this.id; }
+
+    /**
+     * @return whether surfaces with this material need to be blended with what is behind them: either because it
+     * has been marked transparent or because its untextured diffuse color is not fully opaque
+     */
+    public boolean isTransparent() { return this.transparent || (this.texture == null && this.diffuseColor.w < 1); }
+
+    //Mutators
+    public void setTransparent(boolean transparent) { this.transparent = transparent; } //for textures with alpha
 }
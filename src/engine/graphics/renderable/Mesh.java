@@ -1,25 +1,52 @@
 package engine.graphics.renderable;
 
+import engine.graphics.GLState;
+import engine.graphics.MeshArena;
 import engine.utils.Utils;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
 import org.lwjgl.system.MemoryUtil;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 
+import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL20.glDisableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
-import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
+import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL31.glDrawElementsInstanced;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
+import static org.lwjgl.opengl.GL32.glDrawElementsInstancedBaseVertex;
 
 public class Mesh {
 
+    //Static Data
+    public static final int MAX_INSTANCES_PER_DRAW = 1024; //instances uploaded per glDrawElementsInstanced call
+
     //Data
     private int vao;
-    private int[] vbos; // [0] positions, [1] texture coordinates, [2] normal vectors, [3] indices
+    private int[] vbos; // [0] interleaved vertices, [1] indices, [2] instances
+    private MeshArena arena; //the arena this mesh's ranges are in, or null if it has its own vao and buffers
+    private MeshArena.Allocation allocation; //this mesh's ranges within the arena, null if not in an arena
+    private VertexFormat format; //the format vertices are packed in
+    private final Vector3f positionOffset, positionScale; //dequantize positions: offset + packed position * scale
     private int vertexCount;
+    private long gpuBytes; //size of the vertex and index buffers
     private Material material;
+    private int layer; //the render queue layer to draw in; lower layers are drawn first
+    private MeshData data; //the data this mesh was created from, if it was created from MeshData
+    private FloatBuffer instanceBuffer; //staging buffer for instance matrices, allocated on first instanced render
+    private Vector3f boundsMin, boundsMax; //model space axis-aligned bounding box, null if unknown
+    private Vector3f sphereCenter; //model space bounding sphere center, null if unknown
+    private float sphereRadius; //model space bounding sphere radius
+    private final List<Mesh> lods = new ArrayList<>(); //coarser levels of detail, from finest to coarsest
+    private float lodRadius; //the size levels of detail are chosen by, 0 to use the bounding sphere radius
 
     /**
      * Constructor
@@ -30,61 +57,53 @@ public class Mesh {
      * @param material the material to be used for the surface of the mesh
      */
     public Mesh(float[] positions, float[] texCoords, float[] normals, int[] indices, Material material) {
+        this(positions, texCoords, normals, indices, material, false);
+    }
 
-        //create default material
-        this.material = material;
-
-        //create buffers
-        FloatBuffer positionsBuffer = null;
-        FloatBuffer texCoordsBuffer = null;
-        FloatBuffer normalsBuffer = null;
-        IntBuffer indicesBuffer = null;
-
-        //create vbos and vaos
-        try {
+    /**
+     * Constructor which packs vertices into the compact vertex format
+     * @param positions an array of vertex positions
+     * @param texCoords an array of texture coordinates
+     * @param normals an array of normal vectors
+     * @param indices an array of indices. If not completely filled, use setIndexCount() to limit drawing to the
+     *                filled part
+     * @param material the material to be used for the surface of the mesh
+     * @param dynamic whether the buffers will be modified with the update methods after creation
+     */
+    public Mesh(float[] positions, float[] texCoords, float[] normals, int[] indices, Material material,
+                boolean dynamic) {
+        this(positions, texCoords, normals, indices, material, dynamic, VertexFormat.COMPACT, null, null);
+    }
 
-            //count vertices
-            vertexCount = indices.length;
+    /**
+     * Constructor
+     * @param positions an array of vertex positions
+     * @param texCoords an array of texture coordinates
+     * @param normals an array of normal vectors
+     * @param indices an array of indices. If not completely filled, use setIndexCount() to limit drawing to the
+     *                filled part
+     * @param material the material to be used for the surface of the mesh
+     * @param dynamic whether the buffers will be modified with the update methods after creation
+     * @param format the format to pack vertices into
+     * @param quantizeMin the minimum corner of the box to quantize positions within, if the format quantizes them.
+     *                    If null, the bounds of the positions are used
+     * @param quantizeMax the maximum corner of the box to quantize positions within
+     */
+    public Mesh(float[] positions, float[] texCoords, float[] normals, int[] indices, Material material,
+                boolean dynamic, VertexFormat format, Vector3f quantizeMin, Vector3f quantizeMax) {
 
-            //create and bind vao, create vbos array
-            this.vao = glGenVertexArrays();
-            glBindVertexArray(this.vao);
-            this.vbos = new int[4];
+        //set material and format
+        this.material = material;
+        this.format = format;
+        this.positionOffset = new Vector3f();
+        this.positionScale = new Vector3f(1);
+        this.setQuantization(positions, quantizeMin, quantizeMax);
 
-            //positions vbo
-            positionsBuffer = MemoryUtil.memAllocFloat(positions.length);
-            positionsBuffer.put(positions).flip();
-            this.vbos[0] = glGenBuffers();
-            glBindBuffer(GL_ARRAY_BUFFER, this.vbos[0]);
-            glBufferData(GL_ARRAY_BUFFER, positionsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(0, 3, GL_FLOAT, false,0, 0);
-
-            //texture coordinates vbo
-            texCoordsBuffer = MemoryUtil.memAllocFloat(texCoords.length);
-            texCoordsBuffer.put(texCoords).flip();
-            this.vbos[1] = glGenBuffers();
-            glBindBuffer(GL_ARRAY_BUFFER, this.vbos[1]);
-            glBufferData(GL_ARRAY_BUFFER, texCoordsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
-
-            //normal vectors vbo
-            normalsBuffer = MemoryUtil.memAllocFloat(normals.length);
-            normalsBuffer.put(normals).flip();
-            this.vbos[2] = glGenBuffers();
-            glBindBuffer(GL_ARRAY_BUFFER, this.vbos[2]);
-            glBufferData(GL_ARRAY_BUFFER, normalsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0);
-
-            //indices vbo
-            indicesBuffer = MemoryUtil.memAllocInt(indices.length);
-            indicesBuffer.put(indices).flip();
-            this.vbos[3] = glGenBuffers();
-            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.vbos[3]);
-            glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
-
-            //unbind vbo and vao
-            glBindBuffer(GL_ARRAY_BUFFER, 0);
-            glBindVertexArray(0);
+        //pack vertices, create vbos and vao
+        ByteBuffer vertices = null;
+        try {
+            vertices = this.packVertices(positions, texCoords, normals, 0, positions.length / 3);
+            this.createBuffers(vertices, indices, dynamic ? GL_DYNAMIC_DRAW : GL_STATIC_DRAW);
 
             //catch exceptions
         } catch (Exception e) {
@@ -95,10 +114,7 @@ public class Mesh {
         } finally {
 
             //free memory
-            if (positionsBuffer != null) MemoryUtil.memFree(positionsBuffer);
-            if (texCoordsBuffer != null) MemoryUtil.memFree(texCoordsBuffer);
-            if (normalsBuffer != null) MemoryUtil.memFree(normalsBuffer);
-            if (indicesBuffer != null) MemoryUtil.memFree(indicesBuffer);
+            if (vertices != null) MemoryUtil.memFree(vertices);
         }
     }
 
@@ -110,6 +126,193 @@ public class Mesh {
         this(position, texCoords, normals, indices, new Material());
     }
 
+    /**
+     * Constructor which creates the mesh from MeshData, taking its bounds if it has any, and sets the material to
+     * the default material
+     * @param data the data to create the mesh from
+     */
+    public Mesh(MeshData data) {
+        this(data.getPositions(), data.getTexCoords(), data.getNormals(), data.getIndices(), new Material());
+        this.data = data;
+        if (data.hasBounds()) this.setBounds(data.getBoundsMin(), data.getBoundsMax(), data.getSphereCenter(),
+                data.getSphereRadius());
+    }
+
+    /**
+     * Constructor which places the mesh's vertices and indices into ranges of a shared arena instead of giving it
+     * its own vao and buffers, takes its bounds if it has any and sets the material to the default material. Arena
+     * meshes can't be updated or reallocated. If the arena's format quantizes positions, they are quantized within
+     * the data's bounds. The data's levels of detail are placed into the arena too
+     * @param data the data to create the mesh from
+     * @param arena the arena to allocate from
+     */
+    public Mesh(MeshData data, MeshArena arena) {
+        this.material = new Material();
+        this.arena = arena;
+        this.format = arena.getFormat();
+        this.positionOffset = new Vector3f();
+        this.positionScale = new Vector3f(1);
+        if (this.format.hasQuantizedPositions()) {
+            if (!data.hasBounds()) data.calculateBounds(); //the arena quantizes within the same bounds
+            if (data.hasBounds()) this.positionOffset.set(data.getBoundsMin());
+            this.positionScale.set(data.hasBounds() ? data.getBoundsMax() : this.positionOffset)
+                    .sub(this.positionOffset);
+        }
+        this.allocation = arena.allocate(data);
+        this.vertexCount = data.getIndices().length;
+        this.gpuBytes = (long)data.getVertexCount() * this.format.getStride() + 4L * this.vertexCount;
+        this.data = data;
+        if (data.hasBounds()) this.setBounds(data.getBoundsMin(), data.getBoundsMax(), data.getSphereCenter(),
+                data.getSphereRadius());
+        for (MeshData lod : data.getLods()) this.lods.add(new Mesh(lod, arena));
+    }
+
+    /**
+     * Creates this mesh's vao and buffers
+     * @param vertices the packed vertices
+     * @param indices the indices
+     * @param usage the usage hint of the vertex and index buffers
+     */
+    private void createBuffers(ByteBuffer vertices, int[] indices, int usage) {
+
+        //count vertices and the memory used by the buffers
+        this.vertexCount = indices.length;
+        this.gpuBytes = vertices.remaining() + 4L * indices.length;
+
+        //create and bind vao, create vbos array
+        this.vao = glGenVertexArrays();
+        GLState.bindVertexArray(this.vao);
+        this.vbos = new int[3];
+
+        //interleaved vertices vbo
+        this.vbos[0] = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, this.vbos[0]);
+        glBufferData(GL_ARRAY_BUFFER, vertices, usage);
+        this.format.setAttributes();
+
+        //indices vbo
+        this.vbos[1] = glGenBuffers();
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.vbos[1]);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, usage);
+
+        //instance matrices vbo
+        this.vbos[2] = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, this.vbos[2]);
+        VertexFormat.setInstanceAttributes();
+
+        //unbind vbo (attribute enables stay with the vao, so they never have to be toggled when rendering)
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Sets the box positions are quantized within, if this mesh's format quantizes them
+     * @param positions the positions to take the box from if no box is given
+     * @param min the minimum corner of the box, or null to take the box from the positions
+     * @param max the maximum corner of the box
+     */
+    private void setQuantization(float[] positions, Vector3f min, Vector3f max) {
+        if (!this.format.hasQuantizedPositions()) return;
+        if (min == null) {
+            min = new Vector3f();
+            max = new Vector3f();
+            if (positions.length >= 3) MeshData.calculateBounds(positions, positions.length / 3, min, max,
+                    new Vector3f());
+        }
+        this.positionOffset.set(min);
+        this.positionScale.set(max).sub(min);
+    }
+
+    /**
+     * Packs a range of vertices into a newly allocated buffer in this mesh's format, quantized within its box. The
+     * buffer must be freed with MemoryUtil.memFree()
+     */
+    private ByteBuffer packVertices(float[] positions, float[] texCoords, float[] normals, int first, int count) {
+        ByteBuffer buffer = MemoryUtil.memAlloc(count * this.format.getStride());
+        this.format.pack(positions, texCoords, normals, first, count, this.positionOffset,
+                new Vector3f(this.positionOffset).add(this.positionScale), buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Replaces a range of vertices in this mesh's buffers. The mesh must have been created as dynamic and the range
+     * must lie within the buffers' original size. Positions are quantized within the mesh's current box
+     * @param firstVertex the index of the first vertex to replace, both in the arrays and in the buffers
+     * @param count the number of vertices to replace
+     * @param positions the array to take positions from
+     * @param texCoords the array to take texture coordinates from
+     * @param normals the array to take normal vectors from
+     */
+    public void updateVertices(int firstVertex, int count, float[] positions, float[] texCoords, float[] normals) {
+        if (count <= 0) return;
+        ByteBuffer buffer = this.packVertices(positions, texCoords, normals, firstVertex, count);
+        try {
+            glBindBuffer(GL_ARRAY_BUFFER, this.vbos[0]);
+            glBufferSubData(GL_ARRAY_BUFFER, (long)firstVertex * this.format.getStride(), buffer);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+    }
+
+    /**
+     * Replaces a range of indices in this mesh's index buffer. The mesh must have been created as dynamic and the
+     * range must lie within the buffer's original size
+     * @param firstIndex the position of the first index to replace, both in the array and in the buffer
+     * @param count the number of indices to replace
+     * @param indices the array to take indices from
+     */
+    public void updateIndices(int firstIndex, int count, int[] indices) {
+        if (count <= 0) return;
+        GLState.bindVertexArray(this.vao); //the element array binding is part of the vao
+        IntBuffer buffer = MemoryUtil.memAllocInt(count);
+        try {
+            buffer.put(indices, firstIndex, count).flip();
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.vbos[1]);
+            glBufferSubData(GL_ELEMENT_ARRAY_BUFFER, 4L * firstIndex, buffer);
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+    }
+
+    /**
+     * Replaces the entire contents of this mesh's buffers, resizing them to the given arrays and keeping the box
+     * positions are quantized within. The mesh must have been created as dynamic. The number of indices drawn is set
+     * to the length of the index array
+     * @param positions an array of vertex positions
+     * @param texCoords an array of texture coordinates
+     * @param normals an array of normal vectors
+     * @param indices an array of indices
+     */
+    public void reallocate(float[] positions, float[] texCoords, float[] normals, int[] indices) {
+        this.reallocate(positions, texCoords, normals, indices, new Vector3f(this.positionOffset),
+                new Vector3f(this.positionOffset).add(this.positionScale));
+    }
+
+    /**
+     * Replaces the entire contents of this mesh's buffers like the above method, quantizing positions within a new
+     * box if the mesh's format quantizes them
+     * @param quantizeMin the minimum corner of the box to quantize positions within
+     * @param quantizeMax the maximum corner of the box to quantize positions within
+     */
+    public void reallocate(float[] positions, float[] texCoords, float[] normals, int[] indices, Vector3f quantizeMin,
+                           Vector3f quantizeMax) {
+        this.setQuantization(positions, quantizeMin, quantizeMax);
+        ByteBuffer vertices = this.packVertices(positions, texCoords, normals, 0, positions.length / 3);
+        try {
+            glBindBuffer(GL_ARRAY_BUFFER, this.vbos[0]);
+            glBufferData(GL_ARRAY_BUFFER, vertices, GL_DYNAMIC_DRAW);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+            this.gpuBytes = vertices.remaining() + 4L * indices.length;
+        } finally {
+            MemoryUtil.memFree(vertices);
+        }
+        GLState.bindVertexArray(this.vao); //the element array binding is part of the vao
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.vbos[1]);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_DYNAMIC_DRAW);
+        this.vertexCount = indices.length;
+    }
+
     /**
      * Renders a this mesh singly
      */
@@ -117,8 +320,7 @@ public class Mesh {
 
         //render this mesh
         this.preRender();
-        glDrawElements(GL_TRIANGLES, this.vertexCount, GL_UNSIGNED_INT, 0);
-        this.postRender();
+        this.draw();
     }
 
     /**
@@ -132,65 +334,287 @@ public class Mesh {
 
             //set up data required by item
             consumer.accept(item);
+            this.draw();
+        }
+    }
+
+    /**
+     * Renders a run of entities with this mesh
+     * @param entities the array holding the entities (indices into the store being rendered)
+     * @param first where the run starts in the array
+     * @param count how many entities the run has
+     * @param consumer sets up the data required by each entity
+     */
+    public void renderEntities(int[] entities, int first, int count, IntConsumer consumer) {
+        this.preRender();
+        for (int i = first; i < first + count; i++) {
+            consumer.accept(entities[i]);
+            this.draw();
+        }
+    }
+
+    /**
+     * Renders one item with several arena meshes at once, using a single glMultiDrawElementsBaseVertex call. The
+     * meshes must all be in the same arena and share the same material, and the instance attributes must not be in
+     * use, as they would only be read for the first instance
+     * @param meshes the meshes to render
+     * @param item the item whose transformation to render them with
+     * @param consumer sets up the data required by the item, as for renderList()
+     */
+    public static void renderShared(List<Mesh> meshes, RenderableItem item, Consumer<RenderableItem> consumer) {
+        Mesh first = meshes.get(0);
+        first.preRender();
+        consumer.accept(item);
+        first.arena.beginMultiDraw();
+        for (int i = 0; i < meshes.size(); i++) {
+            Mesh mesh = meshes.get(i);
+            first.arena.addToMultiDraw(mesh.allocation, mesh.vertexCount);
+        }
+        first.arena.multiDraw();
+    }
+
+    /**
+     * Same as renderShared() above, for an entity of the store being rendered
+     * @param meshes the meshes to render
+     * @param entity the entity whose transformation to render them with
+     * @param consumer sets up the data required by the entity, as for renderEntities()
+     */
+    public static void renderShared(List<Mesh> meshes, int entity, IntConsumer consumer) {
+        Mesh first = meshes.get(0);
+        first.preRender();
+        consumer.accept(entity);
+        first.arena.beginMultiDraw();
+        for (int i = 0; i < meshes.size(); i++) {
+            Mesh mesh = meshes.get(i);
+            first.arena.addToMultiDraw(mesh.allocation, mesh.vertexCount);
+        }
+        first.arena.multiDraw();
+    }
+
+    /**
+     * Issues the draw call for this mesh's indices, offset into its arena's buffers if it is in one
+     */
+    private void draw() {
+        if (this.arena == null) {
             glDrawElements(GL_TRIANGLES, this.vertexCount, GL_UNSIGNED_INT, 0);
+        } else {
+            glDrawElementsBaseVertex(GL_TRIANGLES, this.vertexCount, GL_UNSIGNED_INT,
+                    4L * this.allocation.getFirstIndex(), this.allocation.getBaseVertex());
         }
-        this.postRender();
     }
 
     /**
-     * Sets up rendering process
+     * Renders multiple RenderableItems with this mesh using instanced drawing. The model matrix of each item is
+     * placed into this mesh's instance buffer and the whole list is drawn with as few draw calls as possible (one
+     * per MAX_INSTANCES_PER_DRAW items)
+     * @param items the items to render
+     * @param modelMatrixBuilder a function that provides the model matrix for a given item. The returned matrix is
+     *                           copied immediately, so it may be reused between calls
      */
-    private void preRender() {
+    public void renderListInstanced(List<RenderableItem> items, Function<RenderableItem, Matrix4f> modelMatrixBuilder) {
+
+        //bind vao and instance buffer
+        this.preInstancedRender();
+
+        //render items in chunks that fit in the staging buffer
+        int size = items.size();
+        for (int start = 0; start < size; start += Mesh.MAX_INSTANCES_PER_DRAW) {
+
+            //fill staging buffer with model matrices
+            int count = Math.min(Mesh.MAX_INSTANCES_PER_DRAW, size - start);
+            this.instanceBuffer.clear();
+            for (int i = 0; i < count; i++) {
+                modelMatrixBuilder.apply(items.get(start + i)).get(i * VertexFormat.INSTANCE_FLOATS, this.instanceBuffer);
+            }
+            this.drawInstances(count);
+        }
 
-        //bind texture
-        if (this.material.isTextured()) {
-            glActiveTexture(GL_TEXTURE0); //activate first texture bank
-            glBindTexture(GL_TEXTURE_2D, this.material.getTexture().getID());
+        //restore array buffer binding
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Renders a run of entities with this mesh using instanced drawing, as renderListInstanced() does for items. The
+     * entities' model matrices are copied straight out of the store's model matrix column
+     * @param modelMatrices the model matrix column of the store being rendered, with every entity's matrix built
+     * @param entities the array holding the entities (indices into the store)
+     * @param first where the run starts in the array
+     * @param count how many entities the run has
+     */
+    public void renderInstanced(float[] modelMatrices, int[] entities, int first, int count) {
+
+        //bind vao and instance buffer
+        this.preInstancedRender();
+
+        //render entities in chunks that fit in the staging buffer
+        for (int start = first; start < first + count; start += Mesh.MAX_INSTANCES_PER_DRAW) {
+
+            //fill staging buffer with model matrices
+            int instances = Math.min(Mesh.MAX_INSTANCES_PER_DRAW, first + count - start);
+            this.instanceBuffer.clear();
+            for (int i = start; i < start + instances; i++) {
+                this.instanceBuffer.put(modelMatrices, entities[i] * VertexFormat.INSTANCE_FLOATS, VertexFormat.INSTANCE_FLOATS);
+            }
+            this.drawInstances(instances);
         }
 
-        //bind vao and attribute arrays
-        glBindVertexArray(this.vao);
-        glEnableVertexAttribArray(0);
-        glEnableVertexAttribArray(1);
-        glEnableVertexAttribArray(2);
+        //restore array buffer binding
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
     }
 
     /**
-     * Cleans up after rendering has been done
+     * Sets up instanced rendering: allocates the staging buffer if this is the first instanced render and binds the
+     * vao and instance buffer
      */
-    private void postRender() {
+    private void preInstancedRender() {
+        if (this.instanceBuffer == null)
+            this.instanceBuffer = MemoryUtil.memAllocFloat(Mesh.MAX_INSTANCES_PER_DRAW * VertexFormat.INSTANCE_FLOATS);
+        this.preRender();
+        glBindBuffer(GL_ARRAY_BUFFER, this.arena == null ? this.vbos[2] : this.arena.getInstanceBuffer());
+    }
 
-        //restore state
-        glDisableVertexAttribArray(0);
-        glDisableVertexAttribArray(1);
-        glDisableVertexAttribArray(2);
-        glBindVertexArray(0);
-        glBindTexture(GL_TEXTURE_2D, 0);
+    /**
+     * Uploads the instances in the staging buffer (orphaning the previous contents) and draws them
+     * @param count how many instances the staging buffer holds
+     */
+    private void drawInstances(int count) {
+        this.instanceBuffer.position(0).limit(count * VertexFormat.INSTANCE_FLOATS);
+        glBufferData(GL_ARRAY_BUFFER, this.instanceBuffer, GL_STREAM_DRAW);
+        if (this.arena == null) {
+            glDrawElementsInstanced(GL_TRIANGLES, this.vertexCount, GL_UNSIGNED_INT, 0, count);
+        } else {
+            glDrawElementsInstancedBaseVertex(GL_TRIANGLES, this.vertexCount, GL_UNSIGNED_INT,
+                    4L * this.allocation.getFirstIndex(), count, this.allocation.getBaseVertex());
+        }
     }
 
-    //Cleanup Method
+    /**
+     * Sets up rendering process. Nothing is unbound afterwards; GLState skips binds of what is already bound, so
+     * consecutive draws with the same texture or vao cost no state changes
+     */
+    private void preRender() {
+
+        //bind texture to the first texture bank
+        if (this.material.isTextured()) {
+            GLState.bindTexture(0, GL_TEXTURE_2D_ARRAY, this.material.getTexture().getArray().getID());
+        }
+
+        //bind vao (attribute arrays were enabled in it at creation). Arena meshes share their arena's vao
+        GLState.bindVertexArray(this.arena == null ? this.vao : this.arena.getVAO());
+    }
+
+    /**
+     * Deletes this mesh's GL objects, or frees its ranges if it is in an arena, along with those of its levels of
+     * detail. The material is not cleaned up, as it (and its texture) may be shared with other meshes; it is up to
+     * whoever created the material to clean it up. Calling this more than once has no further effect
+     */
     public void cleanup() {
 
-        //cleanup material
-        this.material.cleanup();
+        //clean up levels of detail
+        for (Mesh lod : this.lods) lod.cleanup();
+
+        //free instance staging buffer
+        if (this.instanceBuffer != null) MemoryUtil.memFree(this.instanceBuffer);
+        this.instanceBuffer = null;
 
-        //disable vertex attribute arrays
-        glDisableVertexAttribArray(0);
-        glDisableVertexAttribArray(1);
-        glDisableVertexAttribArray(2);
+        //give back arena ranges (the arena ignores ranges it has already been given back)
+        if (this.arena != null) {
+            this.arena.free(this.allocation);
+            return;
+        }
+
+        //return if already cleaned up
+        if (this.vao == 0) return;
 
         //delete buffers
         glBindBuffer(GL_ARRAY_BUFFER, 0);
         for (int vbo : this.vbos) glDeleteBuffers(vbo);
 
         //delete vao
-        glBindVertexArray(0);
-        glDeleteVertexArrays(this.vao);
+        GLState.deleteVertexArray(this.vao);
+        this.vao = 0;
     }
 
     //Accessors
     public Material getMaterial() { return this.material; }
+    public int getID() { return this.arena == null ? this.vao : this.arena.getVAO(); } //the id of the vao drawn with
+    public MeshArena getArena() { return this.arena; }
+    public MeshArena.Allocation getAllocation() { return this.allocation; }
+    public VertexFormat getFormat() { return this.format; }
+    public Vector3f getPositionOffset() { return this.positionOffset; } //must not be modified
+    public Vector3f getPositionScale() { return this.positionScale; } //must not be modified
+    public int getLayer() { return this.layer; }
+    public int getLodCount() { return this.lods.size() + 1; } //including this mesh itself
+    public float getLodRadius() { return this.lodRadius > 0 ? this.lodRadius : this.sphereRadius; }
+
+    /**
+     * @return the size of this mesh's buffers or arena ranges, including those of its levels of detail
+     */
+    public long getGPUBytes() {
+        long bytes = this.gpuBytes;
+        for (Mesh lod : this.lods) bytes += lod.getGPUBytes();
+        return bytes;
+    }
+
+    /**
+     * @param level the level of detail, where 0 is this mesh itself and higher levels are coarser
+     * @return the mesh of the level, or of the coarsest level there is if there aren't that many
+     */
+    public Mesh getLod(int level) {
+        return level <= 0 || this.lods.isEmpty() ? this : this.lods.get(Math.min(level, this.lods.size()) - 1);
+    }
+    public int getIndexCount() { return this.vertexCount; } //number of indices drawn
+    public MeshData getData() { return this.data; }
+    public boolean hasBounds() { return this.boundsMin != null; }
+    public Vector3f getBoundsMin() { return this.boundsMin; }
+    public Vector3f getBoundsMax() { return this.boundsMax; }
+    public Vector3f getSphereCenter() { return this.sphereCenter; }
+    public float getSphereRadius() { return this.sphereRadius; }
 
     //Mutators
-    public void setMaterial(Material material) { this.material = material; }
+    public void setLodRadius(float lodRadius) { this.lodRadius = lodRadius; }
+
+    /**
+     * Sets the material of this mesh and of its levels of detail
+     * @param material the material
+     */
+    public void setMaterial(Material material) {
+        this.material = material;
+        for (Mesh lod : this.lods) lod.setMaterial(material);
+    }
+
+    /**
+     * Sets the render queue layer of this mesh and of its levels of detail
+     * @param layer the layer
+     */
+    public void setLayer(int layer) {
+        this.layer = layer;
+        for (Mesh lod : this.lods) lod.setLayer(layer);
+    }
+
+    /**
+     * Replaces this mesh's levels of detail. They are given this mesh's material and layer, and are cleaned up with it
+     * @param lods the coarser levels, from finest to coarsest
+     */
+    public void setLods(List<Mesh> lods) {
+        this.lods.clear();
+        this.lods.addAll(lods);
+        this.setMaterial(this.material);
+        this.setLayer(this.layer);
+    }
+    public void setIndexCount(int indexCount) { this.vertexCount = indexCount; } //number of indices drawn
+
+    /**
+     * Sets the model space bounding volumes of this mesh. Meshes without bounds are never culled
+     * @param boundsMin the minimum corner of the axis-aligned bounding box
+     * @param boundsMax the maximum corner of the axis-aligned bounding box
+     * @param sphereCenter the center of the bounding sphere
+     * @param sphereRadius the radius of the bounding sphere
+     */
+    public void setBounds(Vector3f boundsMin, Vector3f boundsMax, Vector3f sphereCenter, float sphereRadius) {
+        this.boundsMin = boundsMin;
+        this.boundsMax = boundsMax;
+        this.sphereCenter = sphereCenter;
+        this.sphereRadius = sphereRadius;
+    }
 }
@@ -0,0 +1,149 @@
+package engine.graphics.renderable;
+
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The CPU-side data of a Mesh. Creating it makes no GL calls, so it can be built on any thread and handed to the
+ * render thread to be turned into a Mesh. The vertices can also be packed into a VertexFormat ahead of time with
+ * pack(), so that creating the mesh only has to copy them into a buffer. The float arrays are kept either way, as
+ * batching and meshing work on them. Data may carry a chain of coarser levels of detail of itself (see
+ * MeshSimplifier), which meshes created from it are given too
+ */
+public class MeshData {
+
+    //Data
+    private final float[] positions;
+    private final float[] texCoords;
+    private final float[] normals;
+    private final int[] indices;
+    private Vector3f boundsMin, boundsMax, sphereCenter; //null until calculateBounds() is called
+    private float sphereRadius;
+    private VertexFormat packedFormat; //the format vertices have been packed into, null if they haven't been
+    private ByteBuffer packed; //the packed vertices, quantized within the bounds if the format quantizes positions
+    private List<MeshData> lods = Collections.emptyList(); //coarser levels of detail, from finest to coarsest
+
+    /**
+     * Constructor
+     * @param positions a completely filled array of vertex positions
+     * @param texCoords a completely filled array of texture coordinates
+     * @param normals a completely filled array of normal vectors
+     * @param indices a completely filled array of indices
+     */
+    public MeshData(float[] positions, float[] texCoords, float[] normals, int[] indices) {
+        this.positions = positions;
+        this.texCoords = texCoords;
+        this.normals = normals;
+        this.indices = indices;
+    }
+
+    /**
+     * Calculates the axis-aligned bounding box and bounding sphere of this data's positions. The sphere is centered
+     * on the box and its radius reaches the farthest position
+     * @return this MeshData
+     */
+    public MeshData calculateBounds() {
+        if (this.positions.length < 3) return this; //return if there are no positions
+        this.boundsMin = new Vector3f();
+        this.boundsMax = new Vector3f();
+        this.sphereCenter = new Vector3f();
+        this.sphereRadius = MeshData.calculateBounds(this.positions, this.getVertexCount(), this.boundsMin,
+                this.boundsMax, this.sphereCenter);
+        return this;
+    }
+
+    /**
+     * Packs the vertices, and those of every level of detail, into a format, replacing any earlier packing. If the
+     * format quantizes positions, they are quantized within the bounding box, which is calculated first if it
+     * hasn't been
+     * @param format the format to pack into
+     * @return this MeshData
+     */
+    public MeshData pack(VertexFormat format) {
+        for (MeshData lod : this.lods) lod.pack(format);
+        if (format.hasQuantizedPositions() && !this.hasBounds()) this.calculateBounds();
+        Vector3f min = this.hasBounds() ? this.boundsMin : new Vector3f();
+        Vector3f max = this.hasBounds() ? this.boundsMax : min;
+        ByteBuffer packed = ByteBuffer.allocateDirect(this.getVertexCount() * format.getStride())
+                .order(ByteOrder.nativeOrder());
+        format.pack(this.positions, this.texCoords, this.normals, 0, this.getVertexCount(), min, max, packed);
+        packed.flip();
+        this.packed = packed;
+        this.packedFormat = format;
+        return this;
+    }
+
+    /**
+     * Calculates the axis-aligned bounding box and bounding sphere of the first vertices of a positions array. The
+     * sphere is centered on the box and its radius reaches the farthest position
+     * @param positions the positions, three floats per vertex
+     * @param vertexCount the number of vertices to include. Must be at least one
+     * @param min set to the minimum corner of the box
+     * @param max set to the maximum corner of the box
+     * @param center set to the center of the sphere
+     * @return the radius of the sphere
+     */
+    public static float calculateBounds(float[] positions, int vertexCount, Vector3f min, Vector3f max,
+                                        Vector3f center) {
+
+        //find box corners
+        min.set(Float.POSITIVE_INFINITY);
+        max.set(Float.NEGATIVE_INFINITY);
+        for (int i = 0; i < vertexCount * 3; i += 3) {
+            min.x = Math.min(min.x, positions[i]);
+            min.y = Math.min(min.y, positions[i + 1]);
+            min.z = Math.min(min.z, positions[i + 2]);
+            max.x = Math.max(max.x, positions[i]);
+            max.y = Math.max(max.y, positions[i + 1]);
+            max.z = Math.max(max.z, positions[i + 2]);
+        }
+
+        //find sphere radius around the box center
+        center.set(min).add(max).mul(0.5f);
+        float radiusSquared = 0;
+        for (int i = 0; i < vertexCount * 3; i += 3) {
+            float dx = positions[i] - center.x;
+            float dy = positions[i + 1] - center.y;
+            float dz = positions[i + 2] - center.z;
+            radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+        }
+        return (float)Math.sqrt(radiusSquared);
+    }
+
+    //Accessors
+    public float[] getPositions() { return this.positions; }
+    public float[] getTexCoords() { return this.texCoords; }
+    public float[] getNormals() { return this.normals; }
+    public int[] getIndices() { return this.indices; }
+    public int getVertexCount() { return this.positions.length / 3; }
+    public boolean hasBounds() { return this.boundsMin != null; }
+    public Vector3f getBoundsMin() { return this.boundsMin; }
+    public Vector3f getBoundsMax() { return this.boundsMax; }
+    public Vector3f getSphereCenter() { return this.sphereCenter; }
+    public float getSphereRadius() { return this.sphereRadius; }
+    public List<MeshData> getLods() { return this.lods; }
+    public int getLodCount() { return this.lods.size(); } //coarser levels there are, not counting this data
+
+    /**
+     * @param level the level of detail, where 0 is this data itself and higher levels are coarser
+     * @return the data of the level, or of the coarsest level there is if there aren't that many
+     */
+    public MeshData getLod(int level) {
+        return level <= 0 || this.lods.isEmpty() ? this : this.lods.get(Math.min(level, this.lods.size()) - 1);
+    }
+
+    /**
+     * @param format the format the vertices are wanted in
+     * @return a view of the vertices packed in the given format, or null if they haven't been packed in it
+     */
+    public ByteBuffer getPacked(VertexFormat format) {
+        return this.packedFormat == format ? this.packed.duplicate().order(ByteOrder.nativeOrder()) : null;
+    }
+
+    //Mutators
+    public void setLods(List<MeshData> lods) { this.lods = lods; } //coarser levels, from finest to coarsest
+}
@@ -1,21 +1,60 @@
 package engine.graphics.renderable;
 
+import org.joml.Matrix4f;
 import org.joml.Vector3f;
 
+/**
+ * An entity of an EntityStore, seen as an object. Items hold no state of their own besides which entity they are: every
+ * getter reads the store's columns and every setter writes them. An item created on its own gets a store of its own,
+ * and is moved into a scene's store when added to the scene (and back out into a store of its own when removed), so
+ * the same item stays usable throughout. Code that handles many entities should use the store directly instead
+ */
 public class RenderableItem {
 
     //Data
     private final Mesh mesh;
-    private final Vector3f position;
-    private final Vector3f rotation;
-    private float scale;
+    private EntityStore store; //the store holding this item's entity
+    private long handle; //the handle of this item's entity in its store
+    private Vector3f position, rotation; //filled in when read, created the first time they are needed
+    private Vector3f boundsMin, boundsMax, sphereCenter; //filled in when read, created the first time they are needed
+    private Matrix4f modelMatrix; //filled in when read, created the first time it is needed
 
-    //Constructor
-    public RenderableItem(Mesh mesh) {
+    /**
+     * Constructs an item at the origin with no rotation and a scale of 1, in a store of its own
+     * @param mesh the mesh of the item
+     */
+    public RenderableItem(Mesh mesh) { this(new EntityStore(1), mesh); }
+
+    /**
+     * Constructs an item at the origin with no rotation and a scale of 1, as a new entity of a store
+     * @param store the store to add the item's entity to
+     * @param mesh the mesh of the item
+     */
+    public RenderableItem(EntityStore store, Mesh mesh) {
         this.mesh = mesh;
-        this.position = new Vector3f(0, 0, 0);
-        this.rotation = new Vector3f(0, 0, 0);
-        this.scale = 1.0f;
+        this.store = store;
+        this.handle = store.create(mesh);
+    }
+
+    /**
+     * Constructs an item viewing an existing entity
+     * @param store the store holding the entity
+     * @param handle the handle of the entity
+     */
+    public RenderableItem(EntityStore store, long handle) {
+        this.mesh = store.getMesh(store.checkedIndexOf(handle));
+        this.store = store;
+        this.handle = handle;
+    }
+
+    /**
+     * Moves this item's entity into another store
+     * @param store the store to move the entity into
+     */
+    void moveTo(EntityStore store) {
+        if (store == this.store) return;
+        this.handle = this.store.moveTo(this.handle, store);
+        this.store = store;
     }
 
     //Render Method
@@ -23,21 +62,97 @@ public class RenderableItem {
 
     //Accessors
     public Mesh getMesh() { return this.mesh; }
-    public Vector3f getPosition() { return this.position; }
-    public Vector3f getRotation() { return rotation; }
-    public float getScale() { return this.scale; }
+    public EntityStore getStore() { return this.store; }
+    public long getHandle() { return this.handle; }
+    public float getScale() { return this.store.getScale(this.index()); }
+    public int getLod() { return this.store.getLod(this.index()); }
+    public boolean hasBounds() { return this.mesh.hasBounds(); }
 
-    //Mutators
-    public void setPosition(float x, float y, float z) {
-        this.position.x = x;
-        this.position.y = y;
-        this.position.z = z;
+    /**
+     * @return this item's position. The same vector is filled in on every call; change the position with
+     *         setPosition()
+     */
+    public Vector3f getPosition() {
+        if (this.position == null) this.position = new Vector3f();
+        return this.readVector(this.store.getTransforms(), this.index() * EntityStore.TRANSFORM_FLOATS,
+                this.position);
+    }
+
+    /**
+     * @return this item's rotation, in degrees. The same vector is filled in on every call; change the rotation with
+     *         setRotation()
+     */
+    public Vector3f getRotation() {
+        if (this.rotation == null) this.rotation = new Vector3f();
+        return this.readVector(this.store.getTransforms(), this.index() * EntityStore.TRANSFORM_FLOATS + 3,
+                this.rotation);
+    }
+
+    /**
+     * @return this item's model matrix, rebuilt only if the item has been moved, rotated or scaled since it was last
+     *         built. The same matrix is filled in on every call and must not be modified
+     */
+    public Matrix4f getModelMatrix() {
+        int index = this.updatedIndex();
+        if (this.modelMatrix == null) this.modelMatrix = new Matrix4f();
+        return this.modelMatrix.set(this.store.getModelMatrices(), index * EntityStore.MATRIX_FLOATS);
+    }
+
+    //World Bounds Accessors (each fills in a vector of its own on every call)
+    public Vector3f getWorldBoundsMin() {
+        if (this.boundsMin == null) this.boundsMin = new Vector3f();
+        return this.readBounds(0, this.boundsMin);
     }
-    public void setRotation(float x, float y, float z) {
-        this.rotation.x = x;
-        this.rotation.y = y;
-        this.rotation.z = z;
+    public Vector3f getWorldBoundsMax() {
+        if (this.boundsMax == null) this.boundsMax = new Vector3f();
+        return this.readBounds(3, this.boundsMax);
     }
+    public Vector3f getWorldSphereCenter() {
+        if (this.sphereCenter == null) this.sphereCenter = new Vector3f();
+        return this.readBounds(6, this.sphereCenter);
+    }
+    public float getWorldSphereRadius() {
+        return this.store.getBounds()[this.updatedIndex() * EntityStore.BOUNDS_FLOATS + 9];
+    }
+
+    /**
+     * Reads a vector of this item's world space bounds, recalculating them first if the item has changed
+     * @param offset the offset of the vector in the entity's bounds
+     * @param dest the vector to fill in
+     */
+    private Vector3f readBounds(int offset, Vector3f dest) {
+        int index = this.updatedIndex();
+        return this.readVector(this.store.getBounds(), index * EntityStore.BOUNDS_FLOATS + offset, dest);
+    }
+
+    /**
+     * Copies three floats of a column into a vector
+     */
+    private Vector3f readVector(float[] column, int offset, Vector3f dest) {
+        return dest.set(column[offset], column[offset + 1], column[offset + 2]);
+    }
+
+    /**
+     * @return the current index of this item's entity
+     * @throws IllegalStateException if the entity has been removed from its store
+     */
+    private int index() { return this.store.checkedIndexOf(this.handle); }
+
+    /**
+     * @return the current index of this item's entity, after rebuilding its model matrix and bounds if they are dirty
+     */
+    private int updatedIndex() {
+        int index = this.index();
+        this.store.update(index);
+        return index;
+    }
+
+    //Mutators
+    public void setPosition(float x, float y, float z) { this.store.setPosition(this.index(), x, y, z); }
+    public void setRotation(float x, float y, float z) { this.store.setRotation(this.index(), x, y, z); }
+    public void setScale(float scale) { this.store.setScale(this.index(), scale); }
+    public void invalidateBounds() { this.store.invalidateBounds(this.index()); } //call when the mesh's bounds change
+    public void setLod(int lod) { this.store.setLod(this.index(), lod); }
 
     //Cleanup Method
     public void cleanup() {
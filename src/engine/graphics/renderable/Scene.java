@@ -4,20 +4,32 @@ import engine.graphics.lighting.SceneLighting;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+/**
+ * The items and lighting to render. Items are stored in the scene's EntityStore, which is what the renderer draws
+ * from; adding an item moves its entity into that store. The scene also keeps its items grouped by mesh. Entities may
+ * be created directly in the store as well, without item objects, in which case they aren't part of that grouping
+ */
 public class Scene {
 
     //Data
     private Map<Mesh, List<RenderableItem>> meshes;
+    private final EntityStore entities;
     private SceneLighting lighting;
 
     //Default Constructor
-    public Scene() { this.meshes = new HashMap<>(); }
+    public Scene() {
+        this.meshes = new HashMap<>();
+        this.entities = new EntityStore();
+    }
 
     //Accessors
     public Map<Mesh, List<RenderableItem>> getMeshes() { return this.meshes; }
+    public EntityStore getEntities() { return this.entities; }
     public SceneLighting getLighting() { return this.lighting; }
 
     //Mutators
@@ -34,6 +46,8 @@ public class Scene {
         int n = items != null ? items.length : 0;
         for (int i = 0; i < n; i ++) {
             RenderableItem item = items[i];
+            if (item.getStore() == this.entities) continue; //already in the scene
+            item.moveTo(this.entities);
             Mesh m = item.getMesh();
             List<RenderableItem> l = meshes.get(m);
             if (l == null) {
@@ -55,6 +69,8 @@ public class Scene {
         if (items == null) return;
         for (int i = 0; i < items.size(); i ++) {
             RenderableItem item = items.get(i);
+            if (item.getStore() == this.entities) continue; //already in the scene
+            item.moveTo(this.entities);
             Mesh m = item.getMesh();
             List<RenderableItem> l = meshes.get(m);
             if (l == null) {
@@ -65,8 +81,56 @@ public class Scene {
         }
     }
 
+    /**
+     * Removes items from the scene. Meshes stay in the scene even if they are left without items so that they are
+     * still cleaned up with it. Each removed item's entity is moved into a store of its own, so the item stays usable
+     * @param items the items to be removed
+     */
+    public void removeItems(List<RenderableItem> items) {
+
+        //group items by mesh so each mesh list is only walked once
+        if (items == null || items.isEmpty()) return;
+        Map<Mesh, Set<RenderableItem>> removals = new HashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            RenderableItem item = items.get(i);
+            if (item.getStore() != this.entities) continue; //not in the scene
+            item.moveTo(new EntityStore(1));
+            Set<RenderableItem> s = removals.get(item.getMesh());
+            if (s == null) {
+                s = new HashSet<>();
+                removals.put(item.getMesh(), s);
+            }
+            s.add(item);
+        }
+
+        //remove items
+        for (Map.Entry<Mesh, Set<RenderableItem>> removal : removals.entrySet()) {
+            List<RenderableItem> l = this.meshes.get(removal.getKey());
+            if (l != null) l.removeAll(removal.getValue());
+        }
+    }
+
+    /**
+     * Removes a mesh and all of its items from the scene, including entities created directly in the scene's store.
+     * The mesh is not cleaned up, so this should be used for meshes the caller cleans up itself
+     * @param mesh the mesh to remove
+     */
+    public void removeMesh(Mesh mesh) {
+
+        //move items out so they stay usable
+        List<RenderableItem> items = this.meshes.remove(mesh);
+        if (items != null) for (int i = 0; i < items.size(); i++) items.get(i).moveTo(new EntityStore(1));
+
+        //remove entities without items, from the end so entities moved into removed ones' places were already checked
+        for (int i = this.entities.size() - 1; i >= 0; i--) {
+            if (this.entities.getMesh(i) == mesh) this.entities.remove(this.entities.getHandle(i));
+        }
+    }
+
     //Cleanup Method
     public void cleanup() {
-        for (Mesh mesh : this.meshes.keySet()) mesh.cleanup();
+        Set<Mesh> meshes = new HashSet<>(this.meshes.keySet());
+        for (int i = 0; i < this.entities.size(); i++) meshes.add(this.entities.getMesh(i));
+        for (Mesh mesh : meshes) mesh.cleanup();
     }
 }
@@ -0,0 +1,431 @@
+package engine.graphics.renderable;
+
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Combines the geometry of many static pieces that share a material into a single mesh. Each piece is transformed
+ * into world space when it is added, so the combined mesh is drawn once with an identity model matrix through a
+ * single RenderableItem. Pieces are identified by an integer key and can be added, removed or moved individually;
+ * only the parts of the buffers that changed are uploaded again.
+ *
+ * A batch can also keep coarser levels of detail: one child batch per level, combining each piece's MeshData level of
+ * that level. Children are only created for levels some piece's data actually has, so pieces without coarser levels
+ * aren't stored again at every level. The children follow every change made to the batch and become the combined
+ * mesh's levels of detail, chosen by the size of the largest piece rather than of the whole batch.
+ *
+ * The combined mesh is stored in a chosen VertexFormat. If the format quantizes positions, they are quantized within
+ * the batch's bounds grown by a margin, and the whole batch is packed again only when its bounds outgrow that box.
+ *
+ * Building (add(), remove(), setTransform()) makes no GL calls and may happen on any thread, but a batch must only
+ * be used by one thread at a time. upload() and cleanup() must be called on the render thread
+ */
+public class StaticBatch {
+
+    //Static Data
+    private static final int INITIAL_VERTICES = 256;
+    private static final int INITIAL_INDICES = 384;
+    private static final float QUANTIZATION_MARGIN = 0.125f; //part of the bounds' size the quantization box adds
+
+    //Data
+    private final Material material;
+    private final VertexFormat format; //the format of the combined mesh
+    private final List<StaticBatch> lodBatches; //one child batch per coarser level of detail any piece has
+    private final int maxLodLevels; //the most coarser levels of detail to keep
+    private final int lodLevel; //the level of detail of pieces this batch combines
+    private float lodRadius; //the largest world space bounding sphere radius of any piece added
+    private final List<Entry> entries; //entries in the order their geometry is stored
+    private final Map<Integer, Entry> entriesByKey;
+    private float[] positions, texCoords, normals; //combined world space geometry, with spare capacity at the end
+    private int[] indices;
+    private int vertexCount, indexCount; //how much of the arrays is in use
+    private Mesh mesh; //null until the first upload
+    private RenderableItem item;
+
+    //Upload Data
+    private boolean reallocate; //whether the arrays have grown since the last upload
+    private int dirtyVertexStart, dirtyVertexEnd; //range of vertices changed since the last upload
+    private int dirtyIndexStart, dirtyIndexEnd; //range of indices changed since the last upload
+
+    //Build Data
+    private final Vector3f vertex; //reused while transforming
+    private final Matrix3f normalMatrix;
+
+    /**
+     * Constructs an empty batch stored in the compact vertex format
+     * @param material the material every piece of the batch is drawn with
+     */
+    public StaticBatch(Material material) { this(material, VertexFormat.COMPACT, 0); }
+
+    /**
+     * Constructs an empty batch
+     * @param material the material every piece of the batch is drawn with
+     * @param format the vertex format to store the combined mesh in
+     * @param lodLevels the most coarser levels of detail to keep. Only levels some piece has are kept, and pieces
+     *                  with fewer levels use their coarsest one
+     */
+    public StaticBatch(Material material, VertexFormat format, int lodLevels) { this(material, format, lodLevels, 0); }
+
+    /**
+     * Constructs an empty batch
+     * @param material the material every piece of the batch is drawn with
+     * @param format the vertex format to store the combined mesh in
+     * @param lodLevels the most coarser levels of detail to keep
+     * @param lodLevel the level of detail of pieces to combine
+     */
+    private StaticBatch(Material material, VertexFormat format, int lodLevels, int lodLevel) {
+        this.material = material;
+        this.format = format;
+        this.lodLevel = lodLevel;
+        this.lodBatches = new ArrayList<>();
+        this.maxLodLevels = lodLevels;
+        this.entries = new ArrayList<>();
+        this.entriesByKey = new HashMap<>();
+        this.positions = new float[StaticBatch.INITIAL_VERTICES * 3];
+        this.texCoords = new float[StaticBatch.INITIAL_VERTICES * 2];
+        this.normals = new float[StaticBatch.INITIAL_VERTICES * 3];
+        this.indices = new int[StaticBatch.INITIAL_INDICES];
+        this.vertex = new Vector3f();
+        this.normalMatrix = new Matrix3f();
+        this.clearDirty();
+    }
+
+    /**
+     * Adds a piece to the batch, replacing any piece already added with the same key
+     * @param key the key to identify the piece by
+     * @param data the model space geometry of the piece
+     * @param model the matrix that transforms the piece into world space. It is copied
+     */
+    public void add(int key, MeshData data, Matrix4f model) {
+
+        //add to levels of detail, adding levels the piece has that no piece before it had
+        int lodLevels = Math.min(this.maxLodLevels, data.getLodCount());
+        while (this.lodBatches.size() < lodLevels) this.addLodBatch();
+        for (StaticBatch lodBatch : this.lodBatches) lodBatch.add(key, data, model);
+        if (!data.hasBounds()) data.calculateBounds();
+        this.lodRadius = Math.max(this.lodRadius, data.getSphereRadius() * model.getScale(this.vertex).get(
+                this.vertex.maxComponent()));
+        data = data.getLod(this.lodLevel);
+
+        //remove existing piece
+        if (this.entriesByKey.containsKey(key)) this.remove(key);
+
+        //reserve space at the end
+        int vertices = data.getVertexCount(), indices = data.getIndices().length;
+        this.ensureCapacity(this.vertexCount + vertices, this.indexCount + indices);
+        Entry entry = new Entry(data, new Matrix4f(model), this.vertexCount, vertices, this.indexCount, indices);
+        this.entries.add(entry);
+        this.entriesByKey.put(key, entry);
+        this.vertexCount += vertices;
+        this.indexCount += indices;
+
+        //write geometry
+        this.writeVertices(entry);
+        this.writeIndices(entry);
+    }
+
+    /**
+     * Adds a child batch for the next coarser level of detail, holding every piece already added
+     */
+    private void addLodBatch() {
+        StaticBatch lodBatch = new StaticBatch(this.material, this.format, 0,
+                this.lodLevel + this.lodBatches.size() + 1);
+        for (Map.Entry<Integer, Entry> piece : this.entriesByKey.entrySet())
+            lodBatch.add(piece.getKey(), piece.getValue().data, piece.getValue().model);
+        this.lodBatches.add(lodBatch);
+    }
+
+    /**
+     * Removes a piece from the batch. If the piece is the last one stored, or the last one has the same size, the
+     * gap is filled without moving anything else; otherwise everything after the piece is moved down
+     * @param key the key of the piece to remove
+     * @return whether there was a piece with the given key
+     */
+    public boolean remove(int key) {
+
+        //find entry
+        for (StaticBatch lodBatch : this.lodBatches) lodBatch.remove(key);
+        Entry entry = this.entriesByKey.remove(key);
+        if (entry == null) return false;
+        int position = this.entries.indexOf(entry);
+        Entry last = this.entries.get(this.entries.size() - 1);
+
+        //last piece: just shrink
+        if (entry == last) {
+            this.entries.remove(this.entries.size() - 1);
+
+        //same size as the last piece: move the last piece into the gap
+        } else if (last.vertexCount == entry.vertexCount && last.indexCount == entry.indexCount) {
+            this.entries.set(position, this.entries.remove(this.entries.size() - 1));
+            this.moveEntry(last, entry.firstVertex, entry.firstIndex);
+
+        //otherwise: close the gap by moving everything after the piece down
+        } else {
+            this.entries.remove(position);
+            int vertexEnd = entry.firstVertex + entry.vertexCount, indexEnd = entry.firstIndex + entry.indexCount;
+            System.arraycopy(this.positions, vertexEnd * 3, this.positions, entry.firstVertex * 3,
+                    (this.vertexCount - vertexEnd) * 3);
+            System.arraycopy(this.texCoords, vertexEnd * 2, this.texCoords, entry.firstVertex * 2,
+                    (this.vertexCount - vertexEnd) * 2);
+            System.arraycopy(this.normals, vertexEnd * 3, this.normals, entry.firstVertex * 3,
+                    (this.vertexCount - vertexEnd) * 3);
+            System.arraycopy(this.indices, indexEnd, this.indices, entry.firstIndex, this.indexCount - indexEnd);
+            for (int i = entry.firstIndex; i < this.indexCount - entry.indexCount; i++)
+                this.indices[i] -= entry.vertexCount;
+            for (int i = position; i < this.entries.size(); i++) {
+                this.entries.get(i).firstVertex -= entry.vertexCount;
+                this.entries.get(i).firstIndex -= entry.indexCount;
+            }
+            this.markVerticesDirty(entry.firstVertex, this.vertexCount - entry.vertexCount);
+            this.markIndicesDirty(entry.firstIndex, this.indexCount - entry.indexCount);
+        }
+
+        //shrink used range (the unused tail is simply not drawn)
+        this.vertexCount -= entry.vertexCount;
+        this.indexCount -= entry.indexCount;
+        return true;
+    }
+
+    /**
+     * Moves a piece of the batch to a new world space transform. Only the piece's vertices are rewritten
+     * @param key the key of the piece to move
+     * @param model the new matrix that transforms the piece into world space. It is copied
+     * @return whether there was a piece with the given key
+     */
+    public boolean setTransform(int key, Matrix4f model) {
+        for (StaticBatch lodBatch : this.lodBatches) lodBatch.setTransform(key, model);
+        Entry entry = this.entriesByKey.get(key);
+        if (entry == null) return false;
+        entry.model.set(model);
+        this.writeVertices(entry);
+        return true;
+    }
+
+    /**
+     * Moves the geometry of an entry to a new place in the arrays, rebasing its indices
+     */
+    private void moveEntry(Entry entry, int firstVertex, int firstIndex) {
+        System.arraycopy(this.positions, entry.firstVertex * 3, this.positions, firstVertex * 3,
+                entry.vertexCount * 3);
+        System.arraycopy(this.texCoords, entry.firstVertex * 2, this.texCoords, firstVertex * 2,
+                entry.vertexCount * 2);
+        System.arraycopy(this.normals, entry.firstVertex * 3, this.normals, firstVertex * 3,
+                entry.vertexCount * 3);
+        entry.firstVertex = firstVertex;
+        entry.firstIndex = firstIndex;
+        this.markVerticesDirty(firstVertex, firstVertex + entry.vertexCount);
+        this.writeIndices(entry);
+    }
+
+    /**
+     * Transforms an entry's positions and normals into world space and writes them, along with its texture
+     * coordinates, into the entry's place in the arrays
+     */
+    private void writeVertices(Entry entry) {
+        float[] positions = entry.data.getPositions(), normals = entry.data.getNormals();
+        entry.model.normal(this.normalMatrix); //keeps normals perpendicular under non-uniform scaling
+        for (int i = 0; i < entry.vertexCount; i++) {
+            int source = i * 3, dest = (entry.firstVertex + i) * 3;
+            entry.model.transformPosition(positions[source], positions[source + 1], positions[source + 2],
+                    this.vertex);
+            this.positions[dest] = this.vertex.x;
+            this.positions[dest + 1] = this.vertex.y;
+            this.positions[dest + 2] = this.vertex.z;
+            this.vertex.set(normals[source], normals[source + 1], normals[source + 2]).mul(this.normalMatrix);
+            if (this.vertex.lengthSquared() > 0) this.vertex.normalize();
+            this.normals[dest] = this.vertex.x;
+            this.normals[dest + 1] = this.vertex.y;
+            this.normals[dest + 2] = this.vertex.z;
+        }
+        System.arraycopy(entry.data.getTexCoords(), 0, this.texCoords, entry.firstVertex * 2,
+                entry.vertexCount * 2);
+        this.markVerticesDirty(entry.firstVertex, entry.firstVertex + entry.vertexCount);
+    }
+
+    /**
+     * Writes an entry's indices, offset by its first vertex, into the entry's place in the index array
+     */
+    private void writeIndices(Entry entry) {
+        int[] indices = entry.data.getIndices();
+        for (int i = 0; i < entry.indexCount; i++) this.indices[entry.firstIndex + i] = indices[i] + entry.firstVertex;
+        this.markIndicesDirty(entry.firstIndex, entry.firstIndex + entry.indexCount);
+    }
+
+    /**
+     * Grows the arrays so that they can hold at least the given numbers of vertices and indices
+     */
+    private void ensureCapacity(int vertices, int indices) {
+        if (vertices * 3 > this.positions.length) {
+            int capacity = Math.max(vertices, this.positions.length / 3 * 2);
+            float[] positions = new float[capacity * 3], texCoords = new float[capacity * 2];
+            float[] normals = new float[capacity * 3];
+            System.arraycopy(this.positions, 0, positions, 0, this.vertexCount * 3);
+            System.arraycopy(this.texCoords, 0, texCoords, 0, this.vertexCount * 2);
+            System.arraycopy(this.normals, 0, normals, 0, this.vertexCount * 3);
+            this.positions = positions;
+            this.texCoords = texCoords;
+            this.normals = normals;
+            this.reallocate = true;
+        }
+        if (indices > this.indices.length) {
+            int[] grown = new int[Math.max(indices, this.indices.length * 2)];
+            System.arraycopy(this.indices, 0, grown, 0, this.indexCount);
+            this.indices = grown;
+            this.reallocate = true;
+        }
+    }
+
+    /**
+     * Sends every change made since the last upload to the GPU. The first upload, and any upload after the batch has
+     * outgrown its buffers, sends everything; later uploads send only the changed ranges. Must be called on the
+     * render thread
+     * @return whether anything was uploaded
+     */
+    public boolean upload() {
+
+        //upload this batch and its levels of detail
+        boolean uploaded = false;
+        for (StaticBatch lodBatch : this.lodBatches) uploaded |= lodBatch.upload();
+        uploaded |= this.uploadChanges();
+
+        //give the levels of detail to the combined mesh
+        if (uploaded && !this.lodBatches.isEmpty()) {
+            List<Mesh> lods = new ArrayList<>(this.lodBatches.size());
+            for (StaticBatch lodBatch : this.lodBatches) lods.add(lodBatch.mesh);
+            this.mesh.setLods(lods);
+            this.mesh.setLodRadius(this.lodRadius);
+        }
+        return uploaded;
+    }
+
+    /**
+     * Sends the changes to this batch's own mesh to the GPU
+     * @return whether anything was uploaded
+     */
+    private boolean uploadChanges() {
+
+        //return if nothing changed
+        boolean vertices = this.dirtyVertexStart < this.dirtyVertexEnd;
+        boolean indices = this.dirtyIndexStart < this.dirtyIndexEnd;
+        boolean first = this.mesh == null;
+        if (!first && !this.reallocate && !vertices && !indices && this.mesh.getIndexCount() == this.indexCount)
+            return false;
+
+        //find bounds, packing everything again if they have outgrown the box positions are quantized within
+        Vector3f min = new Vector3f(), max = new Vector3f(), center = new Vector3f();
+        float radius = this.vertexCount > 0 ? MeshData.calculateBounds(this.positions, this.vertexCount, min, max,
+                center) : 0;
+        Vector3f quantizeMin = null, quantizeMax = null;
+        if (this.format.hasQuantizedPositions() && (first || this.reallocate || !this.fitsQuantization(min, max))) {
+            Vector3f margin = new Vector3f(max).sub(min).mul(StaticBatch.QUANTIZATION_MARGIN);
+            quantizeMin = new Vector3f(min).sub(margin);
+            quantizeMax = new Vector3f(max).add(margin);
+            this.reallocate = !first;
+        }
+
+        //create or resize mesh
+        if (first) {
+            this.mesh = new Mesh(this.positions, this.texCoords, this.normals, this.indices, this.material, true,
+                    this.format, quantizeMin, quantizeMax);
+            this.item = new RenderableItem(this.mesh); //identity transform, the geometry is already in world space
+        } else if (this.reallocate) {
+            if (quantizeMin != null) this.mesh.reallocate(this.positions, this.texCoords, this.normals, this.indices,
+                    quantizeMin, quantizeMax);
+            else this.mesh.reallocate(this.positions, this.texCoords, this.normals, this.indices);
+
+        //or upload changed ranges
+        } else {
+            if (vertices) this.mesh.updateVertices(this.dirtyVertexStart, this.dirtyVertexEnd - this.dirtyVertexStart,
+                    this.positions, this.texCoords, this.normals);
+            if (indices) this.mesh.updateIndices(this.dirtyIndexStart, this.dirtyIndexEnd - this.dirtyIndexStart,
+                    this.indices);
+        }
+        this.mesh.setIndexCount(this.indexCount);
+
+        //update bounds so the batch is culled correctly
+        if (this.vertexCount > 0) {
+            this.mesh.setBounds(min, max, center, radius);
+            this.item.invalidateBounds();
+        }
+
+        //reset changes
+        this.reallocate = false;
+        this.clearDirty();
+        return true;
+    }
+
+    /**
+     * Checks whether bounds lie within the box the mesh's positions are quantized within
+     */
+    private boolean fitsQuantization(Vector3f min, Vector3f max) {
+        Vector3f offset = this.mesh.getPositionOffset(), scale = this.mesh.getPositionScale();
+        return min.x >= offset.x && min.y >= offset.y && min.z >= offset.z && max.x <= offset.x + scale.x &&
+                max.y <= offset.y + scale.y && max.z <= offset.z + scale.z;
+    }
+
+    //Dirty Range Methods
+    private void markVerticesDirty(int start, int end) {
+        this.dirtyVertexStart = Math.min(this.dirtyVertexStart, start);
+        this.dirtyVertexEnd = Math.max(this.dirtyVertexEnd, end);
+    }
+    private void markIndicesDirty(int start, int end) {
+        this.dirtyIndexStart = Math.min(this.dirtyIndexStart, start);
+        this.dirtyIndexEnd = Math.max(this.dirtyIndexEnd, end);
+    }
+    private void clearDirty() {
+        this.dirtyVertexStart = this.dirtyIndexStart = Integer.MAX_VALUE;
+        this.dirtyVertexEnd = this.dirtyIndexEnd = 0;
+    }
+
+    //Accessors
+    public Material getMaterial() { return this.material; }
+    public VertexFormat getFormat() { return this.format; }
+    public int getLodLevels() { return this.lodBatches.size(); } //levels kept so far
+    public RenderableItem getItem() { return this.item; } //null until the first upload
+    public boolean isEmpty() { return this.entries.isEmpty(); }
+    public boolean contains(int key) { return this.entriesByKey.containsKey(key); }
+    public int getPieceCount() { return this.entries.size(); }
+    public int getVertexCount() { return this.vertexCount; }
+    public int getIndexCount() { return this.indexCount; }
+
+    //Cleanup Method
+    public void cleanup() {
+        for (StaticBatch lodBatch : this.lodBatches) lodBatch.cleanup();
+        if (this.mesh != null) {
+            this.mesh.setLods(Collections.<Mesh>emptyList()); //already cleaned up above
+            this.mesh.cleanup();
+        }
+        this.mesh = null;
+        this.item = null;
+    }
+
+    /**
+     * A piece of the batch and where its geometry is stored
+     */
+    private static class Entry {
+
+        //Data
+        private final MeshData data;
+        private final Matrix4f model;
+        private int firstVertex, vertexCount;
+        private int firstIndex, indexCount;
+
+        //Constructor
+        private Entry(MeshData data, Matrix4f model, int firstVertex, int vertexCount, int firstIndex,
+                      int indexCount) {
+            this.data = data;
+            this.model = model;
+            this.firstVertex = firstVertex;
+            this.vertexCount = vertexCount;
+            this.firstIndex = firstIndex;
+            this.indexCount = indexCount;
+        }
+    }
+}
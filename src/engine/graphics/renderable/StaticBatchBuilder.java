@@ -0,0 +1,135 @@
+package engine.graphics.renderable;
+
+import engine.utils.Utils;
+import org.joml.Matrix4f;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sorts static pieces into one StaticBatch per material, so that everything sharing a material is drawn with a
+ * single draw call. Pieces are identified by an integer key; adding a piece under a key that already exists moves
+ * it to the batch of its new mesh's material, so single pieces can be swapped without rebuilding anything else.
+ *
+ * Like StaticBatch, building may happen on any thread (one at a time) while upload() and cleanup() must be called
+ * on the render thread
+ */
+public class StaticBatchBuilder {
+
+    //Data
+    private final VertexFormat format; //the vertex format batches are stored in
+    private final int lodLevels; //how many coarser levels of detail batches keep
+    private final Map<Material, StaticBatch> batches; //batches by the material they are drawn with
+    private final Map<Integer, StaticBatch> batchesByKey; //the batch each piece is in
+
+    //Default Constructor
+    public StaticBatchBuilder() { this(VertexFormat.COMPACT, 0); }
+
+    /**
+     * Constructor
+     * @param format the vertex format to store batches in
+     * @param lodLevels how many coarser levels of detail batches keep
+     */
+    public StaticBatchBuilder(VertexFormat format, int lodLevels) {
+        this.format = format;
+        this.lodLevels = lodLevels;
+        this.batches = new LinkedHashMap<>();
+        this.batchesByKey = new HashMap<>();
+    }
+
+    /**
+     * Adds a piece, replacing any piece already added with the same key
+     * @param key the key to identify the piece by
+     * @param mesh the mesh of the piece. It must have been created from MeshData, which is what gets batched; the
+     *             mesh itself is never drawn by the batch
+     * @param model the matrix that transforms the piece into world space. It is copied
+     */
+    public void add(int key, Mesh mesh, Matrix4f model) {
+
+        //check for data
+        if (mesh.getData() == null) {
+            IllegalStateException e = new IllegalStateException("Unable to batch a mesh that has no MeshData");
+            Utils.log(e, "engine.graphics.renderable.StaticBatchBuilder");
+            throw e;
+        }
+        this.add(key, mesh.getData(), mesh.getMaterial(), model);
+    }
+
+    /**
+     * Adds a piece, replacing any piece already added with the same key
+     * @param key the key to identify the piece by
+     * @param data the model space geometry of the piece
+     * @param material the material to draw the piece with
+     * @param model the matrix that transforms the piece into world space. It is copied
+     */
+    public void add(int key, MeshData data, Material material, Matrix4f model) {
+
+        //remove from the previous batch if the material changed
+        StaticBatch previous = this.batchesByKey.get(key);
+        if (previous != null && previous.getMaterial() != material) previous.remove(key);
+
+        //add to the batch of the material
+        StaticBatch batch = this.batches.get(material);
+        if (batch == null) {
+            batch = new StaticBatch(material, this.format, this.lodLevels);
+            this.batches.put(material, batch);
+        }
+        batch.add(key, data, model);
+        this.batchesByKey.put(key, batch);
+    }
+
+    /**
+     * Removes a piece
+     * @param key the key of the piece to remove
+     * @return whether there was a piece with the given key
+     */
+    public boolean remove(int key) {
+        StaticBatch batch = this.batchesByKey.remove(key);
+        return batch != null && batch.remove(key);
+    }
+
+    /**
+     * Uploads every batch's changes. New batches are added to the scene, and batches left with no pieces are removed
+     * from it and destroyed. Must be called on the render thread
+     * @param scene the scene the batches are drawn in
+     */
+    public void upload(Scene scene) {
+        Iterator<StaticBatch> iterator = this.batches.values().iterator();
+        while (iterator.hasNext()) {
+            StaticBatch batch = iterator.next();
+
+            //remove empty batches
+            if (batch.isEmpty()) {
+                if (batch.getItem() != null) scene.removeMesh(batch.getItem().getMesh());
+                batch.cleanup();
+                iterator.remove();
+
+            //upload others, adding them to the scene the first time
+            } else {
+                boolean added = batch.getItem() != null;
+                batch.upload();
+                if (!added) scene.addItems(Collections.singletonList(batch.getItem()));
+            }
+        }
+    }
+
+    /**
+     * Removes every batch from the scene and destroys it. Must be called on the render thread
+     * @param scene the scene the batches are drawn in
+     */
+    public void cleanup(Scene scene) {
+        for (StaticBatch batch : this.batches.values()) {
+            if (batch.getItem() != null) scene.removeMesh(batch.getItem().getMesh());
+            batch.cleanup();
+        }
+        this.batches.clear();
+        this.batchesByKey.clear();
+    }
+
+    //Accessors
+    public int getBatchCount() { return this.batches.size(); }
+    public int getPieceCount() { return this.batchesByKey.size(); }
+}
@@ -0,0 +1,97 @@
+package engine.graphics.renderable;
+
+import engine.graphics.GLState;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
+import static org.lwjgl.opengl.GL30.glGenerateMipmap;
+
+/**
+ * A 2D array texture whose layers all share one size. Images of that size are added into free layers, so that any
+ * number of them can be sampled with a single bind. Must only be used from the render thread
+ */
+public class TextureArray {
+
+    //Data
+    private int id;
+    private final int width, height;
+    private final boolean[] used; //whether each layer holds an image
+    private int usedCount;
+
+    /**
+     * Constructor which allocates storage for every layer
+     * @param width the width of every layer
+     * @param height the height of every layer
+     * @param layers the number of layers
+     */
+    public TextureArray(int width, int height, int layers) {
+        this.width = width;
+        this.height = height;
+        this.used = new boolean[layers];
+
+        //create gl texture
+        this.id = glGenTextures();
+        GLState.bindTexture(0, GL_TEXTURE_2D_ARRAY, this.id);
+
+        //set wrapping and scaling/interpolation settings
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+
+        //allocate layers
+        glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, GL_RGBA8, width, height, layers, 0, GL_RGBA, GL_UNSIGNED_BYTE,
+                (ByteBuffer)null);
+    }
+
+    /**
+     * Uploads an image into a free layer
+     * @param data the decoded image. Must be the same size as the array
+     * @return the layer the image was put in, or -1 if every layer is in use
+     */
+    public int add(TextureData data) {
+
+        //find free layer
+        int layer = -1;
+        for (int i = 0; i < this.used.length && layer == -1; i++) if (!this.used[i]) layer = i;
+        if (layer == -1) return -1;
+
+        //upload image and regenerate mipmaps
+        GLState.bindTexture(0, GL_TEXTURE_2D_ARRAY, this.id);
+        glTexSubImage3D(GL_TEXTURE_2D_ARRAY, 0, 0, 0, layer, this.width, this.height, 1, GL_RGBA,
+                GL_UNSIGNED_BYTE, data.getPixels());
+        glGenerateMipmap(GL_TEXTURE_2D_ARRAY);
+        this.used[layer] = true;
+        this.usedCount++;
+        return layer;
+    }
+
+    /**
+     * Frees a layer so another image can be added in its place. Its contents are left as they are
+     * @param layer the layer
+     */
+    public void remove(int layer) {
+        if (!this.used[layer]) return;
+        this.used[layer] = false;
+        this.usedCount--;
+    }
+
+    //Accessors
+    public int getID() { return this.id; }
+    public int getWidth() { return this.width; }
+    public int getHeight() { return this.height; }
+    public int getLayerCount() { return this.used.length; }
+    public int getUsedLayerCount() { return this.usedCount; }
+    public boolean isFull() { return this.usedCount == this.used.length; }
+    public boolean isEmpty() { return this.usedCount == 0; }
+    public long getGPUBytes() { return this.width * this.height * 4L * this.used.length * 4 / 3; } //plus mipmaps
+
+    //Cleanup Method
+    public void cleanup() {
+        if (this.id != 0) GLState.deleteTexture(this.id);
+        this.id = 0;
+    }
+}
@@ -0,0 +1,56 @@
+package engine.graphics.renderable;
+
+import engine.utils.Utils;
+import org.lwjgl.BufferUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The decoded RGBA pixels of an image. Decoding makes no GL calls, so it can be done on any thread and the result
+ * handed to the render thread to be uploaded into a TextureAtlas
+ */
+public class TextureData {
+
+    //Data
+    private final int width;
+    private final int height;
+    private final ByteBuffer pixels; //4 bytes per pixel, rgba, ready to be uploaded
+
+    /**
+     * Constructor which decodes the image at a resource path
+     * @param resourcePath resource path of the image file
+     */
+    public TextureData(String resourcePath) throws IOException {
+
+        //create image and get rgb data from it
+        BufferedImage image = ImageIO.read(Utils.class.getResource(resourcePath));
+        if (image == null) throw new IOException("Unable to decode image at '" + resourcePath + "'");
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        int pixels[] = new int[this.width * this.height];
+        image.getRGB(0, 0, this.width, this.height, pixels, 0, this.width);
+
+        //shove data into buffer
+        this.pixels = BufferUtils.createByteBuffer(this.width * this.height * 4); //4 bytes per pixel
+        for (int y = 0; y < this.height; y++) {
+            for (int x = 0; x < this.width; x++) {
+                int pixel = pixels[y * this.width + x];
+                this.pixels.put((byte) ((pixel >> 16) & 0xFF)); //r
+                this.pixels.put((byte) ((pixel >> 8) & 0xFF)); //g
+                this.pixels.put((byte) (pixel & 0xFF)); //b
+                this.pixels.put((byte) ((pixel >> 24) & 0xFF)); //a
+            }
+        }
+
+        //flip buffer
+        this.pixels.flip();
+    }
+
+    //Accessors
+    public int getWidth() { return this.width; }
+    public int getHeight() { return this.height; }
+    public ByteBuffer getPixels() { return this.pixels; }
+}
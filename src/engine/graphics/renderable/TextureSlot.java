@@ -0,0 +1,29 @@
+package engine.graphics.renderable;
+
+/**
+ * The place of one image within a TextureArray. Materials reference slots rather than textures of their own, so
+ * that every material whose image shares an array is drawn with the same texture bound
+ */
+public class TextureSlot {
+
+    //Data
+    private final TextureArray array;
+    private final int layer;
+
+    /**
+     * Constructor
+     * @param array the array holding the image
+     * @param layer the layer of the array the image is in
+     */
+    public TextureSlot(TextureArray array, int layer) {
+        this.array = array;
+        this.layer = layer;
+    }
+
+    //Accessors
+    public TextureArray getArray() { return this.array; }
+    public int getLayer() { return this.layer; }
+    public int getWidth() { return this.array.getWidth(); }
+    public int getHeight() { return this.array.getHeight(); }
+    public long getGPUBytes() { return this.getWidth() * this.getHeight() * 4L * 4 / 3; } //rgba plus mipmaps
+}
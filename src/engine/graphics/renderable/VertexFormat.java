@@ -0,0 +1,218 @@
+package engine.graphics.renderable;
+
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STREAM_DRAW;
+import static org.lwjgl.opengl.GL15.glBufferData;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+import static org.lwjgl.opengl.GL33.GL_INT_2_10_10_10_REV;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+
+/**
+ * Describes how a vertex's position, texture coordinate and normal vector are packed, interleaved, into one vertex
+ * buffer. Each attribute can be stored at full precision or compressed:
+ *
+ *   positions:           3 floats (12 bytes), or 3 normalized unsigned shorts plus padding (8 bytes) quantized within
+ *                        a box; the shader dequantizes them with the mesh's position offset and scale
+ *   texture coordinates: 2 floats (8 bytes), 2 half floats (4 bytes), or 2 normalized unsigned shorts (4 bytes,
+ *                        clamped to 0 - 1)
+ *   normal vectors:      3 floats (12 bytes), or one GL_INT_2_10_10_10_REV (4 bytes)
+ *
+ * Attributes keep the vao slots the shaders expect: 0 for positions, 1 for texture coordinates, 2 for normals, and 3 - 6
+ * for the per-instance model matrix, which is laid out the same way for every format
+ */
+public final class VertexFormat {
+
+    //Static Data
+    public static final int INSTANCE_ATTRIBUTE = 3; //first vao slot of the instance matrix (uses 3 - 6)
+    public static final int INSTANCE_FLOATS = 16; //floats per instance (one 4x4 matrix)
+    public static final VertexFormat FLOAT = new VertexFormat(false, TexCoords.FLOAT, false); //32 bytes
+    public static final VertexFormat COMPACT = new VertexFormat(false, TexCoords.HALF_FLOAT, true); //20 bytes
+    public static final VertexFormat QUANTIZED = new VertexFormat(true, TexCoords.HALF_FLOAT, true); //16 bytes
+
+    /**
+     * The ways texture coordinates can be stored
+     */
+    public enum TexCoords { FLOAT, HALF_FLOAT, NORMALIZED_SHORT }
+
+    //Data
+    private final boolean quantizedPositions;
+    private final TexCoords texCoords;
+    private final boolean packedNormals;
+    private final int texCoordOffset, normalOffset, stride; //in bytes
+
+    /**
+     * Constructor
+     * @param quantizedPositions whether positions are quantized to 16 bits per component within a box
+     * @param texCoords how texture coordinates are stored
+     * @param packedNormals whether normal vectors are packed into 10 bits per component
+     */
+    public VertexFormat(boolean quantizedPositions, TexCoords texCoords, boolean packedNormals) {
+        this.quantizedPositions = quantizedPositions;
+        this.texCoords = texCoords;
+        this.packedNormals = packedNormals;
+        this.texCoordOffset = quantizedPositions ? 8 : 12;
+        this.normalOffset = this.texCoordOffset + (texCoords == TexCoords.FLOAT ? 8 : 4);
+        this.stride = this.normalOffset + (packedNormals ? 4 : 12);
+    }
+
+    /**
+     * Fills the buffer bound to GL_ARRAY_BUFFER with one identity matrix, points vao slots 3 - 6 at it as a mat4 (four
+     * vec4 slots, each advancing once per instance) and enables them. Starting with an identity matrix lets the
+     * attributes stay enabled for non-instanced draws too. The vao to set them in must be bound
+     */
+    public static void setInstanceAttributes() {
+        glBufferData(GL_ARRAY_BUFFER, new float[] { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 }, GL_STREAM_DRAW);
+        for (int i = 0; i < 4; i++) {
+            glVertexAttribPointer(VertexFormat.INSTANCE_ATTRIBUTE + i, 4, GL_FLOAT, false,
+                    VertexFormat.INSTANCE_FLOATS * 4, i * 16);
+            glVertexAttribDivisor(VertexFormat.INSTANCE_ATTRIBUTE + i, 1);
+            glEnableVertexAttribArray(VertexFormat.INSTANCE_ATTRIBUTE + i);
+        }
+    }
+
+    /**
+     * Points vao slots 0 - 2 at the buffer bound to GL_ARRAY_BUFFER, laid out in this format, and enables them. The
+     * vao to set them in must be bound
+     */
+    public void setAttributes() {
+        if (this.quantizedPositions) glVertexAttribPointer(0, 3, GL_UNSIGNED_SHORT, true, this.stride, 0);
+        else glVertexAttribPointer(0, 3, GL_FLOAT, false, this.stride, 0);
+        switch (this.texCoords) {
+            case FLOAT:
+                glVertexAttribPointer(1, 2, GL_FLOAT, false, this.stride, this.texCoordOffset);
+                break;
+            case HALF_FLOAT:
+                glVertexAttribPointer(1, 2, GL_HALF_FLOAT, false, this.stride, this.texCoordOffset);
+                break;
+            case NORMALIZED_SHORT:
+                glVertexAttribPointer(1, 2, GL_UNSIGNED_SHORT, true, this.stride, this.texCoordOffset);
+                break;
+        }
+        if (this.packedNormals) {
+            glVertexAttribPointer(2, 4, GL_INT_2_10_10_10_REV, true, this.stride, this.normalOffset);
+        } else {
+            glVertexAttribPointer(2, 3, GL_FLOAT, false, this.stride, this.normalOffset);
+        }
+        for (int i = 0; i < 3; i++) glEnableVertexAttribArray(i);
+    }
+
+    /**
+     * Packs a range of vertices into a buffer in this format, starting at the buffer's position and advancing it
+     * @param positions vertex positions, three floats per vertex
+     * @param texCoords texture coordinates, two floats per vertex
+     * @param normals normal vectors, three floats per vertex
+     * @param first the first vertex to pack
+     * @param count the number of vertices to pack
+     * @param quantizeMin the minimum corner of the box positions are quantized within. Ignored if positions aren't
+     *                    quantized
+     * @param quantizeMax the maximum corner of the box. Positions outside of the box are clamped to it
+     * @param dest the buffer to pack into. It must use native byte order and have room for count * getStride() bytes
+     */
+    public void pack(float[] positions, float[] texCoords, float[] normals, int first, int count,
+                     Vector3f quantizeMin, Vector3f quantizeMax, ByteBuffer dest) {
+
+        //find how to scale positions into 0 - 1 (flat axes are all quantized to 0)
+        float scaleX = 0, scaleY = 0, scaleZ = 0;
+        if (this.quantizedPositions) {
+            scaleX = VertexFormat.inverseExtent(quantizeMin.x, quantizeMax.x);
+            scaleY = VertexFormat.inverseExtent(quantizeMin.y, quantizeMax.y);
+            scaleZ = VertexFormat.inverseExtent(quantizeMin.z, quantizeMax.z);
+        }
+
+        //pack each vertex
+        for (int v = first; v < first + count; v++) {
+            int p = v * 3, t = v * 2;
+
+            //position
+            if (this.quantizedPositions) {
+                dest.putShort(VertexFormat.unorm16((positions[p] - quantizeMin.x) * scaleX));
+                dest.putShort(VertexFormat.unorm16((positions[p + 1] - quantizeMin.y) * scaleY));
+                dest.putShort(VertexFormat.unorm16((positions[p + 2] - quantizeMin.z) * scaleZ));
+                dest.putShort((short)0);
+            } else dest.putFloat(positions[p]).putFloat(positions[p + 1]).putFloat(positions[p + 2]);
+
+            //texture coordinate
+            switch (this.texCoords) {
+                case FLOAT:
+                    dest.putFloat(texCoords[t]).putFloat(texCoords[t + 1]);
+                    break;
+                case HALF_FLOAT:
+                    dest.putShort(VertexFormat.toHalf(texCoords[t])).putShort(VertexFormat.toHalf(texCoords[t + 1]));
+                    break;
+                case NORMALIZED_SHORT:
+                    dest.putShort(VertexFormat.unorm16(texCoords[t])).putShort(VertexFormat.unorm16(texCoords[t + 1]));
+                    break;
+            }
+
+            //normal vector
+            if (this.packedNormals) dest.putInt(VertexFormat.snorm10(normals[p]) |
+                    VertexFormat.snorm10(normals[p + 1]) << 10 | VertexFormat.snorm10(normals[p + 2]) << 20);
+            else dest.putFloat(normals[p]).putFloat(normals[p + 1]).putFloat(normals[p + 2]);
+        }
+    }
+
+    /**
+     * @return 1 over the distance between min and max, or 0 if they are the same
+     */
+    private static float inverseExtent(float min, float max) { return max > min ? 1f / (max - min) : 0f; }
+
+    /**
+     * Converts a value from 0 - 1 (clamped) to a normalized unsigned short
+     */
+    private static short unorm16(float value) {
+        return (short)Math.round(Math.max(0f, Math.min(1f, value)) * 65535f);
+    }
+
+    /**
+     * Converts a value from -1 - 1 (clamped) to a 10-bit normalized signed integer in the low bits of an int
+     */
+    private static int snorm10(float value) {
+        return Math.round(Math.max(-1f, Math.min(1f, value)) * 511f) & 0x3FF;
+    }
+
+    /**
+     * Converts a float to the bits of the nearest half float. Values too large for a half float become infinity
+     * @param value the float
+     * @return the half float
+     */
+    public static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xFF) - 127 + 15; //rebiased exponent
+        int mantissa = bits & 0x7FFFFF;
+
+        //infinity and NaN (and values too large to represent)
+        if (exponent >= 31) {
+            boolean nan = ((bits >>> 23) & 0xFF) == 0xFF && mantissa != 0;
+            return (short)(sign | 0x7C00 | (nan ? 0x200 : 0));
+        }
+
+        //subnormal half floats and zero
+        if (exponent <= 0) {
+            if (exponent < -10) return (short)sign;
+            mantissa |= 0x800000; //implicit leading one
+            int shift = 14 - exponent;
+            int half = mantissa >> shift;
+            if (((mantissa >> (shift - 1)) & 1) != 0) half++; //round to nearest
+            return (short)(sign | half);
+        }
+
+        //normal half floats (a rounding carry correctly moves into the exponent)
+        int half = sign | exponent << 10 | mantissa >> 13;
+        if ((mantissa & 0x1000) != 0) half++; //round to nearest
+        return (short)half;
+    }
+
+    //Accessors
+    public boolean hasQuantizedPositions() { return this.quantizedPositions; }
+    public TexCoords getTexCoords() { return this.texCoords; }
+    public boolean hasPackedNormals() { return this.packedNormals; }
+    public int getStride() { return this.stride; } //bytes per vertex
+}
@@ -0,0 +1,82 @@
+package engine.graphics.uniforms;
+
+import engine.graphics.lighting.DirectionalLight;
+import engine.graphics.lighting.SceneLighting;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+/**
+ * The uniform buffer behind the Lighting block of the fragment shader. Holds the lighting that reaches every
+ * fragment: the ambient light, the specular power and the directional light, with its direction in view space. Point
+ * and spot lights are culled per cluster by ClusteredLighting instead. The block is rewritten and uploaded at most
+ * once per frame, and only when the lighting, the specular power or the view has changed.
+ *
+ * std140 layout (bytes):
+ *   0    vec3 ambientLight, 12 float specularPower
+ *   16   DirectionalLight directionalLight: 0 vec3 color, 12 float intensity, 16 vec3 direction (32 total)
+ */
+public class LightingUniformBuffer extends UniformBuffer {
+
+    //Static Data
+    public static final String BLOCK_NAME = "Lighting";
+    public static final int BINDING = 0;
+    private static final int AMBIENT_LIGHT = 0, SPECULAR_POWER = 12, DIRECTIONAL_LIGHT = 16;
+    public static final int SIZE = 48;
+
+    //Data
+    private final Vector3f transformed; //reused for view space transforms
+    private SceneLighting lastLighting; //the lighting last uploaded
+    private int lastVersion; //the version of the lighting last uploaded
+    private float lastSpecularPower;
+    private int uploadCount; //number of times the block has been uploaded
+
+    //Constructor
+    public LightingUniformBuffer() {
+        super(LightingUniformBuffer.BINDING, LightingUniformBuffer.SIZE);
+        this.transformed = new Vector3f();
+    }
+
+    /**
+     * Rewrites and uploads the block if anything it depends on has changed since the last upload
+     * @param lighting the lighting of the scene. May be null for no lighting
+     * @param viewMatrix the view matrix to transform the directional light with
+     * @param specularPower the exponent used in specular light calculations
+     * @param viewChanged whether the view matrix has changed since the last call
+     * @return whether the block was uploaded
+     */
+    public boolean update(SceneLighting lighting, Matrix4f viewMatrix, float specularPower, boolean viewChanged) {
+
+        //return if nothing changed
+        int version = lighting != null ? lighting.getVersion() : 0;
+        if (this.uploadCount > 0 && !viewChanged && lighting == this.lastLighting && version == this.lastVersion &&
+                specularPower == this.lastSpecularPower) return false;
+        this.lastLighting = lighting;
+        this.lastVersion = version;
+        this.lastSpecularPower = specularPower;
+
+        //write ambient light and specular power
+        Vector3f ambient = lighting != null ? lighting.getAmbientLight() : null;
+        if (ambient != null) this.putVector3f(LightingUniformBuffer.AMBIENT_LIGHT, ambient.x, ambient.y, ambient.z);
+        else this.putVector3f(LightingUniformBuffer.AMBIENT_LIGHT, 0, 0, 0);
+        this.staging.putFloat(LightingUniformBuffer.SPECULAR_POWER, specularPower);
+
+        //write directional light (zero intensity if there is none)
+        DirectionalLight directionalLight = lighting != null ? lighting.getDirectionalLight() : null;
+        if (directionalLight != null) {
+            Vector3f color = directionalLight.getColor(), direction = directionalLight.getDirection();
+            this.putVector3f(LightingUniformBuffer.DIRECTIONAL_LIGHT, color.x, color.y, color.z);
+            this.staging.putFloat(LightingUniformBuffer.DIRECTIONAL_LIGHT + 12, directionalLight.getIntensity());
+            viewMatrix.transformDirection(direction, this.transformed);
+            this.putVector3f(LightingUniformBuffer.DIRECTIONAL_LIGHT + 16, this.transformed.x, this.transformed.y,
+                    this.transformed.z);
+        } else this.staging.putFloat(LightingUniformBuffer.DIRECTIONAL_LIGHT + 12, 0);
+
+        //upload
+        this.upload(0, LightingUniformBuffer.SIZE);
+        this.uploadCount++;
+        return true;
+    }
+
+    //Accessors
+    public int getUploadCount() { return this.uploadCount; }
+}
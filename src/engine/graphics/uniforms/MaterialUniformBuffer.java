@@ -0,0 +1,115 @@
+package engine.graphics.uniforms;
+
+import engine.graphics.renderable.Material;
+import engine.utils.Utils;
+import org.joml.Vector4f;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The uniform buffer behind the Materials block of the fragment shader. Materials are given a slot in the block's
+ * array the first time they are used and written into it once; after that, drawing with a material only takes
+ * setting its index. When the array is full, the slot of the material that has gone unused the longest is reused.
+ *
+ * std140 layout (bytes), per material: 0 vec4 ambientColor, 16 vec4 diffuseColor, 32 vec4 specularColor,
+ * 48 float reflectance, 52 int hasTexture, 56 int textureLayer (64 each)
+ */
+public class MaterialUniformBuffer extends UniformBuffer {
+
+    //Static Data
+    public static final String BLOCK_NAME = "Materials";
+    public static final int BINDING = 1;
+    public static final int MAX_MATERIALS = 256; //must match shader constant (256 * 64 bytes fits the minimum UBO size)
+    private static final int MATERIAL_SIZE = 64;
+    public static final int SIZE = MaterialUniformBuffer.MAX_MATERIALS * MaterialUniformBuffer.MATERIAL_SIZE;
+
+    //Data
+    private final Map<Material, Integer> indices; //the slot of each material in the buffer
+    private final Material[] slots; //the material in each slot
+    private final int[] lastUsed; //the frame each slot was last used in
+    private int frame;
+
+    //Constructor
+    public MaterialUniformBuffer() {
+        super(MaterialUniformBuffer.BINDING, MaterialUniformBuffer.SIZE);
+        this.indices = new IdentityHashMap<>();
+        this.slots = new Material[MaterialUniformBuffer.MAX_MATERIALS];
+        this.lastUsed = new int[MaterialUniformBuffer.MAX_MATERIALS];
+    }
+
+    /**
+     * Starts a new frame. Slots used in the current frame are never reused until the next frame
+     */
+    public void nextFrame() { this.frame++; }
+
+    /**
+     * Finds the index of a material in the block's array, writing the material into a slot if it has none
+     * @param material the material
+     * @return the index to draw the material with
+     */
+    public int indexOf(Material material) {
+        Integer index = this.indices.get(material);
+        int slot = index != null ? index : this.assign(material);
+        this.lastUsed[slot] = this.frame;
+        return slot;
+    }
+
+    /**
+     * Rewrites a material that has been changed since it was first used. Materials that have no slot are ignored
+     * @param material the changed material
+     */
+    public void update(Material material) {
+        Integer index = this.indices.get(material);
+        if (index != null) this.write(index, material);
+    }
+
+    /**
+     * Gives a material a slot, reusing the slot unused for the longest if there are no free ones
+     * @return the slot
+     */
+    private int assign(Material material) {
+
+        //find free slot, or least recently used slot not used this frame
+        int slot = -1;
+        for (int i = 0; i < this.slots.length; i++) {
+            if (this.slots[i] == null) {
+                slot = i;
+                break;
+            }
+            if (this.lastUsed[i] < this.frame && (slot == -1 || this.lastUsed[i] < this.lastUsed[slot])) slot = i;
+        }
+        if (slot == -1) {
+            IllegalStateException e = new IllegalStateException("More than " + MaterialUniformBuffer.MAX_MATERIALS +
+                    " materials were used in one frame");
+            Utils.log(e, "engine.graphics.uniforms.MaterialUniformBuffer");
+            throw e;
+        }
+
+        //take over slot
+        if (this.slots[slot] != null) this.indices.remove(this.slots[slot]);
+        this.slots[slot] = material;
+        this.indices.put(material, slot);
+        this.write(slot, material);
+        return slot;
+    }
+
+    /**
+     * Writes a material into a slot and uploads it
+     */
+    private void write(int slot, Material material) {
+        int offset = slot * MaterialUniformBuffer.MATERIAL_SIZE;
+        Vector4f ambient = material.getAmbientColor(), diffuse = material.getDiffuseColor();
+        Vector4f specular = material.getSpecularColor();
+        this.putVector4f(offset, ambient.x, ambient.y, ambient.z, ambient.w);
+        this.putVector4f(offset + 16, diffuse.x, diffuse.y, diffuse.z, diffuse.w);
+        this.putVector4f(offset + 32, specular.x, specular.y, specular.z, specular.w);
+        this.staging.putFloat(offset + 48, material.getReflectance());
+        this.staging.putInt(offset + 52, material.isTextured() ? 1 : 0);
+        this.staging.putInt(offset + 56, material.isTextured() ? material.getTexture().getLayer() : 0);
+        this.upload(offset, MaterialUniformBuffer.MATERIAL_SIZE);
+    }
+
+    //Accessors
+    public int getMaterialCount() { return this.indices.size(); }
+}
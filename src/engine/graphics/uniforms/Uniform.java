@@ -0,0 +1,158 @@
+package engine.graphics.uniforms;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL20.*;
+
+/**
+ * A handle to a single uniform of a shader program, with its location resolved once when it is created. Each handle
+ * remembers the last value it uploaded and skips uploading the same value again, so setting a uniform never hashes,
+ * allocates or calls into GL unless the value has actually changed. Values must only be set while the handle's
+ * program is bound
+ */
+public abstract class Uniform {
+
+    //Data
+    protected final String name;
+    protected final int location;
+    protected boolean uploaded; //whether a value has been uploaded, i.e. whether the remembered value is valid
+
+    /**
+     * Constructor
+     * @param name the name of the uniform in the shader
+     * @param location the location of the uniform in its program
+     */
+    protected Uniform(String name, int location) {
+        this.name = name;
+        this.location = location;
+    }
+
+    /**
+     * Forgets the last uploaded value so that the next value set is uploaded no matter what. Should be called if the
+     * uniform may have been changed without this handle, such as after the program is relinked
+     */
+    public void invalidate() { this.uploaded = false; }
+
+    //Accessors
+    public String getName() { return this.name; }
+    public int getLocation() { return this.location; }
+
+    /**
+     * An int (or sampler) uniform
+     */
+    public static final class Int extends Uniform {
+
+        //Data
+        private int value;
+
+        //Constructor
+        public Int(String name, int location) { super(name, location); }
+
+        //Mutator
+        public void set(int value) {
+            if (this.uploaded && this.value == value) return;
+            glUniform1i(this.location, value);
+            this.value = value;
+            this.uploaded = true;
+        }
+    }
+
+    /**
+     * A float uniform
+     */
+    public static final class Float extends Uniform {
+
+        //Data
+        private float value;
+
+        //Constructor
+        public Float(String name, int location) { super(name, location); }
+
+        //Mutator
+        public void set(float value) {
+            if (this.uploaded && this.value == value) return;
+            glUniform1f(this.location, value);
+            this.value = value;
+            this.uploaded = true;
+        }
+    }
+
+    /**
+     * A vec3 uniform
+     */
+    public static final class Vec3 extends Uniform {
+
+        //Data
+        private final Vector3f value;
+
+        //Constructor
+        public Vec3(String name, int location) {
+            super(name, location);
+            this.value = new Vector3f();
+        }
+
+        //Mutators
+        public void set(Vector3f value) { this.set(value.x, value.y, value.z); }
+        public void set(float x, float y, float z) {
+            if (this.uploaded && this.value.x == x && this.value.y == y && this.value.z == z) return;
+            glUniform3f(this.location, x, y, z);
+            this.value.set(x, y, z);
+            this.uploaded = true;
+        }
+    }
+
+    /**
+     * A vec4 uniform
+     */
+    public static final class Vec4 extends Uniform {
+
+        //Data
+        private final Vector4f value;
+
+        //Constructor
+        public Vec4(String name, int location) {
+            super(name, location);
+            this.value = new Vector4f();
+        }
+
+        //Mutator
+        public void set(Vector4f value) {
+            if (this.uploaded && this.value.equals(value)) return;
+            glUniform4f(this.location, value.x, value.y, value.z, value.w);
+            this.value.set(value);
+            this.uploaded = true;
+        }
+    }
+
+    /**
+     * A mat4 uniform
+     */
+    public static final class Mat4 extends Uniform {
+
+        //Data
+        private final Matrix4f value;
+
+        //Constructor
+        public Mat4(String name, int location) {
+            super(name, location);
+            this.value = new Matrix4f();
+        }
+
+        //Mutator
+        public void set(Matrix4f value) {
+            if (this.uploaded && this.value.equals(value)) return;
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                FloatBuffer buffer = stack.mallocFloat(16);
+                value.get(buffer);
+                glUniformMatrix4fv(this.location, false, buffer);
+            }
+            this.value.set(value);
+            this.uploaded = true;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package engine.graphics.uniforms;
+
+import engine.graphics.ShaderProgram;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+
+/**
+ * A uniform buffer object laid out according to std140 that backs a uniform block in one or more shader programs.
+ * Data is written into a direct staging buffer that lives as long as the uniform buffer, and changed ranges of it
+ * are uploaded with glBufferSubData, so updating the buffer never allocates
+ */
+public class UniformBuffer {
+
+    //Data
+    protected final int id;
+    protected final int binding; //the uniform buffer binding point the buffer is bound to
+    protected final int size; //size of the buffer, in bytes
+    protected final ByteBuffer staging; //CPU copy of the buffer's contents
+
+    /**
+     * Creates the buffer, zeroes it and binds it to a binding point
+     * @param binding the uniform buffer binding point to bind the buffer to. Each buffer needs its own
+     * @param size the size of the buffer in bytes. Must match the std140 size of the uniform block
+     */
+    public UniformBuffer(int binding, int size) {
+        this.binding = binding;
+        this.size = size;
+        this.staging = MemoryUtil.memCalloc(size);
+        this.id = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, this.id);
+        glBufferData(GL_UNIFORM_BUFFER, this.staging, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        glBindBufferBase(GL_UNIFORM_BUFFER, this.binding, this.id);
+    }
+
+    /**
+     * Connects a uniform block of a shader program to this buffer
+     * @param program the program
+     * @param blockName the name of the uniform block in the program
+     */
+    public void attach(ShaderProgram program, String blockName) {
+        program.bindUniformBlock(blockName, this.binding, this.size);
+    }
+
+    /**
+     * Uploads a range of the staging buffer to the same range of the uniform buffer
+     * @param offset the offset of the range, in bytes
+     * @param length the length of the range, in bytes
+     */
+    protected void upload(int offset, int length) {
+        this.staging.limit(offset + length).position(offset);
+        glBindBuffer(GL_UNIFORM_BUFFER, this.id);
+        glBufferSubData(GL_UNIFORM_BUFFER, offset, this.staging);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        this.staging.clear();
+    }
+
+    //Staging Methods (std140 vec3s take up 12 bytes but are aligned to 16)
+    protected void putVector3f(int offset, float x, float y, float z) {
+        this.staging.putFloat(offset, x);
+        this.staging.putFloat(offset + 4, y);
+        this.staging.putFloat(offset + 8, z);
+    }
+    protected void putVector4f(int offset, float x, float y, float z, float w) {
+        this.putVector3f(offset, x, y, z);
+        this.staging.putFloat(offset + 12, w);
+    }
+
+    //Accessors
+    public int getBinding() { return this.binding; }
+    public int getSize() { return this.size; }
+
+    //Cleanup Method
+    public void cleanup() {
+        glDeleteBuffers(this.id);
+        MemoryUtil.memFree(this.staging);
+    }
+}
@@ -0,0 +1,359 @@
+package engine.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//Info Codes Used: 0 - 1
+
+/**
+ * A Node read from a compiled (binary) .wdrc file. Text .wdr files remain the authoring format; read() compiles
+ * them into a .wdrc file next to the source whenever the binary is missing or older than the source, and then
+ * reads the binary through a memory-mapped buffer. Children are only decoded from the buffer the first time they
+ * are accessed, so parts of a large file that are never looked at cost nothing.
+ *
+ * File layout (big-endian):
+ *   header:       int magic, int version, int string count, int string table offset, int root node offset
+ *   node:         int name index (-1 for none), int value length in bytes (-1 for none), value bytes (UTF-8),
+ *                 int child count, int child offset (absolute) for each child
+ *   string table: int offset (absolute) for each string, then for each string int length, bytes (UTF-8)
+ * Names are stored once in the string table since they repeat often; values are stored inline with each node.
+ */
+public class CompiledNode extends Node {
+
+    //Static Data
+    public static final String EXTENSION = ".wdrc";
+    private static final int MAGIC = 0x57445243; //'WDRC'
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+
+    //Data
+    private final Source source;
+    private final int offset;
+    private final int childCount;
+    private boolean materialized; //whether the children have been decoded into Nodes
+
+    /**
+     * Constructs a compiled node by decoding its name and value from the given source. Children are not decoded
+     * @param source the mapped file the node belongs to
+     * @param offset the offset of the node's record in the file
+     */
+    private CompiledNode(Source source, int offset) {
+        this.source = source;
+        this.offset = offset;
+        ByteBuffer buffer = source.buffer;
+        int position = offset;
+
+        //decode name
+        int nameIndex = buffer.getInt(position);
+        position += 4;
+        if (nameIndex >= 0) this.setName(source.getString(nameIndex));
+
+        //decode value
+        int valueLength = buffer.getInt(position);
+        position += 4;
+        if (valueLength >= 0) {
+            this.setValue(Source.decode(buffer, position, valueLength));
+            position += valueLength;
+        }
+
+        //read child count
+        this.childCount = buffer.getInt(position);
+    }
+
+    /**
+     * Decodes this node's children from the file if they haven't been yet
+     */
+    private void materialize() {
+        if (this.materialized) return;
+        this.materialized = true;
+        if (this.childCount == 0) return;
+
+        //find child offset table, skipping name and value
+        ByteBuffer buffer = this.source.buffer;
+        int valueLength = buffer.getInt(this.offset + 4);
+        int table = this.offset + 12 + Math.max(0, valueLength);
+
+        //decode children
+        List<Node> children = new ArrayList<>(this.childCount);
+        for (int i = 0; i < this.childCount; i++)
+            children.add(new CompiledNode(this.source, buffer.getInt(table + i * 4)));
+        super.addChildren(children);
+    }
+
+    //Children Manipulation Methods
+    @Override
+    public List<Node> getChildren() {
+        this.materialize();
+        return super.getChildren();
+    }
+
+    @Override
+    public boolean hasChildren() { return this.materialized ? super.hasChildren() : this.childCount > 0; }
+
+    @Override
+    public void addChild(Node child) {
+        this.materialize();
+        super.addChild(child);
+    }
+
+    @Override
+    public void addChildren(List<Node> children) {
+        this.materialize();
+        super.addChildren(children);
+    }
+
+    /**
+     * Reads a node from a text .wdr file through its compiled form. If the compiled file is missing, unreadable or
+     * older than the text file, the text file is parsed and compiled first
+     * @param path the path of the text .wdr file
+     * @return the read Node
+     */
+    public static Node read(String path) {
+
+        //find compiled file and compile it if it's out of date
+        File textFile = new File(path);
+        File binaryFile = new File(CompiledNode.getBinaryPath(path));
+        if (!binaryFile.exists() || binaryFile.lastModified() < textFile.lastModified()) {
+            Node node = Node.readNode(path);
+            if (!CompiledNode.compile(node, binaryFile)) return node; //use the text node if it couldn't be compiled
+        }
+
+        //map compiled file
+        try {
+            return CompiledNode.map(binaryFile);
+        } catch (IOException | IllegalStateException e) {
+            Utils.log("Unable to read compiled node at '" + binaryFile.getPath() + "' (" + e.getMessage() +
+                    "), recompiling", "engine.utils.CompiledNode", 0, true);
+        }
+
+        //recompile if the compiled file was unreadable
+        Node node = Node.readNode(path);
+        CompiledNode.compile(node, binaryFile);
+        return node;
+    }
+
+    /**
+     * @param path the path of a text .wdr file
+     * @return the path its compiled form is stored at
+     */
+    public static String getBinaryPath(String path) {
+        return (path.endsWith(".wdr") ? path.substring(0, path.length() - 4) : path) + CompiledNode.EXTENSION;
+    }
+
+    /**
+     * Maps a compiled file into memory and returns its root node
+     * @param file the compiled file
+     * @return the root node
+     */
+    private static CompiledNode map(File file) throws IOException {
+
+        //map file (the mapping stays valid after the channel is closed)
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        //check header
+        if (buffer.capacity() < CompiledNode.HEADER_SIZE || buffer.getInt(0) != CompiledNode.MAGIC)
+            throw new IllegalStateException("not a compiled node file");
+        if (buffer.getInt(4) != CompiledNode.VERSION)
+            throw new IllegalStateException("unsupported version " + buffer.getInt(4));
+
+        //check that the string table and root lie within the file, so a truncated file is caught here
+        int stringCount = buffer.getInt(8), tableOffset = buffer.getInt(12), rootOffset = buffer.getInt(16);
+        if (stringCount < 0 || tableOffset < CompiledNode.HEADER_SIZE ||
+                tableOffset + 4L * stringCount > buffer.capacity())
+            throw new IllegalStateException("string table out of bounds");
+        if (rootOffset < CompiledNode.HEADER_SIZE || rootOffset + 12L > tableOffset)
+            throw new IllegalStateException("root node out of bounds");
+
+        //create root
+        Source source = new Source(buffer, stringCount, tableOffset);
+        try {
+            return new CompiledNode(source, rootOffset);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalStateException("root node out of bounds");
+        }
+    }
+
+    /**
+     * Compiles a node into a binary file
+     * @param node the node to compile
+     * @param file the file to write to
+     * @return whether the node was successfully compiled
+     */
+    public static boolean compile(Node node, File file) {
+
+        //write nodes after the header, collecting names into the string table
+        Writer writer = new Writer();
+        writer.position = CompiledNode.HEADER_SIZE;
+        int rootOffset = writer.writeNode(node);
+
+        //write string table
+        int tableOffset = writer.position;
+        List<byte[]> strings = new ArrayList<>(writer.strings.keySet().size());
+        for (String s : writer.strings.keySet()) strings.add(s.getBytes(StandardCharsets.UTF_8));
+        int stringOffset = tableOffset + strings.size() * 4;
+        for (byte[] s : strings) {
+            writer.putInt(stringOffset);
+            stringOffset += 4 + s.length;
+        }
+        for (byte[] s : strings) {
+            writer.putInt(s.length);
+            writer.putBytes(s);
+        }
+
+        //write header
+        int end = writer.position;
+        writer.position = 0;
+        writer.putInt(CompiledNode.MAGIC);
+        writer.putInt(CompiledNode.VERSION);
+        writer.putInt(strings.size());
+        writer.putInt(tableOffset);
+        writer.putInt(rootOffset);
+
+        //write to a temporary file and move it into place, so a write cut short never leaves a partial file behind
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+                raf.setLength(0);
+                raf.write(writer.buffer.array(), 0, end);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            temp.delete();
+            Utils.log("Unable to compile node to '" + file.getPath() + "' (" + e.getMessage() + ")",
+                    "engine.utils.CompiledNode", 1, true);
+            return false;
+        }
+    }
+
+    /**
+     * A memory-mapped compiled file and the strings decoded from its string table so far
+     */
+    private static class Source {
+
+        //Data
+        private final ByteBuffer buffer;
+        private final int stringTable;
+        private final String[] strings;
+
+        //Constructor
+        private Source(ByteBuffer buffer, int stringCount, int stringTable) {
+            this.buffer = buffer;
+            this.stringTable = stringTable;
+            this.strings = new String[stringCount];
+        }
+
+        /**
+         * @param index the index of a string in the string table
+         * @return the string, decoded on first access
+         */
+        private String getString(int index) {
+            if (this.strings[index] == null) {
+                int offset = this.buffer.getInt(this.stringTable + index * 4);
+                this.strings[index] = Source.decode(this.buffer, offset + 4, this.buffer.getInt(offset));
+            }
+            return this.strings[index];
+        }
+
+        /**
+         * Decodes UTF-8 bytes from a buffer without moving its position
+         */
+        private static String decode(ByteBuffer buffer, int offset, int length) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) bytes[i] = buffer.get(offset + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Writes nodes into a growable buffer
+     */
+    private static class Writer {
+
+        //Data
+        private ByteBuffer buffer = ByteBuffer.allocate(4096);
+        private int position;
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+        /**
+         * Writes a node and, recursively, its children
+         * @param node the node to write
+         * @return the offset the node was written at
+         */
+        private int writeNode(Node node) {
+
+            //write name and value
+            int offset = this.position;
+            this.putInt(node.hasName() ? this.stringIndex(node.getName()) : -1);
+            if (node.hasValue()) {
+                byte[] value = node.getValue().getBytes(StandardCharsets.UTF_8);
+                this.putInt(value.length);
+                this.putBytes(value);
+            } else this.putInt(-1);
+
+            //reserve child offset table
+            int childCount = node.getChildCount();
+            this.putInt(childCount);
+            int table = this.position;
+            this.position += childCount * 4;
+            this.ensureCapacity(this.position);
+
+            //write children and fill in their offsets
+            for (int i = 0; i < childCount; i++) {
+                int childOffset = this.writeNode(node.getChildren().get(i));
+                this.buffer.putInt(table + i * 4, childOffset);
+            }
+            return offset;
+        }
+
+        /**
+         * @return the index of a string in the string table, adding it if it isn't there yet
+         */
+        private int stringIndex(String s) {
+            Integer index = this.strings.get(s);
+            if (index == null) {
+                index = this.strings.size();
+                this.strings.put(s, index);
+            }
+            return index;
+        }
+
+        //Put Methods
+        private void putInt(int value) {
+            this.ensureCapacity(this.position + 4);
+            this.buffer.putInt(this.position, value);
+            this.position += 4;
+        }
+        private void putBytes(byte[] bytes) {
+            this.ensureCapacity(this.position + bytes.length);
+            for (int i = 0; i < bytes.length; i++) this.buffer.put(this.position + i, bytes[i]);
+            this.position += bytes.length;
+        }
+
+        /**
+         * Grows the buffer so that it can hold at least the given number of bytes
+         */
+        private void ensureCapacity(int capacity) {
+            if (capacity <= this.buffer.capacity()) return;
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(capacity, this.buffer.capacity() * 2));
+            this.buffer.position(0);
+            this.buffer.limit(this.buffer.capacity());
+            grown.put(this.buffer);
+            this.buffer = grown;
+        }
+    }
+}
@@ -20,7 +20,7 @@ public class Controls {
     public static final float MOUSE_SENSITIVITY = 0.45f;
     public static final float CAMERA_SPEED = 0.15f;
     public static int currentPolygonMode = GL_FILL;
-    public static boolean mouseGrabbed = true;
+    public static volatile boolean mouseGrabbed = true; //toggled on the loop thread, read by updates
 
     /**
      * Toggles OpenGL's polygon mode
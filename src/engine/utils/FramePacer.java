@@ -0,0 +1,175 @@
+package engine.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a loop to a target rate. Waiting is done in two steps: parking the thread until shortly before the deadline,
+ * then spinning the rest of the way. Parking is cheap but wakes late by a varying amount (often a millisecond or more
+ * with Thread.sleep()), so the pacer measures how late parks actually wake and keeps the spin just long enough to
+ * cover it. Deadlines follow a fixed schedule, so one slow frame doesn't shift every frame after it; a loop that falls
+ * further behind than it may catch up on starts a new schedule instead.
+ *
+ * In every mode the pacer also measures frame times, and in the fixed mode how far each frame ended from its
+ * deadline, for getReport()
+ */
+public class FramePacer {
+
+    /**
+     * The ways a loop can be paced
+     */
+    public enum Mode {
+        UNCAPPED, //don't wait at all
+        VSYNC, //don't wait, buffer swaps already wait for the display
+        FIXED //wait for a fixed target rate
+    }
+
+    //Static Data
+    private static final long MIN_SPIN_NANOS = 50_000; //the least time to spin for
+    private static final long MAX_SPIN_NANOS = 2_000_000; //the most time to spin for
+    private static final long INITIAL_SPIN_NANOS = 1_000_000; //the time to spin for before any park was measured
+    private static final double OVERSHOOT_WEIGHT = 0.1; //how much each measured park changes the calibration
+
+    //Data
+    private final Mode mode;
+    private final long period; //target nanoseconds per frame, 0 if not fixed
+    private final int maxCatchUp; //how many periods behind the schedule frames may run before it is restarted
+    private long deadline; //when the current frame should end
+    private long lastFrameEnd; //when the last frame ended
+    private double overshootMean, overshootDeviation; //how late parks wake, in nanoseconds
+    private long spinNanos; //how long before a deadline to stop parking and start spinning
+
+    //Statistic Data
+    private long frames; //frames measured since the statistics were last reset
+    private double frameTimeSum, frameTimeSquareSum, maxFrameTime; //in nanoseconds
+    private double errorSum, maxError; //how far frames ended from their deadlines, in nanoseconds
+    private long missed; //frames that ended later than a spin past their deadline
+
+    /**
+     * Constructor
+     * @param mode how to pace
+     * @param targetRate the target number of frames per second. Ignored unless the mode is FIXED
+     * @param maxCatchUp how many periods behind the schedule frames may run, ending immediately one after another,
+     *                   before the schedule is restarted from the current time. 0 restarts the schedule as soon as
+     *                   a frame runs a whole period late
+     */
+    public FramePacer(Mode mode, int targetRate, int maxCatchUp) {
+        this.mode = mode;
+        this.period = mode == Mode.FIXED ? 1_000_000_000L / targetRate : 0;
+        this.maxCatchUp = maxCatchUp;
+        this.spinNanos = FramePacer.INITIAL_SPIN_NANOS;
+        this.overshootMean = FramePacer.INITIAL_SPIN_NANOS / 2.0;
+        this.start();
+    }
+
+    /**
+     * Starts a new schedule from the current time, with the first frame ending one period from now
+     */
+    public void start() {
+        this.lastFrameEnd = System.nanoTime();
+        this.deadline = this.lastFrameEnd + this.period;
+    }
+
+    /**
+     * Ends a frame, waiting for its deadline if the mode is FIXED, and measures it
+     */
+    public void endFrame() {
+
+        //wait for deadline
+        long now = System.nanoTime();
+        if (this.mode == Mode.FIXED) {
+            if (now < this.deadline) now = this.waitUntil(this.deadline);
+            long error = now - this.deadline;
+            this.errorSum += error;
+            this.maxError = Math.max(this.maxError, error);
+            if (error > this.spinNanos) this.missed++;
+
+            //move on to the next deadline, restarting the schedule if too far behind
+            this.deadline += this.period;
+            if (now - this.deadline > this.period * this.maxCatchUp) this.deadline = now + this.period;
+        }
+
+        //measure frame time
+        double frameTime = now - this.lastFrameEnd;
+        this.lastFrameEnd = now;
+        this.frames++;
+        this.frameTimeSum += frameTime;
+        this.frameTimeSquareSum += frameTime * frameTime;
+        this.maxFrameTime = Math.max(this.maxFrameTime, frameTime);
+    }
+
+    /**
+     * Parks until shortly before a time and spins the rest of the way, calibrating the spin with how late the parks
+     * woke
+     * @param time the time to wait until, in System.nanoTime() nanoseconds
+     * @return the time waiting ended
+     */
+    private long waitUntil(long time) {
+
+        //park
+        long now = System.nanoTime();
+        while (time - now > this.spinNanos) {
+            long requested = time - now - this.spinNanos;
+            LockSupport.parkNanos(requested);
+            long woken = System.nanoTime();
+            this.calibrate(woken - now - requested);
+            now = woken;
+        }
+
+        //spin
+        while (now < time) now = System.nanoTime();
+        return now;
+    }
+
+    /**
+     * Updates the spin time with how late a park woke: the average lateness plus three deviations, so that nearly all
+     * parks wake before the deadline
+     * @param overshoot how late the park woke, in nanoseconds
+     */
+    private void calibrate(long overshoot) {
+        double difference = Math.max(0, overshoot) - this.overshootMean;
+        this.overshootMean += difference * FramePacer.OVERSHOOT_WEIGHT;
+        this.overshootDeviation += (Math.abs(difference) - this.overshootDeviation) * FramePacer.OVERSHOOT_WEIGHT;
+        this.spinNanos = Math.max(FramePacer.MIN_SPIN_NANOS, Math.min(FramePacer.MAX_SPIN_NANOS,
+                (long)(this.overshootMean + 3 * this.overshootDeviation)));
+    }
+
+    /**
+     * Forgets every measured frame (but not the spin calibration)
+     */
+    public void resetStatistics() {
+        this.frames = this.missed = 0;
+        this.frameTimeSum = this.frameTimeSquareSum = this.maxFrameTime = this.errorSum = this.maxError = 0;
+    }
+
+    /**
+     * @return a one line summary of the statistics, in milliseconds
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder(String.format("%s pacing over %d frames: frame time %.3f ms " +
+                "(deviation %.3f ms, max %.3f ms)", this.mode, this.frames, this.getMeanFrameTime() * 1000,
+                this.getFrameTimeDeviation() * 1000, this.maxFrameTime / 1e6));
+        if (this.mode == Mode.FIXED) report.append(String.format(", target %.3f ms, deadline error %.3f ms " +
+                "(max %.3f ms), %d missed, spin %.3f ms", this.period / 1e6, this.getMeanError() * 1000,
+                this.maxError / 1e6, this.missed, this.spinNanos / 1e6));
+        return report.toString();
+    }
+
+    //Accessors
+    public Mode getMode() { return this.mode; }
+    public long getFrameCount() { return this.frames; }
+    public long getMissedDeadlines() { return this.missed; } //frames that ended noticeably after their deadlines
+    public double getSpinTime() { return this.spinNanos / 1e9; } //in seconds
+    public double getMeanFrameTime() { return this.frames > 0 ? this.frameTimeSum / this.frames / 1e9 : 0; }
+    public double getMaxFrameTime() { return this.maxFrameTime / 1e9; } //in seconds
+    public double getMeanError() { return this.frames > 0 ? this.errorSum / this.frames / 1e9 : 0; } //in seconds
+    public double getMaxError() { return this.maxError / 1e9; } //in seconds
+
+    /**
+     * @return the standard deviation of frame times, in seconds - how much frames jitter
+     */
+    public double getFrameTimeDeviation() {
+        if (this.frames == 0) return 0;
+        double mean = this.frameTimeSum / this.frames;
+        return Math.sqrt(Math.max(0, this.frameTimeSquareSum / this.frames - mean * mean)) / 1e9;
+    }
+}
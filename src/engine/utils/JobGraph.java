@@ -0,0 +1,157 @@
+package engine.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A set of jobs to run on a JobSystem's workers, each starting once every job it depends on has finished. Jobs with
+ * nothing left to wait for are started by the worker that finished their last dependency, so chains of jobs stay on
+ * one worker unless another one steals them. A graph can be cleared and filled again every frame.
+ *
+ * Jobs can only depend on jobs added before them, so a graph never has cycles. If a job throws, jobs that depend on
+ * it (directly or not) are skipped and run() throws once everything else has finished
+ */
+public class JobGraph {
+
+    //Data
+    private final JobSystem jobs;
+    private final List<Job> graph; //every job, in the order they were added
+    private final AtomicInteger unfinished; //jobs of the current run that haven't finished
+    private final AtomicReference<Throwable> failure; //the first exception thrown during the current run
+    private CompletableFuture<Void> done; //completed when the current run finishes
+
+    /**
+     * Constructor
+     * @param jobs the job system to run jobs on
+     */
+    public JobGraph(JobSystem jobs) {
+        this.jobs = jobs;
+        this.graph = new ArrayList<>();
+        this.unfinished = new AtomicInteger();
+        this.failure = new AtomicReference<>();
+    }
+
+    /**
+     * Adds a job
+     * @param name a name for the job, used when reporting that it failed
+     * @param task the work of the job
+     * @param dependencies the jobs of this graph that must finish before this one starts
+     * @return the job, to make other jobs depend on it
+     */
+    public Job add(String name, Runnable task, Job... dependencies) {
+        Job job = new Job(name, task, dependencies.length);
+        for (Job dependency : dependencies) {
+            if (!this.graph.contains(dependency)) {
+                IllegalArgumentException e = new IllegalArgumentException("Job '" + name + "' depends on job '" +
+                        dependency.name + "', which is not part of the graph");
+                Utils.log(e, "engine.utils.JobGraph");
+                throw e;
+            }
+            dependency.dependents.add(job);
+        }
+        this.graph.add(job);
+        return job;
+    }
+
+    /**
+     * Runs every job and waits for all of them to finish. In the deterministic mode jobs run on the calling thread in
+     * the order they were added. Must not be called again before it returns
+     * @throws IllegalStateException if a job threw an exception
+     */
+    public void run() {
+        if (this.graph.isEmpty()) return;
+
+        //reset
+        this.failure.set(null);
+        this.unfinished.set(this.graph.size());
+        for (Job job : this.graph) {
+            job.remaining.set(job.dependencyCount);
+            job.skipped = false;
+        }
+
+        //run in order on this thread
+        if (this.jobs.isDeterministic()) {
+            for (Job job : this.graph) this.runJob(job, false);
+
+        //or start jobs without dependencies and wait for all jobs to finish
+        } else {
+            this.done = new CompletableFuture<>();
+            for (Job job : this.graph) if (job.dependencyCount == 0) this.jobs.execute(() -> this.runJob(job, true));
+            this.done.join();
+        }
+
+        //report failure
+        Throwable cause = this.failure.get();
+        if (cause != null) {
+            IllegalStateException e = new IllegalStateException("A job failed: " + cause.getMessage(), cause);
+            Utils.log(e, "engine.utils.JobGraph");
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a job (unless a job it depends on failed), then starts the jobs waiting on nothing else
+     * @param job the job to run
+     * @param startDependents whether to start dependents that are ready on workers
+     */
+    private void runJob(Job job, boolean startDependents) {
+
+        //run, skipping the job if anything it depends on failed
+        if (!job.skipped) {
+            try {
+                job.task.run();
+            } catch (Throwable t) {
+                if (!this.failure.compareAndSet(null, new RuntimeException("Job '" + job.name + "' failed", t)))
+                    this.failure.get().addSuppressed(t);
+                job.skipped = true;
+            }
+        }
+
+        //release dependents, skipping them too if this job failed or was skipped
+        for (Job dependent : job.dependents) {
+            if (job.skipped) dependent.skipped = true;
+            if (dependent.remaining.decrementAndGet() == 0 && startDependents) {
+                this.jobs.execute(() -> this.runJob(dependent, true));
+            }
+        }
+        if (this.unfinished.decrementAndGet() == 0 && startDependents) this.done.complete(null);
+    }
+
+    /**
+     * Removes every job so the graph can be filled again
+     */
+    public void clear() { this.graph.clear(); }
+
+    //Accessors
+    public JobSystem getJobSystem() { return this.jobs; }
+    public int size() { return this.graph.size(); }
+
+    /**
+     * A job of a graph and the jobs waiting on it
+     */
+    public final class Job {
+
+        //Data
+        private final String name;
+        private final Runnable task;
+        private final int dependencyCount;
+        private final List<Job> dependents; //the jobs that depend on this one
+        private final AtomicInteger remaining; //dependencies that haven't finished in the current run
+        private volatile boolean skipped; //whether the job is skipped because it or a dependency failed
+
+        //Constructor
+        private Job(String name, Runnable task, int dependencyCount) {
+            this.name = name;
+            this.task = task;
+            this.dependencyCount = dependencyCount;
+            this.dependents = new ArrayList<>();
+            this.remaining = new AtomicInteger();
+        }
+
+        //Accessors
+        public String getName() { return this.name; }
+    }
+}
@@ -0,0 +1,241 @@
+package engine.utils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads per-frame CPU work over a pool of work-stealing worker threads (a ForkJoinPool with one worker per core
+ * besides the loop thread). Work is given either as a parallel-for over a range of indices, split into chunks that
+ * idle workers steal from busy ones, or as a JobGraph of jobs that wait for the jobs they depend on.
+ *
+ * Each worker measures how long it spends running work, so the system can report how busy each worker is. In the
+ * deterministic mode there are no workers: everything runs on the calling thread in a fixed order (chunks in index
+ * order, jobs in the order they were added), which makes the results of racy work reproducible while debugging
+ */
+public class JobSystem {
+
+    /**
+     * Work done on a chunk of a parallel-for's range
+     */
+    public interface Range {
+
+        /**
+         * Does the work for every index in a chunk. Chunks never overlap, but may run at the same time
+         * @param from the first index of the chunk
+         * @param to one past the last index of the chunk
+         */
+        void run(int from, int to);
+    }
+
+    //Data
+    private final ForkJoinPool pool; //null in the deterministic mode
+    private final List<Worker> workers; //the pool's live workers, in the order they were created
+    private long lastSample; //when utilization was last sampled
+
+    /**
+     * Constructs a job system with one worker per available core, minus one for the loop thread
+     * @param deterministic whether to run everything on the calling thread in a fixed order instead
+     */
+    public JobSystem(boolean deterministic) {
+        this(deterministic ? 0 : Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Constructor
+     * @param workerCount how many worker threads to run work on. 0 gives the deterministic mode
+     */
+    public JobSystem(int workerCount) {
+        this.workers = new CopyOnWriteArrayList<>();
+        AtomicInteger index = new AtomicInteger();
+        this.pool = workerCount > 0 ? new ForkJoinPool(workerCount, (ForkJoinPool pool) -> {
+            Worker worker = new Worker(pool, index.getAndIncrement(), this.workers);
+            this.workers.add(worker);
+            return worker;
+        }, null, false) : null;
+        this.lastSample = System.nanoTime();
+    }
+
+    /**
+     * Runs work over a range of indices, split into chunks of at most a given size, and waits for it to finish. The
+     * calling thread may be a worker running a job (e.g. to split a job of a JobGraph up further)
+     * @param from the first index
+     * @param to one past the last index
+     * @param grain the most indices to run in one chunk. Chunks should be large enough to be worth handing to
+     *              another thread
+     * @param body the work to do on each chunk
+     */
+    public void parallelFor(int from, int to, int grain, Range body) {
+        if (to <= from) return;
+        grain = Math.max(1, grain);
+
+        //run chunks in order on this thread if deterministic or there is only one chunk
+        if (this.pool == null || to - from <= grain) {
+            for (int start = from; start < to; start += grain) {
+                int first = start, end = Math.min(to, start + grain);
+                this.timed(() -> body.run(first, end));
+            }
+
+        //or split the range among the workers
+        } else {
+            RangeTask task = new RangeTask(this, body, from, to, grain);
+            if (this.isWorkerThread()) task.invoke();
+            else this.pool.invoke(task);
+        }
+    }
+
+    /**
+     * Starts running a job on a worker. Jobs started from a worker are pushed onto its own deque, where other workers
+     * can steal them
+     * @param job the job to run. It is timed for utilization
+     */
+    void execute(Runnable job) {
+        ForkJoinTask<?> task = ForkJoinTask.adapt(() -> this.timed(job));
+        if (this.isWorkerThread()) task.fork();
+        else this.pool.execute(task);
+    }
+
+    /**
+     * Runs work, adding the time it takes to the busy time of the worker running it. Work nested in other timed work
+     * isn't counted twice
+     */
+    private void timed(Runnable work) {
+        Thread thread = Thread.currentThread();
+        Worker worker = thread instanceof Worker && ((Worker)thread).getPool() == this.pool ? (Worker)thread : null;
+        if (worker == null || worker.depth++ > 0) {
+            try {
+                work.run();
+            } finally {
+                if (worker != null) worker.depth--;
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            work.run();
+        } finally {
+            worker.busy += System.nanoTime() - start;
+            worker.depth--;
+        }
+    }
+
+    /**
+     * @return whether the calling thread is one of this system's workers
+     */
+    private boolean isWorkerThread() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof Worker && ((Worker)thread).getPool() == this.pool;
+    }
+
+    /**
+     * Measures how busy each worker has been since the last sample, for getUtilization(). Should be called once per
+     * frame from one thread
+     */
+    public void sampleUtilization() {
+        long now = System.nanoTime(), elapsed = Math.max(1, now - this.lastSample);
+        for (Worker worker : this.workers) {
+            long busy = worker.busy;
+            worker.utilization = Math.min(1f, (float)(busy - worker.sampledBusy) / elapsed);
+            worker.sampledBusy = busy;
+        }
+        this.lastSample = now;
+    }
+
+    /**
+     * @return a one line summary of every worker's utilization over the last sample and its lifetime
+     */
+    public String getReport() {
+        if (this.pool == null) return "Jobs ran deterministically on the calling thread";
+        StringBuilder report = new StringBuilder("Job worker utilization (last sample / total):");
+        for (Worker worker : this.workers) {
+            float total = (float)worker.busy / Math.max(1, System.nanoTime() - worker.started);
+            report.append(String.format(" %d: %.0f%% / %.0f%%", worker.index, worker.utilization * 100, total * 100));
+        }
+        return report.toString();
+    }
+
+    //Accessors
+    public boolean isDeterministic() { return this.pool == null; }
+    public int getWorkerCount() { return this.workers.size(); } //live workers
+    public long getBusyTime(int worker) { return this.workers.get(worker).busy; } //in nanoseconds
+
+    /**
+     * @param worker the index of a live worker, from 0 to getWorkerCount()
+     * @return the part of the time between the last two calls to sampleUtilization() the given worker spent running
+     *         work, from 0 to 1. Workers created since the last sample have a utilization of 0
+     */
+    public float getUtilization(int worker) { return this.workers.get(worker).utilization; }
+
+    //Cleanup Method
+    public void cleanup() { if (this.pool != null) this.pool.shutdownNow(); }
+
+    /**
+     * A worker thread that keeps track of how long it has spent running work. The pool retires workers that stay idle
+     * and creates new ones when work comes in again, so a worker removes itself from the live workers when it ends
+     */
+    private static class Worker extends ForkJoinWorkerThread {
+
+        //Data
+        private final int index; //the order the worker was created in
+        private final List<Worker> workers; //the live workers of the job system
+        private final long started; //when the worker was created
+        private volatile long busy; //nanoseconds spent running work, only written by the worker itself
+        private int depth; //how deeply nested the timed work being run is
+        private long sampledBusy; //busy when utilization was last sampled (sampling thread only)
+        private volatile float utilization; //utilization between the last two samples
+
+        //Constructor
+        private Worker(ForkJoinPool pool, int index, List<Worker> workers) {
+            super(pool);
+            this.setName("JOB_WORKER_" + index);
+            this.index = index;
+            this.workers = workers;
+            this.started = System.nanoTime();
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            this.workers.remove(this);
+            super.onTermination(exception);
+        }
+    }
+
+    /**
+     * Splits a parallel-for's range in half until chunks are small enough, running one half and leaving the other to
+     * be stolen
+     */
+    private static final class RangeTask extends RecursiveAction {
+
+        //Static Data
+        private static final long serialVersionUID = 1L;
+
+        //Data
+        private final JobSystem jobs; //the system the chunks are timed for
+        private final Range body;
+        private final int from, to, grain;
+
+        //Constructor
+        private RangeTask(JobSystem jobs, Range body, int from, int to, int grain) {
+            this.jobs = jobs;
+            this.body = body;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= this.grain) {
+                this.jobs.timed(() -> this.body.run(this.from, this.to));
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            ForkJoinTask.invokeAll(new RangeTask(this.jobs, this.body, this.from, middle, this.grain),
+                    new RangeTask(this.jobs, this.body, middle, this.to, this.grain));
+        }
+    }
+}
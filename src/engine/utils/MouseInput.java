@@ -14,7 +14,7 @@ public class MouseInput {
     private final Vector2f deltaPosition;
 
     //Data
-    private boolean inWindow = true;
+    private volatile boolean inWindow = true;
     private boolean leftPressed = false, rightPressed = false;
 
     //Constructor
@@ -29,8 +29,10 @@ public class MouseInput {
 
         //set position callback
         glfwSetCursorPosCallback(window.getID(), (id, x, y) -> {
-            this.currentPosition.x = x;
-            this.currentPosition.y = y;
+            synchronized (this.currentPosition) { //inputUpdate() may run on the update thread
+                this.currentPosition.x = x;
+                this.currentPosition.y = y;
+            }
         });
 
         //set inWindow callbackk
@@ -46,18 +48,22 @@ public class MouseInput {
     }
 
     /**
-     * updates the mouse position and the delta mouse position of this MouseInput
+     * updates the mouse position and the delta mouse position of this MouseInput. May be called from a different
+     * thread than the one that polls events
      */
     public void inputUpdate() {
+        double x, y;
+        synchronized (this.currentPosition) {
+            x = this.currentPosition.x;
+            y = this.currentPosition.y;
+        }
         this.deltaPosition.x = this.deltaPosition.y = 0;
         if (this.inWindow) {
-            double dX = this.currentPosition.x - this.previousPosition.x;
-            double dY = this.currentPosition.y - this.previousPosition.y;
-            this.deltaPosition.x = (float)dX;
-            this.deltaPosition.y = (float)dY;
+            this.deltaPosition.x = (float)(x - this.previousPosition.x);
+            this.deltaPosition.y = (float)(y - this.previousPosition.y);
         }
-        this.previousPosition.x = this.currentPosition.x;
-        this.previousPosition.y = this.currentPosition.y;
+        this.previousPosition.x = x;
+        this.previousPosition.y = y;
     }
 
     //Accessors
@@ -2,9 +2,11 @@ package engine.utils;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-//Info Codes Used: 0 - 1
+//Info Codes Used: 0 - 3
 
 /**
  * Holds a singular piece of data, and can hold children nodes with their own data. Has the capability to be
@@ -13,13 +15,18 @@ import java.util.List;
 public class Node {
 
     //Static Data
-    private static char INDENT_CHAR = '\t';
-    private static char DIVIDER_CHAR = ':';
+    static final char INDENT_CHAR = '\t';
+    static final char DIVIDER_CHAR = ':';
+    private static final int INDEX_THRESHOLD = 8; //child count at which name lookups build an index
+    private static final char PATH_SEPARATOR = '/';
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 }; //exact as doubles
 
     //Data
     private String name;
     private String value;
     private List<Node> children;
+    private Map<String, Node> childIndex; //children by name, built lazily by name lookups on large nodes
 
     //Full Constructor
     public Node(String name, String value, List<Node> children) {
@@ -50,32 +57,80 @@ public class Node {
 
     //Children Manipulation Methods
     public List<Node> getChildren() { return this.children; }
-    public int getChildCount() { return this.children.size(); }
+    public int getChildCount() { return this.hasChildren() ? this.getChildren().size() : 0; }
 
     public void addChild(Node child) {
         if (this.children == null) this.children = new ArrayList<>();
         this.children.add(child);
+        if (this.childIndex != null && child.hasName()) this.childIndex.putIfAbsent(child.getName(), child);
     }
 
     public void addChildren(List<Node> children) {
         if (this.children == null) this.children = new ArrayList<>();
         if (children == null) return;
-        for (Node child : children) this.children.add(child);
+        for (Node child : children) this.addChild(child);
     }
 
     public Node getChild(int index) {
-        if (index > this.children.size()) {
-            Utils.log("Unable to access index " + index + " in child array of size " + this.children.size() +
+        if (index >= this.getChildCount()) {
+            Utils.log("Unable to access index " + index + " in child array of size " + this.getChildCount() +
                     ", returning null", "engine.utils.Node", 0, true);
             return null;
         }
-        return this.children.get(index);
+        return this.getChildren().get(index);
     }
 
     public Node getChild(String name) {
-        for (Node child : this.children) if (child.getName().equals(name)) return child;
-        Utils.log("Unable to access child with name '" + name + "', returning null", "engine.utils.Node",
-                1, true);
+        Node child = this.findChild(name);
+        if (child == null) Utils.log("Unable to access child with name '" + name + "', returning null",
+                "engine.utils.Node", 1, true);
+        return child;
+    }
+
+    public boolean hasChild(String name) { return this.findChild(name) != null; }
+
+    /**
+     * Finds a descendant by a path of child names separated by '/', such as "layout/width"
+     * @param path the path of the descendant, relative to this node
+     * @return the descendant, or null if any part of the path doesn't exist
+     */
+    public Node getChildByPath(String path) {
+        Node node = this;
+        int start = 0;
+        while (node != null && start <= path.length()) {
+            int end = path.indexOf(Node.PATH_SEPARATOR, start);
+            if (end < 0) end = path.length();
+            node = node.findChild(path.substring(start, end));
+            start = end + 1;
+        }
+        if (node == null) Utils.log("Unable to access child at path '" + path + "', returning null",
+                "engine.utils.Node", 2, true);
+        return node;
+    }
+
+    /**
+     * Finds the first child with the given name without logging a miss. Once this node has INDEX_THRESHOLD
+     * children, the first lookup builds a name index so that later lookups take constant time. The index follows
+     * addChild(), but not children renamed or added through the list returned by getChildren()
+     * @param name the name of the child to find
+     * @return the child, or null if there is none with that name
+     */
+    private Node findChild(String name) {
+
+        //use index if there is one
+        if (this.childIndex != null) return this.childIndex.get(name);
+        if (!this.hasChildren()) return null;
+
+        //build index on large nodes
+        List<Node> children = this.getChildren();
+        if (children.size() >= Node.INDEX_THRESHOLD) {
+            this.childIndex = new HashMap<>(children.size() * 2);
+            for (Node child : children) if (child.hasName()) this.childIndex.putIfAbsent(child.getName(), child);
+            return this.childIndex.get(name);
+        }
+
+        //scan small nodes
+        for (int i = 0; i < children.size(); i++) if (name.equals(children.get(i).getName())) return children.get(i);
         return null;
     }
 
@@ -90,6 +145,115 @@ public class Node {
         return true;
     }
 
+    /**
+     * Parses this node's value as an integer directly from its characters
+     * @return the parsed value
+     * @throws NumberFormatException if the value is missing or is not an integer
+     */
+    public int getInt() {
+
+        //check value
+        String v = this.value;
+        int length = v == null ? 0 : v.length();
+        int i = 0;
+        boolean negative = length > 0 && v.charAt(0) == '-';
+        if (negative || (length > 0 && v.charAt(0) == '+')) i++;
+        if (i == length) throw this.numberFormatError("integer");
+
+        //accumulate digits as a negative number so that Integer.MIN_VALUE fits
+        int result = 0;
+        for (; i < length; i++) {
+            int digit = v.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < (Integer.MIN_VALUE + digit) / 10)
+                throw this.numberFormatError("integer");
+            result = result * 10 - digit;
+        }
+        if (!negative && result == Integer.MIN_VALUE) throw this.numberFormatError("integer");
+        return negative ? result : -result;
+    }
+
+    /**
+     * Parses this node's value as a float directly from its characters. Plain decimal values (optionally with an
+     * exponent) are parsed without allocating; anything else is handed to Float.parseFloat()
+     * @return the parsed value
+     * @throws NumberFormatException if the value is missing or is not a number
+     */
+    public float getFloat() {
+
+        //check value
+        String v = this.value;
+        if (v == null) throw this.numberFormatError("float");
+        int length = v.length();
+        int i = 0;
+        boolean negative = length > 0 && v.charAt(0) == '-';
+        if (negative || (length > 0 && v.charAt(0) == '+')) i++;
+
+        //read mantissa digits and decimal point
+        long mantissa = 0;
+        int digits = 0, exponent = 0;
+        boolean point = false;
+        for (; i < length; i++) {
+            char c = v.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (mantissa > (Long.MAX_VALUE - 9) / 10) return Float.parseFloat(v); //too many digits to be exact
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (point) exponent--;
+            } else if (c == '.' && !point) point = true;
+            else break;
+        }
+        if (digits == 0) return Float.parseFloat(v); //e.g. NaN or Infinity, or an error
+
+        //read exponent
+        if (i < length && (v.charAt(i) == 'e' || v.charAt(i) == 'E')) {
+            int e = 0;
+            boolean negativeExponent = false;
+            i++;
+            if (i < length && (v.charAt(i) == '-' || v.charAt(i) == '+')) negativeExponent = v.charAt(i++) == '-';
+            if (i == length) throw this.numberFormatError("float");
+            for (; i < length; i++) {
+                int digit = v.charAt(i) - '0';
+                if (digit < 0 || digit > 9) throw this.numberFormatError("float");
+                if (e < 1000) e = e * 10 + digit;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (i != length) return Float.parseFloat(v); //trailing characters such as an 'f' suffix
+
+        //combine in float arithmetic, which rounds correctly when the mantissa and power of ten are both exactly
+        //representable as floats (going through a double would round twice and could be off by one ulp)
+        if (mantissa > (1L << 24) || exponent < -10 || exponent > 10) return Float.parseFloat(v);
+        float result = exponent < 0 ? mantissa / (float)Node.POWERS_OF_TEN[-exponent] :
+                mantissa * (float)Node.POWERS_OF_TEN[exponent];
+        return negative ? -result : result;
+    }
+
+    /**
+     * Copies the characters of this node's value into an array
+     * @param dest the array to copy into
+     * @param destOffset the index in dest to start copying at
+     * @param maxLength the maximum number of characters to copy
+     * @return the number of characters copied (0 if this node has no value)
+     */
+    public int getChars(char[] dest, int destOffset, int maxLength) {
+        if (this.value == null) return 0;
+        int length = Math.min(this.value.length(), maxLength);
+        this.value.getChars(0, length, dest, destOffset);
+        return length;
+    }
+
+    /**
+     * Creates and logs an error for a value that could not be parsed
+     * @param type the type the value was being parsed as
+     * @return the error, to be thrown
+     */
+    private NumberFormatException numberFormatError(String type) {
+        NumberFormatException e = new NumberFormatException("Value '" + this.value + "' of node '" + this.name +
+                "' is not a valid " + type);
+        Utils.log(e.getMessage(), "engine.utils.Node", 3, true);
+        return e;
+    }
+
     //Mutators
     public void setValue(String value) { this.value = value; }
     public void setName(String name) { this.name = name; }
@@ -147,100 +311,23 @@ public class Node {
     }
 
     /**
-     * Reads a node from a file
+     * Reads a node from a file. The file is parsed in a single streaming pass by a NodeReader
      * @param path the path to read the Node from. Will throw an error if does not exist or cannot be opened
      * @return the read Node
      */
     public static Node readNode(String path) {
 
-        //create node
-        Node node = new Node();
-
-        //open file
-        try {
-            BufferedReader in = new BufferedReader(new FileReader(path));
-            List<String> fileContents = new ArrayList<>();
-
-            //put file into an arraylist and then recursively parse it
-            while (in.ready()) fileContents.add(in.readLine());
-            readNodeR(node, fileContents, 0, 0);
+        //open file and parse it
+        try (Reader in = new FileReader(path)) {
+            return NodeReader.readTree(in);
 
-            //catch any errors
+        //catch any errors
         } catch (Exception e) {
             Utils.log(e, "engine.utils.Node");
             e.printStackTrace();
         }
 
-        //return node
-        return node;
-    }
-
-    /**
-     * Recursively reads a Node from a file
-     * @param node the current Node in focus
-     * @param fileContents the recursively static file contents
-     * @param i the current line of fileContents in focus
-     * @param indent the current indent in terms of number of characters
-     * @return the node in focus and its recursively read children
-     */
-    private static int readNodeR(Node node, List<String> fileContents, int i, int indent) {
-
-        //format next line and find dividing point
-        String nextLine = fileContents.get(i); //get line
-        nextLine = nextLine.substring(indent, nextLine.length()); //remove indent
-        int dividerLocation = -1; //location of the divider in line
-        for (int j = 0; j < nextLine.length() && dividerLocation == -1; j++)
-            if (nextLine.charAt(j) == Node.DIVIDER_CHAR) dividerLocation = j; //find divider
-
-        //throw error if no divider found
-        if (dividerLocation == -1) {
-            IllegalStateException e = new IllegalStateException("Could not find divider in line: '" + nextLine + "'");
-            Utils.log(e, "engine.utils.Node");
-            throw e;
-        }
-
-        //create node and set name
-        Node curr = new Node();
-        String possibleName = nextLine.substring(0, dividerLocation);
-        if (!possibleName.equals("")) curr.setName(nextLine.substring(0, dividerLocation)); //create node with name
-
-        //set node value if there is one
-        String possibleValue = nextLine.substring(dividerLocation + 1, nextLine.length()); //grab possible value
-        if (!possibleValue.equals(" ") && !possibleValue.equals("")) { //if possible value has substance
-            curr.setValue(possibleValue.substring(1, possibleValue.length())); //set value (remove first space space)
-        }
-
-        //check for more file
-        if (i + 1 <= fileContents.size()) { //if not eof
-
-            //check for child nodes
-            if (fileContents.get(i + 1).contains("{")) { //if the node has children
-                i += 2; //iterate twice
-                indent++; //iterate indent
-                while (!fileContents.get(i).contains("}")) { //while there are more children
-
-                    //add child
-                    Node child = new Node(); //create child node
-                    i = readNodeR(child, fileContents, i, indent); //recursively read child, keep track of file position
-                    curr.addChild(child); //add child
-
-                    //throw error if file suddenly stops
-                    if ((i + 1) > fileContents.size()) {
-                        IllegalStateException e = new IllegalStateException("Unexpected stop in file at line " + i);
-                        Utils.log(e, "engine.utils.Node");
-                        throw e;
-                    }
-
-                    //iterate i
-                    i += 1;
-                }
-            }
-        }
-
-        //set node, return current position in file
-        node.setName(curr.getName());
-        node.setValue(curr.getValue());
-        node.addChildren(curr.getChildren());
-        return i;
+        //return empty node if couldn't read
+        return new Node();
     }
 }
@@ -0,0 +1,259 @@
+package engine.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A streaming, pull-style reader for the text Node format. The input is read once through a fixed-size character
+ * buffer, and only names and values are ever turned into Strings. Nested nodes are tracked with a depth counter
+ * rather than recursion, so files of any depth can be read, and files of any size can be processed event by event
+ * without building the whole tree in memory. Errors report the exact line and column they occurred at.
+ *
+ * Each node produces a START_NODE event, a VALUE event if it has a value, the events of its children (if any) and
+ * finally an END_NODE event:
+ * <pre>
+ *   name: value      START_NODE(name) VALUE(value)
+ *   {
+ *       child:       START_NODE(child) END_NODE
+ *   }                END_NODE
+ * </pre>
+ */
+public class NodeReader implements Closeable {
+
+    /**
+     * The events the reader can produce
+     */
+    public enum Event { START_NODE, VALUE, END_NODE, END_DOCUMENT }
+
+    //Static Data
+    private static final int BUFFER_SIZE = 8192;
+
+    //Input Data
+    private final Reader in;
+    private final char[] buffer; //raw characters read from the input
+    private int bufferPosition, bufferLimit;
+    private char[] line; //the current line, without its line terminator
+    private int lineLength;
+    private int lineNumber; //1-based number of the current line
+    private boolean lineAvailable; //whether the current line has been read but not yet consumed
+    private boolean eof;
+
+    //Parse State
+    private int depth; //number of nodes that have been started but not ended
+    private boolean awaitingBrace; //whether the last started node may still open a child block
+    private Event queued; //an event that has been parsed but not yet returned
+    private String name, value;
+
+    //Constructor
+    public NodeReader(Reader in) {
+        this.in = in;
+        this.buffer = new char[NodeReader.BUFFER_SIZE];
+        this.line = new char[128];
+    }
+
+    /**
+     * Advances to the next event
+     * @return the next event. After END_DOCUMENT, every call returns END_DOCUMENT
+     * @throws IllegalStateException if the input is malformed. The message contains the line and column
+     */
+    public Event next() throws IOException {
+
+        //return queued event
+        if (this.queued != null) {
+            Event event = this.queued;
+            this.queued = null;
+            return event;
+        }
+
+        //find next significant line
+        if (!this.lineAvailable && !this.readSignificantLine()) {
+            if (this.awaitingBrace) return this.endNode(); //last node had no children
+            if (this.depth > 0) throw this.error("Unexpected end of file with " + this.depth + " unclosed node(s)",
+                    this.lineLength + 1);
+            return Event.END_DOCUMENT;
+        }
+
+        //find first non-whitespace character
+        int start = this.skipWhitespace(0);
+        char first = this.line[start];
+        boolean braceOnly = this.skipWhitespace(start + 1) == this.lineLength;
+
+        //opening brace
+        if (first == '{' && braceOnly) {
+            if (!this.awaitingBrace) throw this.error("Unexpected '{' with no node to open", start + 1);
+            this.awaitingBrace = false;
+            this.lineAvailable = false;
+            return this.next();
+        }
+
+        //closing brace
+        if (first == '}' && braceOnly) {
+            if (this.awaitingBrace) return this.endNode(); //previous node had no children, leave brace for later
+            if (this.depth == 0) throw this.error("Unexpected '}' with no open node", start + 1);
+            this.lineAvailable = false;
+            return this.endNode();
+        }
+
+        //a new node ends the previous one if it didn't open a child block
+        if (this.awaitingBrace) return this.endNode();
+
+        //find divider
+        int divider = start;
+        while (divider < this.lineLength && this.line[divider] != Node.DIVIDER_CHAR) divider++;
+        if (divider == this.lineLength) throw this.error("Could not find divider '" + Node.DIVIDER_CHAR + "'",
+                this.lineLength + 1);
+
+        //read name and value (the single space after the divider is not part of the value)
+        this.name = divider > start ? new String(this.line, start, divider - start) : null;
+        int valueStart = divider + 1;
+        if (valueStart < this.lineLength && this.line[valueStart] == ' ') valueStart++;
+        this.value = valueStart < this.lineLength ? new String(this.line, valueStart, this.lineLength - valueStart)
+                : null;
+
+        //start node
+        this.lineAvailable = false;
+        this.depth++;
+        this.awaitingBrace = true;
+        if (this.value != null) this.queued = Event.VALUE;
+        return Event.START_NODE;
+    }
+
+    /**
+     * Ends the innermost open node
+     * @return END_NODE
+     */
+    private Event endNode() {
+        this.awaitingBrace = false;
+        this.depth--;
+        return Event.END_NODE;
+    }
+
+    /**
+     * Reads lines until one that isn't blank is found
+     * @return false if the end of the input was reached first
+     */
+    private boolean readSignificantLine() throws IOException {
+        while (this.readLine()) {
+            if (this.skipWhitespace(0) < this.lineLength) {
+                this.lineAvailable = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the next line into the line buffer, handling \n, \r\n and \r terminators
+     * @return false if the end of the input was reached before any characters
+     */
+    private boolean readLine() throws IOException {
+        if (this.eof) return false;
+        int previousLength = this.lineLength; //kept if there is no next line so errors can point past its end
+        this.lineLength = 0;
+        boolean any = false;
+        while (true) {
+
+            //refill buffer
+            if (this.bufferPosition == this.bufferLimit) {
+                int read = this.in.read(this.buffer, 0, this.buffer.length);
+                if (read <= 0) {
+                    this.eof = true;
+                    if (any) this.lineNumber++;
+                    else this.lineLength = previousLength;
+                    return any;
+                }
+                this.bufferPosition = 0;
+                this.bufferLimit = read;
+            }
+
+            //read character
+            char c = this.buffer[this.bufferPosition++];
+            any = true;
+            if (c == '\n' || c == '\r') {
+                if (c == '\r') { //swallow the \n of a \r\n
+                    if (this.bufferPosition == this.bufferLimit) {
+                        int read = this.in.read(this.buffer, 0, this.buffer.length);
+                        this.bufferPosition = 0;
+                        this.bufferLimit = Math.max(read, 0);
+                    }
+                    if (this.bufferPosition < this.bufferLimit && this.buffer[this.bufferPosition] == '\n')
+                        this.bufferPosition++;
+                }
+                this.lineNumber++;
+                return true;
+            }
+
+            //add to line, growing if necessary
+            if (this.lineLength == this.line.length) {
+                char[] grown = new char[this.line.length * 2];
+                System.arraycopy(this.line, 0, grown, 0, this.lineLength);
+                this.line = grown;
+            }
+            this.line[this.lineLength++] = c;
+        }
+    }
+
+    /**
+     * @return the index of the first character of the current line at or after from that isn't a space or tab
+     */
+    private int skipWhitespace(int from) {
+        while (from < this.lineLength && (this.line[from] == ' ' || this.line[from] == Node.INDENT_CHAR)) from++;
+        return from;
+    }
+
+    /**
+     * Creates and logs a parse error for the current line
+     * @param message what went wrong
+     * @param column the 1-based column the error occurred at
+     * @return the error, to be thrown
+     */
+    private IllegalStateException error(String message, int column) {
+        IllegalStateException e = new IllegalStateException(message + " at line " + this.lineNumber + ", column " +
+                column);
+        Utils.log(e, "engine.utils.NodeReader");
+        return e;
+    }
+
+    /**
+     * Reads the first complete node from the input into a tree. An explicit stack is used in place of recursion
+     * @param in the reader to read from. It is not closed
+     * @return the read node, or an empty node if the input contains none
+     */
+    public static Node readTree(Reader in) throws IOException {
+        NodeReader reader = new NodeReader(in);
+        List<Node> stack = new ArrayList<>();
+        Node root = new Node();
+        Event event;
+        while ((event = reader.next()) != Event.END_DOCUMENT) {
+            switch (event) {
+                case START_NODE:
+                    Node node = stack.isEmpty() ? root : new Node();
+                    node.setName(reader.getName());
+                    if (!stack.isEmpty()) stack.get(stack.size() - 1).addChild(node);
+                    stack.add(node);
+                    break;
+                case VALUE:
+                    stack.get(stack.size() - 1).setValue(reader.getValue());
+                    break;
+                case END_NODE:
+                    stack.remove(stack.size() - 1);
+                    if (stack.isEmpty()) return root; //root is complete
+                    break;
+            }
+        }
+        return root;
+    }
+
+    //Accessors
+    public String getName() { return this.name; } //name of the node of the last START_NODE event, may be null
+    public String getValue() { return this.value; } //value of the last VALUE event
+    public int getDepth() { return this.depth; } //number of open nodes
+    public int getLineNumber() { return this.lineNumber; }
+
+    //Close Method
+    @Override
+    public void close() throws IOException { this.in.close(); }
+}
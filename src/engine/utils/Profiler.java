@@ -0,0 +1,322 @@
+package engine.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Measures how long named zones of code take. Zones are registered once with zone() and then marked around the code
+ * they measure with begin() and end(), and may be nested. Every thread records its finished zones into a ring buffer
+ * of its own, allocated once, so recording never allocates or locks. Durations are also counted into a histogram per
+ * zone, covering the last WINDOW_FRAMES to twice as many frames, from which getPercentile() and getReport() find the
+ * 50th, 95th and 99th percentiles. The zones of recent frames can be exported as a Chrome trace (chrome://tracing or
+ * Perfetto) with exportTrace().
+ *
+ * While the profiler is disabled, begin() and end() only read a flag. Enabling and disabling take effect at the next
+ * endFrame(), so a frame's zones are either all recorded or not at all. Zones running on other threads across the
+ * change may be left out of the trace, but are never mismatched
+ */
+public class Profiler {
+
+    //Static Data
+    public static final int MAX_ZONES = 128;
+    public static final int WINDOW_FRAMES = 120; //frames per histogram window
+    private static final int EVENTS_PER_THREAD = 1 << 14; //finished zones kept per thread, a power of two
+    private static final int MAX_DEPTH = 64; //the deepest zones may be nested
+    private static final int FRAME_HISTORY = 256; //frames whose start times are kept, so they can be exported
+    private static final int SUB_BUCKETS = 8; //histogram buckets per doubling of duration
+    private static final int MIN_OCTAVE = 10; //durations below 2^10 nanoseconds (about a microsecond) share a bucket
+    private static final int BUCKETS = 1 + 26 * Profiler.SUB_BUCKETS; //up to 2^36 nanoseconds (about a minute)
+
+    //Zone Data
+    private static final List<String> names = new CopyOnWriteArrayList<>(); //the name of each zone
+
+    //Recording Data
+    private static volatile boolean enabled; //whether zones are being recorded
+    private static volatile boolean requested; //whether zones should be recorded from the next frame on
+    private static volatile int epoch; //bumped whenever recording starts, so threads drop zones left open
+    private static final List<ThreadBuffer> buffers = new CopyOnWriteArrayList<>(); //every recording thread's buffer
+    private static final ThreadLocal<ThreadBuffer> buffer = ThreadLocal.withInitial(Profiler::createBuffer);
+
+    //Histogram Data
+    private static volatile AtomicIntegerArray[] windows; //two windows of counts per zone and bucket, made on enable
+    private static volatile int window; //the window being counted into
+    private static int windowFrames; //frames counted into the current window
+
+    //Frame Data
+    private static final long[] frameStarts = new long[Profiler.FRAME_HISTORY]; //start of each recent frame
+    private static long frames; //frames ended while recording
+
+    /**
+     * Registers a zone. Zones should be registered once, e.g. into a static constant, and not once per use
+     * @param name the name of the zone, shown in reports and traces
+     * @return the zone's id, to pass to begin()
+     * @throws IllegalStateException if MAX_ZONES zones are already registered
+     */
+    public static synchronized int zone(String name) {
+        int id = Profiler.names.indexOf(name);
+        if (id >= 0) return id; //zones with the same name are the same zone
+        if (Profiler.names.size() == Profiler.MAX_ZONES) {
+            IllegalStateException e = new IllegalStateException("Unable to register zone '" + name + "', as the " +
+                    "limit of " + Profiler.MAX_ZONES + " zones has been reached");
+            Utils.log(e, "engine.utils.Profiler");
+            throw e;
+        }
+        Profiler.names.add(name);
+        return Profiler.names.size() - 1;
+    }
+
+    /**
+     * Marks the start of a zone on the calling thread. Must be matched by an end() on the same thread
+     * @param zone the id of the zone, as returned by zone()
+     */
+    public static void begin(int zone) {
+        if (!Profiler.enabled) return;
+        ThreadBuffer buffer = Profiler.buffer.get();
+        if (buffer.epoch != Profiler.epoch) { //drop zones left open when recording last stopped
+            buffer.epoch = Profiler.epoch;
+            buffer.depth = 0;
+        }
+        if (buffer.depth < Profiler.MAX_DEPTH) {
+            buffer.openZones[buffer.depth] = zone;
+            buffer.openStarts[buffer.depth] = System.nanoTime();
+        }
+        buffer.depth++;
+    }
+
+    /**
+     * Marks the end of the zone most recently begun on the calling thread, recording it
+     */
+    public static void end() {
+        if (!Profiler.enabled) return;
+        long end = System.nanoTime();
+        ThreadBuffer buffer = Profiler.buffer.get();
+        if (buffer.epoch != Profiler.epoch || buffer.depth == 0) return; //begun before recording started
+        int depth = --buffer.depth;
+        if (depth >= Profiler.MAX_DEPTH) return;
+
+        //record event
+        int zone = buffer.openZones[depth];
+        long start = buffer.openStarts[depth];
+        int i = (int)buffer.written & (Profiler.EVENTS_PER_THREAD - 1);
+        buffer.zones[i] = zone;
+        buffer.depths[i] = (byte)depth;
+        buffer.starts[i] = start;
+        buffer.ends[i] = end;
+        buffer.written++; //publishes the event to exporting threads
+
+        //count duration
+        Profiler.windows[Profiler.window].incrementAndGet(zone * Profiler.BUCKETS + Profiler.bucket(end - start));
+    }
+
+    /**
+     * Ends a frame: starts or stops recording if requested and moves the histograms on to a new window every
+     * WINDOW_FRAMES frames. Should be called once per frame by the loop thread, outside of every zone
+     */
+    public static synchronized void endFrame() {
+
+        //start or stop recording
+        if (Profiler.requested != Profiler.enabled) {
+            if (Profiler.requested) {
+                if (Profiler.windows == null) Profiler.windows = new AtomicIntegerArray[] {
+                        new AtomicIntegerArray(Profiler.MAX_ZONES * Profiler.BUCKETS),
+                        new AtomicIntegerArray(Profiler.MAX_ZONES * Profiler.BUCKETS)};
+                Profiler.epoch++;
+            }
+            Profiler.enabled = Profiler.requested;
+        }
+        if (!Profiler.enabled) return;
+
+        //note frame start
+        Profiler.frames++;
+        Profiler.frameStarts[(int)(Profiler.frames % Profiler.FRAME_HISTORY)] = System.nanoTime();
+
+        //move to the other histogram window, forgetting what it counted
+        if (++Profiler.windowFrames == Profiler.WINDOW_FRAMES) {
+            int next = 1 - Profiler.window;
+            AtomicIntegerArray counts = Profiler.windows[next];
+            for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+            Profiler.window = next;
+            Profiler.windowFrames = 0;
+        }
+    }
+
+    /**
+     * Finds a percentile of a zone's recent durations
+     * @param zone the id of the zone
+     * @param percentile the percentile, from 0 to 100
+     * @return the duration, in milliseconds, accurate to within about 6%, or 0 if the zone hasn't been recorded lately
+     */
+    public static double getPercentile(int zone, double percentile) {
+        int[] counts = Profiler.histogram(zone);
+        long total = 0;
+        for (int count : counts) total += count;
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long)Math.ceil(total * percentile / 100));
+        for (int b = 0; b < counts.length; b++) {
+            rank -= counts[b];
+            if (rank <= 0) return Profiler.bucketValue(b) / 1e6;
+        }
+        return Profiler.bucketValue(counts.length - 1) / 1e6;
+    }
+
+    /**
+     * @return the number of times a zone was recorded over the frames the histograms cover
+     */
+    public static long getCount(int zone) {
+        long total = 0;
+        for (int count : Profiler.histogram(zone)) total += count;
+        return total;
+    }
+
+    /**
+     * Sums a zone's counts over both histogram windows
+     */
+    private static int[] histogram(int zone) {
+        int[] counts = new int[Profiler.BUCKETS];
+        AtomicIntegerArray[] windows = Profiler.windows;
+        if (windows == null) return counts;
+        for (AtomicIntegerArray window : windows) {
+            for (int b = 0; b < Profiler.BUCKETS; b++) counts[b] += window.get(zone * Profiler.BUCKETS + b);
+        }
+        return counts;
+    }
+
+    /**
+     * Finds the histogram bucket of a duration: durations are split into octaves (doublings), each split evenly into
+     * SUB_BUCKETS buckets, so every bucket is as wide compared to its durations
+     */
+    private static int bucket(long nanos) {
+        if (nanos < 1L << Profiler.MIN_OCTAVE) return 0;
+        int octave = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int)(nanos >>> (octave - 3)) & (Profiler.SUB_BUCKETS - 1);
+        return Math.min(Profiler.BUCKETS - 1, 1 + (octave - Profiler.MIN_OCTAVE) * Profiler.SUB_BUCKETS + sub);
+    }
+
+    /**
+     * @return the duration in the middle of a histogram bucket, in nanoseconds
+     */
+    private static double bucketValue(int bucket) {
+        if (bucket == 0) return (1L << Profiler.MIN_OCTAVE) / 2.0;
+        int octave = (bucket - 1) / Profiler.SUB_BUCKETS + Profiler.MIN_OCTAVE;
+        long width = 1L << (octave - 3);
+        return (Profiler.SUB_BUCKETS + (bucket - 1) % Profiler.SUB_BUCKETS) * width + width / 2.0;
+    }
+
+    /**
+     * @return a summary of every recorded zone's 50th, 95th and 99th percentile durations, one zone per line
+     */
+    public static String getReport() {
+        StringBuilder report = new StringBuilder("Profiled zones (p50 / p95 / p99, over the last " +
+                Profiler.WINDOW_FRAMES + " - " + 2 * Profiler.WINDOW_FRAMES + " frames):");
+        for (int zone = 0; zone < Profiler.names.size(); zone++) {
+            long count = Profiler.getCount(zone);
+            if (count == 0) continue;
+            report.append(String.format(Locale.ROOT, "%n  %s: %.3f / %.3f / %.3f ms (%d times)",
+                    Profiler.names.get(zone), Profiler.getPercentile(zone, 50), Profiler.getPercentile(zone, 95),
+                    Profiler.getPercentile(zone, 99), count));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes the zones recorded over the last frames as a Chrome trace (an object of trace events in JSON). Zones
+     * finished on other threads while exporting may be cut off, as may zones that have been overwritten in their
+     * thread's ring buffer
+     * @param out where to write the trace
+     * @param frameCount how many of the most recent frames to export, at most FRAME_HISTORY - 1
+     * @throws IOException if writing fails
+     */
+    public static void exportTrace(Writer out, int frameCount) throws IOException {
+
+        //find the start of the first exported frame
+        long from;
+        synchronized (Profiler.class) {
+            int count = (int)Math.min(Math.min(frameCount, Profiler.FRAME_HISTORY - 1), Profiler.frames);
+            from = count > 0 ? Profiler.frameStarts[(int)((Profiler.frames - count) % Profiler.FRAME_HISTORY)] :
+                    Long.MAX_VALUE;
+        }
+
+        //write every buffer's events from that start on
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        for (int tid = 0; tid < Profiler.buffers.size(); tid++) {
+            ThreadBuffer buffer = Profiler.buffers.get(tid);
+            out.write(String.format(Locale.ROOT, "%s%n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1," +
+                    "\"tid\":%d,\"args\":{\"name\":\"%s\"}}", tid == 0 ? "" : ",", tid,
+                    Profiler.escape(buffer.threadName)));
+            long written = buffer.written;
+            long oldest = Math.max(0, written - Profiler.EVENTS_PER_THREAD + Profiler.MAX_DEPTH); //may be overwritten
+            for (long e = oldest; e < written; e++) {
+                int i = (int)e & (Profiler.EVENTS_PER_THREAD - 1);
+                long start = buffer.starts[i];
+                if (start < from) continue;
+                out.write(String.format(Locale.ROOT, ",%n{\"name\":\"%s\",\"cat\":\"engine\",\"ph\":\"X\"," +
+                        "\"pid\":1,\"tid\":%d,\"ts\":%.3f,\"dur\":%.3f,\"args\":{\"depth\":%d}}",
+                        Profiler.escape(Profiler.names.get(buffer.zones[i])), tid, (start - from) / 1e3,
+                        (buffer.ends[i] - start) / 1e3, buffer.depths[i]));
+            }
+        }
+        out.write(String.format(Locale.ROOT, "%n]}%n"));
+        out.flush();
+    }
+
+    /**
+     * Escapes a string for use in a JSON string
+     */
+    private static String escape(String s) { return s.replace("\\", "\\\\").replace("\"", "\\\""); }
+
+    /**
+     * Creates and registers the ring buffer of the calling thread
+     */
+    private static ThreadBuffer createBuffer() {
+        ThreadBuffer buffer = new ThreadBuffer(Thread.currentThread().getName());
+        Profiler.buffers.add(buffer);
+        return buffer;
+    }
+
+    //Accessors
+    public static boolean isEnabled() { return Profiler.enabled; }
+    public static String getZoneName(int zone) { return Profiler.names.get(zone); }
+    public static int getZoneCount() { return Profiler.names.size(); }
+    public static List<String> getThreadNames() { //of every thread that has recorded zones, in trace order
+        List<String> threadNames = new ArrayList<>();
+        for (ThreadBuffer buffer : Profiler.buffers) threadNames.add(buffer.threadName);
+        return threadNames;
+    }
+
+    //Mutators
+    public static void setEnabled(boolean enabled) { Profiler.requested = enabled; } //from the next endFrame() on
+
+    /**
+     * A thread's open zones and ring buffer of finished zones. Only the owning thread writes to it
+     */
+    private static class ThreadBuffer {
+
+        //Data
+        private final String threadName;
+        private final int[] openZones; //the zones begun but not ended, outermost first
+        private final long[] openStarts; //when each open zone began
+        private int depth; //how many zones are open (may exceed MAX_DEPTH, in which case the deepest aren't kept)
+        private int epoch; //the recording epoch the open zones were begun in
+        private final int[] zones; //the zone of each finished event
+        private final byte[] depths; //how deeply each event was nested
+        private final long[] starts, ends; //when each event began and ended
+        private volatile long written; //events written so far, including overwritten ones
+
+        //Constructor
+        private ThreadBuffer(String threadName) {
+            this.threadName = threadName;
+            this.openZones = new int[Profiler.MAX_DEPTH];
+            this.openStarts = new long[Profiler.MAX_DEPTH];
+            this.zones = new int[Profiler.EVENTS_PER_THREAD];
+            this.depths = new byte[Profiler.EVENTS_PER_THREAD];
+            this.starts = new long[Profiler.EVENTS_PER_THREAD];
+            this.ends = new long[Profiler.EVENTS_PER_THREAD];
+            this.epoch = -1;
+        }
+    }
+}
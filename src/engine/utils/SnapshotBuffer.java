@@ -0,0 +1,71 @@
+package engine.utils;
+
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * Hands snapshots of state from one writing thread to one reading thread without either waiting on the other for
+ * longer than a few reference swaps. The writer fills the back snapshot and publishes it; the reader acquires the
+ * latest published snapshot and keeps the one before it, so that it can interpolate between the two. Snapshots
+ * published while the reader doesn't acquire are dropped, so the reader always sees the newest state.
+ *
+ * Four snapshots are kept: the one being written, the latest published one, and the reader's current and previous
+ * ones. Snapshots are reused, so the writer must fill every part of the back snapshot each time
+ */
+public class SnapshotBuffer<T> {
+
+    //Data
+    private final ArrayDeque<T> free; //snapshots owned by neither thread
+    private T back; //the snapshot being written (writer only)
+    private T pending; //the latest published snapshot, not yet acquired
+    private T current, previous; //the last two acquired snapshots (reader only)
+
+    /**
+     * Constructor
+     * @param factory creates the snapshots to reuse
+     */
+    public SnapshotBuffer(Supplier<T> factory) {
+        this.free = new ArrayDeque<>();
+        for (int i = 0; i < 3; i++) this.free.push(factory.get());
+        this.back = factory.get();
+    }
+
+    /**
+     * @return the snapshot to write into before publishing it. Must only be called by the writing thread
+     */
+    public T getBack() { return this.back; }
+
+    /**
+     * Publishes the back snapshot, replacing any published snapshot the reader hasn't acquired yet, and moves on to
+     * a new back snapshot. Must only be called by the writing thread
+     */
+    public synchronized void publish() {
+        if (this.pending != null) this.free.push(this.pending);
+        this.pending = this.back;
+        this.back = this.free.pop();
+    }
+
+    /**
+     * Acquires the latest published snapshot if one was published since the last call, making the previously current
+     * snapshot the previous one. Must only be called by the reading thread
+     * @return whether any snapshot has been acquired so far, i.e. whether getCurrent() is not null
+     */
+    public synchronized boolean acquire() {
+        if (this.pending != null) {
+            if (this.previous != null) this.free.push(this.previous);
+            this.previous = this.current;
+            this.current = this.pending;
+            this.pending = null;
+        }
+        return this.current != null;
+    }
+
+    //Accessors
+    public T getCurrent() { return this.current; } //the latest acquired snapshot (reader only)
+
+    /**
+     * @return the snapshot acquired before the current one, or the current one if only one has been acquired. Must
+     *         only be called by the reading thread
+     */
+    public T getPrevious() { return this.previous != null ? this.previous : this.current; }
+}
@@ -1,100 +1,366 @@
 package game;
 
-import engine.graphics.OBJLoader;
-import engine.graphics.renderable.Material;
+import engine.graphics.AssetManager;
 import engine.graphics.renderable.Mesh;
-import engine.graphics.renderable.RenderableItem;
-import engine.graphics.renderable.Texture;
+import engine.graphics.renderable.MeshData;
+import engine.graphics.renderable.Scene;
+import engine.utils.CompiledNode;
 import engine.utils.Node;
 import engine.utils.Utils;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+//Info Codes Used: 0
+
+/**
+ * A map of tiles. The tiles are split into Chunks which are streamed in around the camera on a background thread
+ * and evicted once the camera has moved far enough away from them. Within a chunk, tiles are pre-transformed into
+ * one static batch per material, so each chunk takes one draw call per material no matter how many tiles it has
+ */
 public class Area {
 
+    //Static Data
+    private static final int LOAD_RADIUS = 2; //chunks within this many chunks of the camera are loaded
+    private static final int UNLOAD_RADIUS = Area.LOAD_RADIUS + 1; //chunks beyond this many chunks are evicted
+    private static final long APPLY_BUDGET_NANOS = 2_000_000L; //max time spent adding/removing chunks per frame
+    private static final int[][] NEIGHBOURHOOD = { { 0, 0 }, { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } }; //x/z offsets
+
     //Data
-    private List<RenderableItem> items;
+    private AssetManager assets;
+    private Map<Character, CompletableFuture<Mesh>> tileKey; //tile meshes, which may still be loading
+    private TileMesher mesher; //removes tile faces hidden by neighbouring tiles
+    private List<Runnable> tileReleases; //release the tile meshes acquired from the assets
+    private char[] layout; //tile characters, row by row (index = z * width + x). Only accessed holding layoutLock
+    private final Object layoutLock = new Object(); //the loader thread reads the layout while setTile() changes it
+    private int width, height;
+    private Map<Long, Chunk> chunks; //all chunks that are either loaded or being loaded
+    private ConcurrentLinkedQueue<Chunk> builtChunks; //chunks built by the loader thread, waiting to be added
+    private ConcurrentLinkedQueue<Integer> editedTiles; //layout indices of changed tiles whose meshes are ready
+    private List<Chunk> evictedChunks; //chunks waiting to be removed from the scene
+    private ExecutorService chunkLoader;
+    private int cameraChunkX, cameraChunkZ;
+    private boolean chunksRequested; //whether chunks have been requested since the camera last changed chunks
 
-    //Default Constructor
-    public Area() {
-        this.items = new ArrayList<>();
+    /**
+     * Constructs an empty area
+     * @param assets the asset manager to load tile meshes and textures with
+     */
+    public Area(AssetManager assets) {
+        this.assets = assets;
+        this.tileReleases = new ArrayList<>();
+        this.tileKey = new HashMap<>();
+        this.mesher = new TileMesher();
+        this.layout = new char[0];
+        this.chunks = new HashMap<>();
+        this.builtChunks = new ConcurrentLinkedQueue<>();
+        this.editedTiles = new ConcurrentLinkedQueue<>();
+        this.evictedChunks = new ArrayList<>();
+        this.chunkLoader = Executors.newSingleThreadExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "CHUNK_THREAD");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /**
      * Constructs the area by taking in a map name and loading the area from the corresponding file within the area
-     * directory (/data/areas/)
+     * directory (/data/areas/). Tile meshes and textures are loaded in the background
      * @param areaName the name of the area to be loaded. Must be the same name as the file to load (w/o the extension)
+     * @param assets the asset manager to load tile meshes and textures with
      */
-    public Area(String areaName) {
-        this();
+    public Area(String areaName, AssetManager assets) {
+        this(assets);
         this.loadMap("data/areas/" + areaName + ".wdr");
     }
 
     /**
-     * Loads this area from the given file directory
+     * Loads this area's tile key and layout from the given file directory. No tiles are placed until chunks are
+     * requested by update()
      * @param areaDir the directory to load the area from
      */
     private void loadMap(String areaDir) {
 
         //load data from file
-        Node areaData = Node.readNode(areaDir);
+        Node areaData = CompiledNode.read(areaDir);
         Node keyData = areaData.getChild("key");
 
         //construct tile key map
-        HashMap<Character, Mesh> tileKey = new HashMap<>();
         for (Node tile : keyData.getChildren()) {
             if (tile.getValue().equals("[EMPTY]")) {
-                tileKey.put(tile.getName().charAt(0), null);
+                this.tileKey.put(tile.getName().charAt(0), CompletableFuture.completedFuture(null));
             } else {
-                tileKey.put(tile.getName().charAt(0), loadTile("data/tiles/" + tile.getValue() + ".wdr"));
+                this.tileKey.put(tile.getName().charAt(0), loadTile("data/tiles/" + tile.getValue() + ".wdr"));
             }
         }
 
-        //construct map
+        //read layout into one flat array (rows are found through the layout node's name index)
         Node layoutData = areaData.getChild("layout");
-        int width = Integer.parseInt(layoutData.getChild("width").getValue());
-        int height = Integer.parseInt(layoutData.getChild("height").getValue());
-        for (int y = 0; y < height; y++) {
-            Node row = layoutData.getChild("row " + (y + 1));
-            for (int x = 0; x < width; x++) {
-                Mesh mesh = tileKey.get(row.getValue().charAt(x));
-                if (mesh != null) {
-                    RenderableItem item = new RenderableItem(mesh);
-                    item.setPosition(x, 0, y);
-                    this.items.add(item);
-                }
+        this.width = areaData.getChildByPath("layout/width").getInt();
+        this.height = areaData.getChildByPath("layout/height").getInt();
+        synchronized (this.layoutLock) {
+            this.layout = new char[this.width * this.height];
+            for (int y = 0; y < this.height; y++) {
+                Node row = layoutData.getChild("row " + (y + 1));
+                if (row != null) row.getChars(this.layout, y * this.width, this.width); //short rows are left empty
             }
         }
     }
 
     /**
-     * Loads a mesh by loading its details from the given directory
+     * Starts loading a mesh by loading its details from the given directory
      * @param tileDir the directory of the tile mesh to load
-     * @return the loaded mesh
+     * @return a future completed with the loaded mesh, or with null if it couldn't be loaded
      */
-    private Mesh loadTile(String tileDir) {
+    private CompletableFuture<Mesh> loadTile(String tileDir) {
 
         //load data from file
-        Node data = Node.readNode(tileDir);
-
-        //construct mesh
-        try {
-            Material material = new Material(new Texture("/textures/" + data.getChild("texture").getValue()));
-            Mesh mesh = OBJLoader.loadOBJ("/models/" + data.getChild("model").getValue());
-            mesh.setMaterial(material);
-            return mesh;
-        } catch (IOException e) {
-            Utils.log(e, "game.logic.WorldLogic");
-            e.printStackTrace();
+        Node data = CompiledNode.read(tileDir);
+
+        //acquire textured mesh (shared with other areas using the same assets), completing with null if couldn't load
+        String modelPath = "/models/" + data.getChild("model").getValue();
+        String texturePath = "/textures/" + data.getChild("texture").getValue();
+        CompletableFuture<Mesh> mesh = this.assets.acquireTexturedMesh(modelPath, texturePath);
+        this.tileReleases.add(() -> this.assets.releaseTexturedMesh(modelPath, texturePath, mesh));
+        return mesh.exceptionally((Throwable t) -> {
+                    Utils.log("Unable to load tile '" + tileDir + "': " + t.getMessage(), "game.Area", 0, true);
+                    return null;
+                });
+    }
+
+    /**
+     * Changes a single tile. If the tile's chunk is in the scene, only the tile and its neighbours (whose hidden
+     * faces may have changed) are swapped in their chunks' batches once the new tile's mesh has loaded, on the next
+     * update(). Chunks still being built that contain any of them are rebuilt. Should be called from the thread that
+     * renders the scene
+     * @param x the x coordinate of the tile
+     * @param z the z coordinate of the tile
+     * @param tile the character of the new tile in the area's tile key
+     */
+    public void setTile(int x, int z, char tile) {
+
+        //check bounds
+        if (!this.inBounds(x, z)) {
+            IllegalStateException e = new IllegalStateException("Tile (" + x + ", " + z + ") is outside of the " +
+                    this.width + "x" + this.height + " area");
+            Utils.log(e, "game.Area");
+            throw e;
+        }
+
+        //update layout (chunks that aren't loaded will read it when they are)
+        int index = z * this.width + x;
+        synchronized (this.layoutLock) { this.layout[index] = tile; }
+
+        //rebuild chunks that are still being built, since they may have read the old tile
+        List<Long> rebuilt = new ArrayList<>();
+        for (int[] offset : Area.NEIGHBOURHOOD) {
+            if (!this.inBounds(x + offset[0], z + offset[1])) continue;
+            long key = Chunk.key((x + offset[0]) / Chunk.SIZE, (z + offset[1]) / Chunk.SIZE);
+            Chunk chunk = this.chunks.get(key);
+            if (chunk == null || chunk.isInScene() || rebuilt.contains(key)) continue;
+            chunk.cancel();
+            Chunk rebuiltChunk = new Chunk(chunk.getChunkX(), chunk.getChunkZ());
+            this.chunks.put(key, rebuiltChunk);
+            this.chunkLoader.submit(() -> this.buildChunk(rebuiltChunk));
+            rebuilt.add(key);
+        }
+
+        //queue the tile to be swapped once its mesh has loaded
+        CompletableFuture<Mesh> mesh = this.tileKey.get(tile);
+        if (mesh == null) this.editedTiles.add(index);
+        else mesh.thenRun(() -> this.editedTiles.add(index));
+    }
+
+    /**
+     * Streams chunks around the camera. Chunks that come within range are requested from the loader thread, chunks
+     * that go out of range are evicted, finished chunks are added to the scene and changed tiles are swapped in
+     * their chunks' batches. Adding and removing is limited to a time budget per call so that a burst of finished
+     * chunks cannot stall a frame. Should be called once per frame from the thread that renders the scene
+     * @param cameraPosition the world position of the camera
+     * @param scene the scene to add the batches of loaded chunks to
+     */
+    public void update(Vector3f cameraPosition, Scene scene) {
+
+        //find camera chunk (tile x/y are placed at world x/z)
+        int chunkX = Math.floorDiv((int)Math.floor(cameraPosition.x), Chunk.SIZE);
+        int chunkZ = Math.floorDiv((int)Math.floor(cameraPosition.z), Chunk.SIZE);
+        if (!this.chunksRequested || chunkX != this.cameraChunkX || chunkZ != this.cameraChunkZ) {
+            this.cameraChunkX = chunkX;
+            this.cameraChunkZ = chunkZ;
+            this.evictChunks();
+            this.requestChunks();
+            this.chunksRequested = true;
+        }
+
+        //apply evictions and finished chunks within budget
+        long start = System.nanoTime();
+        while (!this.evictedChunks.isEmpty() && System.nanoTime() - start < Area.APPLY_BUDGET_NANOS) {
+            Chunk chunk = this.evictedChunks.remove(this.evictedChunks.size() - 1);
+            chunk.getBatches().cleanup(scene);
+            chunk.setInScene(false);
+        }
+        while (!this.builtChunks.isEmpty() && System.nanoTime() - start < Area.APPLY_BUDGET_NANOS) {
+            Chunk chunk = this.builtChunks.poll();
+            if (chunk.isCancelled()) continue; //evicted or rebuilt while it was being built
+            chunk.getBatches().upload(scene);
+            chunk.setInScene(true);
+        }
+
+        //swap changed tiles and their neighbours, uploading each changed chunk once
+        if (this.editedTiles.isEmpty()) return;
+        List<Chunk> editedChunks = new ArrayList<>();
+        Matrix4f model = new Matrix4f();
+        Integer index;
+        while ((index = this.editedTiles.poll()) != null) {
+            for (int[] offset : Area.NEIGHBOURHOOD) {
+                int x = index % this.width + offset[0], z = index / this.width + offset[1];
+                if (!this.inBounds(x, z)) continue;
+                Chunk chunk = this.chunks.get(Chunk.key(x / Chunk.SIZE, z / Chunk.SIZE));
+                if (chunk == null || !chunk.isInScene()) continue; //evicted, or rebuilt with the new tile
+                this.placeTile(chunk, x, z, model, false);
+                if (!editedChunks.contains(chunk)) editedChunks.add(chunk);
+            }
         }
+        for (Chunk chunk : editedChunks) chunk.getBatches().upload(scene);
+    }
+
+    /**
+     * Places the tile at the given coordinates into its chunk's batches according to the layout, replacing whatever
+     * was there before. Faces hidden by neighbouring tiles are left out
+     * @param chunk the chunk the tile belongs to
+     * @param x the x coordinate of the tile
+     * @param z the z coordinate of the tile
+     * @param model a matrix to build the tile's model matrix in
+     * @param wait whether to wait for tile meshes that are still loading. If false, tiles still loading are treated
+     *             as empty
+     */
+    private void placeTile(Chunk chunk, int x, int z, Matrix4f model, boolean wait) {
+
+        //remove empty tiles
+        Mesh mesh = this.getTileMesh(x, z, wait);
+        if (mesh == null) {
+            chunk.getBatches().remove(Chunk.tileIndex(x, z));
+            return;
+        }
+
+        //find neighbours (tile x/y are placed at world x/z, and there is nothing above or below)
+        MeshData[] neighbours = new MeshData[TileMesher.Side.values().length];
+        neighbours[TileMesher.Side.POSITIVE_X.ordinal()] = this.getTileData(x + 1, z, wait);
+        neighbours[TileMesher.Side.NEGATIVE_X.ordinal()] = this.getTileData(x - 1, z, wait);
+        neighbours[TileMesher.Side.POSITIVE_Z.ordinal()] = this.getTileData(x, z + 1, wait);
+        neighbours[TileMesher.Side.NEGATIVE_Z.ordinal()] = this.getTileData(x, z - 1, wait);
+
+        //add the visible part of the tile
+        chunk.getBatches().add(Chunk.tileIndex(x, z), this.mesher.mesh(mesh.getData(), neighbours),
+                mesh.getMaterial(), model.translation(x, 0, z));
+    }
+
+    /**
+     * Finds the mesh of the tile at the given coordinates
+     * @param wait whether to wait for the mesh if it is still loading
+     * @return the mesh, or null if there is no tile there, the tile is empty or it is still loading and wait is false
+     */
+    private Mesh getTileMesh(int x, int z, boolean wait) {
+        if (!this.inBounds(x, z)) return null;
+        char character;
+        synchronized (this.layoutLock) { character = this.layout[z * this.width + x]; }
+        CompletableFuture<Mesh> tile = this.tileKey.get(character);
+        if (tile == null) return null;
+        return wait ? tile.join() : tile.getNow(null);
+    }
+
+    /**
+     * Same as getTileMesh(), but finds the mesh's data
+     */
+    private MeshData getTileData(int x, int z, boolean wait) {
+        Mesh mesh = this.getTileMesh(x, z, wait);
+        return mesh != null ? mesh.getData() : null;
+    }
+
+    /**
+     * @return whether the given tile coordinates lie within the area
+     */
+    private boolean inBounds(int x, int z) { return x >= 0 && z >= 0 && x < this.width && z < this.height; }
+
+    /**
+     * Requests every chunk within LOAD_RADIUS of the camera's chunk that isn't already loaded or loading
+     */
+    private void requestChunks() {
+        int maxChunkX = (this.width - 1) / Chunk.SIZE;
+        int maxChunkZ = (this.height - 1) / Chunk.SIZE;
+        for (int cz = Math.max(0, this.cameraChunkZ - Area.LOAD_RADIUS);
+             cz <= Math.min(maxChunkZ, this.cameraChunkZ + Area.LOAD_RADIUS); cz++) {
+            for (int cx = Math.max(0, this.cameraChunkX - Area.LOAD_RADIUS);
+                 cx <= Math.min(maxChunkX, this.cameraChunkX + Area.LOAD_RADIUS); cx++) {
+                long key = Chunk.key(cx, cz);
+                if (this.chunks.containsKey(key)) continue;
+                Chunk chunk = new Chunk(cx, cz);
+                this.chunks.put(key, chunk);
+                this.chunkLoader.submit(() -> this.buildChunk(chunk));
+            }
+        }
+    }
+
+    /**
+     * Evicts every chunk beyond UNLOAD_RADIUS of the camera's chunk. The gap between the load and unload radii keeps
+     * chunks from being loaded and evicted repeatedly while the camera moves along a chunk border
+     */
+    private void evictChunks() {
+        Iterator<Chunk> iterator = this.chunks.values().iterator();
+        while (iterator.hasNext()) {
+            Chunk chunk = iterator.next();
+            int distance = Math.max(Math.abs(chunk.getChunkX() - this.cameraChunkX),
+                    Math.abs(chunk.getChunkZ() - this.cameraChunkZ));
+            if (distance > Area.UNLOAD_RADIUS) {
+                chunk.cancel();
+                if (chunk.isInScene()) this.evictedChunks.add(chunk);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Builds the batches of a chunk by transforming every tile into place. Runs on the loader thread, waiting for
+     * tile meshes to finish loading. Makes no GL calls; the batches are uploaded when the chunk is added to the scene
+     * @param chunk the chunk to build
+     */
+    private void buildChunk(Chunk chunk) {
+
+        //return if evicted before the loader got to it
+        if (chunk.isCancelled()) return;
+
+        //place tiles
+        Matrix4f model = new Matrix4f();
+        int startX = chunk.getChunkX() * Chunk.SIZE, startZ = chunk.getChunkZ() * Chunk.SIZE;
+        for (int z = startZ; z < Math.min(startZ + Chunk.SIZE, this.height); z++) {
+            for (int x = startX; x < Math.min(startX + Chunk.SIZE, this.width); x++) {
+                this.placeTile(chunk, x, z, model, true);
+            }
+        }
+
+        //hand chunk over to be added to the scene
+        this.builtChunks.add(chunk);
+    }
 
-        //return null if couldn't load
-        return null;
+    //Cleanup Method
+    public void cleanup() {
+        this.chunkLoader.shutdownNow();
+        for (Runnable release : this.tileReleases) release.run();
+        this.tileReleases.clear();
     }
 
     //Accessors
-    public List<RenderableItem> getItems() { return this.items; }
+    public int getWidth() { return this.width; }
+    public int getHeight() { return this.height; }
+    public int getLoadedChunkCount() { return this.chunks.size(); }
+    public TileMesher getMesher() { return this.mesher; }
 }
@@ -0,0 +1,60 @@
+package game;
+
+import engine.graphics.MeshSimplifier;
+import engine.graphics.renderable.StaticBatchBuilder;
+import engine.graphics.renderable.VertexFormat;
+
+/**
+ * A square section of an Area's tiles that is loaded and evicted as one unit. Tiles never move, so they are batched
+ * into one mesh per material, with coarser levels of detail for far away chunks, keyed by their index within the
+ * chunk (see tileIndex())
+ */
+public class Chunk {
+
+    //Static Data
+    public static final int SIZE = 32; //width and height of a chunk, in tiles
+
+    //Data
+    private final int chunkX, chunkZ;
+    private final StaticBatchBuilder batches;
+    private volatile boolean cancelled; //set when the chunk is evicted before it was added to the scene
+    private boolean inScene; //whether the batches of this chunk have been added to the scene
+
+    //Constructor
+    public Chunk(int chunkX, int chunkZ) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.batches = new StaticBatchBuilder(VertexFormat.COMPACT, MeshSimplifier.DEFAULT_LEVELS);
+    }
+
+    /**
+     * Packs chunk coordinates into a single key for use in maps
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @return the key
+     */
+    public static long key(int chunkX, int chunkZ) {
+        return ((long)chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param x the x coordinate of a tile within the area
+     * @param z the z coordinate of a tile within the area
+     * @return the index of the tile within its chunk, used as its key in the chunk's batches
+     */
+    public static int tileIndex(int x, int z) {
+        return Math.floorMod(z, Chunk.SIZE) * Chunk.SIZE + Math.floorMod(x, Chunk.SIZE);
+    }
+
+    //Accessors
+    public int getChunkX() { return this.chunkX; }
+    public int getChunkZ() { return this.chunkZ; }
+    public long getKey() { return Chunk.key(this.chunkX, this.chunkZ); }
+    public StaticBatchBuilder getBatches() { return this.batches; }
+    public boolean isCancelled() { return this.cancelled; }
+    public boolean isInScene() { return this.inScene; }
+
+    //Mutators
+    public void cancel() { this.cancelled = true; }
+    public void setInScene(boolean inScene) { this.inScene = inScene; }
+}
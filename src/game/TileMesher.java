@@ -0,0 +1,329 @@
+package game;
+
+import engine.graphics.MeshSimplifier;
+import engine.graphics.renderable.MeshData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Removes the faces of tile models that can never be seen because a neighbouring tile covers them. A tile occupies
+ * a unit cell centered on its position; the faces of its model that lie flat on one of the cell's sides (or on the
+ * top or bottom of the model) and face outwards are its boundary faces. A boundary face is hidden when the opposing
+ * boundary faces of the neighbour on that side cover all of it, so faces only partly covered (e.g. by a neighbour
+ * with holes or gaps) are kept.
+ *
+ * Coverage is tested by cutting each opposing face out of the face in the plane of the side and checking whether
+ * anything more than a tiny area (AREA_EPSILON) is left. Results are cached per combination of tile and neighbour
+ * models, so a map with a handful of tile types only ever does the work a handful of times. Culled data is given as
+ * many levels of detail as the tile model has, simplified from the culled faces. All methods may be called from any
+ * thread; culling is done outside of the lock, so tiles of different chunks are culled at the same time
+ */
+public class TileMesher {
+
+    /**
+     * The sides of a tile's cell
+     */
+    public enum Side {
+        POSITIVE_X(0, 1), NEGATIVE_X(0, -1), POSITIVE_Y(1, 1), NEGATIVE_Y(1, -1), POSITIVE_Z(2, 1), NEGATIVE_Z(2, -1);
+
+        //Data
+        private final int axis; //0 = x, 1 = y, 2 = z
+        private final int sign;
+
+        //Constructor
+        Side(int axis, int sign) {
+            this.axis = axis;
+            this.sign = sign;
+        }
+
+        //Accessors
+        public Side opposite() { return Side.values()[this.ordinal() ^ 1]; }
+    }
+
+    //Static Data
+    private static final float HALF_SIZE = 0.5f; //distance from a tile's position to the sides of its cell
+    private static final float EPSILON = 0.0001f; //how far a vertex may be from a side and still lie on it
+    private static final float AREA_EPSILON = 0.000001f; //uncovered area below which a face counts as covered
+
+    //Data
+    private final Map<MeshData, Shape> shapes; //boundary faces of each tile model
+    private final Map<List<MeshData>, MeshData> meshes; //culled data by tile model followed by its neighbours
+    private long trianglesIn, trianglesOut; //triangles given to and returned from mesh()
+
+    //Constructor
+    public TileMesher() {
+        this.shapes = new HashMap<>();
+        this.meshes = new HashMap<>();
+    }
+
+    /**
+     * Finds the data of a tile with all faces hidden by its neighbours removed
+     * @param tile the model space data of the tile
+     * @param neighbours the model space data of the neighbouring tiles, indexed by the ordinal of the Side they are
+     *                   on. Empty sides are null
+     * @return the culled data, which is the given data itself if nothing is hidden. Vertices only used by removed
+     *         faces are removed too, and levels of detail are rebuilt from what is left. The returned data must not
+     *         be modified
+     */
+    public MeshData mesh(MeshData tile, MeshData[] neighbours) {
+
+        //find cached result
+        List<MeshData> key = new ArrayList<>(neighbours.length + 1);
+        key.add(tile);
+        key.addAll(Arrays.asList(neighbours));
+        MeshData culled;
+        synchronized (this) { culled = this.meshes.get(key); }
+
+        //or cull hidden faces without holding the lock, keeping the first result if another thread culled it too
+        if (culled == null) {
+            Shape shape = this.getShape(tile);
+            boolean[] hidden = new boolean[tile.getIndices().length / 3];
+            for (Side side : Side.values()) {
+                MeshData neighbour = neighbours[side.ordinal()];
+                if (neighbour == null) continue;
+                Shape cover = this.getShape(neighbour);
+                for (int triangle : shape.sides[side.ordinal()]) {
+                    hidden[triangle] = this.isCovered(shape, triangle, side, cover);
+                }
+            }
+            culled = TileMesher.removeTriangles(tile, hidden);
+            if (culled != tile && !tile.getLods().isEmpty()) culled.setLods(MeshSimplifier.buildChain(culled,
+                    tile.getLods().size(), MeshSimplifier.DEFAULT_RATIO));
+            synchronized (this) {
+                MeshData existing = this.meshes.putIfAbsent(key, culled);
+                if (existing != null) culled = existing;
+            }
+        }
+
+        //count triangles
+        synchronized (this) {
+            this.trianglesIn += tile.getIndices().length / 3;
+            this.trianglesOut += culled.getIndices().length / 3;
+        }
+        return culled;
+    }
+
+    /**
+     * Finds the boundary faces of a tile model, analysing it if it hasn't been yet
+     */
+    private synchronized Shape getShape(MeshData data) {
+        Shape shape = this.shapes.get(data);
+        if (shape == null) {
+            shape = new Shape(data);
+            this.shapes.put(data, shape);
+        }
+        return shape;
+    }
+
+    /**
+     * Checks whether a boundary face of a tile is completely covered by the opposing boundary faces of a neighbour
+     * @param shape the shape of the tile
+     * @param triangle the index of the face within the tile's triangles
+     * @param side the side the face lies on
+     * @param cover the shape of the neighbour on that side
+     * @return whether no more than AREA_EPSILON of the face is left once the neighbour's opposing faces are cut out
+     */
+    private boolean isCovered(Shape shape, int triangle, Side side, Shape cover) {
+
+        //return if neighbour has nothing on the opposing side
+        int[] covering = cover.sides[side.opposite().ordinal()];
+        if (covering.length == 0) return false;
+
+        //cut every opposing face out of the face, projected onto the side's plane
+        List<float[]> uncovered = new ArrayList<>();
+        uncovered.add(shape.project(triangle, side));
+        for (int c : covering) {
+            float[] t = cover.project(c, side.opposite());
+            float orientation = TileMesher.area(t);
+            if (Math.abs(orientation) < TileMesher.EPSILON) continue; //degenerate triangles cover nothing
+            List<float[]> left = new ArrayList<>();
+            for (float[] piece : uncovered) TileMesher.cut(piece, t, Math.signum(orientation), left);
+            uncovered = left;
+            if (uncovered.isEmpty()) return true;
+        }
+
+        //check whether anything significant is left
+        float area = 0;
+        for (float[] piece : uncovered) area += Math.abs(TileMesher.area(piece));
+        return area < TileMesher.AREA_EPSILON;
+    }
+
+    /**
+     * Cuts a triangle out of a convex polygon, leaving up to three convex pieces (the parts of the polygon outside
+     * each edge of the triangle in turn)
+     * @param polygon the polygon's vertices (u0, v0, u1, v1, ...)
+     * @param triangle the triangle's vertices (u0, v0, u1, v1, u2, v2)
+     * @param orientation the sign of the triangle's area, so that its inside is known
+     * @param dest the list to add the pieces left over to
+     */
+    private static void cut(float[] polygon, float[] triangle, float orientation, List<float[]> dest) {
+        float[] inside = polygon;
+        for (int e = 0; e < 3 && inside != null; e++) {
+            float au = triangle[e * 2], av = triangle[e * 2 + 1];
+            float bu = triangle[(e + 1) % 3 * 2], bv = triangle[(e + 1) % 3 * 2 + 1];
+            float[] outside = TileMesher.clip(inside, au, av, bu, bv, -orientation);
+            if (outside != null && Math.abs(TileMesher.area(outside)) >= TileMesher.AREA_EPSILON) dest.add(outside);
+            inside = TileMesher.clip(inside, au, av, bu, bv, orientation);
+        }
+    }
+
+    /**
+     * Clips a convex polygon to one side of a line (Sutherland-Hodgman)
+     * @param polygon the polygon's vertices (u0, v0, u1, v1, ...)
+     * @param sign which side of the line from a to b to keep: 1 for the left, -1 for the right
+     * @return the part of the polygon on that side, or null if it has no area
+     */
+    private static float[] clip(float[] polygon, float au, float av, float bu, float bv, float sign) {
+        int count = polygon.length / 2, n = 0;
+        float[] clipped = new float[(count + 1) * 2];
+        for (int i = 0; i < count; i++) {
+            int j = (i + 1) % count;
+            float pu = polygon[i * 2], pv = polygon[i * 2 + 1], qu = polygon[j * 2], qv = polygon[j * 2 + 1];
+            float dp = sign * ((bu - au) * (pv - av) - (bv - av) * (pu - au));
+            float dq = sign * ((bu - au) * (qv - av) - (bv - av) * (qu - au));
+            if (dp >= 0) {
+                clipped[n++] = pu;
+                clipped[n++] = pv;
+            }
+            if ((dp < 0) != (dq < 0)) { //the edge crosses the line
+                float f = dp / (dp - dq);
+                clipped[n++] = pu + (qu - pu) * f;
+                clipped[n++] = pv + (qv - pv) * f;
+            }
+        }
+        return n < 6 ? null : Arrays.copyOf(clipped, n);
+    }
+
+    /**
+     * @return the signed area of a polygon (u0, v0, u1, v1, ...), positive if its vertices run counterclockwise
+     */
+    private static float area(float[] polygon) {
+        int count = polygon.length / 2;
+        float area = 0;
+        for (int i = 0; i < count; i++) {
+            int j = (i + 1) % count;
+            area += polygon[i * 2] * polygon[j * 2 + 1] - polygon[j * 2] * polygon[i * 2 + 1];
+        }
+        return area / 2;
+    }
+
+    /**
+     * Creates a copy of mesh data without the given triangles and without any vertices left unused
+     * @param data the data to copy
+     * @param removed whether each triangle should be removed
+     * @return the copy, or the data itself if nothing is removed
+     */
+    private static MeshData removeTriangles(MeshData data, boolean[] removed) {
+
+        //count kept triangles
+        int kept = 0;
+        for (boolean r : removed) if (!r) kept++;
+        if (kept == removed.length) return data;
+
+        //keep indices of kept triangles, numbering their vertices in order of first use
+        int[] indices = data.getIndices(), newIndices = new int[kept * 3];
+        int[] remap = new int[data.getVertexCount()];
+        Arrays.fill(remap, -1);
+        int vertexCount = 0, n = 0;
+        for (int t = 0; t < removed.length; t++) {
+            if (removed[t]) continue;
+            for (int k = 0; k < 3; k++) {
+                int index = indices[t * 3 + k];
+                if (remap[index] == -1) remap[index] = vertexCount++;
+                newIndices[n++] = remap[index];
+            }
+        }
+
+        //copy used vertices
+        float[] positions = new float[vertexCount * 3], texCoords = new float[vertexCount * 2];
+        float[] normals = new float[vertexCount * 3];
+        for (int i = 0; i < remap.length; i++) {
+            if (remap[i] == -1) continue;
+            System.arraycopy(data.getPositions(), i * 3, positions, remap[i] * 3, 3);
+            System.arraycopy(data.getTexCoords(), i * 2, texCoords, remap[i] * 2, 2);
+            System.arraycopy(data.getNormals(), i * 3, normals, remap[i] * 3, 3);
+        }
+        return new MeshData(positions, texCoords, normals, newIndices);
+    }
+
+    //Accessors
+    public synchronized long getTrianglesIn() { return this.trianglesIn; }
+    public synchronized long getTrianglesOut() { return this.trianglesOut; }
+
+    /**
+     * The boundary faces of a tile model
+     */
+    private static class Shape {
+
+        //Data
+        private final MeshData data;
+        private final int[][] sides; //indices of the triangles lying on each side, indexed by Side ordinal
+
+        /**
+         * Constructs the shape by finding the triangles whose vertices all lie on one of the sides and whose normals
+         * point out of that side. The top and bottom sides are the top and bottom of the model itself
+         * @param data the data of the tile model
+         */
+        private Shape(MeshData data) {
+            this.data = data;
+            float[] positions = data.getPositions(), normals = data.getNormals();
+            int[] indices = data.getIndices();
+
+            //find side planes
+            float minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+            for (int i = 1; i < positions.length; i += 3) {
+                minY = Math.min(minY, positions[i]);
+                maxY = Math.max(maxY, positions[i]);
+            }
+            float[] planes = new float[Side.values().length];
+            for (Side side : Side.values()) {
+                planes[side.ordinal()] = side.axis != 1 ? side.sign * TileMesher.HALF_SIZE :
+                        (side.sign > 0 ? maxY : minY);
+            }
+
+            //sort triangles onto the side they lie flat on
+            List<List<Integer>> lists = new ArrayList<>();
+            for (int i = 0; i < planes.length; i++) lists.add(new ArrayList<>());
+            for (int t = 0; t < indices.length / 3; t++) {
+                for (Side side : Side.values()) {
+                    boolean onSide = true;
+                    float facing = 0;
+                    for (int k = 0; k < 3 && onSide; k++) {
+                        int vertex = indices[t * 3 + k] * 3 + side.axis;
+                        onSide = Math.abs(positions[vertex] - planes[side.ordinal()]) < TileMesher.EPSILON;
+                        facing += normals[vertex] * side.sign;
+                    }
+                    if (onSide && facing > 0) {
+                        lists.get(side.ordinal()).add(t);
+                        break;
+                    }
+                }
+            }
+            this.sides = new int[planes.length][];
+            for (int i = 0; i < planes.length; i++) {
+                List<Integer> list = lists.get(i);
+                this.sides[i] = new int[list.size()];
+                for (int j = 0; j < list.size(); j++) this.sides[i][j] = list.get(j);
+            }
+        }
+
+        /**
+         * Projects a triangle onto the plane of a side by dropping the side's axis
+         * @return the two in-plane coordinates of each of the triangle's three vertices (u0, v0, u1, v1, u2, v2)
+         */
+        private float[] project(int triangle, Side side) {
+            int u = side.axis == 0 ? 1 : 0, v = side.axis == 2 ? 1 : 2;
+            float[] projected = new float[6];
+            for (int k = 0; k < 3; k++) {
+                int vertex = this.data.getIndices()[triangle * 3 + k] * 3;
+                projected[k * 2] = this.data.getPositions()[vertex + u];
+                projected[k * 2 + 1] = this.data.getPositions()[vertex + v];
+            }
+            return projected;
+        }
+    }
+}
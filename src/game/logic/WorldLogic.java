@@ -1,48 +1,71 @@
 package game.logic;
 
 import engine.Logic;
+import engine.graphics.AssetManager;
 import engine.graphics.Camera;
+import engine.graphics.RenderSnapshot;
 import engine.graphics.Renderer;
 import engine.graphics.Window;
 import engine.graphics.lighting.DirectionalLight;
 import engine.graphics.lighting.SceneLighting;
 import engine.graphics.renderable.Scene;
 import engine.utils.Controls;
+import engine.utils.JobSystem;
 import engine.utils.MouseInput;
+import engine.utils.SnapshotBuffer;
 import game.Area;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 
 public class WorldLogic implements Logic {
 
+    //Static Data
+    private static final boolean UPDATE_THREAD = false; //whether to update on a thread of its own
+
     //Data
     private Renderer renderer;
-    private Camera camera;
+    private Camera camera; //the camera updates move
+    private Camera viewCamera; //the camera renders look through, interpolated from snapshots
     private Window window;
     private Scene scene;
+    private SceneLighting lighting; //the lighting updates change; the scene has the interpolated copy
     private float directionalLightAngle;
     private Area area;
+    private AssetManager assets;
+    private SnapshotBuffer<RenderSnapshot> snapshots;
+    private final Vector3f inputVelocity = new Vector3f(); //camera velocity from input, handed to updates
 
-    //Init Method
+    //Init Methods
+    @Override
+    public void init(Window window) throws Exception { this.init(window, null); }
     @Override
-    public void init(Window window) throws Exception {
+    public void init(Window window, JobSystem jobs) throws Exception {
 
         //assign data
         this.renderer = new Renderer(); //create renderer
         this.renderer.init(); //initialize renderer
+        this.renderer.setJobSystem(jobs); //cull and bin lights on the job workers
         this.camera = new Camera();
+        this.viewCamera = new Camera();
         this.window = window; //set window reference
         this.scene = new Scene();
-        this.area = new Area("pillarmaze"); //load pillarmaze map
+        this.assets = new AssetManager();
+        this.area = new Area("pillarmaze", this.assets); //load pillarmaze map
+        this.snapshots = new SnapshotBuffer<>(RenderSnapshot::new);
 
         //create lighting
+        this.lighting = WorldLogic.createLighting();
+        this.scene.setLighting(WorldLogic.createLighting());
+    }
+
+    /**
+     * @return the starting lighting of the world
+     */
+    private static SceneLighting createLighting() {
         SceneLighting lighting = new SceneLighting();
         lighting.setAmbientLight(new Vector3f(1.0f, 1.0f, 1.0f));
         lighting.setDirectionalLight(new DirectionalLight(new Vector3f(1, 1, 1), new Vector3f(-1, 0, 0), 1.0f));
-        this.scene.setLighting(lighting);
-
-        //add items to scene
-        this.scene.addItems(this.area.getItems());
+        return lighting;
     }
 
     //Input Method
@@ -50,36 +73,40 @@ public class WorldLogic implements Logic {
     public void input() {
 
         //camera movement
-        this.camera.setVelocity(0, 0, 0);
-        if (this.window.isKeyPressed(Controls.MOVE_FORWARD)) this.camera.accelerateZ(-Controls.CAMERA_SPEED);
-        if (this.window.isKeyPressed(Controls.MOVE_BACKWARD)) this.camera.accelerateZ(Controls.CAMERA_SPEED);
-        if (this.window.isKeyPressed(Controls.MOVE_RIGHT)) this.camera.accelerateX(Controls.CAMERA_SPEED);
-        if (this.window.isKeyPressed(Controls.MOVE_LEFT)) this.camera.accelerateX(-Controls.CAMERA_SPEED);
-        if (this.window.isKeyPressed(Controls.MOVE_UP)) this.camera.accelerateY(Controls.CAMERA_SPEED);
-        if (this.window.isKeyPressed(Controls.MOVE_DOWN)) this.camera.accelerateY(-Controls.CAMERA_SPEED);
+        float x = 0, y = 0, z = 0;
+        if (this.window.isKeyPressed(Controls.MOVE_FORWARD)) z -= Controls.CAMERA_SPEED;
+        if (this.window.isKeyPressed(Controls.MOVE_BACKWARD)) z += Controls.CAMERA_SPEED;
+        if (this.window.isKeyPressed(Controls.MOVE_RIGHT)) x += Controls.CAMERA_SPEED;
+        if (this.window.isKeyPressed(Controls.MOVE_LEFT)) x -= Controls.CAMERA_SPEED;
+        if (this.window.isKeyPressed(Controls.MOVE_UP)) y += Controls.CAMERA_SPEED;
+        if (this.window.isKeyPressed(Controls.MOVE_DOWN)) y -= Controls.CAMERA_SPEED;
+        synchronized (this.inputVelocity) { this.inputVelocity.set(x, y, z); } //read by the update thread
     }
 
     //Update Method
     @Override
     public void update(float dT, MouseInput mouseInput) {
 
+        //apply input
+        synchronized (this.inputVelocity) {
+            this.camera.setVelocity(this.inputVelocity.x, this.inputVelocity.y, this.inputVelocity.z);
+        }
+
         //update camera rotation
         if (Controls.mouseGrabbed) {
             Vector2f deltaMousePosition = mouseInput.getDeltaPosition();
             this.camera.rotate(deltaMousePosition.y * Controls.MOUSE_SENSITIVITY,
                     deltaMousePosition.x * Controls.MOUSE_SENSITIVITY, 0);
-            Vector3f rot = this.camera.getRotation();
         }
 
         //update camera position
         this.camera.update();
 
         //update DirectionalLight
-        DirectionalLight dl = this.scene.getLighting().getDirectionalLight();
+        DirectionalLight dl = this.lighting.getDirectionalLight();
         this.directionalLightAngle += 0.2f;
         float intensity = 1.0f;
 
-
         //if night time
         if (this.directionalLightAngle > 90 || this.directionalLightAngle < -90) {
             intensity = 0;
@@ -91,7 +118,7 @@ public class WorldLogic implements Logic {
             float factor = 1 - (Math.abs(this.directionalLightAngle) - 60) / 30; //0.0f - 1.0f
             intensity = factor;
             float ambient = Math.max(0.3f, intensity);
-            this.scene.getLighting().setAmbientLight(new Vector3f(ambient, ambient, ambient));
+            this.lighting.getAmbientLight().set(ambient, ambient, ambient);
 
         }
 
@@ -100,17 +127,60 @@ public class WorldLogic implements Logic {
         dl.getDirection().x = (float) Math.sin(angle);
         dl.getDirection().y = (float) Math.cos(angle);
         dl.setIntensity(intensity);
+        this.lighting.markChanged(); //light was changed in place
     }
 
-    //Render Method
+    //Publish Method
     @Override
-    public void render() {
-        this.renderer.render(this.window, this.camera, this.scene);
+    public void publish(double time) {
+        RenderSnapshot snapshot = this.snapshots.getBack();
+        snapshot.captureTime(time);
+        snapshot.captureCamera(this.camera);
+        snapshot.captureLighting(this.lighting);
+        this.snapshots.publish();
     }
 
+    //Render Methods
+    @Override
+    public void render() { this.render(1f); }
+    @Override
+    public void render(float alpha) {
+        if (this.snapshots.acquire()) RenderSnapshot.apply(this.snapshots.getPrevious(), this.snapshots.getCurrent(),
+                alpha, this.viewCamera, this.scene.getLighting());
+        this.renderScene();
+    }
+    @Override
+    public void renderAt(double time) {
+        if (this.snapshots.acquire()) {
+
+            //find how far the time is past the current snapshot, in updates, from the times of the acquired pair
+            RenderSnapshot previous = this.snapshots.getPrevious(), current = this.snapshots.getCurrent();
+            double span = current.getTime() - previous.getTime();
+            float alpha = span > 0 ? (float)((time - current.getTime()) / span) : 1f;
+            RenderSnapshot.apply(previous, current, Math.max(0f, Math.min(1f, alpha)), this.viewCamera,
+                    this.scene.getLighting());
+        }
+        this.renderScene();
+    }
+
+    /**
+     * Renders the scene as seen by the view camera, streaming in area chunks and uploading loaded assets first
+     */
+    private void renderScene() {
+        this.assets.process(); //finish uploading loaded assets
+        this.area.update(this.viewCamera.getPosition(), this.scene); //stream area chunks around the camera
+        this.renderer.render(this.window, this.viewCamera, this.scene);
+    }
+
+    //Concurrency Method
+    @Override
+    public boolean updatesConcurrently() { return WorldLogic.UPDATE_THREAD; }
+
     //Cleanup Method
     @Override
     public void cleanup() {
+        if (this.area != null) this.area.cleanup();
+        if (this.assets != null) this.assets.cleanup();
         this.renderer.cleanup();
         if (this.scene != null) this.scene.cleanup();
     }
@@ -0,0 +1,42 @@
+package engine.graphics;
+
+import engine.graphics.renderable.MeshData;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MeshSimplifierTest {
+
+    /**
+     * The pillar is flat shaded, so its vertices are split per face and every edge is open until they are welded
+     */
+    @Test
+    public void simplifiesSplitVertexMeshes() {
+        MeshData pillar = OBJLoader.parseOBJ("/models/pillar.obj");
+        int triangles = pillar.getIndices().length / 3;
+        List<MeshData> chain = MeshSimplifier.buildChain(pillar, MeshSimplifier.DEFAULT_LEVELS,
+                MeshSimplifier.DEFAULT_RATIO);
+        assertFalse("no levels were built", chain.isEmpty());
+        for (MeshData level : chain) {
+            int levelTriangles = level.getIndices().length / 3;
+            assertTrue(levelTriangles + " triangles left of " + triangles, levelTriangles < triangles);
+            triangles = levelTriangles;
+        }
+    }
+
+    /**
+     * Simplified levels must reuse the source's attributes and only reference vertices they have
+     */
+    @Test
+    public void keepsVerticesConsistent() {
+        MeshData pillar = OBJLoader.parseOBJ("/models/pillar.obj");
+        MeshData level = MeshSimplifier.simplify(pillar, pillar.getIndices().length / 6);
+        assertEquals(level.getVertexCount() * 2, level.getTexCoords().length);
+        assertEquals(level.getVertexCount() * 3, level.getNormals().length);
+        for (int index : level.getIndices()) assertTrue(index >= 0 && index < level.getVertexCount());
+    }
+}